@@ -0,0 +1,55 @@
+package fi.techappeal.messagingservice.benchmarks;
+
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.dedup.MessageDeduplicator;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplication check of {@link MessageDeduplicator} with a window already holding many ids, as in a receiver that
+ * has been running for the length of the window. Run with {@code -prof gc} to see that checking a message allocates
+ * nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class MessageDeduplicatorBenchmark {
+    private static final int MESSAGES = 1024;
+
+    @Param({"1000000", "10000000"})
+    int windowIds;
+
+    private MessageDeduplicator deduplicator;
+    private ReceivedMessageWrapper[] messages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        deduplicator = new MessageDeduplicator(Duration.ofHours(1), windowIds * 2L, null);
+        for (int i = 0; i < windowIds; i++) {
+            deduplicator.processed(message(UUID.randomUUID().toString()));
+        }
+        messages = new ReceivedMessageWrapper[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = message(UUID.randomUUID().toString());
+        }
+    }
+
+    private static ReceivedMessageWrapper message(String id) {
+        return new ReceivedMessageWrapper.Builder().id(id).build();
+    }
+
+    /**
+     * Check a message that was not processed before, the path of every first delivery.
+     */
+    @Benchmark
+    public boolean isDuplicate() {
+        return deduplicator.isDuplicate(messages[next++ & (MESSAGES - 1)]);
+    }
+}
@@ -0,0 +1,101 @@
+package fi.techappeal.messagingservice.benchmarks;
+
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.sqs.SqsMessageReceiver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receive path of {@link SqsMessageReceiver} against an in-process SQS stub: receiving full batches, handling
+ * the messages and deleting them. Run with {@code -prof gc} to see the bytes allocated per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqsMessageReceiverBenchmark {
+    static final int MESSAGES_PER_SUBSCRIPTION = 10_000;
+    private static final int MESSAGES_PER_RECEIVE = 10; // SQS limit for messages in a single receive
+
+    @Param({"256", "4096", "65536"})
+    int payloadSize;
+
+    @Param({"0", "4", "10"})
+    int attributeCount;
+
+    @Param({"0"})
+    long latencyMicros;
+
+    private SqsMessageReceiver receiver;
+
+    @Setup
+    public void setUp() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES_PER_RECEIVE; i++) {
+            messages.add(message(i));
+        }
+        receiver = new SqsMessageReceiver();
+        receiver.setSqsClient(new StubSqsClient(latencyMicros, messages));
+        // The stub answers immediately, so visibility never needs extending
+        receiver.setMaxProcessingSeconds(0);
+    }
+
+    /**
+     * Subscribe and handle a fixed number of messages, so that the cost of starting and stopping the subscription
+     * is spread over many messages.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_SUBSCRIPTION)
+    public void receiveHandleDelete(Blackhole blackhole) {
+        int[] handled = new int[1];
+        receiver.subscribe(SqsMessageSenderBenchmark.QUEUE_NAME, received -> {
+            blackhole.consume(received);
+            if (++handled[0] == MESSAGES_PER_SUBSCRIPTION) {
+                receiver.stop();
+            }
+            return ProcessingState.PROCESSED;
+        });
+    }
+
+    /**
+     * As {@link #receiveHandleDelete}, with the handler doing what a typical handler does with a message: read the
+     * payload and at most one attribute. The difference to it is the cost of reading the message.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_SUBSCRIPTION)
+    public void receiveReadDelete(Blackhole blackhole) {
+        int[] handled = new int[1];
+        receiver.subscribe(SqsMessageSenderBenchmark.QUEUE_NAME, received -> {
+            blackhole.consume(received.getPayload());
+            blackhole.consume(received.getAttribute("attribute0"));
+            if (++handled[0] == MESSAGES_PER_SUBSCRIPTION) {
+                receiver.stop();
+            }
+            return ProcessingState.PROCESSED;
+        });
+    }
+
+    private Message message(int index) {
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        SqsMessageSenderBenchmark.attributes(attributeCount).forEach((key, value) -> attributes.put(key,
+                MessageAttributeValue.builder().dataType("String").stringValue(value).build()));
+        return Message.builder()
+                .messageId("message-" + index)
+                .receiptHandle("receipt-handle-" + index)
+                .body("x".repeat(payloadSize))
+                .messageAttributes(attributes)
+                .attributes(Map.of(MessageSystemAttributeName.SEQUENCE_NUMBER, Integer.toString(index)))
+                .build();
+    }
+}
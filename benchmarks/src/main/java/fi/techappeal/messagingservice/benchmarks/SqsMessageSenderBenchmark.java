@@ -0,0 +1,59 @@
+package fi.techappeal.messagingservice.benchmarks;
+
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.sqs.SqsMessageSender;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send path of {@link SqsMessageSender} against an in-process SQS stub. Run with {@code -prof gc} to see the
+ * bytes allocated per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqsMessageSenderBenchmark {
+    static final String QUEUE_NAME = "benchmark";
+
+    @Param({"256", "4096", "65536"})
+    int payloadSize;
+
+    @Param({"0", "4", "10"})
+    int attributeCount;
+
+    @Param({"0"})
+    long latencyMicros;
+
+    private SqsMessageSender sender;
+    private SendMessageWrapper message;
+
+    @Setup
+    public void setUp() {
+        sender = new SqsMessageSender();
+        sender.setSqsClient(new StubSqsClient(latencyMicros, Collections.emptyList()));
+        message = new SendMessageWrapper.Builder()
+                .payload("x".repeat(payloadSize))
+                .attributes(attributes(attributeCount))
+                .build();
+    }
+
+    @Benchmark
+    public void sendMessage() {
+        sender.sendMessage(QUEUE_NAME, message);
+    }
+
+    static Map<String, String> attributes(int count) {
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            attributes.put("attribute" + i, "value" + i);
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,97 @@
+package fi.techappeal.messagingservice.benchmarks;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process {@link SqsClient} for benchmarks. Every request waits for the configured latency, simulating the
+ * round trip to SQS, and returns a canned response. Receives always return a full batch of the given messages.
+ */
+class StubSqsClient implements SqsClient {
+    static final String QUEUE_URL = "https://sqs.eu-central-1.amazonaws.com/000000000000/benchmark";
+    private final long latencyNanos;
+    private final ReceiveMessageResponse receiveResponse;
+    private final SendMessageResponse sendResponse = SendMessageResponse.builder().messageId("message-id").build();
+
+    /**
+     * @param latencyMicros latency of each request in microseconds, 0 for none
+     * @param messages      messages returned by each receive
+     */
+    StubSqsClient(long latencyMicros, List<Message> messages) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.receiveResponse = ReceiveMessageResponse.builder().messages(messages).build();
+    }
+
+    @Override
+    public GetQueueUrlResponse getQueueUrl(GetQueueUrlRequest request) {
+        roundTrip();
+        return GetQueueUrlResponse.builder().queueUrl(QUEUE_URL).build();
+    }
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest request) {
+        roundTrip();
+        return sendResponse;
+    }
+
+    @Override
+    public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest request) {
+        roundTrip();
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>(request.entries().size());
+        for (SendMessageBatchRequestEntry entry : request.entries()) {
+            successful.add(SendMessageBatchResultEntry.builder().id(entry.id()).messageId("message-id").build());
+        }
+        return SendMessageBatchResponse.builder().successful(successful).build();
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+        roundTrip();
+        return receiveResponse;
+    }
+
+    @Override
+    public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+        roundTrip();
+        return DeleteMessageBatchResponse.builder().build();
+    }
+
+    @Override
+    public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+        roundTrip();
+        return ChangeMessageVisibilityResponse.builder().build();
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(
+            ChangeMessageVisibilityBatchRequest request) {
+        roundTrip();
+        return ChangeMessageVisibilityBatchResponse.builder().build();
+    }
+
+    @Override
+    public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest request) {
+        roundTrip();
+        return GetQueueAttributesResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void roundTrip() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+}
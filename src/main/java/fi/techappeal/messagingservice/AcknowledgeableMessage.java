@@ -0,0 +1,87 @@
+package fi.techappeal.messagingservice;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A received message published by a {@link MessageReceiver#publisher(String)}, with a handle for completing it once
+ * the subscriber is done with it. Completing the message has the effect of a {@link MessageHandler} returning the
+ * processing state.
+ */
+public class AcknowledgeableMessage extends ReceivedMessageWrapper {
+    private final ReceivedMessageWrapper message;
+    private final Consumer<ProcessingState> completion;
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    /**
+     * @param message    received message
+     * @param completion completes the message in its queue, called once
+     */
+    public AcknowledgeableMessage(ReceivedMessageWrapper message, Consumer<ProcessingState> completion) {
+        this.message = message;
+        this.completion = completion;
+    }
+
+    /**
+     * Complete the message: a processed message is deleted from its queue, a skipped message is received again once
+     * its visibility timeout expires and an abandoned message is moved to the dead letter queue.
+     *
+     * @param state processing state of the message
+     * @throws IllegalStateException if the message has already been completed
+     */
+    public void complete(ProcessingState state) {
+        if (!completed.compareAndSet(false, true)) {
+            throw new IllegalStateException("Message " + getId() + " has already been completed");
+        }
+        completion.accept(state);
+    }
+
+    /**
+     * @return true if {@link #complete(ProcessingState)} has been called
+     */
+    public boolean isCompleted() {
+        return completed.get();
+    }
+
+    @Override
+    public String getId() {
+        return message.getId();
+    }
+
+    @Override
+    public String getPayload() {
+        return message.getPayload();
+    }
+
+    @Override
+    public ByteBuffer getBinaryPayload() {
+        return message.getBinaryPayload();
+    }
+
+    @Override
+    public Map<String, String> getAttributes() {
+        return message.getAttributes();
+    }
+
+    @Override
+    public String getAttribute(String key) {
+        return message.getAttribute(key);
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getBinaryAttributes() {
+        return message.getBinaryAttributes();
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return message.getPartitionKey();
+    }
+
+    @Override
+    public String getSequenceNumber() {
+        return message.getSequenceNumber();
+    }
+}
@@ -0,0 +1,16 @@
+package fi.techappeal.messagingservice;
+
+import java.util.List;
+
+/**
+ * Message handler that handles the messages of a receive, or of several receives, in a single call, e.g. to write
+ * them to a database in bulk. Each message is completed according to its own processing state.
+ */
+public interface BatchMessageHandler {
+    /**
+     * Called when a batch of messages is received from the queue.
+     * @param messages the cloud-agnostic message wrappers, in the order they were received
+     * @return processing state of each message, in the order of the messages
+     */
+    List<ProcessingState> onMessagesReceived(List<ReceivedMessageWrapper> messages);
+}
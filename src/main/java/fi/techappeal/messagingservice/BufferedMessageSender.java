@@ -0,0 +1,296 @@
+package fi.techappeal.messagingservice;
+
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link MessageSender} decorator that merges single messages sent from many threads into batches.
+ * Messages are buffered per queue and handed to {@link MessageSender#sendMessages(String, List)} of the
+ * underlying sender when the buffer is full or when the linger time of the oldest buffered message has passed.
+ * The batches of a queue are sent one at a time in the order they were formed, so that messages of the same
+ * partition key reach an ordered queue in the order they were sent.
+ */
+public class BufferedMessageSender implements MessageSender {
+    private static final Logger logger = LoggerFactory.getLogger(BufferedMessageSender.class);
+    private final MessageSender delegate;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, QueueBuffer> buffers = new ConcurrentHashMap<>(); // queue name -> buffer
+    // Senders hold the read lock while they check for close and buffer a message, so that close() flushes every
+    // buffered message
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed; // guarded by closeLock
+
+    private BufferedMessageSender(MessageSender delegate, int maxBatchSize, Duration lingerTime, int flushThreads) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = lingerTime.toNanos();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(flushThreads, runnable -> {
+            Thread thread = new Thread(runnable, "buffered-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Buffer a message for sending and wait until the batch it belongs to has been sent.
+     *
+     * @param queueName name of the queue
+     * @param message   message to be sent
+     * @throws MessagingException if the message could not be sent
+     * @throws IllegalStateException if the sender has been closed
+     */
+    @Override
+    public void sendMessage(String queueName, SendMessageWrapper message) {
+        try {
+            sendMessageAsync(queueName, message).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Buffer a message for sending without waiting for it to be sent.
+     *
+     * @param queueName name of the queue
+     * @param message   message to be sent
+     * @return future completed with the message id, or exceptionally with a {@link MessagingException}, or with
+     * an {@link IllegalStateException} if the sender has been closed
+     */
+    @Override
+    public CompletableFuture<String> sendMessageAsync(String queueName, SendMessageWrapper message) {
+        PendingMessage pending = new PendingMessage(message);
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Sender is closed"));
+            }
+            buffers.computeIfAbsent(queueName, QueueBuffer::new).add(pending);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return pending.future;
+    }
+
+    /**
+     * Send a list of messages directly with the underlying sender, as they are already batched.
+     */
+    @Override
+    public List<SendMessageResult> sendMessages(String queueName, List<SendMessageWrapper> messages) {
+        return delegate.sendMessages(queueName, messages);
+    }
+
+    @Override
+    public void warmUp(Collection<String> queueNames) {
+        delegate.warmUp(queueNames);
+    }
+
+    /**
+     * Send all buffered messages, wait for them to complete and close the underlying sender.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (QueueBuffer buffer : buffers.values()) {
+            buffer.flush();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for buffered messages to be sent");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    /**
+     * Send a batch of messages and complete their futures with the per-message results.
+     */
+    private void send(String queueName, List<PendingMessage> batch) {
+        List<SendMessageWrapper> messages = new ArrayList<>(batch.size());
+        for (PendingMessage pending : batch) {
+            messages.add(pending.message);
+        }
+        try {
+            List<SendMessageResult> results = delegate.sendMessages(queueName, messages);
+            for (int i = 0; i < batch.size(); i++) {
+                SendMessageResult result = results.get(i);
+                if (result.isSuccessful()) {
+                    batch.get(i).future.complete(result.getMessageId());
+                } else {
+                    batch.get(i).future.completeExceptionally(result.getException());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Failed to send batch of {} messages to queue {}", batch.size(), queueName, e);
+            for (PendingMessage pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private record PendingMessage(SendMessageWrapper message, CompletableFuture<String> future) {
+        PendingMessage(SendMessageWrapper message) {
+            this(message, new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * Messages waiting to be sent to a single queue. Batches that are ready wait until the previous batch of the
+     * queue has been sent, so that at most one batch of the queue is in flight.
+     */
+    private final class QueueBuffer {
+        private final String queueName;
+        private List<PendingMessage> pending; // guarded by this
+        private ScheduledFuture<?> lingerTask; // guarded by this
+        private final ArrayDeque<List<PendingMessage>> ready = new ArrayDeque<>(); // guarded by this
+        private boolean sending; // guarded by this, true while a task is sending the ready batches
+
+        QueueBuffer(String queueName) {
+            this.queueName = queueName;
+            this.pending = new ArrayList<>(maxBatchSize);
+        }
+
+        void add(PendingMessage message) {
+            boolean start = false;
+            synchronized (this) {
+                pending.add(message);
+                if (pending.size() >= maxBatchSize) {
+                    start = drain();
+                } else if (pending.size() == 1) {
+                    lingerTask = executor.schedule(this::flush, lingerNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (start) {
+                executor.execute(this::sendReady);
+            }
+        }
+
+        void flush() {
+            boolean start;
+            synchronized (this) {
+                start = !pending.isEmpty() && drain();
+            }
+            if (start) {
+                executor.execute(this::sendReady);
+            }
+        }
+
+        /**
+         * Move the pending messages to the ready batches.
+         *
+         * @return true if a task has to be started to send them
+         */
+        private boolean drain() {
+            if (lingerTask != null) {
+                lingerTask.cancel(false);
+                lingerTask = null;
+            }
+            ready.add(pending);
+            pending = new ArrayList<>(maxBatchSize);
+            if (sending) {
+                return false;
+            }
+            sending = true;
+            return true;
+        }
+
+        /**
+         * Send the ready batches one after another until there are none left.
+         */
+        private void sendReady() {
+            while (true) {
+                List<PendingMessage> batch;
+                synchronized (this) {
+                    batch = ready.poll();
+                    if (batch == null) {
+                        sending = false;
+                        return;
+                    }
+                }
+                send(queueName, batch);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final MessageSender delegate;
+        private int maxBatchSize = 10;
+        private Duration lingerTime = Duration.ofMillis(5);
+        private int flushThreads = 4;
+
+        /**
+         * @param delegate sender used for sending the batches
+         */
+        public Builder(MessageSender delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Number of buffered messages per queue that triggers sending the batch immediately.
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Maximum time a message waits in the buffer for other messages to join its batch.
+         */
+        public Builder lingerTime(Duration lingerTime) {
+            this.lingerTime = lingerTime;
+            return this;
+        }
+
+        /**
+         * Number of threads sending batches, i.e. the maximum number of batch requests in flight. The batches of a
+         * single queue are sent one at a time.
+         */
+        public Builder flushThreads(int flushThreads) {
+            this.flushThreads = flushThreads;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a setting is out of range
+         */
+        public BufferedMessageSender build() {
+            if (maxBatchSize < 1 || flushThreads < 1) {
+                throw new IllegalArgumentException("maxBatchSize and flushThreads must be positive");
+            }
+            if (lingerTime == null || lingerTime.isNegative()) {
+                throw new IllegalArgumentException("lingerTime must not be negative");
+            }
+            return new BufferedMessageSender(delegate, maxBatchSize, lingerTime, flushThreads);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package fi.techappeal.messagingservice;
+
+/**
+ * Attributes added to a message that is moved to a dead letter queue because its handler returned
+ * {@link ProcessingState#ABANDONED}. The other attributes and the payload of the message are kept as they were.
+ * The attributes are not added if the message already has the maximum number of attributes of the provider.
+ * <p>
+ * The attributes are in the reserved namespace of {@link SendMessageWrapper#RESERVED_ATTRIBUTE_PREFIX}, so a sender
+ * cannot set them, but unlike the other reserved attributes they are visible to the handler.
+ */
+public class DeadLetter {
+    /** Why the message was dead-lettered, including the name of the queue it came from. */
+    public static final String REASON_ATTRIBUTE = SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "dead-letter-reason";
+    /** Number of times the message was received from the queue it came from. */
+    public static final String RECEIVE_COUNT_ATTRIBUTE =
+            SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "dead-letter-receive-count";
+
+    private DeadLetter() {
+    }
+
+    /**
+     * @param key name of an attribute
+     * @return true if the attribute is one of the dead letter attributes
+     */
+    public static boolean isDeadLetterAttribute(String key) {
+        return REASON_ATTRIBUTE.equals(key) || RECEIVE_COUNT_ATTRIBUTE.equals(key);
+    }
+
+    /**
+     * @param queueName name of the queue the message came from
+     * @return value of the {@value #REASON_ATTRIBUTE} attribute of a message abandoned by its handler
+     */
+    public static String abandonedReason(String queueName) {
+        return "Abandoned by the handler of queue " + queueName;
+    }
+}
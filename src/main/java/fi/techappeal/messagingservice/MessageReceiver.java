@@ -1,17 +1,177 @@
 package fi.techappeal.messagingservice;
 
+import fi.techappeal.messagingservice.claimcheck.PayloadStore;
+import fi.techappeal.messagingservice.codec.PayloadCodec;
+import fi.techappeal.messagingservice.dedup.MessageDeduplicator;
+import fi.techappeal.messagingservice.inmemory.InMemoryMessageReceiver;
+import fi.techappeal.messagingservice.metrics.DefaultMessagingMetrics;
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
+import fi.techappeal.messagingservice.serialization.MessageCodecRegistry;
 import fi.techappeal.messagingservice.sqs.SqsMessageReceiver;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
 /**
  * MessageReceiver is a cloud-agnostic interface for receiving messages from a cloud messaging service.
  */
-public interface MessageReceiver {
+public interface MessageReceiver extends AutoCloseable {
     public void subscribe(String queueName, MessageHandler messageHandler);
 
+    /**
+     * Subscribe to messages whose payloads are deserialized with the codecs of
+     * {@link MessageCodecRegistry#getDefault()}. Messages that cannot be deserialized are abandoned.
+     * @param queueName name of the queue
+     * @param type type of the payloads
+     * @param messageHandler typed message handler
+     */
+    default <T> void subscribe(String queueName, Class<T> type, TypedMessageHandler<T> messageHandler) {
+        subscribe(queueName, MessageCodecRegistry.getDefault().handler(type, messageHandler));
+    }
+
+    /**
+     * Subscribe to messages that are handled in batches. The SQS receiver hands the messages of each receive to the
+     * handler, or accumulates the messages of several receives up to its batch limits, and deletes the messages
+     * processed by the handler with batch requests. By default each message is handed to the handler on its own.
+     * @param queueName name of the queue
+     * @param messageHandler batch message handler
+     */
+    default void subscribeBatch(String queueName, BatchMessageHandler messageHandler) {
+        subscribe(queueName, message -> messageHandler.onMessagesReceived(List.of(message)).get(0));
+    }
+
+    /**
+     * Subscribe to several queues with a handler each. Receives until the receiver is stopped, like
+     * {@link #subscribe(String, MessageHandler)}. By default each queue is received from on a thread of its own;
+     * the SQS receiver shares its pollers and workers between the queues instead. If subscribing to a queue fails,
+     * the receiver is stopped and the failure is thrown once the other queues have ended, with their failures
+     * suppressed.
+     * @param subscriptions queues and their handlers
+     */
+    default void subscribe(List<QueueSubscription> subscriptions) {
+        if (subscriptions.isEmpty()) {
+            throw new IllegalArgumentException("No queues to subscribe to");
+        }
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch subscribed = new CountDownLatch(subscriptions.size());
+        List<Thread> threads = new ArrayList<>();
+        for (QueueSubscription subscription : subscriptions.subList(1, subscriptions.size())) {
+            Thread thread = new Thread(() -> subscribeOrStop(subscription, failures, subscribed),
+                    "subscriber-" + subscription.getQueueName());
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        subscribeOrStop(subscriptions.get(0), failures, subscribed);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                stop();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Throwable failure = failures.poll();
+        if (failure != null) {
+            failures.forEach(failure::addSuppressed);
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Subscribe to a queue, stopping the receiver if subscribing fails so that the other queues end too. As a
+     * subscribe that starts after {@link #stop()} receives again, the receiver is stopped repeatedly until every
+     * queue has ended.
+     */
+    private void subscribeOrStop(QueueSubscription subscription, Queue<Throwable> failures,
+                                 CountDownLatch subscribed) {
+        try {
+            if (failures.isEmpty()) {
+                subscribe(subscription);
+            }
+            subscribed.countDown();
+        } catch (RuntimeException | Error e) {
+            failures.add(e);
+            subscribed.countDown();
+            try {
+                do {
+                    stop();
+                } while (!subscribed.await(100, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void subscribe(QueueSubscription subscription) {
+        if (subscription.getBatchMessageHandler() != null) {
+            subscribeBatch(subscription.getQueueName(), subscription.getBatchMessageHandler());
+        } else {
+            subscribe(subscription.getQueueName(), subscription.getMessageHandler());
+        }
+    }
+
+    /**
+     * Publish the messages of a queue to a single {@link Flow.Subscriber}. Messages are received only while the
+     * subscriber has outstanding demand, and at most as many as it has requested, so the backpressure of the
+     * subscriber holds back the receives. The subscriber completes each message with
+     * {@link AcknowledgeableMessage#complete(ProcessingState)}. The subscription completes when the receiver is
+     * stopped; subscribing to a publisher does not restart the subscriptions ended by a stop.
+     * @param queueName name of the queue
+     * @return publisher of the messages of the queue
+     */
+    Flow.Publisher<AcknowledgeableMessage> publisher(String queueName);
+
     public void stop();
 
+    /**
+     * Stop the receiver and release its resources, e.g. the SQS clients and the threads that delete completed
+     * messages. Messages completed before the call are deleted first; the receiver cannot be used afterwards.
+     */
+    @Override
+    void close();
+
+    /**
+     * Prepare to receive from queues at startup, so that the first receives do not pay for it. For SQS
+     * the queue urls are resolved and connections are opened. Nothing is done by default.
+     * @param queueNames names of the queues
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if a queue cannot be used, e.g. because
+     * it does not exist
+     */
+    default void warmUp(Collection<String> queueNames) {
+    }
+
     static class Builder {
         private String service = System.getProperty("MESSAGING_SERVICE_PROVIDER", "sqs");
+        private int concurrency = 1;
+        private ExecutorService executor;
+        private boolean orderedByGroup;
+        private MessagingMetrics metrics = MessagingMetrics.NOOP;
+        private double rateLimit;
+        private double maxRateLimit; // 0 for the default of the provider
+        private Duration rateLimitMaxWait;
+        private final List<PayloadCodec> codecs = new ArrayList<>();
+        private PayloadStore payloadStore;
+        private String deadLetterQueue;
+        private MessageDeduplicator deduplicator = MessageDeduplicator.fromEnvironment();
+        private int maxBatchSize;
+        private Duration maxBatchWait;
+        private int minPollers; // 0 for the default of the provider
+        private int maxPollers;
+        private Integer prefetch; // null for the default of the provider
+        private Duration maxProcessingTime; // null for the default of the provider
 
         /**
          * Set the messaging service provider. (Used for testing.)
@@ -23,6 +183,179 @@ public interface MessageReceiver {
             return this;
         }
 
+        /**
+         * Set the maximum number of messages handled concurrently. The default of 1 handles messages one at a
+         * time on the subscribing thread; polling pauses while the maximum number of messages is in flight.
+         * @param concurrency maximum number of messages in flight
+         * @return Builder
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the executor that runs the message handlers. On Java 21 this can be
+         * {@code Executors.newVirtualThreadPerTaskExecutor()}. The executor is not shut down by the receiver.
+         * @param executor executor for message handlers
+         * @return Builder
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Handle messages with the same partition key in the order they were sent, while messages with different
+         * partition keys are handled in parallel up to the concurrency. Only applies to queues that preserve the
+         * order per partition key, such as SQS FIFO queues.
+         * @param orderedByGroup true to preserve the order per partition key
+         * @return Builder
+         */
+        public Builder orderedByGroup(boolean orderedByGroup) {
+            this.orderedByGroup = orderedByGroup;
+            return this;
+        }
+
+        /**
+         * Set the metrics that receive measurements of the requests and messages, e.g.
+         * {@link DefaultMessagingMetrics}. By default nothing is measured.
+         * @param metrics metrics implementation
+         * @return Builder
+         */
+        public Builder metrics(MessagingMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Enable client-side rate limiting per queue that adapts to throttling by the messaging service: the rate
+         * grows while requests succeed and is halved when a request is throttled. The SQS rate grows up to ten
+         * times the initial rate.
+         * @param initialRate initial requests per second per queue
+         * @param maxWait longest time a request waits for the rate limit before failing; receives always wait
+         * @return Builder
+         */
+        public Builder rateLimit(double initialRate, Duration maxWait) {
+            this.rateLimit = initialRate;
+            this.maxRateLimit = 0;
+            this.rateLimitMaxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Enable client-side rate limiting per queue like {@link #rateLimit(double, Duration)}, with the highest rate
+         * the rate grows to.
+         * @param initialRate initial requests per second per queue
+         * @param maxRate highest requests per second per queue
+         * @param maxWait longest time a request waits for the rate limit before failing; receives always wait
+         * @return Builder
+         */
+        public Builder rateLimit(double initialRate, double maxRate, Duration maxWait) {
+            this.rateLimit = initialRate;
+            this.maxRateLimit = maxRate;
+            this.rateLimitMaxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Add a codec for decompressing payloads compressed by the sender with other than the built-in
+         * {@link fi.techappeal.messagingservice.codec.DeflateCodec}.
+         * @param codec compression algorithm
+         * @return Builder
+         */
+        public Builder codec(PayloadCodec codec) {
+            this.codecs.add(codec);
+            return this;
+        }
+
+        /**
+         * Set the store that the sender offloads large payloads to. Offloaded payloads are loaded when the handler
+         * first gets them and deleted after their message has been processed.
+         * @param payloadStore payload store
+         * @return Builder
+         */
+        public Builder payloadStore(PayloadStore payloadStore) {
+            this.payloadStore = payloadStore;
+            return this;
+        }
+
+        /**
+         * Set the queue that messages abandoned by the handler are moved to, with the
+         * {@link DeadLetter} attributes added. Without a dead letter queue abandoned messages are left in their
+         * queue and received again once their visibility timeout expires.
+         * @param deadLetterQueue name of the dead letter queue
+         * @return Builder
+         */
+        public Builder deadLetterQueue(String deadLetterQueue) {
+            this.deadLetterQueue = deadLetterQueue;
+            return this;
+        }
+
+        /**
+         * Skip the handler for messages that were already processed within the window of the deduplicator, e.g.
+         * messages delivered again after their visibility timeout expired. By default the deduplicator of
+         * {@link MessageDeduplicator#fromEnvironment()} is used, if any.
+         * @param deduplicator deduplicator, or null to handle every received message
+         * @return Builder
+         */
+        public Builder deduplicator(MessageDeduplicator deduplicator) {
+            this.deduplicator = deduplicator;
+            return this;
+        }
+
+        /**
+         * Set the limits of the batches handed to a {@link BatchMessageHandler}. Messages of several receives are
+         * accumulated until the batch has the maximum number of messages or its oldest message has waited for the
+         * maximum time. By default the messages of each receive are handed to the handler as they are.
+         * @param maxBatchSize maximum number of messages in a batch
+         * @param maxBatchWait maximum time a received message waits for the batch to fill
+         * @return Builder
+         */
+        public Builder batchLimits(int maxBatchSize, Duration maxBatchWait) {
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchWait = maxBatchWait;
+            return this;
+        }
+
+        /**
+         * Set the number of parallel long-polling receives per subscription. Pollers are added up to the maximum
+         * while receives come back full or the queue has a large backlog, and removed down to the minimum when
+         * receives come back empty. By default a single poller is used.
+         * @param minPollers number of pollers when the queue is idle
+         * @param maxPollers number of pollers when the queue has a large backlog
+         * @return Builder
+         */
+        public Builder pollers(int minPollers, int maxPollers) {
+            this.minPollers = minPollers;
+            this.maxPollers = maxPollers;
+            return this;
+        }
+
+        /**
+         * Receive messages ahead of the handlers, so that a handler that becomes free does not wait for a receive.
+         * Prefetched messages that have used half of their visibility timeout before a handler is free are released
+         * back to the queue. By default nothing is prefetched.
+         * @param prefetch maximum number of received messages waiting for a handler, 0 to disable prefetching
+         * @return Builder
+         */
+        public Builder prefetch(int prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        /**
+         * Set the maximum time a message may be handled. While a handler runs, the visibility timeout of its message
+         * is extended shortly before it expires, until the maximum time after receiving the message has passed. The
+         * time is counted in whole seconds; SQS extends the visibility for 15 minutes by default.
+         * @param maxProcessingTime maximum processing time, zero to not extend the visibility
+         * @return Builder
+         */
+        public Builder maxProcessingTime(Duration maxProcessingTime) {
+            this.maxProcessingTime = maxProcessingTime;
+            return this;
+        }
+
         /**
          * Create a cloud-specific MessageSender instance.
          * @return MessageSender
@@ -32,11 +365,94 @@ public interface MessageReceiver {
                 throw new IllegalStateException("MESSAGING_SERVICE_PROVIDER property not set");
             }
             return switch (service) {
-                case "sqs" -> new SqsMessageReceiver();
+                case "sqs" -> {
+                    SqsMessageReceiver receiver = new SqsMessageReceiver();
+                    receiver.setConcurrency(concurrency);
+                    receiver.setExecutor(executor);
+                    receiver.setOrderedByGroup(orderedByGroup);
+                    receiver.setMetrics(metrics);
+                    if (rateLimitMaxWait != null && maxRateLimit > 0) {
+                        receiver.setRateLimit(rateLimit, maxRateLimit, rateLimitMaxWait);
+                    } else if (rateLimitMaxWait != null) {
+                        receiver.setRateLimit(rateLimit, rateLimitMaxWait);
+                    }
+                    codecs.forEach(receiver::addCodec);
+                    if (payloadStore != null) {
+                        receiver.setPayloadStore(payloadStore);
+                    }
+                    if (deadLetterQueue != null) {
+                        receiver.setDeadLetterQueue(deadLetterQueue);
+                    }
+                    receiver.setDeduplicator(deduplicator);
+                    if (maxBatchWait != null) {
+                        receiver.setBatchLimits(maxBatchSize, maxBatchWait.toMillis());
+                    }
+                    if (minPollers != 0 || maxPollers != 0) {
+                        receiver.setPollers(minPollers, maxPollers);
+                    }
+                    if (prefetch != null) {
+                        receiver.setPrefetch(prefetch);
+                    }
+                    if (maxProcessingTime != null) {
+                        receiver.setMaxProcessingSeconds((int) Math.min(maxProcessingTime.toSeconds(),
+                                Integer.MAX_VALUE));
+                    }
+                    yield receiver;
+                }
+                case "inmemory" -> {
+                    checkInMemorySettings();
+                    InMemoryMessageReceiver receiver = new InMemoryMessageReceiver();
+                    receiver.setDeadLetterQueue(deadLetterQueue);
+                    receiver.setDeduplicator(deduplicator);
+                    yield receiver;
+                }
                 case "pubsub" -> throw new IllegalStateException("pubsub not implemented");
                 case "eventgrid" -> throw new IllegalStateException("eventgrid not implemented");
                 default -> throw new IllegalStateException("Unknown message.service: " + service);
             };
         }
+
+        /**
+         * The in-memory receiver handles messages one at a time on the subscribing thread, which also keeps them in
+         * order, and supports only the dead letter queue and the deduplicator of the optional features. A setting
+         * for another feature is rejected rather than ignored.
+         */
+        private void checkInMemorySettings() {
+            List<String> unsupported = new ArrayList<>();
+            if (concurrency != 1) {
+                unsupported.add("concurrency");
+            }
+            if (executor != null) {
+                unsupported.add("executor");
+            }
+            if (metrics != MessagingMetrics.NOOP) {
+                unsupported.add("metrics");
+            }
+            if (rateLimitMaxWait != null) {
+                unsupported.add("rateLimit");
+            }
+            if (!codecs.isEmpty()) {
+                unsupported.add("codec");
+            }
+            if (payloadStore != null) {
+                unsupported.add("payloadStore");
+            }
+            if (maxBatchWait != null) {
+                unsupported.add("batchLimits");
+            }
+            if (minPollers != 0 || maxPollers != 0) {
+                unsupported.add("pollers");
+            }
+            if (prefetch != null) {
+                unsupported.add("prefetch");
+            }
+            if (maxProcessingTime != null) {
+                unsupported.add("maxProcessingTime");
+            }
+            if (!unsupported.isEmpty()) {
+                throw new IllegalStateException("Not supported by the inmemory service: "
+                        + String.join(", ", unsupported));
+            }
+        }
     }
 }
@@ -1,5 +1,19 @@
 package fi.techappeal.messagingservice;
+import fi.techappeal.messagingservice.claimcheck.FileSystemPayloadStore;
+import fi.techappeal.messagingservice.claimcheck.PayloadStore;
+import fi.techappeal.messagingservice.codec.DeflateCodec;
+import fi.techappeal.messagingservice.codec.PayloadCodec;
+import fi.techappeal.messagingservice.inmemory.InMemoryMessageSender;
+import fi.techappeal.messagingservice.metrics.DefaultMessagingMetrics;
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
+import fi.techappeal.messagingservice.serialization.MessageCodecRegistry;
+import fi.techappeal.messagingservice.sqs.SqsMessageSender;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Cloud-agostic messaging service interface.
@@ -12,12 +26,62 @@ public interface MessageSender {
      */
     void sendMessage(String queueName, SendMessageWrapper message);
 
+    /**
+     * Send a message to a specified queue without blocking the calling thread.
+     * @param queueName name of the queue
+     * @param message message to be sent
+     * @return future completed with the message id, or exceptionally with a
+     * {@link fi.techappeal.messagingservice.exceptions.MessagingException}
+     */
+    CompletableFuture<String> sendMessageAsync(String queueName, SendMessageWrapper message);
+
+    /**
+     * Send a list of messages to a specified queue using as few requests as the provider allows.
+     * A failure of a single message does not prevent the other messages from being sent.
+     * @param queueName name of the queue
+     * @param messages messages to be sent
+     * @return result for each message, in the same order as the messages
+     */
+    List<SendMessageResult> sendMessages(String queueName, List<SendMessageWrapper> messages);
+
+    /**
+     * Send a payload to a specified queue, serialized with the codecs of {@link MessageCodecRegistry#getDefault()}.
+     * To add attributes or a partition key, build the message with {@link MessageCodecRegistry#toMessage(Object)}.
+     * @param queueName name of the queue
+     * @param payload payload to be sent
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if no codec can serialize the payload
+     */
+    default <T> void send(String queueName, T payload) {
+        SendMessageWrapper message = payload instanceof SendMessageWrapper wrapper ? wrapper :
+                MessageCodecRegistry.getDefault().toMessage(payload).build();
+        sendMessage(queueName, message);
+    }
+
+    /**
+     * Prepare to send to queues at startup, so that the first sends do not pay for it. For SQS
+     * the queue urls are resolved and connections are opened. Nothing is done by default.
+     * @param queueNames names of the queues
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if a queue cannot be used, e.g. because
+     * it does not exist
+     */
+    default void warmUp(Collection<String> queueNames) {
+    }
+
     /**
      * Close the messaging service.
      */
     void close();
     static class Builder {
         private String service = System.getProperty("MESSAGING_SERVICE_PROVIDER", "sqs");
+        private MessagingMetrics metrics = MessagingMetrics.NOOP;
+        private double rateLimit;
+        private double maxRateLimit; // 0 for the default of the provider
+        private Duration rateLimitMaxWait;
+        private RetryPolicy retryPolicy;
+        private PayloadCodec codec;
+        private int compressionThreshold;
+        private PayloadStore payloadStore;
+        private int payloadStoreThreshold;
 
         /**
          * Set the messaging service provider. (Used for testing.)
@@ -29,6 +93,86 @@ public interface MessageSender {
             return this;
         }
 
+        /**
+         * Set the metrics that receive measurements of the requests and messages, e.g.
+         * {@link DefaultMessagingMetrics}. By default nothing is measured.
+         * @param metrics metrics implementation
+         * @return Builder
+         */
+        public Builder metrics(MessagingMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Enable client-side rate limiting per queue that adapts to throttling by the messaging service: the rate
+         * grows while requests succeed and is halved when a request is throttled. The SQS rate grows up to ten
+         * times the initial rate.
+         * @param initialRate initial requests per second per queue
+         * @param maxWait longest time a request waits for the rate limit before failing with a
+         * {@link fi.techappeal.messagingservice.exceptions.RateLimitException}, {@link Duration#ZERO} to fail immediately
+         * @return Builder
+         */
+        public Builder rateLimit(double initialRate, Duration maxWait) {
+            this.rateLimit = initialRate;
+            this.maxRateLimit = 0;
+            this.rateLimitMaxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Enable client-side rate limiting per queue like {@link #rateLimit(double, Duration)}, with the highest rate
+         * the rate grows to.
+         * @param initialRate initial requests per second per queue
+         * @param maxRate highest requests per second per queue
+         * @param maxWait longest time a request waits for the rate limit before failing with a
+         * {@link fi.techappeal.messagingservice.exceptions.RateLimitException}, {@link Duration#ZERO} to fail immediately
+         * @return Builder
+         */
+        public Builder rateLimit(double initialRate, double maxRate, Duration maxWait) {
+            this.rateLimit = initialRate;
+            this.maxRateLimit = maxRate;
+            this.rateLimitMaxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Retry failed sends of single messages, and optionally hedge slow ones, according to a policy. By default
+         * failed sends are not retried.
+         * @param retryPolicy retry policy
+         * @return Builder
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Compress payloads that are at least the threshold in size. The receiver decompresses them transparently.
+         * By default payloads are not compressed.
+         * @param codec compression algorithm, e.g. {@link DeflateCodec}
+         * @param thresholdBytes smallest UTF-8 size of a payload that is compressed
+         * @return Builder
+         */
+        public Builder compression(PayloadCodec codec, int thresholdBytes) {
+            this.codec = codec;
+            this.compressionThreshold = thresholdBytes;
+            return this;
+        }
+
+        /**
+         * Offload payloads of messages larger than the threshold to a payload store and send only a reference
+         * (the claim-check pattern). The receiver needs the same store. By default payloads are not offloaded.
+         * @param payloadStore store for the payloads, e.g. {@link FileSystemPayloadStore}
+         * @param thresholdBytes largest size of a message that is sent as it is
+         * @return Builder
+         */
+        public Builder payloadStore(PayloadStore payloadStore, int thresholdBytes) {
+            this.payloadStore = payloadStore;
+            this.payloadStoreThreshold = thresholdBytes;
+            return this;
+        }
+
         /**
          * Create a cloud-specific MessageSender instance.
          * @return MessageSender
@@ -38,11 +182,60 @@ public interface MessageSender {
                 throw new IllegalStateException("MESSAGING_SERVICE_PROVIDER property not set");
             }
             return switch (service) {
-                case "sqs" -> new fi.techappeal.messagingservice.sqs.SqsMessageSender();
+                case "sqs" -> {
+                    SqsMessageSender sender = new SqsMessageSender();
+                    sender.setMetrics(metrics);
+                    if (rateLimitMaxWait != null && maxRateLimit > 0) {
+                        sender.setRateLimit(rateLimit, maxRateLimit, rateLimitMaxWait);
+                    } else if (rateLimitMaxWait != null) {
+                        sender.setRateLimit(rateLimit, rateLimitMaxWait);
+                    }
+                    if (retryPolicy != null) {
+                        sender.setRetryPolicy(retryPolicy);
+                    }
+                    if (codec != null) {
+                        sender.setCompression(codec, compressionThreshold);
+                    }
+                    if (payloadStore != null) {
+                        sender.setPayloadStore(payloadStore, payloadStoreThreshold);
+                    }
+                    yield sender;
+                }
+                case "inmemory" -> {
+                    checkInMemorySettings();
+                    yield new InMemoryMessageSender();
+                }
                 case "pubsub" -> throw new IllegalStateException("pubsub not implemented");
                 case "eventgrid" -> throw new IllegalStateException("eventgrid not implemented");
                 default -> throw new IllegalStateException("Unknown message.service: " + service);
             };
         }
+
+        /**
+         * The in-memory sender has none of the optional features, so a setting for one is rejected rather than
+         * ignored.
+         */
+        private void checkInMemorySettings() {
+            List<String> unsupported = new ArrayList<>();
+            if (metrics != MessagingMetrics.NOOP) {
+                unsupported.add("metrics");
+            }
+            if (rateLimitMaxWait != null) {
+                unsupported.add("rateLimit");
+            }
+            if (retryPolicy != null) {
+                unsupported.add("retryPolicy");
+            }
+            if (codec != null) {
+                unsupported.add("compression");
+            }
+            if (payloadStore != null) {
+                unsupported.add("payloadStore");
+            }
+            if (!unsupported.isEmpty()) {
+                throw new IllegalStateException("Not supported by the inmemory service: "
+                        + String.join(", ", unsupported));
+            }
+        }
     }
 }
\ No newline at end of file
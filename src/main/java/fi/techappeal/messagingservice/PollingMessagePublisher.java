@@ -0,0 +1,215 @@
+package fi.techappeal.messagingservice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publisher of the messages of a queue that receives only while its subscriber has outstanding demand. A receive asks
+ * for no more messages than the subscriber has requested, so every received message can be passed on at once and a
+ * slow subscriber holds back the receives instead of messages piling up in memory.
+ * <p>
+ * A publisher has a single subscriber; a further subscriber gets an {@link IllegalStateException} through
+ * {@code onError}. Messages are received and passed to the subscriber on a thread of the subscription. The
+ * subscription completes when the receiver is stopped and fails when a receive fails. Messages received after the
+ * subscription was cancelled are released back to the queue.
+ *
+ * @param <M> type of the published messages
+ */
+public abstract class PollingMessagePublisher<M extends AcknowledgeableMessage>
+        implements Flow.Publisher<AcknowledgeableMessage> {
+    private static final Logger logger = LoggerFactory.getLogger(PollingMessagePublisher.class);
+    private static final long STOP_CHECK_INTERVAL_MILLIS = 1000;
+    private final String queueName;
+    private final int maxMessagesPerReceive;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param queueName             name of the queue
+     * @param maxMessagesPerReceive maximum number of messages a single receive may return
+     */
+    protected PollingMessagePublisher(String queueName, int maxMessagesPerReceive) {
+        if (maxMessagesPerReceive < 1) {
+            throw new IllegalArgumentException("maxMessagesPerReceive must be positive");
+        }
+        this.queueName = queueName;
+        this.maxMessagesPerReceive = maxMessagesPerReceive;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super AcknowledgeableMessage> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Publisher of queue " + queueName
+                    + " already has a subscriber"));
+            return;
+        }
+        DemandSubscription subscription = new DemandSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        Thread thread = new Thread(subscription::run, "publisher-" + queueName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Prepare for receiving, on the thread of the subscription before the first receive. Nothing is done by default.
+     */
+    protected void open() {
+    }
+
+    /**
+     * Receive messages, waiting for a while if there are none.
+     *
+     * @param maxMessages maximum number of messages to receive
+     * @return received messages, empty if none arrived within the wait time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected abstract List<M> receive(int maxMessages) throws InterruptedException;
+
+    /**
+     * Make a received message that was not published available to other receivers.
+     *
+     * @param message received message
+     */
+    protected abstract void release(M message);
+
+    /**
+     * @return false once the receiver has been stopped
+     */
+    protected abstract boolean isRunning();
+
+    /**
+     * Release what {@link #open()} prepared, on the thread of the subscription when it ends. Nothing is done by
+     * default.
+     */
+    protected void close() {
+    }
+
+    /**
+     * Subscription that receives on its own thread while its subscriber has requested more messages than it has
+     * been given.
+     */
+    private final class DemandSubscription implements Flow.Subscription {
+        private Flow.Subscriber<? super AcknowledgeableMessage> subscriber; // only used on the subscription thread
+        private long demand; // guarded by this
+        private boolean cancelled; // guarded by this
+        private IllegalArgumentException invalidRequest; // guarded by this
+
+        DemandSubscription(Flow.Subscriber<? super AcknowledgeableMessage> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " messages, must be positive");
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private void run() {
+            Throwable error = null;
+            try {
+                open();
+                int maxMessages;
+                while ((maxMessages = awaitDemand()) > 0) {
+                    publish(receive(maxMessages));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = e;
+            } catch (RuntimeException e) {
+                logger.debug("Receiving from queue {} failed", queueName, e);
+                error = e;
+            } finally {
+                close();
+            }
+            end(error);
+        }
+
+        /**
+         * Wait until the subscriber has outstanding demand.
+         *
+         * @return number of messages to receive, or 0 if the subscription has ended
+         */
+        private synchronized int awaitDemand() throws InterruptedException {
+            while (!cancelled && invalidRequest == null && isRunning()) {
+                if (demand > 0) {
+                    return (int) Math.min(demand, maxMessagesPerReceive);
+                }
+                wait(STOP_CHECK_INTERVAL_MILLIS);
+            }
+            return 0;
+        }
+
+        /**
+         * Pass received messages to the subscriber. The messages are within the demand, unless the subscription
+         * was cancelled during the receive, in which case the rest are released.
+         */
+        private void publish(List<M> messages) {
+            int published = 0;
+            while (published < messages.size() && take()) {
+                M message = messages.get(published++);
+                try {
+                    subscriber.onNext(message);
+                } catch (RuntimeException e) {
+                    logger.error("Subscriber of queue {} failed, cancelling the subscription", queueName, e);
+                    cancel();
+                }
+            }
+            for (M message : messages.subList(published, messages.size())) {
+                release(message);
+            }
+        }
+
+        /**
+         * @return true if a message may be passed to the subscriber, which is then taken off the demand
+         */
+        private synchronized boolean take() {
+            if (cancelled || invalidRequest != null) {
+                return false;
+            }
+            demand--;
+            return true;
+        }
+
+        private void end(Throwable error) {
+            Flow.Subscriber<? super AcknowledgeableMessage> subscriber = this.subscriber;
+            this.subscriber = null; // not referenced once the subscription has ended
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (invalidRequest != null) {
+                    error = invalidRequest;
+                }
+            }
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+}
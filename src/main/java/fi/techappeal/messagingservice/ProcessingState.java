@@ -13,7 +13,8 @@ public enum ProcessingState {
      */
     SKIPPED,
     /**
-     * The message was abandoned by the MessageHandler as faulty (e.g.to be placed into a dead letter queue).
+     * The message was abandoned by the MessageHandler as faulty. It is moved to the dead letter queue of the receiver,
+     * or left in its queue if the receiver has none.
      */
     ABANDONED
 }
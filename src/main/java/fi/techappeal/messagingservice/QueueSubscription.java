@@ -0,0 +1,76 @@
+package fi.techappeal.messagingservice;
+
+/**
+ * A queue and its handler in a subscription to several queues, see {@link MessageReceiver#subscribe(java.util.List)}.
+ */
+public class QueueSubscription {
+    private final String queueName;
+    private final MessageHandler messageHandler;
+    private final BatchMessageHandler batchMessageHandler;
+    private final int weight;
+
+    /**
+     * @param queueName      name of the queue
+     * @param messageHandler cloud-agnostic message handler
+     */
+    public QueueSubscription(String queueName, MessageHandler messageHandler) {
+        this(queueName, messageHandler, 1);
+    }
+
+    /**
+     * @param queueName      name of the queue
+     * @param messageHandler cloud-agnostic message handler
+     * @param weight         share of the receives of the queue relative to the other queues while they all have
+     *                       messages, e.g. 3 for three receives from the queue for each receive from a queue of
+     *                       weight 1
+     */
+    public QueueSubscription(String queueName, MessageHandler messageHandler, int weight) {
+        this(queueName, messageHandler, null, weight);
+    }
+
+    private QueueSubscription(String queueName, MessageHandler messageHandler, BatchMessageHandler batchMessageHandler,
+                              int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        this.queueName = queueName;
+        this.messageHandler = messageHandler;
+        this.batchMessageHandler = batchMessageHandler;
+        this.weight = weight;
+    }
+
+    /**
+     * Create a subscription whose messages are handled in batches, see
+     * {@link MessageReceiver#subscribeBatch(String, BatchMessageHandler)}.
+     *
+     * @param queueName           name of the queue
+     * @param batchMessageHandler batch message handler
+     * @param weight              share of the receives of the queue relative to the other queues
+     * @return subscription
+     */
+    public static QueueSubscription ofBatch(String queueName, BatchMessageHandler batchMessageHandler, int weight) {
+        return new QueueSubscription(queueName, null, batchMessageHandler, weight);
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    /**
+     * @return message handler, or null if the messages are handled in batches
+     */
+    public MessageHandler getMessageHandler() {
+        return messageHandler;
+    }
+
+    /**
+     * @return batch message handler, or null if the messages are handled one at a time
+     */
+    public BatchMessageHandler getBatchMessageHandler() {
+        return batchMessageHandler;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
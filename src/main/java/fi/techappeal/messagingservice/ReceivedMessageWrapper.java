@@ -1,49 +1,202 @@
 package fi.techappeal.messagingservice;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
- * Wraps a message that is received from messaging service in a cloud-agnostic way.
+ * Wraps a message that is received from messaging service in a cloud-agnostic way. Messages built with
+ * {@link Builder} hold their values; messaging services may instead extend this class with views of their own
+ * received messages.
  */
-public class ReceivedMessageWrapper {
-    private final String id;
-    private final String payload;
-    private final Map<String, String> attributes;
-
-    private ReceivedMessageWrapper(String id, String payload, Map<String, String> attributes) {
-        this.id = id;
-        this.payload = payload;
-        this.attributes = attributes;
-    }
+public abstract class ReceivedMessageWrapper {
 
-    public String getId() {
-        return id;
+    /**
+     * Constructor for wrappers that are backed by the message of a messaging service and implement the getters.
+     */
+    protected ReceivedMessageWrapper() {
     }
 
-    public String getPayload() {
-        return payload;
+    /**
+     * @return id of the message
+     */
+    public abstract String getId();
+
+    /**
+     * Returns the payload of the message. A payload that was offloaded to a payload store is loaded on the first
+     * call.
+     * @return payload of the message
+     */
+    public abstract String getPayload();
+
+    /**
+     * Returns the binary payload of the message as a read-only view of the received bytes. Each call returns a
+     * view of its own, so reading one does not move the position of another.
+     * @return binary payload, or null if the payload is text
+     */
+    public abstract ByteBuffer getBinaryPayload();
+
+    /**
+     * @return text attributes of the message, empty if there are none
+     */
+    public abstract Map<String, String> getAttributes();
+
+    /**
+     * Returns the value of an attribute. Cheaper than {@link #getAttributes()} when only a few attributes are read.
+     * @param key name of the attribute
+     * @return value of the attribute, or null if the message has no such text attribute
+     */
+    public String getAttribute(String key) {
+        return getAttributes().get(key);
     }
 
-    public Map<String, String> getAttributes() {
-        return attributes;
+    /**
+     * Returns the binary attributes of the message as read-only views of the received bytes.
+     * @return binary attributes, empty if there are none
+     */
+    public abstract Map<String, ByteBuffer> getBinaryAttributes();
+
+    /**
+     * Partition key the message was sent with, i.e. the message group id of an SQS FIFO queue.
+     *
+     * @return partition key, or null if the queue does not partition its messages
+     */
+    public abstract String getPartitionKey();
+
+    /**
+     * Sequence number of the message within its queue, increasing in the order the messages were sent.
+     *
+     * @return sequence number, or null if the queue does not order its messages
+     */
+    public abstract String getSequenceNumber();
+
+    /**
+     * Message built with {@link Builder}, holding its values.
+     */
+    private static final class BuiltMessage extends ReceivedMessageWrapper {
+        private final String id;
+        private volatile String payload;
+        private Supplier<String> payloadLoader; // guarded by this, null once the payload is loaded
+        private final ByteBuffer binaryPayload;
+        private final Map<String, String> attributes;
+        private final Map<String, ByteBuffer> binaryAttributes;
+        private final String partitionKey;
+        private final String sequenceNumber;
+
+        private BuiltMessage(String id, String payload, Supplier<String> payloadLoader, ByteBuffer binaryPayload,
+                             Map<String, String> attributes, Map<String, ByteBuffer> binaryAttributes,
+                             String partitionKey, String sequenceNumber) {
+            this.id = id;
+            this.payload = payload;
+            this.payloadLoader = payloadLoader;
+            this.binaryPayload = binaryPayload;
+            this.attributes = attributes;
+            this.binaryAttributes = binaryAttributes;
+            this.partitionKey = partitionKey;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getPayload() {
+            String loaded = payload;
+            if (loaded == null) {
+                synchronized (this) {
+                    if (payloadLoader != null) {
+                        payload = payloadLoader.get();
+                        payloadLoader = null;
+                    }
+                    loaded = payload;
+                }
+            }
+            return loaded;
+        }
+
+        @Override
+        public ByteBuffer getBinaryPayload() {
+            return binaryPayload != null ? binaryPayload.asReadOnlyBuffer() : null;
+        }
+
+        @Override
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Map<String, ByteBuffer> getBinaryAttributes() {
+            return binaryAttributes;
+        }
+
+        @Override
+        public String getPartitionKey() {
+            return partitionKey;
+        }
+
+        @Override
+        public String getSequenceNumber() {
+            return sequenceNumber;
+        }
     }
 
     public static class Builder {
         private String id;
 
         private String payload;
+        private Supplier<String> payloadLoader;
+        private ByteBuffer binaryPayload;
         private Map<String, String> attributes;
+        private Map<String, ByteBuffer> binaryAttributes = Map.of();
+        private String partitionKey;
+        private String sequenceNumber;
 
         public Builder() {
             this.attributes = new HashMap<>();
         }
 
         public Builder payload(String payload) {
-            Builder builder = new Builder();
-            builder.payload = payload;
-            return builder;
+            this.payload = payload;
+            return this;
+        }
+
+        /**
+         * Set a loader of the payload, called when the payload is first requested.
+         * @param payloadLoader loader of the payload
+         * @return Builder
+         */
+        public Builder lazyPayload(Supplier<String> payloadLoader) {
+            this.payloadLoader = payloadLoader;
+            return this;
+        }
+
+        /**
+         * Set a binary payload, the remaining bytes of the buffer. The bytes are not copied.
+         * @param binaryPayload binary payload
+         * @return Builder
+         */
+        public Builder binaryPayload(ByteBuffer binaryPayload) {
+            this.binaryPayload = binaryPayload.asReadOnlyBuffer();
+            return this;
         }
+
+        /**
+         * Add a binary attribute, the remaining bytes of the buffer. The bytes are not copied.
+         * @param key name of the attribute
+         * @param value value of the attribute
+         * @return Builder
+         */
+        public Builder binaryAttribute(String key, ByteBuffer value) {
+            if (binaryAttributes.isEmpty()) {
+                binaryAttributes = new HashMap<>();
+            }
+            this.binaryAttributes.put(key, value.asReadOnlyBuffer());
+            return this;
+        }
+
         public Builder id(String id) {
             this.id = id;
             return this;
@@ -59,8 +212,19 @@ public class ReceivedMessageWrapper {
             return this;
         }
 
+        public Builder partitionKey(String partitionKey) {
+            this.partitionKey = partitionKey;
+            return this;
+        }
+
+        public Builder sequenceNumber(String sequenceNumber) {
+            this.sequenceNumber = sequenceNumber;
+            return this;
+        }
+
         public ReceivedMessageWrapper build() {
-            return new ReceivedMessageWrapper(id, payload, attributes);
+            return new BuiltMessage(id, payload, payloadLoader, binaryPayload, attributes, binaryAttributes,
+                    partitionKey, sequenceNumber);
         }
     }
 
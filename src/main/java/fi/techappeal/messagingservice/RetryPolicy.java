@@ -0,0 +1,135 @@
+package fi.techappeal.messagingservice;
+
+import java.time.Duration;
+
+/**
+ * Retry policy of a {@link MessageSender} in a cloud-agnostic way. Failed sends are retried with decorrelated
+ * jitter backoff: each delay is random between the base delay and three times the previous delay, capped at the
+ * maximum delay. Retries stop at the maximum number of attempts or when the next attempt would start after the
+ * deadline, counted from the first attempt.
+ * <p>
+ * A send can also be hedged: if an attempt has not returned within the given percentile of the send latencies
+ * seen so far, a second attempt is sent in parallel and the first one to succeed is used. Hedging is only done
+ * where the messaging service deduplicates the attempts, e.g. for SQS FIFO queues.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final Duration deadline;
+    private final double hedgePercentile;
+
+    private RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, Duration deadline,
+                        double hedgePercentile) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.deadline = deadline;
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Returns the maximum number of attempts, including the first one.
+     * @return maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the smallest delay before a retry.
+     * @return base delay
+     */
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Returns the largest delay before a retry.
+     * @return maximum delay
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Returns the time after the first attempt after which no more attempts are started.
+     * @return deadline
+     */
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the latency percentile after which an attempt is hedged, or 0 if sends are not hedged.
+     * @return percentile between 0 and 100
+     */
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private Duration baseDelay = Duration.ofMillis(20);
+        private Duration maxDelay = Duration.ofSeconds(1);
+        private Duration deadline = Duration.ofSeconds(10);
+        private double hedgePercentile;
+
+        /**
+         * Set the maximum number of attempts, including the first one. The default is 3.
+         * @param maxAttempts maximum number of attempts, 1 to not retry
+         * @return Builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Set the bounds of the delay before a retry. The defaults are 20 ms and 1 s.
+         * @param baseDelay smallest delay
+         * @param maxDelay largest delay
+         * @return Builder
+         */
+        public Builder backoff(Duration baseDelay, Duration maxDelay) {
+            this.baseDelay = baseDelay;
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Set the time after the first attempt after which no more attempts are started. The default is 10 s.
+         * @param deadline deadline
+         * @return Builder
+         */
+        public Builder deadline(Duration deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Hedge attempts that have not returned within the given percentile of the send latencies, e.g. 95 or 99.
+         * Not hedged by default.
+         * @param percentile percentile between 0 and 100, 0 to not hedge
+         * @return Builder
+         */
+        public Builder hedgeAfterPercentile(double percentile) {
+            this.hedgePercentile = percentile;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be positive");
+            }
+            if (baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0 || deadline.isNegative()) {
+                throw new IllegalArgumentException("Invalid retry delays: base " + baseDelay + ", max " + maxDelay
+                        + ", deadline " + deadline);
+            }
+            if (hedgePercentile < 0 || hedgePercentile >= 100) {
+                throw new IllegalArgumentException("hedgePercentile must be at least 0 and less than 100");
+            }
+            return new RetryPolicy(maxAttempts, baseDelay, maxDelay, deadline, hedgePercentile);
+        }
+    }
+}
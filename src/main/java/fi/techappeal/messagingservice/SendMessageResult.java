@@ -0,0 +1,66 @@
+package fi.techappeal.messagingservice;
+
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+
+/**
+ * Outcome of sending a single message as part of a batch in a cloud-agnostic way.
+ */
+public class SendMessageResult {
+    private final SendMessageWrapper message;
+    private final String messageId;
+    private final MessagingException exception;
+
+    private SendMessageResult(SendMessageWrapper message, String messageId, MessagingException exception) {
+        this.message = message;
+        this.messageId = messageId;
+        this.exception = exception;
+    }
+
+    /**
+     * Create a result for a message that was accepted by the messaging service.
+     * @param message the sent message
+     * @param messageId id assigned to the message by the messaging service
+     * @return successful result
+     */
+    public static SendMessageResult success(SendMessageWrapper message, String messageId) {
+        return new SendMessageResult(message, messageId, null);
+    }
+
+    /**
+     * Create a result for a message that was rejected by the messaging service.
+     * @param message the message that could not be sent
+     * @param exception cloud-agnostic reason for the failure
+     * @return failed result
+     */
+    public static SendMessageResult failure(SendMessageWrapper message, MessagingException exception) {
+        return new SendMessageResult(message, null, exception);
+    }
+
+    /**
+     * Returns the message this result belongs to.
+     * @return the message
+     */
+    public SendMessageWrapper getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the id assigned by the messaging service, or null if sending failed.
+     * @return message id
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the cloud-agnostic exception describing the failure, or null if sending succeeded.
+     * @return exception
+     */
+    public MessagingException getException() {
+        return exception;
+    }
+
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+}
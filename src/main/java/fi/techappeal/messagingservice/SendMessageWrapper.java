@@ -1,20 +1,33 @@
 package fi.techappeal.messagingservice;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Wraps a message that is sent to messaging service in a cloud-agnostic way.
+ * Wraps a message that is sent to messaging service in a cloud-agnostic way. The payload is either text or
+ * binary; binary payloads and attributes are sent without encoding them as text where the messaging service
+ * allows it.
  */
 public class SendMessageWrapper {
+    /**
+     * Prefix of the attributes the library adds to messages for its own use, e.g. the encoding of a compressed
+     * payload. Senders reject messages whose own attributes have the prefix.
+     */
+    public static final String RESERVED_ATTRIBUTE_PREFIX = "messaging-service.";
     private final String payload;
+    private final ByteBuffer binaryPayload;
     private final String partitionKey;
     private final Map<String, String> attributes;
+    private final Map<String, ByteBuffer> binaryAttributes;
 
-    private SendMessageWrapper(String payload, String partitionKey, Map<String, String> attributes) {
+    private SendMessageWrapper(String payload, ByteBuffer binaryPayload, String partitionKey,
+                               Map<String, String> attributes, Map<String, ByteBuffer> binaryAttributes) {
         this.payload = payload;
+        this.binaryPayload = binaryPayload;
         this.partitionKey = partitionKey;
         this.attributes = attributes;
+        this.binaryAttributes = binaryAttributes;
     }
 
     /**
@@ -33,6 +46,22 @@ public class SendMessageWrapper {
         return payload;
     }
 
+    /**
+     * Returns the binary payload of the message as a view of the bytes given to the builder.
+     * @return binary payload, or null if the payload is text
+     */
+    public ByteBuffer getBinaryPayload() {
+        return binaryPayload != null ? binaryPayload.duplicate() : null;
+    }
+
+    /**
+     * Returns the binary attributes of the message. The values share the bytes given to the builder.
+     * @return binary attributes, empty if there are none
+     */
+    public Map<String, ByteBuffer> getBinaryAttributes() {
+        return binaryAttributes;
+    }
+
 
     public String getPartitionKey() {
         return partitionKey;
@@ -40,17 +69,62 @@ public class SendMessageWrapper {
 
     public static class Builder {
         private String payload;
+        private ByteBuffer binaryPayload;
         private String partitionKey;
         private Map<String, String> attributes;
+        private Map<String, ByteBuffer> binaryAttributes = Map.of();
 
         public Builder() {
             this.attributes = new HashMap<>();
         }
 
         public Builder payload(String payload) {
-            Builder builder = new Builder();
-            builder.payload = payload;
-            return builder;
+            this.payload = payload;
+            return this;
+        }
+
+        /**
+         * Set a binary payload. The bytes are not copied, so they must not be modified until the message is sent.
+         * @param payload binary payload
+         * @return Builder
+         */
+        public Builder binaryPayload(byte[] payload) {
+            return binaryPayload(ByteBuffer.wrap(payload));
+        }
+
+        /**
+         * Set a binary payload, the remaining bytes of the buffer. The bytes are not copied, so they must not be
+         * modified until the message is sent.
+         * @param payload binary payload
+         * @return Builder
+         */
+        public Builder binaryPayload(ByteBuffer payload) {
+            this.binaryPayload = payload.slice();
+            return this;
+        }
+
+        /**
+         * Add a binary attribute, the remaining bytes of the buffer. The bytes are not copied.
+         * @param key name of the attribute
+         * @param value value of the attribute
+         * @return Builder
+         */
+        public Builder binaryAttribute(String key, ByteBuffer value) {
+            if (binaryAttributes.isEmpty()) {
+                binaryAttributes = new HashMap<>();
+            }
+            this.binaryAttributes.put(key, value.slice());
+            return this;
+        }
+
+        /**
+         * Add binary attributes.
+         * @param binaryAttributes binary attributes
+         * @return Builder
+         */
+        public Builder binaryAttributes(Map<String, ByteBuffer> binaryAttributes) {
+            binaryAttributes.forEach(this::binaryAttribute);
+            return this;
         }
 
         public Builder attribute(String key, String value) {
@@ -69,7 +143,10 @@ public class SendMessageWrapper {
         }
 
         public SendMessageWrapper build() {
-            return new SendMessageWrapper(payload, partitionKey, attributes);
+            if (payload != null && binaryPayload != null) {
+                throw new IllegalStateException("A message cannot have both a text and a binary payload");
+            }
+            return new SendMessageWrapper(payload, binaryPayload, partitionKey, attributes, binaryAttributes);
         }
     }
 }
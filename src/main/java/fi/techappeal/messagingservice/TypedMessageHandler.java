@@ -0,0 +1,17 @@
+package fi.techappeal.messagingservice;
+
+/**
+ * Message handler for payloads that are deserialized by a
+ * {@link fi.techappeal.messagingservice.serialization.MessageCodec}.
+ *
+ * @param <T> type of the payloads
+ */
+public interface TypedMessageHandler<T> {
+    /**
+     * Called when a message is received from the queue.
+     * @param payload the deserialized payload
+     * @param message the cloud-agnostic message wrapper, e.g. for the id and attributes
+     * @return processing state of the message
+     */
+    ProcessingState onMessageReceived(T payload, ReceivedMessageWrapper message);
+}
@@ -0,0 +1,102 @@
+package fi.techappeal.messagingservice.claimcheck;
+
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Replaces payloads with references to a {@link PayloadStore} for sending, and checks the references on receive.
+ * An offloaded message has the reference as its payload and the name of the store in the
+ * {@value #STORE_ATTRIBUTE} attribute. A binary payload is stored as Base64 text and the offloaded message has the
+ * reference as a binary payload of UTF-8 bytes, so that the receiver knows to decode the stored text.
+ */
+public class ClaimCheck {
+    public static final String STORE_ATTRIBUTE = SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "payload-store";
+
+    private ClaimCheck() {
+    }
+
+    /**
+     * Store the payload of a message and replace it with the reference.
+     *
+     * @param message message to send
+     * @param store   store for the payload
+     * @return message with the reference as its payload
+     */
+    public static SendMessageWrapper offload(SendMessageWrapper message, PayloadStore store) {
+        ByteBuffer binaryPayload = message.getBinaryPayload();
+        SendMessageWrapper.Builder builder = new SendMessageWrapper.Builder();
+        if (binaryPayload != null) {
+            String encoded = StandardCharsets.US_ASCII.decode(Base64.getEncoder().encode(binaryPayload)).toString();
+            builder.binaryPayload(store.store(encoded).getBytes(StandardCharsets.UTF_8));
+        } else {
+            builder.payload(store.store(message.getPayload()));
+        }
+        return builder
+                .attributes(message.getAttributes())
+                .attribute(STORE_ATTRIBUTE, store.getName())
+                .binaryAttributes(message.getBinaryAttributes())
+                .partitionKey(message.getPartitionKey())
+                .build();
+    }
+
+    /**
+     * @param offloaded message returned by {@link #offload(SendMessageWrapper, PayloadStore)}
+     * @return reference to the stored payload
+     */
+    public static String getReference(SendMessageWrapper offloaded) {
+        ByteBuffer binaryPayload = offloaded.getBinaryPayload();
+        return binaryPayload != null ? StandardCharsets.UTF_8.decode(binaryPayload).toString() : offloaded.getPayload();
+    }
+
+    /**
+     * Load an offloaded binary payload.
+     *
+     * @param reference reference received as the binary payload, as UTF-8 bytes
+     * @param store     store of the payload
+     * @return the stored payload
+     * @throws MessagingException if the payload cannot be loaded or is not Base64
+     */
+    public static byte[] loadBinary(ByteBuffer reference, PayloadStore store) {
+        String encoded = store.load(StandardCharsets.UTF_8.decode(reference).toString());
+        try {
+            return Base64.getDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new MessagingException("Invalid binary payload in store " + store.getName(), e);
+        }
+    }
+
+    /**
+     * Check whether a received message was offloaded, and remove the store attribute from its attributes.
+     *
+     * @param attributes received attributes, modified
+     * @param store      store of the receiver, or null if it has none
+     * @return true if the payload of the message is a reference to the store
+     * @throws MessagingException if the message was offloaded to a store the receiver does not have
+     */
+    public static boolean isOffloaded(Map<String, String> attributes, PayloadStore store) {
+        return isOffloaded(attributes.remove(STORE_ATTRIBUTE), store);
+    }
+
+    /**
+     * Check whether a received message was offloaded.
+     *
+     * @param storeName value of the store attribute, or null if the message has none
+     * @param store     store of the receiver, or null if it has none
+     * @return true if the payload of the message is a reference to the store
+     * @throws MessagingException if the message was offloaded to a store the receiver does not have
+     */
+    public static boolean isOffloaded(String storeName, PayloadStore store) {
+        if (storeName == null) {
+            return false;
+        }
+        if (store == null || !store.getName().equals(storeName)) {
+            throw new MessagingException("Payload is in unknown store: " + storeName, null);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package fi.techappeal.messagingservice.claimcheck;
+
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * {@link PayloadStore} that keeps each payload in a file of its own in a directory, e.g. on a file system shared
+ * by the senders and receivers. Payloads are written with a {@link FileChannel} through a fixed-size buffer, so a
+ * large payload is not copied into a byte array of its size before it is written.
+ * <p>
+ * References are random UUIDs. A reference that is not a UUID is rejected, so that a message cannot make the store
+ * read or delete a file outside its directory.
+ */
+public class FileSystemPayloadStore implements PayloadStore {
+    public static final String NAME = "file";
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final Pattern REFERENCE = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private final Path directory;
+
+    /**
+     * @param directory directory of the payload files, created if it does not exist
+     */
+    public FileSystemPayloadStore(Path directory) {
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot create payload directory " + directory, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String store(String payload) {
+        String reference = UUID.randomUUID().toString();
+        Path file = directory.resolve(reference);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        CharBuffer chars = CharBuffer.wrap(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, buffer, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                write(channel, buffer);
+            } while (result.isOverflow());
+            while (encoder.flush(buffer).isOverflow()) {
+                write(channel, buffer);
+            }
+            write(channel, buffer);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new MessagingException("Failed to store payload " + reference, e);
+        }
+        return reference;
+    }
+
+    @Override
+    public String load(String reference) {
+        try (FileChannel channel = FileChannel.open(file(reference), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new MessagingException("Payload " + reference + " is too large: " + size + " bytes", null);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full or the file ends
+            }
+            return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new MessagingException("Failed to load payload " + reference, e);
+        }
+    }
+
+    @Override
+    public void delete(String reference) {
+        try {
+            Files.deleteIfExists(file(reference));
+        } catch (IOException e) {
+            throw new MessagingException("Failed to delete payload " + reference, e);
+        }
+    }
+
+    private Path file(String reference) {
+        if (reference == null || !REFERENCE.matcher(reference).matches()) {
+            throw new MessagingException("Invalid payload reference: " + reference, null);
+        }
+        return directory.resolve(reference);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,39 @@
+package fi.techappeal.messagingservice.claimcheck;
+
+/**
+ * Storage for payloads that are too large to be sent in a message (the claim-check pattern). The sender stores
+ * the payload and sends only its reference; the receiver loads the payload with the reference and deletes it once
+ * the message has been processed.
+ * <p>
+ * The built-in implementation is {@link FileSystemPayloadStore} for a file system shared by the senders and
+ * receivers. Other storage, e.g. S3, can be used by implementing this interface. Implementations must be
+ * thread-safe.
+ */
+public interface PayloadStore {
+    /**
+     * @return name of the store, sent with each reference so that the receiver can check it uses the same store
+     */
+    String getName();
+
+    /**
+     * @param payload payload to store, Base64 text for a binary payload
+     * @return reference to the stored payload
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if the payload cannot be stored
+     */
+    String store(String payload);
+
+    /**
+     * @param reference reference returned by {@link #store(String)}
+     * @return the stored payload
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if the payload cannot be loaded
+     */
+    String load(String reference);
+
+    /**
+     * Delete a stored payload. Deleting a payload that does not exist is not an error.
+     *
+     * @param reference reference returned by {@link #store(String)}
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if the payload cannot be deleted
+     */
+    void delete(String reference);
+}
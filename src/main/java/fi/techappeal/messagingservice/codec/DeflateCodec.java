@@ -0,0 +1,142 @@
+package fi.techappeal.messagingservice.codec;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link PayloadCodec} using the JDK {@link Deflater} in the zlib format. Deflaters, inflaters and output buffers are
+ * reused from small pools, so compressing a payload only allocates the result. A deflater or inflater that does not
+ * fit back in its pool is ended at once, so their native memory does not wait for garbage collection however many
+ * threads use the codec.
+ * <p>
+ * Decompression fails when the payload would exceed a maximum size, so that a small message cannot expand to
+ * exhaust the memory of the receiver.
+ */
+public class DeflateCodec implements PayloadCodec {
+    public static final String NAME = "deflate";
+    public static final int DEFAULT_MAX_DECOMPRESSED_BYTES = 64 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER_BYTES = 1024 * 1024; // larger buffers are not pooled
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private final int level;
+    private final int maxDecompressedBytes;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Create a codec with the default compression level and maximum decompressed size.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCodec(int level) {
+        this(level, DEFAULT_MAX_DECOMPRESSED_BYTES);
+    }
+
+    /**
+     * @param level                compression level from {@link Deflater#BEST_SPEED} to
+     *                             {@link Deflater#BEST_COMPRESSION}
+     * @param maxDecompressedBytes largest size of a decompressed payload
+     */
+    public DeflateCodec(int level, int maxDecompressedBytes) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        if (maxDecompressedBytes < 1) {
+            throw new IllegalArgumentException("maxDecompressedBytes must be positive");
+        }
+        this.level = level;
+        this.maxDecompressedBytes = maxDecompressedBytes;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+        byte[] buffer = takeBuffer();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+            returnBuffer(buffer);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException also if the payload would be larger than the maximum decompressed size
+     */
+    @Override
+    public byte[] decompress(byte[] data) {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        byte[] buffer = takeBuffer();
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == maxDecompressedBytes) {
+                    throw new IllegalArgumentException("Deflate data expands to more than " + maxDecompressedBytes
+                            + " bytes");
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, maxDecompressedBytes));
+                }
+                int inflated = inflater.inflate(buffer, length, Math.min(buffer.length, maxDecompressedBytes) - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated deflate data");
+                }
+                length += inflated;
+            }
+            return Arrays.copyOf(buffer, length);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid deflate data", e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+            returnBuffer(buffer);
+        }
+    }
+
+    private byte[] takeBuffer() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[INITIAL_BUFFER_BYTES];
+    }
+
+    private void returnBuffer(byte[] buffer) {
+        if (buffer.length <= MAX_RETAINED_BUFFER_BYTES) {
+            buffers.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package fi.techappeal.messagingservice.codec;
+
+/**
+ * Compression algorithm for message payloads. The name of the codec is sent with each compressed message, so that
+ * the receiver can choose the same codec to decompress it.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface PayloadCodec {
+    /**
+     * @return name of the algorithm, e.g. {@code deflate}
+     */
+    String getName();
+
+    /**
+     * @param data uncompressed payload
+     * @return compressed payload
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * @param data compressed payload
+     * @return uncompressed payload
+     * @throws IllegalArgumentException if the data was not compressed with this algorithm
+     */
+    byte[] decompress(byte[] data);
+}
@@ -0,0 +1,136 @@
+package fi.techappeal.messagingservice.codec;
+
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Compresses message payloads for sending and decompresses them on receive. A compressed text payload is sent as
+ * Base64 text, as message bodies are strings, and a compressed binary payload as bytes, with the name of its codec in
+ * the {@value #ENCODING_ATTRIBUTE} attribute. Payloads that do not get smaller are sent as they are.
+ */
+public class PayloadCompression {
+    public static final String ENCODING_ATTRIBUTE = SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "content-encoding";
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * Compress the payload of a message if it is at least the threshold in size.
+     *
+     * @param message        message to send
+     * @param codec          compression algorithm
+     * @param thresholdBytes smallest size of a payload that is compressed, UTF-8 for text
+     * @return message with the compressed payload, or the same message if it was not compressed
+     */
+    public static SendMessageWrapper compress(SendMessageWrapper message, PayloadCodec codec, int thresholdBytes) {
+        ByteBuffer binaryPayload = message.getBinaryPayload();
+        if (binaryPayload != null) {
+            return compressBinary(message, binaryPayload, codec, thresholdBytes);
+        }
+        String payload = message.getPayload();
+        // A character takes at most 3 bytes in UTF-8, so short payloads are skipped without encoding them
+        if (payload == null || (long) payload.length() * 3 < thresholdBytes) {
+            return message;
+        }
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        if (data.length < thresholdBytes) {
+            return message;
+        }
+        String compressed = Base64.getEncoder().encodeToString(codec.compress(data));
+        if (compressed.length() >= data.length) {
+            return message;
+        }
+        return new SendMessageWrapper.Builder().payload(compressed)
+                .attributes(message.getAttributes())
+                .attribute(ENCODING_ATTRIBUTE, codec.getName())
+                .binaryAttributes(message.getBinaryAttributes())
+                .partitionKey(message.getPartitionKey())
+                .build();
+    }
+
+    private static SendMessageWrapper compressBinary(SendMessageWrapper message, ByteBuffer payload,
+                                                     PayloadCodec codec, int thresholdBytes) {
+        if (payload.remaining() < thresholdBytes) {
+            return message;
+        }
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        byte[] compressed = codec.compress(data);
+        if (compressed.length >= data.length) {
+            return message;
+        }
+        return new SendMessageWrapper.Builder().binaryPayload(compressed)
+                .attributes(message.getAttributes())
+                .attribute(ENCODING_ATTRIBUTE, codec.getName())
+                .binaryAttributes(message.getBinaryAttributes())
+                .partitionKey(message.getPartitionKey())
+                .build();
+    }
+
+    /**
+     * Decompress a received payload if it was compressed. The encoding attribute is removed from the attributes.
+     *
+     * @param payload    received payload
+     * @param attributes received attributes, modified
+     * @param codecs     codecs by name
+     * @return uncompressed payload
+     * @throws MessagingException if the codec of the payload is unknown or the payload is corrupted
+     */
+    public static String decompress(String payload, Map<String, String> attributes, Map<String, PayloadCodec> codecs) {
+        String encoding = attributes.remove(ENCODING_ATTRIBUTE);
+        return encoding == null ? payload : decompress(payload, getCodec(encoding, codecs));
+    }
+
+    /**
+     * Find the codec a received payload was compressed with.
+     *
+     * @param encoding value of the encoding attribute
+     * @param codecs   codecs by name
+     * @return codec
+     * @throws MessagingException if the codec is unknown
+     */
+    public static PayloadCodec getCodec(String encoding, Map<String, PayloadCodec> codecs) {
+        PayloadCodec codec = codecs.get(encoding);
+        if (codec == null) {
+            throw new MessagingException("Unsupported payload encoding: " + encoding, null);
+        }
+        return codec;
+    }
+
+    /**
+     * Decompress a received payload that was compressed.
+     *
+     * @param payload received payload
+     * @param codec   codec the payload was compressed with
+     * @return uncompressed payload
+     * @throws MessagingException if the payload is corrupted
+     */
+    public static String decompress(String payload, PayloadCodec codec) {
+        try {
+            return new String(codec.decompress(Base64.getDecoder().decode(payload)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new MessagingException("Invalid " + codec.getName() + " payload", e);
+        }
+    }
+
+    /**
+     * Decompress a received binary payload that was compressed.
+     *
+     * @param payload received payload
+     * @param codec   codec the payload was compressed with
+     * @return uncompressed payload
+     * @throws MessagingException if the payload is corrupted
+     */
+    public static byte[] decompress(byte[] payload, PayloadCodec codec) {
+        try {
+            return codec.decompress(payload);
+        } catch (IllegalArgumentException e) {
+            throw new MessagingException("Invalid " + codec.getName() + " payload", e);
+        }
+    }
+}
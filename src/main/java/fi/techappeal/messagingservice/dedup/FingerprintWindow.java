@@ -0,0 +1,219 @@
+package fi.techappeal.messagingservice.dedup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Set of ids seen within a time window, stored as 64-bit fingerprints in open-addressing tables of primitive longs,
+ * one table per time bucket. Ids are added to the newest bucket, and the oldest bucket is cleared and reused once the
+ * window has moved past it, so an id is remembered for at least the window and at most one bucket longer.
+ * <p>
+ * A fingerprint takes 8 bytes, and a table grows by doubling when it is three quarters full, so an id takes between
+ * 11 and 22 bytes. When the maximum number of ids is reached, the ids of the oldest bucket are dropped early, which
+ * shortens the window instead of growing the memory use further. Two different ids have the same fingerprint with a
+ * probability of 2<sup>-64</sup>, so a window of ten million ids mistakes a new id for a duplicate about once in
+ * 200 000 windows.
+ */
+final class FingerprintWindow {
+    static final int BUCKETS = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+    private final Bucket[] buckets = new Bucket[BUCKETS + 1];
+    private final long bucketNanos;
+    private final long maxIds;
+    private final LongSupplier clock;
+    private int newest;
+    private long newestStart;
+    private long size;
+
+    /**
+     * @param windowNanos length of the window in nanoseconds
+     * @param maxIds      maximum number of ids held
+     */
+    FingerprintWindow(long windowNanos, long maxIds) {
+        this(windowNanos, maxIds, System::nanoTime);
+    }
+
+    /**
+     * (Used for testing.)
+     *
+     * @param clock source of the current time in nanoseconds
+     */
+    FingerprintWindow(long windowNanos, long maxIds, LongSupplier clock) {
+        if (windowNanos < TimeUnit.MILLISECONDS.toNanos(BUCKETS) || maxIds < BUCKETS) {
+            throw new IllegalArgumentException("Invalid deduplication window: " + windowNanos + " ns, "
+                    + maxIds + " ids");
+        }
+        this.bucketNanos = windowNanos / BUCKETS;
+        this.maxIds = maxIds;
+        this.clock = clock;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.newestStart = clock.getAsLong();
+    }
+
+    /**
+     * @param id id
+     * @return true if the id was added within the window
+     */
+    synchronized boolean contains(String id) {
+        advance();
+        long fingerprint = fingerprint(id);
+        for (Bucket bucket : buckets) {
+            if (bucket.contains(fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add an id to the window.
+     *
+     * @param id id
+     * @return false if the id was already in the window
+     */
+    synchronized boolean add(String id) {
+        advance();
+        long fingerprint = fingerprint(id);
+        for (Bucket bucket : buckets) {
+            if (bucket.contains(fingerprint)) {
+                return false;
+            }
+        }
+        if (size >= maxIds) {
+            dropOldest();
+        }
+        buckets[newest].add(fingerprint);
+        size++;
+        return true;
+    }
+
+    /**
+     * @return number of ids in the window
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Clear the buckets that the window has moved past.
+     */
+    private void advance() {
+        long now = clock.getAsLong();
+        for (int i = 0; i < buckets.length && now - newestStart >= bucketNanos; i++) {
+            rotate();
+            newestStart += bucketNanos;
+        }
+        if (now - newestStart >= bucketNanos) {
+            newestStart = now; // idle for longer than the window, all buckets are empty
+        }
+    }
+
+    /**
+     * Make the oldest bucket the newest one, dropping its ids.
+     */
+    private void rotate() {
+        newest = (newest + 1) % buckets.length;
+        size -= buckets[newest].size;
+        buckets[newest].clear();
+    }
+
+    /**
+     * Drop the ids of the oldest bucket that has any, making room when the maximum number of ids is reached.
+     */
+    private void dropOldest() {
+        for (int i = 1; i <= buckets.length; i++) {
+            Bucket bucket = buckets[(newest + i) % buckets.length];
+            if (bucket.size > 0) {
+                size -= bucket.size;
+                bucket.clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters, finished with the MurmurHash3 mixer. 0 marks empty slots, so it is not
+     * used as a fingerprint.
+     */
+    static long fingerprint(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Open-addressing table of fingerprints with linear probing.
+     */
+    private static final class Bucket {
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size;
+
+        boolean contains(long fingerprint) {
+            if (size == 0) {
+                return false;
+            }
+            int mask = table.length - 1;
+            for (int i = (int) fingerprint & mask; table[i] != 0; i = (i + 1) & mask) {
+                if (table[i] == fingerprint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long fingerprint) {
+            if ((size + 1) * 4L > table.length * 3L) {
+                grow();
+            }
+            insert(table, fingerprint);
+            size++;
+        }
+
+        private static void insert(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int i = (int) fingerprint & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = fingerprint;
+        }
+
+        private void grow() {
+            long[] grown = new long[table.length * 2];
+            for (long fingerprint : table) {
+                if (fingerprint != 0) {
+                    insert(grown, fingerprint);
+                }
+            }
+            table = grown;
+        }
+
+        /**
+         * Empty the bucket. The table keeps the capacity the ids of the period needed, as the next period is likely
+         * to see as many ids, but no more, so that a burst does not keep its memory for good.
+         */
+        void clear() {
+            int capacity = INITIAL_CAPACITY;
+            while (size * 4L > capacity * 3L) {
+                capacity *= 2;
+            }
+            if (capacity < table.length) {
+                table = new long[capacity];
+            } else if (size > 0) {
+                Arrays.fill(table, 0);
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package fi.techappeal.messagingservice.dedup;
+
+import fi.techappeal.messagingservice.BatchMessageHandler;
+import fi.techappeal.messagingservice.MessageHandler;
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Idempotent consumer: skips the handler for messages that were already processed within a time window, e.g. a
+ * message that is delivered again because its visibility timeout expired while it was being handled. A message is
+ * identified by its id, or by the value of a deduplication attribute set by the sender if it has one.
+ * <p>
+ * Only messages that the handler processed are remembered, so a message that was skipped, abandoned or failed is
+ * handled again when it is redelivered. A duplicate is completed as processed without calling the handler, so that
+ * it is deleted from the queue. Duplicates that are delivered while the first delivery is still being handled are
+ * not detected. The ids are remembered in memory, so a duplicate is detected only by the receiver that processed
+ * the message.
+ */
+public class MessageDeduplicator {
+    private static final Logger logger = LoggerFactory.getLogger(MessageDeduplicator.class);
+    private static final long DEFAULT_MAX_IDS = 1_000_000;
+    private final FingerprintWindow window;
+    private final String idAttribute;
+
+    /**
+     * @param window      time a processed message is remembered for
+     * @param maxIds      maximum number of ids remembered; when reached, the oldest ids are forgotten early. An id
+     *                    takes about 11 to 22 bytes.
+     * @param idAttribute attribute holding the deduplication id, or null to use the message id
+     */
+    public MessageDeduplicator(Duration window, long maxIds, String idAttribute) {
+        this.window = new FingerprintWindow(window.toNanos(), maxIds);
+        this.idAttribute = idAttribute;
+    }
+
+    /**
+     * Create a deduplicator from the environment variables MESSAGING_DEDUP_WINDOW_SECONDS, MESSAGING_DEDUP_MAX_IDS
+     * (default 1000000) and MESSAGING_DEDUP_ATTRIBUTE (default the message id).
+     *
+     * @return deduplicator, or null if MESSAGING_DEDUP_WINDOW_SECONDS is not set
+     */
+    public static MessageDeduplicator fromEnvironment() {
+        if (System.getenv("MESSAGING_DEDUP_WINDOW_SECONDS") == null) {
+            return null;
+        }
+        long maxIds = System.getenv("MESSAGING_DEDUP_MAX_IDS") != null ?
+                Long.parseLong(System.getenv("MESSAGING_DEDUP_MAX_IDS")) : DEFAULT_MAX_IDS;
+        return new MessageDeduplicator(
+                Duration.ofSeconds(Long.parseLong(System.getenv("MESSAGING_DEDUP_WINDOW_SECONDS"))), maxIds,
+                System.getenv("MESSAGING_DEDUP_ATTRIBUTE"));
+    }
+
+    /**
+     * @param message received message
+     * @return true if a message with the same deduplication id was processed within the window
+     */
+    public boolean isDuplicate(ReceivedMessageWrapper message) {
+        String id = getDeduplicationId(message);
+        return id != null && window.contains(id);
+    }
+
+    /**
+     * Remember that a message was processed.
+     *
+     * @param message processed message
+     */
+    public void processed(ReceivedMessageWrapper message) {
+        String id = getDeduplicationId(message);
+        if (id != null) {
+            window.add(id);
+        }
+    }
+
+    /**
+     * Create a handler that skips duplicates and remembers the messages processed by the given handler.
+     *
+     * @param handler message handler
+     * @return deduplicating message handler
+     */
+    public MessageHandler handler(MessageHandler handler) {
+        return message -> {
+            if (isDuplicate(message)) {
+                logger.debug("Skipping duplicate message {}", message.getId());
+                return ProcessingState.PROCESSED;
+            }
+            ProcessingState state = handler.onMessageReceived(message);
+            if (state == ProcessingState.PROCESSED) {
+                processed(message);
+            }
+            return state;
+        };
+    }
+
+    /**
+     * Create a batch handler that hands only the messages that are not duplicates to the given handler, and
+     * remembers the messages it processed.
+     *
+     * @param handler batch message handler
+     * @return deduplicating batch message handler
+     */
+    public BatchMessageHandler batchHandler(BatchMessageHandler handler) {
+        return messages -> {
+            List<ReceivedMessageWrapper> unique = new ArrayList<>(messages.size());
+            for (ReceivedMessageWrapper message : messages) {
+                if (isDuplicate(message)) {
+                    logger.debug("Skipping duplicate message {}", message.getId());
+                } else {
+                    unique.add(message);
+                }
+            }
+            if (unique.size() == messages.size()) {
+                List<ProcessingState> states = handler.onMessagesReceived(messages);
+                rememberProcessed(messages, states);
+                return states;
+            }
+            List<ProcessingState> states = new ArrayList<>(messages.size());
+            List<ProcessingState> uniqueStates = unique.isEmpty() ? List.of() : handler.onMessagesReceived(unique);
+            rememberProcessed(unique, uniqueStates);
+            int next = 0;
+            for (ReceivedMessageWrapper message : messages) {
+                // The unique messages are in the same order as in the batch
+                boolean handled = next < unique.size() && unique.get(next) == message;
+                states.add(handled ? uniqueStates.get(next++) : ProcessingState.PROCESSED);
+            }
+            return states;
+        };
+    }
+
+    private void rememberProcessed(List<ReceivedMessageWrapper> messages, List<ProcessingState> states) {
+        for (int i = 0; i < messages.size() && i < states.size(); i++) {
+            if (states.get(i) == ProcessingState.PROCESSED) {
+                processed(messages.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return number of ids remembered
+     */
+    public long size() {
+        return window.size();
+    }
+
+    private String getDeduplicationId(ReceivedMessageWrapper message) {
+        String id = idAttribute != null ? message.getAttribute(idAttribute) : null;
+        return id != null ? id : message.getId();
+    }
+}
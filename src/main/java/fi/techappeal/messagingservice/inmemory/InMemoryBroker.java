@@ -0,0 +1,67 @@
+package fi.techappeal.messagingservice.inmemory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the in-memory queues shared by {@link InMemoryMessageSender}s and {@link InMemoryMessageReceiver}s.
+ * Queues are created on first use. A background thread returns messages whose visibility timeout has expired to
+ * their queues, so the visibility timeout has a granularity of {@value #EXPIRY_INTERVAL_MILLIS} milliseconds.
+ * <p>
+ * Senders and receivers created without a broker use the default broker, so that they see each other's messages
+ * within the JVM. Tests that need isolated queues can create a broker of their own.
+ */
+public class InMemoryBroker implements AutoCloseable {
+    static final long EXPIRY_INTERVAL_MILLIS = 10;
+    private static final InMemoryBroker DEFAULT = new InMemoryBroker();
+    private final ConcurrentHashMap<String, InMemoryQueue> queues = new ConcurrentHashMap<>(); // queue name -> queue
+    private final ScheduledExecutorService executor;
+
+    public InMemoryBroker() {
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inmemory-broker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::expireDeliveries, EXPIRY_INTERVAL_MILLIS, EXPIRY_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the broker shared by senders and receivers that were created without a broker.
+     *
+     * @return default broker
+     */
+    public static InMemoryBroker getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Delete all queues and their messages.
+     */
+    public void clear() {
+        queues.clear();
+    }
+
+    /**
+     * Stop returning expired messages to their queues.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    InMemoryQueue getQueue(String queueName) {
+        InMemoryQueue queue = queues.get(queueName);
+        return queue != null ? queue : queues.computeIfAbsent(queueName, InMemoryQueue::new);
+    }
+
+    private void expireDeliveries() {
+        long now = System.nanoTime();
+        for (InMemoryQueue queue : queues.values()) {
+            queue.expireDeliveries(now);
+        }
+    }
+}
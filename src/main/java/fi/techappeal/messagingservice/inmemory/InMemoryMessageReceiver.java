@@ -0,0 +1,290 @@
+package fi.techappeal.messagingservice.inmemory;
+
+import fi.techappeal.messagingservice.AcknowledgeableMessage;
+import fi.techappeal.messagingservice.BatchMessageHandler;
+import fi.techappeal.messagingservice.DeadLetter;
+import fi.techappeal.messagingservice.MessageHandler;
+import fi.techappeal.messagingservice.MessageReceiver;
+import fi.techappeal.messagingservice.PollingMessagePublisher;
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.dedup.MessageDeduplicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * In-memory implementation of {@link MessageReceiver}. Messages are received from the queues of an
+ * {@link InMemoryBroker} with the same semantics as SQS: a processed message is deleted, a skipped message is
+ * delivered again once its visibility timeout expires.
+ */
+public class InMemoryMessageReceiver implements MessageReceiver {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryMessageReceiver.class);
+    private static final long WAIT_TIME_MILLIS = 100; // short, so that stop() takes effect quickly
+    private final InMemoryBroker broker;
+    private volatile boolean isRunning;
+    private final AtomicInteger stops = new AtomicInteger(); // a publisher runs until the first stop after it opens
+    private int visibilityTimeout = 20;
+    private int maxNumberOfMessages = 10;
+    private volatile String deadLetterQueue;
+    private volatile MessageDeduplicator deduplicator;
+
+    /**
+     * Create a receiver that uses the default broker.
+     */
+    public InMemoryMessageReceiver() {
+        this(InMemoryBroker.getDefault());
+    }
+
+    /**
+     * @param broker broker holding the queues
+     */
+    public InMemoryMessageReceiver(InMemoryBroker broker) {
+        this.broker = broker;
+    }
+
+    /**
+     * Set the time a received message stays invisible to other receivers unless it is processed.
+     *
+     * @param visibilityTimeout visibility timeout in seconds
+     */
+    public void setVisibilityTimeout(int visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    /**
+     * Set the maximum number of messages received at a time.
+     *
+     * @param maxNumberOfMessages maximum number of messages per receive
+     */
+    public void setMaxNumberOfMessages(int maxNumberOfMessages) {
+        if (maxNumberOfMessages < 1) {
+            throw new IllegalArgumentException("maxNumberOfMessages must be positive");
+        }
+        this.maxNumberOfMessages = maxNumberOfMessages;
+    }
+
+    /**
+     * Set the queue that messages abandoned by the handler are moved to, with their payloads and attributes and the
+     * {@link DeadLetter} attributes added. Without a dead letter queue an abandoned message is left in its queue and
+     * delivered again once its visibility timeout expires.
+     *
+     * @param deadLetterQueue name of the dead letter queue, or null to leave abandoned messages in their queue
+     */
+    public void setDeadLetterQueue(String deadLetterQueue) {
+        this.deadLetterQueue = deadLetterQueue;
+    }
+
+    /**
+     * Set the deduplicator that skips the handler for messages already processed within its window.
+     *
+     * @param deduplicator deduplicator, or null to handle every received message
+     */
+    public void setDeduplicator(MessageDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Subscribe to messages of an in-memory queue. Messages are handled one at a time on the calling thread until
+     * the receiver is stopped.
+     *
+     * @param queueName      name of the queue
+     * @param messageHandler cloud-agnostic message handler
+     */
+    @Override
+    public void subscribe(String queueName, MessageHandler messageHandler) {
+        MessageHandler handler = deduplicator != null ? deduplicator.handler(messageHandler) : messageHandler;
+        receive(queueName, (queue, deliveries) -> {
+            for (InMemoryQueue.Delivery delivery : deliveries) {
+                handleMessage(queue, delivery, handler);
+            }
+        });
+    }
+
+    /**
+     * Subscribe to messages of an in-memory queue that are handed to the handler as they are received, up to the
+     * maximum number of messages at a time, on the calling thread until the receiver is stopped.
+     *
+     * @param queueName      name of the queue
+     * @param messageHandler batch message handler
+     */
+    @Override
+    public void subscribeBatch(String queueName, BatchMessageHandler messageHandler) {
+        BatchMessageHandler handler = deduplicator != null ? deduplicator.batchHandler(messageHandler) :
+                messageHandler;
+        receive(queueName, (queue, deliveries) -> handleBatch(queue, deliveries, handler));
+    }
+
+    /**
+     * Publish the messages of an in-memory queue to a single subscriber. Each receive asks for at most the demand of
+     * the subscriber, up to the maximum number of messages at a time.
+     *
+     * @param queueName name of the queue
+     * @return publisher of the messages of the queue
+     */
+    @Override
+    public Flow.Publisher<AcknowledgeableMessage> publisher(String queueName) {
+        return new MessagePublisher(broker.getQueue(queueName));
+    }
+
+    private void receive(String queueName, BiConsumer<InMemoryQueue, List<InMemoryQueue.Delivery>> handler) {
+        InMemoryQueue queue = broker.getQueue(queueName);
+        isRunning = true;
+        logger.debug("Starting to receive messages from in-memory queue: {}", queueName);
+        while (isRunning) {
+            List<InMemoryQueue.Delivery> deliveries;
+            try {
+                deliveries = queue.receive(maxNumberOfMessages, visibilityTimeout * 1000L, WAIT_TIME_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!deliveries.isEmpty()) {
+                handler.accept(queue, deliveries);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        isRunning = false;
+        stops.incrementAndGet();
+    }
+
+    /**
+     * Stop the receiver. The broker and its queues are left open.
+     */
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void handleMessage(InMemoryQueue queue, InMemoryQueue.Delivery delivery, MessageHandler messageHandler) {
+        complete(queue, delivery, messageHandler.onMessageReceived(createMessageWrapper(delivery.message)));
+    }
+
+    private void handleBatch(InMemoryQueue queue, List<InMemoryQueue.Delivery> deliveries,
+                             BatchMessageHandler messageHandler) {
+        List<ReceivedMessageWrapper> messages = new ArrayList<>(deliveries.size());
+        for (InMemoryQueue.Delivery delivery : deliveries) {
+            messages.add(createMessageWrapper(delivery.message));
+        }
+        List<ProcessingState> states = messageHandler.onMessagesReceived(messages);
+        if (states == null || states.size() != deliveries.size()) {
+            throw new IllegalStateException("Batch handler returned " + (states != null ? states.size() : 0)
+                    + " states for " + deliveries.size() + " messages");
+        }
+        for (int i = 0; i < deliveries.size(); i++) {
+            complete(queue, deliveries.get(i), states.get(i));
+        }
+    }
+
+    private void complete(InMemoryQueue queue, InMemoryQueue.Delivery delivery, ProcessingState state) {
+        switch (state) {
+            case PROCESSED: queue.delete(delivery.receiptHandle); break;
+            case SKIPPED: break;
+            case ABANDONED: abandonMessage(queue, delivery); break;
+        }
+    }
+
+    private void abandonMessage(InMemoryQueue queue, InMemoryQueue.Delivery delivery) {
+        String deadLetterQueue = this.deadLetterQueue;
+        if (deadLetterQueue == null) {
+            logger.warn("Abandoning message {} without a dead letter queue", delivery.message.id);
+            return;
+        }
+        logger.warn("Abandoning message {} to dead letter queue {}", delivery.message.id, deadLetterQueue);
+        InMemoryQueue.StoredMessage message = delivery.message;
+        Map<String, String> attributes = new HashMap<>(message.attributes);
+        attributes.put(DeadLetter.REASON_ATTRIBUTE, DeadLetter.abandonedReason(queue.getName()));
+        attributes.put(DeadLetter.RECEIVE_COUNT_ATTRIBUTE, Integer.toString(message.receiveCount));
+        String groupId = message.groupId != null ? message.groupId : "dead-letters"; // only used by FIFO queues
+        broker.getQueue(deadLetterQueue).send(message.payload, message.binaryPayload, groupId, attributes,
+                message.binaryAttributes);
+        queue.delete(delivery.receiptHandle);
+    }
+
+    /**
+     * Publishes the messages of a queue, receiving only as many messages as the subscriber has requested.
+     */
+    private final class MessagePublisher extends PollingMessagePublisher<PublishedMessage> {
+        private final InMemoryQueue queue;
+        private final MessageDeduplicator deduplicator = InMemoryMessageReceiver.this.deduplicator;
+        private int stopsAtOpen; // only used on the subscription thread
+
+        MessagePublisher(InMemoryQueue queue) {
+            super(queue.getName(), maxNumberOfMessages);
+            this.queue = queue;
+        }
+
+        @Override
+        protected void open() {
+            stopsAtOpen = stops.get();
+            logger.debug("Starting to publish messages from in-memory queue: {}", queue.getName());
+        }
+
+        @Override
+        protected List<PublishedMessage> receive(int maxMessages) throws InterruptedException {
+            List<InMemoryQueue.Delivery> deliveries = queue.receive(maxMessages, visibilityTimeout * 1000L,
+                    WAIT_TIME_MILLIS);
+            List<PublishedMessage> published = new ArrayList<>(deliveries.size());
+            for (InMemoryQueue.Delivery delivery : deliveries) {
+                ReceivedMessageWrapper wrapper = createMessageWrapper(delivery.message);
+                if (deduplicator != null && deduplicator.isDuplicate(wrapper)) {
+                    queue.delete(delivery.receiptHandle);
+                    continue;
+                }
+                published.add(new PublishedMessage(wrapper, delivery, state -> {
+                    if (state == ProcessingState.PROCESSED && deduplicator != null) {
+                        deduplicator.processed(wrapper);
+                    }
+                    complete(queue, delivery, state);
+                }));
+            }
+            return published;
+        }
+
+        @Override
+        protected void release(PublishedMessage message) {
+            queue.changeVisibility(message.delivery.receiptHandle, 0);
+        }
+
+        @Override
+        protected boolean isRunning() {
+            return stops.get() == stopsAtOpen; // not the flag of the subscriptions, so that they are not restarted
+        }
+    }
+
+    /**
+     * A message published by a {@link MessagePublisher}.
+     */
+    private static final class PublishedMessage extends AcknowledgeableMessage {
+        private final InMemoryQueue.Delivery delivery;
+
+        PublishedMessage(ReceivedMessageWrapper wrapper, InMemoryQueue.Delivery delivery,
+                         Consumer<ProcessingState> completion) {
+            super(wrapper, completion);
+            this.delivery = delivery;
+        }
+    }
+
+    private ReceivedMessageWrapper createMessageWrapper(InMemoryQueue.StoredMessage message) {
+        ReceivedMessageWrapper.Builder builder = message.binaryPayload != null ?
+                new ReceivedMessageWrapper.Builder().binaryPayload(message.binaryPayload) :
+                new ReceivedMessageWrapper.Builder().payload(message.payload);
+        message.binaryAttributes.forEach(builder::binaryAttribute);
+        return builder.attributes(message.attributes)
+                .id(message.id)
+                .partitionKey(message.groupId)
+                .sequenceNumber(message.groupId != null ? Long.toString(message.sequence) : null)
+                .build();
+    }
+}
@@ -0,0 +1,111 @@
+package fi.techappeal.messagingservice.inmemory;
+
+import fi.techappeal.messagingservice.MessageSender;
+import fi.techappeal.messagingservice.SendMessageResult;
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory implementation of {@link MessageSender}. Messages are added to the queues of an
+ * {@link InMemoryBroker} within the JVM, without any I/O. The partition key of a message is its message group id
+ * in FIFO queues, i.e. queues whose name ends with {@code .fifo}.
+ */
+public class InMemoryMessageSender implements MessageSender {
+    private final InMemoryBroker broker;
+
+    /**
+     * Create a sender that uses the default broker.
+     */
+    public InMemoryMessageSender() {
+        this(InMemoryBroker.getDefault());
+    }
+
+    /**
+     * @param broker broker holding the queues
+     */
+    public InMemoryMessageSender(InMemoryBroker broker) {
+        this.broker = broker;
+    }
+
+    /**
+     * Send a message to an in-memory queue.
+     *
+     * @param queueName name of the queue
+     * @param message   cloud-agnostic message
+     * @throws MessagingException if the queue is a FIFO queue and the message has no partition key
+     */
+    @Override
+    public void sendMessage(String queueName, SendMessageWrapper message) {
+        send(broker.getQueue(queueName), message);
+    }
+
+    /**
+     * Send a message to an in-memory queue. The message is sent before this method returns.
+     *
+     * @return completed future with the message id
+     */
+    @Override
+    public CompletableFuture<String> sendMessageAsync(String queueName, SendMessageWrapper message) {
+        try {
+            return CompletableFuture.completedFuture(send(broker.getQueue(queueName), message));
+        } catch (MessagingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public List<SendMessageResult> sendMessages(String queueName, List<SendMessageWrapper> messages) {
+        InMemoryQueue queue = broker.getQueue(queueName);
+        List<SendMessageResult> results = new ArrayList<>(messages.size());
+        for (SendMessageWrapper message : messages) {
+            try {
+                results.add(SendMessageResult.success(message, send(queue, message)));
+            } catch (MessagingException e) {
+                results.add(SendMessageResult.failure(message, e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Nothing to close, the queues belong to the broker.
+     */
+    @Override
+    public void close() {
+    }
+
+    private String send(InMemoryQueue queue, SendMessageWrapper message) {
+        if (queue.isFifo() && message.getPartitionKey() == null) {
+            throw new MessagingException("Partition key is required for FIFO queue " + queue.getName(), null);
+        }
+        Map<String, String> attributes = message.getAttributes().isEmpty() ? Map.of() :
+                new HashMap<>(message.getAttributes());
+        Map<String, ByteBuffer> binaryAttributes = Map.of();
+        if (!message.getBinaryAttributes().isEmpty()) {
+            binaryAttributes = new HashMap<>();
+            for (Map.Entry<String, ByteBuffer> attribute : message.getBinaryAttributes().entrySet()) {
+                binaryAttributes.put(attribute.getKey(), copy(attribute.getValue()));
+            }
+        }
+        ByteBuffer binaryPayload = message.getBinaryPayload();
+        return queue.send(message.getPayload(), binaryPayload != null ? copy(binaryPayload) : null,
+                message.getPartitionKey(), attributes, binaryAttributes);
+    }
+
+    /**
+     * Copy binary values when they are sent, as a messaging service would, so that the sender can reuse its
+     * buffers.
+     */
+    private static ByteBuffer copy(ByteBuffer value) {
+        ByteBuffer copy = ByteBuffer.allocate(value.remaining());
+        copy.put(value.duplicate()).flip();
+        return copy.asReadOnlyBuffer();
+    }
+}
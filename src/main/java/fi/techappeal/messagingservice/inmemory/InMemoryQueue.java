@@ -0,0 +1,304 @@
+package fi.techappeal.messagingservice.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single in-memory queue with SQS semantics. Received messages stay in the queue, invisible, until they are
+ * deleted with their receipt handle or their visibility timeout expires, after which they are delivered again.
+ * <p>
+ * Queues whose name ends with {@code .fifo} are FIFO queues: messages of a message group are delivered in the order
+ * they were sent, and no message of a group is delivered while another message of the group is in flight.
+ * <p>
+ * Messages ready for delivery are kept in a lock-free queue and counted by a semaphore, which receivers wait on for
+ * long polling. In a FIFO queue the ready entries are message groups rather than messages, and each group is
+ * guarded by its own lock.
+ */
+class InMemoryQueue {
+    private static final Comparator<StoredMessage> BY_SEQUENCE = Comparator.comparingLong(message -> message.sequence);
+    private final String name;
+    private final boolean fifo;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong receipts = new AtomicLong();
+    private final ConcurrentLinkedQueue<Object> ready = new ConcurrentLinkedQueue<>(); // StoredMessage or MessageGroup
+    private final Semaphore readyCount = new Semaphore(0);
+    private final ConcurrentHashMap<String, MessageGroup> groups = new ConcurrentHashMap<>(); // group id -> group
+    private final ConcurrentHashMap<String, Delivery> inFlight = new ConcurrentHashMap<>(); // receipt handle -> delivery
+
+    InMemoryQueue(String name) {
+        this.name = name;
+        this.fifo = name.endsWith(".fifo");
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isFifo() {
+        return fifo;
+    }
+
+    /**
+     * Add a message to the queue.
+     *
+     * @param payload    body of the message
+     * @param groupId    message group id, required for FIFO queues and ignored otherwise
+     * @param attributes attributes of the message
+     * @return message id
+     */
+    String send(String payload, String groupId, Map<String, String> attributes) {
+        return send(payload, null, groupId, attributes, Map.of());
+    }
+
+    /**
+     * Add a message with a text or binary payload to the queue. Binary values must not be modified afterwards.
+     *
+     * @param payload          text body of the message, or null
+     * @param binaryPayload    binary body of the message, or null
+     * @param groupId          message group id, required for FIFO queues and ignored otherwise
+     * @param attributes       attributes of the message
+     * @param binaryAttributes binary attributes of the message
+     * @return message id
+     */
+    String send(String payload, ByteBuffer binaryPayload, String groupId, Map<String, String> attributes,
+                Map<String, ByteBuffer> binaryAttributes) {
+        long messageSequence = sequence.incrementAndGet();
+        StoredMessage message = new StoredMessage(name + "-" + messageSequence, payload, binaryPayload,
+                fifo ? groupId : null, attributes, binaryAttributes, messageSequence);
+        if (!fifo) {
+            makeReady(message);
+            return message.id;
+        }
+        while (true) {
+            MessageGroup group = groups.computeIfAbsent(groupId, MessageGroup::new);
+            boolean becameReady;
+            synchronized (group) {
+                if (group.removed) {
+                    continue;
+                }
+                group.messages.add(message);
+                becameReady = group.becomeReady();
+            }
+            if (becameReady) {
+                makeReady(group);
+            }
+            return message.id;
+        }
+    }
+
+    /**
+     * Receive up to the given number of messages, waiting for the first one if none are ready.
+     *
+     * @param maxMessages       maximum number of messages
+     * @param visibilityTimeout time the messages stay invisible to other receivers, in milliseconds
+     * @param waitTime          maximum time to wait for a message, in milliseconds
+     * @return received messages, empty if none became ready in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<Delivery> receive(int maxMessages, long visibilityTimeout, long waitTime) throws InterruptedException {
+        if (!readyCount.tryAcquire(waitTime, TimeUnit.MILLISECONDS)) {
+            return List.of();
+        }
+        int units = 1;
+        while (units < maxMessages && readyCount.tryAcquire()) {
+            units++;
+        }
+        long visibleAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(visibilityTimeout);
+        List<Delivery> deliveries = new ArrayList<>(units);
+        for (int i = 0; i < units; i++) {
+            // Every permit is released after its entry was added, so there is always an entry to take
+            Object entry = ready.poll();
+            if (entry instanceof StoredMessage message) {
+                deliveries.add(deliver(message, visibleAt));
+                continue;
+            }
+            MessageGroup group = (MessageGroup) entry;
+            int room = maxMessages - deliveries.size();
+            if (room == 0) {
+                makeReady(group);
+                continue;
+            }
+            synchronized (group) {
+                group.queued = false;
+                while (room-- > 0 && !group.messages.isEmpty()) {
+                    group.inFlight++;
+                    deliveries.add(deliver(group.messages.poll(), visibleAt));
+                }
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * Delete a received message.
+     *
+     * @param receiptHandle receipt handle of the delivery
+     * @return false if the receipt handle is unknown or its visibility timeout has expired
+     */
+    boolean delete(String receiptHandle) {
+        Delivery delivery = inFlight.remove(receiptHandle);
+        if (delivery == null) {
+            return false;
+        }
+        if (fifo) {
+            settle(groups.get(delivery.message.groupId), null);
+        }
+        return true;
+    }
+
+    /**
+     * Change the time a received message stays invisible, counting from now. A timeout of 0 makes the message
+     * available to other receivers immediately.
+     *
+     * @param receiptHandle     receipt handle of the delivery
+     * @param visibilityTimeout new visibility timeout in milliseconds
+     * @return false if the receipt handle is unknown or its visibility timeout has expired
+     */
+    boolean changeVisibility(String receiptHandle, long visibilityTimeout) {
+        Delivery delivery = inFlight.get(receiptHandle);
+        if (delivery == null) {
+            return false;
+        }
+        if (visibilityTimeout <= 0) {
+            expire(delivery);
+        } else {
+            delivery.visibleAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(visibilityTimeout);
+        }
+        return true;
+    }
+
+    /**
+     * Return the messages whose visibility timeout has expired to the queue.
+     *
+     * @param now {@link System#nanoTime()}
+     */
+    void expireDeliveries(long now) {
+        for (Delivery delivery : inFlight.values()) {
+            if (delivery.visibleAt - now <= 0) {
+                expire(delivery);
+            }
+        }
+    }
+
+    private Delivery deliver(StoredMessage message, long visibleAt) {
+        message.receiveCount++;
+        Delivery delivery = new Delivery(Long.toString(receipts.incrementAndGet()), message, visibleAt);
+        inFlight.put(delivery.receiptHandle, delivery);
+        return delivery;
+    }
+
+    private void expire(Delivery delivery) {
+        if (!inFlight.remove(delivery.receiptHandle, delivery)) {
+            return;
+        }
+        if (fifo) {
+            settle(groups.get(delivery.message.groupId), delivery.message);
+        } else {
+            makeReady(delivery.message);
+        }
+    }
+
+    /**
+     * Account for a delivery of a FIFO group that was deleted or expired, and make the group ready again once none
+     * of its messages are in flight.
+     *
+     * @param expired message to return to the group, or null if the message was deleted
+     */
+    private void settle(MessageGroup group, StoredMessage expired) {
+        boolean becameReady;
+        synchronized (group) {
+            group.inFlight--;
+            if (expired != null) {
+                group.messages.add(expired);
+            }
+            becameReady = group.becomeReady();
+            if (group.inFlight == 0 && group.messages.isEmpty()) {
+                group.removed = true;
+                groups.remove(group.id, group);
+            }
+        }
+        if (becameReady) {
+            makeReady(group);
+        }
+    }
+
+    private void makeReady(Object entry) {
+        ready.add(entry);
+        readyCount.release();
+    }
+
+    /**
+     * A message in the queue. The receive count is only updated by the receiver that owns the message.
+     */
+    static final class StoredMessage {
+        final String id;
+        final String payload;
+        final ByteBuffer binaryPayload;
+        final String groupId;
+        final Map<String, String> attributes;
+        final Map<String, ByteBuffer> binaryAttributes;
+        final long sequence;
+        int receiveCount;
+
+        StoredMessage(String id, String payload, ByteBuffer binaryPayload, String groupId,
+                      Map<String, String> attributes, Map<String, ByteBuffer> binaryAttributes, long sequence) {
+            this.id = id;
+            this.payload = payload;
+            this.binaryPayload = binaryPayload;
+            this.groupId = groupId;
+            this.attributes = attributes;
+            this.binaryAttributes = binaryAttributes;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A received message that is in flight until it is deleted or its visibility timeout expires.
+     */
+    static final class Delivery {
+        final String receiptHandle;
+        final StoredMessage message;
+        volatile long visibleAt;
+
+        Delivery(String receiptHandle, StoredMessage message, long visibleAt) {
+            this.receiptHandle = receiptHandle;
+            this.message = message;
+            this.visibleAt = visibleAt;
+        }
+    }
+
+    /**
+     * Messages of a FIFO message group that have not been received, guarded by the group itself.
+     */
+    private static final class MessageGroup {
+        private final String id;
+        private final PriorityQueue<StoredMessage> messages = new PriorityQueue<>(BY_SEQUENCE);
+        private int inFlight;
+        private boolean queued;
+        private boolean removed;
+
+        MessageGroup(String id) {
+            this.id = id;
+        }
+
+        /**
+         * @return true if the group has to be added to the ready queue
+         */
+        boolean becomeReady() {
+            if (queued || inFlight > 0 || messages.isEmpty()) {
+                return false;
+            }
+            queued = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package fi.techappeal.messagingservice.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link MessagingMetrics} with {@link LongAdder} counters and {@link Histogram}s per queue. Recording
+ * is lock-free and does not allocate once a queue and operation have been seen. Use {@link #snapshot()} to
+ * export the metrics, e.g. periodically to a monitoring system. The metrics are cumulative since creation.
+ */
+public class DefaultMessagingMetrics implements MessagingMetrics {
+    private final ConcurrentHashMap<String, QueueMetrics> queues = new ConcurrentHashMap<>(); // queue name -> metrics
+
+    @Override
+    public void recordSent(String queueName, int count) {
+        queue(queueName).sent.add(count);
+    }
+
+    @Override
+    public void recordReceive(String queueName, int received, int requested) {
+        QueueMetrics metrics = queue(queueName);
+        metrics.receives.increment();
+        metrics.received.add(received);
+        if (received == 0) {
+            metrics.emptyReceives.increment();
+        }
+        if (requested > 0) {
+            metrics.batchFill.record(100L * received / requested);
+        }
+    }
+
+    @Override
+    public void recordHandlerDuration(String queueName, long nanos) {
+        queue(queueName).handlerDuration.record(nanos);
+    }
+
+    @Override
+    public void recordAcknowledgementLatency(String queueName, long nanos) {
+        queue(queueName).acknowledgementLatency.record(nanos);
+    }
+
+    @Override
+    public void recordApiLatency(String queueName, String operation, long nanos) {
+        queue(queueName).apiLatency.computeIfAbsent(operation, o -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public void recordError(String queueName, Throwable error) {
+        queue(queueName).errors.computeIfAbsent(error.getClass().getName(), e -> new LongAdder()).increment();
+    }
+
+    /**
+     * Take a snapshot of the metrics of all queues seen so far.
+     *
+     * @return snapshots by queue name
+     */
+    public Map<String, QueueMetricsSnapshot> snapshot() {
+        Map<String, QueueMetricsSnapshot> snapshot = new HashMap<>();
+        queues.forEach((queueName, metrics) -> snapshot.put(queueName, metrics.snapshot(queueName)));
+        return snapshot;
+    }
+
+    private QueueMetrics queue(String queueName) {
+        QueueMetrics metrics = queues.get(queueName);
+        return metrics != null ? metrics : queues.computeIfAbsent(queueName, q -> new QueueMetrics());
+    }
+
+    private static final class QueueMetrics {
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder received = new LongAdder();
+        private final LongAdder receives = new LongAdder();
+        private final LongAdder emptyReceives = new LongAdder();
+        private final Histogram batchFill = new Histogram();
+        private final Histogram handlerDuration = new Histogram();
+        private final Histogram acknowledgementLatency = new Histogram();
+        private final ConcurrentHashMap<String, Histogram> apiLatency = new ConcurrentHashMap<>(); // operation -> latency
+        private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>(); // exception class -> count
+
+        QueueMetricsSnapshot snapshot(String queueName) {
+            Map<String, HistogramSnapshot> apiLatencySnapshot = new HashMap<>();
+            apiLatency.forEach((operation, histogram) -> apiLatencySnapshot.put(operation, histogram.snapshot()));
+            Map<String, Long> errorsSnapshot = new HashMap<>();
+            errors.forEach((type, count) -> errorsSnapshot.put(type, count.sum()));
+            return new QueueMetricsSnapshot(queueName, sent.sum(), received.sum(), receives.sum(), emptyReceives.sum(),
+                    batchFill.snapshot(), handlerDuration.snapshot(), acknowledgementLatency.snapshot(),
+                    apiLatencySnapshot, errorsSnapshot);
+        }
+    }
+}
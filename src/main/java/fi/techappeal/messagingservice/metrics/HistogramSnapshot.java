@@ -0,0 +1,48 @@
+package fi.techappeal.messagingservice.metrics;
+
+/**
+ * Point-in-time copy of a {@link Histogram}.
+ *
+ * @param count   number of recorded values
+ * @param sum     sum of the recorded values
+ * @param max     largest recorded value, 0 if none
+ * @param buckets number of values in each bucket of the histogram
+ */
+public record HistogramSnapshot(long count, long sum, long max, long[] buckets) {
+
+    /**
+     * @return mean of the recorded values, 0 if none
+     */
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Value at a percentile, as the upper bound of the bucket that contains it. The result is never larger than
+     * the largest recorded value.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return value at the percentile, 0 if no values were recorded
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+}
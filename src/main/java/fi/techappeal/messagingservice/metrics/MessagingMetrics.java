@@ -0,0 +1,72 @@
+package fi.techappeal.messagingservice.metrics;
+
+/**
+ * Receives measurements from the message senders and receivers. Implementations are called on the hot path of
+ * sending and receiving, from many threads, so they must be thread-safe and cheap. All methods do nothing by
+ * default, so an implementation only needs to override the measurements it is interested in.
+ * <p>
+ * {@link DefaultMessagingMetrics} keeps the measurements in memory and provides snapshots for exporting them.
+ */
+public interface MessagingMetrics {
+    /**
+     * Metrics that discard all measurements. Used when no metrics are configured.
+     */
+    MessagingMetrics NOOP = new MessagingMetrics() {
+    };
+
+    /**
+     * Messages were sent successfully.
+     *
+     * @param queueName name of the queue
+     * @param count     number of messages
+     */
+    default void recordSent(String queueName, int count) {
+    }
+
+    /**
+     * A receive request completed.
+     *
+     * @param queueName name of the queue
+     * @param received  number of messages received, 0 for an empty receive
+     * @param requested maximum number of messages requested
+     */
+    default void recordReceive(String queueName, int received, int requested) {
+    }
+
+    /**
+     * A message handler returned.
+     *
+     * @param queueName name of the queue
+     * @param nanos     time spent in the handler in nanoseconds
+     */
+    default void recordHandlerDuration(String queueName, long nanos) {
+    }
+
+    /**
+     * A handled message was acknowledged to the messaging service, i.e. deleted from the queue.
+     *
+     * @param queueName name of the queue
+     * @param nanos     time from completing the message to the acknowledgement in nanoseconds
+     */
+    default void recordAcknowledgementLatency(String queueName, long nanos) {
+    }
+
+    /**
+     * A request to the messaging service completed, successfully or not.
+     *
+     * @param queueName name of the queue
+     * @param operation name of the API operation, e.g. SendMessageBatch
+     * @param nanos     duration of the request in nanoseconds
+     */
+    default void recordApiLatency(String queueName, String operation, long nanos) {
+    }
+
+    /**
+     * An operation or a message handler failed.
+     *
+     * @param queueName name of the queue
+     * @param error     the failure
+     */
+    default void recordError(String queueName, Throwable error) {
+    }
+}
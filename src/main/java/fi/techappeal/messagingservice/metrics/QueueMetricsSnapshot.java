@@ -0,0 +1,24 @@
+package fi.techappeal.messagingservice.metrics;
+
+import java.util.Map;
+
+/**
+ * Point-in-time copy of the metrics of a single queue, as collected by {@link DefaultMessagingMetrics}.
+ * Durations are in nanoseconds.
+ *
+ * @param queueName              name of the queue
+ * @param sent                   number of messages sent
+ * @param received               number of messages received
+ * @param receives               number of receive requests
+ * @param emptyReceives          number of receive requests that returned no messages
+ * @param batchFill              messages received per receive request, as a percentage of the requested maximum
+ * @param handlerDuration        time spent in the message handlers
+ * @param acknowledgementLatency time from completing a message to its acknowledgement
+ * @param apiLatency             duration of requests to the messaging service by operation
+ * @param errors                 number of errors by exception class name
+ */
+public record QueueMetricsSnapshot(String queueName, long sent, long received, long receives, long emptyReceives,
+                                   HistogramSnapshot batchFill, HistogramSnapshot handlerDuration,
+                                   HistogramSnapshot acknowledgementLatency, Map<String, HistogramSnapshot> apiLatency,
+                                   Map<String, Long> errors) {
+}
@@ -0,0 +1,51 @@
+package fi.techappeal.messagingservice.serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serialization of message payloads of one type. The content type of the codec is sent with each message, so that
+ * the receiver can choose the same codec to deserialize it.
+ * <p>
+ * The built-in implementation is {@link StringCodec}. Other formats, e.g. JSON with the library of the
+ * application, are added by extending {@link StreamMessageCodec} and registering the codec in a
+ * {@link MessageCodecRegistry}. Implementations must be thread-safe.
+ *
+ * @param <T> type of the payloads
+ */
+public interface MessageCodec<T> {
+    /**
+     * @return type of the payloads
+     */
+    Class<T> getType();
+
+    /**
+     * @return content type of the serialized payloads, e.g. {@code application/json}
+     */
+    String getContentType();
+
+    /**
+     * @param value payload
+     * @return serialized payload, owned by the caller
+     * @throws IllegalArgumentException if the payload cannot be serialized
+     */
+    byte[] encode(T value);
+
+    /**
+     * @param payload serialized payload, the remaining bytes of the buffer
+     * @return payload
+     * @throws IllegalArgumentException if the payload is not valid for this codec
+     */
+    T decode(ByteBuffer payload);
+
+    /**
+     * Deserialize a payload that was received as text, e.g. because it was sent by another client.
+     *
+     * @param payload serialized payload
+     * @return payload
+     * @throws IllegalArgumentException if the payload is not valid for this codec
+     */
+    default T decode(String payload) {
+        return decode(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+}
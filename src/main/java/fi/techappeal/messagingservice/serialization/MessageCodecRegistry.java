@@ -0,0 +1,180 @@
+package fi.techappeal.messagingservice.serialization;
+
+import fi.techappeal.messagingservice.MessageHandler;
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.TypedMessageHandler;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codecs by payload type and by content type. A payload is serialized with the codec of its class, or of its
+ * nearest superclass or interface that has one, and sent as a binary payload with the content type of the codec in
+ * the {@value #CONTENT_TYPE_ATTRIBUTE} attribute. A received payload is deserialized with the codec of its content
+ * type, or with the codec of the expected type if it has no content type.
+ * <p>
+ * Codecs are resolved once per type and cached. A new registry has a {@link StringCodec}.
+ */
+public class MessageCodecRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MessageCodecRegistry.class);
+    public static final String CONTENT_TYPE_ATTRIBUTE = "content-type";
+    private static final MessageCodecRegistry DEFAULT = new MessageCodecRegistry();
+    private final Map<Class<?>, MessageCodec<?>> codecsByType = new ConcurrentHashMap<>();
+    private final Map<String, MessageCodec<?>> codecsByContentType = new ConcurrentHashMap<>();
+    private final Map<Class<?>, MessageCodec<?>> resolved = new ConcurrentHashMap<>(); // type -> codec, cache
+
+    public MessageCodecRegistry() {
+        register(new StringCodec());
+    }
+
+    /**
+     * @return registry used by {@link fi.techappeal.messagingservice.MessageSender#send(String, Object)} and
+     * {@link fi.techappeal.messagingservice.MessageReceiver#subscribe(String, Class, TypedMessageHandler)}
+     */
+    public static MessageCodecRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Add a codec, replacing the codecs that were registered for the same type or content type.
+     *
+     * @param codec codec
+     * @return this registry
+     */
+    public MessageCodecRegistry register(MessageCodec<?> codec) {
+        codecsByType.put(codec.getType(), codec);
+        codecsByContentType.put(codec.getContentType(), codec);
+        resolved.clear();
+        return this;
+    }
+
+    /**
+     * Find the codec of a type, or of its nearest superclass or interface that has one.
+     *
+     * @param type payload type
+     * @return codec
+     * @throws MessagingException if no codec can serialize the type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> MessageCodec<? super T> getCodec(Class<T> type) {
+        MessageCodec<?> codec = resolved.get(type);
+        if (codec == null) {
+            codec = resolve(type);
+            if (codec == null) {
+                throw new MessagingException("No codec for " + type.getName(), null);
+            }
+            resolved.put(type, codec);
+        }
+        return (MessageCodec<? super T>) codec;
+    }
+
+    /**
+     * Find the codec of a content type.
+     *
+     * @param contentType content type
+     * @return codec
+     * @throws MessagingException if no codec has the content type
+     */
+    public MessageCodec<?> getCodec(String contentType) {
+        MessageCodec<?> codec = codecsByContentType.get(contentType);
+        if (codec == null) {
+            throw new MessagingException("No codec for content type " + contentType, null);
+        }
+        return codec;
+    }
+
+    /**
+     * Breadth-first search of the superclasses and interfaces, so that the nearest one wins.
+     */
+    private MessageCodec<?> resolve(Class<?> type) {
+        Deque<Class<?>> types = new ArrayDeque<>();
+        types.add(type);
+        while (!types.isEmpty()) {
+            Class<?> candidate = types.poll();
+            MessageCodec<?> codec = codecsByType.get(candidate);
+            if (codec != null) {
+                return codec;
+            }
+            if (candidate.getSuperclass() != null) {
+                types.add(candidate.getSuperclass());
+            }
+            types.addAll(List.of(candidate.getInterfaces()));
+        }
+        return null;
+    }
+
+    /**
+     * Serialize a payload into a message. Attributes and a partition key can be added to the returned builder.
+     *
+     * @param value payload
+     * @return builder of a message with the serialized payload
+     * @throws MessagingException if no codec can serialize the payload
+     */
+    @SuppressWarnings("unchecked")
+    public SendMessageWrapper.Builder toMessage(Object value) {
+        MessageCodec<Object> codec = (MessageCodec<Object>) getCodec(value.getClass());
+        byte[] payload;
+        try {
+            payload = codec.encode(value);
+        } catch (RuntimeException e) {
+            throw new MessagingException("Failed to serialize " + value.getClass().getName(), e);
+        }
+        return new SendMessageWrapper.Builder()
+                .binaryPayload(payload)
+                .attribute(CONTENT_TYPE_ATTRIBUTE, codec.getContentType());
+    }
+
+    /**
+     * Deserialize the payload of a received message. A binary payload is read from the received bytes.
+     *
+     * @param message received message
+     * @param type    expected payload type
+     * @return payload
+     * @throws MessagingException if the payload is not of the type or cannot be deserialized
+     */
+    public <T> T fromMessage(ReceivedMessageWrapper message, Class<T> type) {
+        String contentType = message.getAttribute(CONTENT_TYPE_ATTRIBUTE);
+        MessageCodec<?> codec = contentType != null ? getCodec(contentType) : getCodec(type);
+        if (!type.isAssignableFrom(codec.getType())) {
+            throw new MessagingException("Payload of message " + message.getId() + " is " + codec.getType().getName()
+                    + ", not " + type.getName(), null);
+        }
+        ByteBuffer binaryPayload = message.getBinaryPayload();
+        try {
+            return type.cast(binaryPayload != null ? codec.decode(binaryPayload) : codec.decode(message.getPayload()));
+        } catch (RuntimeException e) {
+            throw new MessagingException("Invalid " + codec.getContentType() + " payload in message "
+                    + message.getId(), e);
+        }
+    }
+
+    /**
+     * Create a handler that deserializes the payloads for a typed handler. A message that cannot be deserialized
+     * is abandoned, so that it is moved to the dead letter queue at once instead of being received again.
+     *
+     * @param type    payload type
+     * @param handler typed handler
+     * @return message handler
+     */
+    public <T> MessageHandler handler(Class<T> type, TypedMessageHandler<T> handler) {
+        return message -> {
+            T value;
+            try {
+                value = fromMessage(message, type);
+            } catch (MessagingException e) {
+                logger.warn("Abandoning message {}: {}", message.getId(), e.getMessage());
+                return ProcessingState.ABANDONED;
+            }
+            return handler.onMessageReceived(value, message);
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package fi.techappeal.messagingservice.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Base class of codecs that serialize with streams, e.g. with a JSON library:
+ * <pre>{@code
+ * class OrderCodec extends StreamMessageCodec<Order> {
+ *     OrderCodec() { super(Order.class, "application/json"); }
+ *     protected void write(Order value, OutputStream out) throws IOException { mapper.writeValue(out, value); }
+ *     protected Order read(InputStream in) throws IOException { return mapper.readValue(in, Order.class); }
+ * }
+ * }</pre>
+ * Payloads are written into an output buffer that each thread reuses, so serializing a payload only allocates the
+ * result, and read straight from the received bytes without copying them.
+ *
+ * @param <T> type of the payloads
+ */
+public abstract class StreamMessageCodec<T> implements MessageCodec<T> {
+    private static final int INITIAL_BUFFER_BYTES = 4 * 1024;
+    private static final int MAX_RETAINED_BUFFER_BYTES = 1024 * 1024; // larger buffers are not kept per thread
+    private static final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+    private final Class<T> type;
+    private final String contentType;
+
+    /**
+     * @param type        type of the payloads
+     * @param contentType content type of the serialized payloads
+     */
+    protected StreamMessageCodec(Class<T> type, String contentType) {
+        this.type = type;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Serialize a payload.
+     *
+     * @param value payload
+     * @param out   stream to write to, need not be closed
+     */
+    protected abstract void write(T value, OutputStream out) throws IOException;
+
+    /**
+     * Deserialize a payload.
+     *
+     * @param in stream of the serialized payload, need not be closed
+     * @return payload
+     */
+    protected abstract T read(InputStream in) throws IOException;
+
+    @Override
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        Buffer buffer = buffers.get();
+        if (buffer.inUse) {
+            buffer = new Buffer(); // a codec that encodes another payload while it writes
+        }
+        buffer.inUse = true;
+        try {
+            write(value, buffer);
+            return Arrays.copyOf(buffer.bytes, buffer.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize " + type.getName(), e);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public T decode(ByteBuffer payload) {
+        try {
+            return read(new ByteBufferInputStream(payload.duplicate()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid " + contentType + " payload", e);
+        }
+    }
+
+    /**
+     * Output buffer without the locking of {@link java.io.ByteArrayOutputStream}.
+     */
+    private static final class Buffer extends OutputStream {
+        private byte[] bytes = new byte[INITIAL_BUFFER_BYTES];
+        private int length;
+        private boolean inUse;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (bytes.length - length < extra) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void release() {
+            length = 0;
+            inUse = false;
+            if (bytes.length > MAX_RETAINED_BUFFER_BYTES) {
+                bytes = new byte[INITIAL_BUFFER_BYTES];
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package fi.techappeal.messagingservice.serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link MessageCodec} for text payloads in UTF-8.
+ */
+public class StringCodec implements MessageCodec<String> {
+    public static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    @Override
+    public Class<String> getType() {
+        return String.class;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(ByteBuffer payload) {
+        if (payload.hasArray()) {
+            return new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(),
+                    StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(String payload) {
+        return payload;
+    }
+}
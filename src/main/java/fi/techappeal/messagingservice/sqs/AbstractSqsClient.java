@@ -1,25 +1,46 @@
 package fi.techappeal.messagingservice.sqs;
 
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 
-import java.util.HashMap;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 abstract class AbstractSqsClient {
     private static final Logger logger = LoggerFactory.getLogger(AbstractSqsClient.class);
+    static final int MAX_BATCH_ENTRIES = 10; // SQS limit for entries in a single batch request
+    private static final int MAX_WARM_UP_THREADS = 16;
+    private final String regionString = System.getProperty("MESSAGING_SERVICE_REGION", "eu-central-1");
+    private final String endpointString = System.getProperty("MESSAGING_SERVICE_ENDPOINT");
+    private final SqsClientRegistry.SharedClients sharedClients;
+    private final AtomicBoolean closed = new AtomicBoolean();
     private SqsClient sqsClient;
-    private final Map<String, String> queueUrlCache = new HashMap<>(); // queue name -> queue url cache
+    private volatile SqsAsyncClient sqsAsyncClient;
+    private volatile MessagingMetrics metrics = MessagingMetrics.NOOP;
+    private volatile SqsRateLimiter rateLimiter = createRateLimiter();
+    private final Map<String, String> queueUrlCache = new ConcurrentHashMap<>(); // queue name -> queue url cache
     AbstractSqsClient() {
         super();
-        String regionString = System.getProperty("MESSAGING_SERVICE_REGION", "eu-central-1");
-        logger.debug("Initiating SQS client using region: {}", regionString);
-        this.sqsClient = SqsClient.builder()
-                .region(Region.of(regionString))
-                .build();
+        this.sharedClients = SqsClientRegistry.getDefault().acquire(regionString,
+                endpointString != null ? URI.create(endpointString) : null);
+        this.sqsClient = sharedClients.getSqsClient();
     }
 
     /**
@@ -32,14 +53,245 @@ abstract class AbstractSqsClient {
     }
 
     /**
-     * Allows manually setting the SQS client. (Used for testing.)
+     * Use the given SQS client instead of the client shared by the region and endpoint, e.g. one with its own
+     * credentials, or a stub in tests and benchmarks. The client is not closed by {@code close()}.
      *
-     * @param sqsClient Mocked SQS client
+     * @param sqsClient SQS client
      */
-    protected void setSqsClient(SqsClient sqsClient) {
+    public void setSqsClient(SqsClient sqsClient) {
         this.sqsClient = sqsClient;
     }
 
+    /**
+     * Get asynchronous SQS client, shared with the other senders and receivers of the same region and endpoint.
+     * The client is created on first use, as it starts its own event loop threads.
+     *
+     * @return asynchronous SQS client
+     */
+    protected SqsAsyncClient getSqsAsyncClient() {
+        SqsAsyncClient client = sqsAsyncClient;
+        return client != null ? client : sharedClients.getSqsAsyncClient();
+    }
+
+    /**
+     * Use the given asynchronous SQS client instead of the client shared by the region and endpoint. The client is
+     * not closed by {@code close()}.
+     *
+     * @param sqsAsyncClient asynchronous SQS client
+     */
+    public void setSqsAsyncClient(SqsAsyncClient sqsAsyncClient) {
+        this.sqsAsyncClient = sqsAsyncClient;
+    }
+
+    /**
+     * Set the metrics that receive measurements of the requests to SQS and of the messages.
+     *
+     * @param metrics metrics implementation, e.g. {@link fi.techappeal.messagingservice.metrics.DefaultMessagingMetrics}
+     */
+    public void setMetrics(MessagingMetrics metrics) {
+        this.metrics = metrics != null ? metrics : MessagingMetrics.NOOP;
+    }
+
+    /**
+     * Get the metrics of this instance.
+     *
+     * @return metrics, {@link MessagingMetrics#NOOP} if none were set
+     */
+    protected MessagingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Create the rate limiter configured with the {@code SQS_RATE_LIMIT} environment variables.
+     *
+     * @return rate limiter, or null if {@code SQS_RATE_LIMIT} is not set
+     */
+    private static SqsRateLimiter createRateLimiter() {
+        String initialRate = System.getenv("SQS_RATE_LIMIT");
+        if (initialRate == null) {
+            return null;
+        }
+        double rate = Double.parseDouble(initialRate);
+        String maxRate = System.getenv("SQS_RATE_LIMIT_MAX");
+        String maxWait = System.getenv("SQS_RATE_LIMIT_MAX_WAIT_MS");
+        return new SqsRateLimiter(rate,
+                maxRate != null ? Double.parseDouble(maxRate) : rate * SqsRateLimiter.DEFAULT_MAX_RATE_FACTOR,
+                TimeUnit.MILLISECONDS.toNanos(maxWait != null ? Long.parseLong(maxWait) : 1000));
+    }
+
+    /**
+     * Enable client-side rate limiting of the requests to SQS, growing up to ten times the initial rate.
+     *
+     * @param initialRate initial requests per second per queue
+     * @param maxWait     longest time a request waits for the rate limit, {@link Duration#ZERO} to fail immediately
+     * @see #setRateLimit(double, double, Duration)
+     */
+    public void setRateLimit(double initialRate, Duration maxWait) {
+        setRateLimit(initialRate, initialRate * SqsRateLimiter.DEFAULT_MAX_RATE_FACTOR, maxWait);
+    }
+
+    /**
+     * Enable client-side rate limiting of the requests to SQS. Each queue starts at the initial rate, which grows
+     * up to the maximum rate while requests succeed and is halved whenever SQS throttles a request. A request that
+     * cannot be sent within the maximum wait fails with a {@link RateLimitException} without being sent.
+     *
+     * @param initialRate initial requests per second per queue
+     * @param maxRate     highest requests per second per queue
+     * @param maxWait     longest time a request waits for the rate limit, {@link Duration#ZERO} to fail immediately
+     */
+    public void setRateLimit(double initialRate, double maxRate, Duration maxWait) {
+        if (initialRate < SqsRateLimiter.MIN_RATE || maxRate < initialRate || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Invalid rate limit: " + initialRate + "/s up to " + maxRate
+                    + "/s, max wait " + maxWait);
+        }
+        this.rateLimiter = new SqsRateLimiter(initialRate, maxRate, maxWait.toNanos());
+    }
+
+    /**
+     * Get the rate limiter of the requests to SQS.
+     *
+     * @return rate limiter, or null if rate limiting is not enabled
+     */
+    protected SqsRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Make a rate-limited request to SQS. The rate limiter is told whether SQS throttled the request. The latency
+     * and failure of the request are recorded as in {@link #timed}.
+     *
+     * @param queueName name of the queue the request is for
+     * @param operation name of the SQS API operation
+     * @param wait      true to wait for the rate limit as long as needed, e.g. on a polling thread that has no
+     *                  caller to report a rejection to
+     * @param request   the request
+     * @return result of the request
+     * @throws RateLimitException if the rate limit does not allow sending the request within the maximum wait
+     */
+    protected <T> T callSqs(String queueName, String operation, boolean wait, Supplier<T> request) {
+        SqsRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return timed(metrics, queueName, operation, request);
+        }
+        if (wait) {
+            limiter.await(queueName);
+        } else {
+            limiter.acquire(queueName);
+        }
+        T result;
+        try {
+            result = timed(metrics, queueName, operation, request);
+        } catch (RuntimeException e) {
+            if (SqsExceptionMapper.toCloudAgnosticException(e) instanceof RateLimitException) {
+                limiter.throttled(queueName);
+            }
+            throw e;
+        }
+        limiter.succeeded(queueName);
+        return result;
+    }
+
+    /**
+     * Make a request to SQS and record its latency, and its failure as the cloud-agnostic exception if it throws.
+     *
+     * @param metrics   metrics to record to
+     * @param queueName name of the queue the request is for
+     * @param operation name of the SQS API operation
+     * @param request   the request
+     * @return result of the request
+     */
+    static <T> T timed(MessagingMetrics metrics, String queueName, String operation, Supplier<T> request) {
+        long start = System.nanoTime();
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            metrics.recordError(queueName, SqsExceptionMapper.toCloudAgnosticException(e));
+            throw e;
+        } finally {
+            metrics.recordApiLatency(queueName, operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Make an asynchronous request to SQS and record its latency, and its failure as the cloud-agnostic exception if
+     * it fails.
+     *
+     * @param metrics   metrics to record to
+     * @param queueName name of the queue the request is for
+     * @param operation name of the SQS API operation
+     * @param request   the request
+     * @return future completed with the result of the request
+     */
+    static <T> CompletableFuture<T> timedAsync(MessagingMetrics metrics, String queueName, String operation,
+                                               Supplier<CompletableFuture<T>> request) {
+        long start = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = request.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, throwable) -> {
+            metrics.recordApiLatency(queueName, operation, System.nanoTime() - start);
+            if (throwable != null) {
+                metrics.recordError(queueName, SqsExceptionMapper.toCloudAgnosticException(throwable));
+            }
+        });
+    }
+
+    /**
+     * Tell whether the client sends requests with the asynchronous SQS client, which is then warmed up too.
+     *
+     * @return true if the asynchronous client is used
+     */
+    protected boolean usesAsyncClient() {
+        return false;
+    }
+
+    /**
+     * Release the shared SQS clients. They are closed once every sender and receiver using them has released them.
+     */
+    protected void closeClients() {
+        if (closed.compareAndSet(false, true)) {
+            sharedClients.release();
+        }
+    }
+
+    /**
+     * Resolve the urls of queues and open connections to SQS ahead of the first messages, so that they do not wait
+     * for the credentials, the connection and TLS handshakes, or the queue url. The queues are resolved in
+     * parallel, so that up to one connection per queue is opened. A client that also sends with the asynchronous
+     * SQS client resolves each queue with it as well, which starts its event loop and opens its connections.
+     *
+     * @param queueNames names of the queues
+     * @throws fi.techappeal.messagingservice.exceptions.MessagingException if a queue url cannot be resolved,
+     * e.g. because the queue does not exist
+     */
+    public void warmUp(Collection<String> queueNames) {
+        if (queueNames.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(queueNames.size(), MAX_WARM_UP_THREADS));
+        try {
+            boolean async = usesAsyncClient();
+            List<CompletableFuture<String>> urls = new ArrayList<>(async ? 2 * queueNames.size() : queueNames.size());
+            for (String queueName : queueNames) {
+                urls.add(CompletableFuture.supplyAsync(() -> requestQueueUrl(queueName), executor));
+                if (async) {
+                    urls.add(requestQueueUrlAsync(queueName));
+                }
+            }
+            CompletableFuture.allOf(urls.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw SqsExceptionMapper.toCloudAgnosticException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        logger.debug("Warmed up {} queues in {} ms", queueNames.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
     /**
      * Set queue url for a queue name. (Used for testing.)
      *
@@ -57,8 +309,48 @@ abstract class AbstractSqsClient {
      * @return queue url
      */
     protected String getQueueUrlForQueue(String queueName) {
-        return queueUrlCache.computeIfAbsent(queueName,
-                name -> sqsClient.getQueueUrl(GetQueueUrlRequest.builder().queueName(name).build()).queueUrl()
-        );
+        String queueUrl = queueUrlCache.get(queueName);
+        if (queueUrl != null) {
+            return queueUrl;
+        }
+        // Not resolved inside computeIfAbsent, which would block other queues of the same bin during the request
+        return requestQueueUrl(queueName);
+    }
+
+    /**
+     * Get queue url for a queue name from the SQS service, whether it is cached or not, and cache it.
+     */
+    private String requestQueueUrl(String queueName) {
+        String queueUrl = timed(metrics, queueName, "GetQueueUrl",
+                () -> sqsClient.getQueueUrl(GetQueueUrlRequest.builder().queueName(queueName).build()).queueUrl());
+        String previous = queueUrlCache.putIfAbsent(queueName, queueUrl);
+        return previous != null ? previous : queueUrl;
+    }
+
+    /**
+     * Get queue url for a queue name from the SQS service without blocking. Cache the queue url for future use.
+     *
+     * @param queueName queue name
+     * @return future completed with the queue url
+     */
+    protected CompletableFuture<String> getQueueUrlForQueueAsync(String queueName) {
+        String queueUrl = queueUrlCache.get(queueName);
+        if (queueUrl != null) {
+            return CompletableFuture.completedFuture(queueUrl);
+        }
+        return requestQueueUrlAsync(queueName);
+    }
+
+    /**
+     * Get queue url for a queue name from the SQS service with the asynchronous client, whether it is cached or not,
+     * and cache it.
+     */
+    private CompletableFuture<String> requestQueueUrlAsync(String queueName) {
+        return timedAsync(metrics, queueName, "GetQueueUrl",
+                () -> getSqsAsyncClient().getQueueUrl(GetQueueUrlRequest.builder().queueName(queueName).build()))
+                .thenApply(response -> {
+                    queueUrlCache.put(queueName, response.queueUrl());
+                    return response.queueUrl();
+                });
     }
 }
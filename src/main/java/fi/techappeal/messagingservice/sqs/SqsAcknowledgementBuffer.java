@@ -0,0 +1,255 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Collects receipt handles of completed messages and deletes them from SQS with DeleteMessageBatch requests.
+ * A batch is sent when it is full or when the flush interval of its oldest handle has passed. Deletes are sent
+ * from background threads, so the polling thread is not blocked by them. Failed deletes are retried with the
+ * next batch, up to {@link #MAX_ATTEMPTS} attempts.
+ */
+class SqsAcknowledgementBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(SqsAcknowledgementBuffer.class);
+    static final int MAX_ATTEMPTS = 3;
+    private final Supplier<SqsClient> sqsClient;
+    private final Supplier<MessagingMetrics> metrics;
+    private final long flushIntervalMillis;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, QueueAcknowledgements> queues = new ConcurrentHashMap<>(); // queue url -> handles
+    private int outstanding; // handles not yet deleted or given up, guarded by this
+
+    /**
+     * @param sqsClient           supplier of the client used for deleting the messages
+     * @param metrics             supplier of the metrics the deletes are recorded to
+     * @param flushIntervalMillis maximum time a handle waits for other handles to join its batch
+     */
+    SqsAcknowledgementBuffer(Supplier<SqsClient> sqsClient, Supplier<MessagingMetrics> metrics,
+                             long flushIntervalMillis) {
+        this.sqsClient = sqsClient;
+        this.metrics = metrics;
+        this.flushIntervalMillis = flushIntervalMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(4, runnable -> {
+            Thread thread = new Thread(runnable, "sqs-acknowledgements-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+        this.executor.allowCoreThreadTimeOut(true);
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedule deleting a message from the queue.
+     *
+     * @param queueName     name of the queue
+     * @param queueUrl      url of the queue
+     * @param receiptHandle receipt handle of the message
+     */
+    void acknowledge(String queueName, String queueUrl, String receiptHandle) {
+        acknowledge(queueName, queueUrl, receiptHandle, null);
+    }
+
+    /**
+     * Schedule deleting a message from the queue, and run a callback once the message has been deleted.
+     *
+     * @param queueName     name of the queue
+     * @param queueUrl      url of the queue
+     * @param receiptHandle receipt handle of the message
+     * @param onDeleted     callback run on a background thread after the delete succeeded, or null
+     */
+    void acknowledge(String queueName, String queueUrl, String receiptHandle, Runnable onDeleted) {
+        synchronized (this) {
+            outstanding++;
+        }
+        queues.computeIfAbsent(queueUrl, url -> new QueueAcknowledgements(queueName, url))
+                .add(new PendingDelete(receiptHandle, 1, System.nanoTime(), onDeleted));
+    }
+
+    /**
+     * Send all buffered deletes without waiting for them to complete.
+     */
+    void flushAsync() {
+        for (QueueAcknowledgements acknowledgements : queues.values()) {
+            acknowledgements.flush();
+        }
+    }
+
+    /**
+     * Send all buffered deletes and wait until they, and their retries, have completed.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true if all deletes completed in time
+     */
+    boolean flush(long timeoutMillis) {
+        flushAsync();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            long remaining = timeoutMillis;
+            while (outstanding > 0 && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return outstanding == 0;
+        }
+    }
+
+    /**
+     * Stop the background threads once the deletes already scheduled have been sent. Messages added afterwards are
+     * rejected, so the buffer should be flushed first.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private synchronized void completed(int count) {
+        outstanding -= count;
+        if (outstanding == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Delete a batch of messages. Entries that failed for a reason other than a fault of the request are
+     * returned to the buffer until they run out of attempts.
+     */
+    private void delete(String queueName, String queueUrl, List<PendingDelete> batch) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .receiptHandle(batch.get(i).receiptHandle)
+                    .build());
+        }
+        DeleteMessageBatchRequest request = DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build();
+        int retried = 0;
+        MessagingMetrics metrics = this.metrics.get();
+        try {
+            DeleteMessageBatchResponse response = AbstractSqsClient.timed(metrics, queueName, "DeleteMessageBatch",
+                    () -> sqsClient.get().deleteMessageBatch(request));
+            long now = System.nanoTime();
+            for (DeleteMessageBatchResultEntry entry : response.successful()) {
+                PendingDelete deleted = batch.get(Integer.parseInt(entry.id()));
+                metrics.recordAcknowledgementLatency(queueName, now - deleted.acknowledgedAt);
+                if (deleted.onDeleted != null) {
+                    runOnDeleted(queueName, deleted.onDeleted);
+                }
+            }
+            for (BatchResultErrorEntry entry : response.failed()) {
+                PendingDelete failed = batch.get(Integer.parseInt(entry.id()));
+                if (!Boolean.TRUE.equals(entry.senderFault()) && retry(queueUrl, failed)) {
+                    retried++;
+                } else {
+                    logger.warn("Failed to delete message from queue {}: {} {}", queueUrl, entry.code(), entry.message());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Failed to delete batch of {} messages from queue {}", batch.size(), queueUrl, e);
+            for (PendingDelete failed : batch) {
+                if (retry(queueUrl, failed)) {
+                    retried++;
+                } else {
+                    logger.warn("Failed to delete message from queue {}: {}", queueUrl, e.getMessage());
+                }
+            }
+        }
+        completed(batch.size() - retried);
+    }
+
+    private static void runOnDeleted(String queueName, Runnable onDeleted) {
+        try {
+            onDeleted.run();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to clean up after deleting message from queue {}", queueName, e);
+        }
+    }
+
+    private boolean retry(String queueUrl, PendingDelete failed) {
+        if (failed.attempt >= MAX_ATTEMPTS) {
+            return false;
+        }
+        queues.get(queueUrl).add(new PendingDelete(failed.receiptHandle, failed.attempt + 1, failed.acknowledgedAt,
+                failed.onDeleted));
+        return true;
+    }
+
+    private record PendingDelete(String receiptHandle, int attempt, long acknowledgedAt, Runnable onDeleted) {
+    }
+
+    /**
+     * Receipt handles waiting to be deleted from a single queue.
+     */
+    private final class QueueAcknowledgements {
+        private final String queueName;
+        private final String queueUrl;
+        private List<PendingDelete> pending;
+        private ScheduledFuture<?> flushTask;
+
+        QueueAcknowledgements(String queueName, String queueUrl) {
+            this.queueName = queueName;
+            this.queueUrl = queueUrl;
+            this.pending = new ArrayList<>(AbstractSqsClient.MAX_BATCH_ENTRIES);
+        }
+
+        void add(PendingDelete delete) {
+            List<PendingDelete> batch = null;
+            synchronized (this) {
+                pending.add(delete);
+                if (pending.size() >= AbstractSqsClient.MAX_BATCH_ENTRIES) {
+                    batch = drain();
+                } else if (pending.size() == 1) {
+                    flushTask = executor.schedule(this::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (batch != null) {
+                List<PendingDelete> fullBatch = batch;
+                executor.execute(() -> delete(queueName, queueUrl, fullBatch));
+            }
+        }
+
+        void flush() {
+            List<PendingDelete> batch;
+            synchronized (this) {
+                batch = drain();
+            }
+            if (!batch.isEmpty()) {
+                executor.execute(() -> delete(queueName, queueUrl, batch));
+            }
+        }
+
+        private List<PendingDelete> drain() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            List<PendingDelete> batch = pending;
+            pending = new ArrayList<>(AbstractSqsClient.MAX_BATCH_ENTRIES);
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package fi.techappeal.messagingservice.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClientBuilder;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.SqsClientBuilder;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQS clients shared by the senders and receivers of an application, one synchronous and one asynchronous client
+ * per region and endpoint. Sharing the clients shares their HTTP connection pools and event loop threads. The
+ * clients are reference counted: they are created for the first sender or receiver of a region and endpoint, and
+ * closed when the last one is closed.
+ */
+public class SqsClientRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SqsClientRegistry.class);
+    private static final SqsClientRegistry DEFAULT = new SqsClientRegistry(SqsHttpSettings.fromEnvironment());
+    private final Map<Key, SharedClients> clients = new HashMap<>(); // guarded by this
+    private volatile SqsHttpSettings httpSettings;
+
+    /**
+     * @param httpSettings settings of the HTTP clients
+     */
+    public SqsClientRegistry(SqsHttpSettings httpSettings) {
+        this.httpSettings = httpSettings;
+    }
+
+    /**
+     * @return registry used by {@link SqsMessageSender} and {@link SqsMessageReceiver}, with the HTTP settings of
+     * {@link SqsHttpSettings#fromEnvironment()}
+     */
+    public static SqsClientRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Set the settings of the HTTP clients. Clients that already exist keep their settings, so this should be
+     * called before the first sender or receiver is created.
+     *
+     * @param httpSettings settings of the HTTP clients
+     */
+    public void setHttpSettings(SqsHttpSettings httpSettings) {
+        this.httpSettings = httpSettings;
+    }
+
+    public SqsHttpSettings getHttpSettings() {
+        return httpSettings;
+    }
+
+    /**
+     * Take a reference to the clients of a region and endpoint, creating them if this is the first reference.
+     *
+     * @param region   AWS region
+     * @param endpoint endpoint, or null for the endpoint of the region
+     * @return clients, to be released once they are no longer used
+     */
+    synchronized SharedClients acquire(String region, URI endpoint) {
+        Key key = new Key(region, endpoint);
+        SharedClients shared = clients.get(key);
+        if (shared == null) {
+            logger.debug("Initiating SQS client using region: {}, endpoint: {}", region, endpoint);
+            shared = new SharedClients(key, createSqsClient(key.region, key.endpoint));
+            clients.put(key, shared);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    private synchronized void release(SharedClients shared) {
+        if (--shared.references > 0) {
+            return;
+        }
+        clients.remove(shared.key);
+        logger.debug("Closing SQS clients of region: {}, endpoint: {}", shared.key.region, shared.key.endpoint);
+        shared.sqsClient.close();
+        if (shared.sqsAsyncClient != null) {
+            shared.sqsAsyncClient.close();
+            shared.sqsAsyncClient = null; // not used after it is closed
+        }
+    }
+
+    /**
+     * Number of senders and receivers using the clients of a region and endpoint. (Used for testing.)
+     */
+    synchronized int getReferences(String region, URI endpoint) {
+        SharedClients shared = clients.get(new Key(region, endpoint));
+        return shared != null ? shared.references : 0;
+    }
+
+    SqsClient createSqsClient(String region, URI endpoint) {
+        SqsHttpSettings settings = httpSettings;
+        ApacheHttpClient.Builder httpClient = ApacheHttpClient.builder()
+                .maxConnections(settings.getMaxConnections())
+                .connectionMaxIdleTime(settings.getConnectionMaxIdleTime())
+                .tcpKeepAlive(settings.isTcpKeepAlive());
+        if (settings.getConnectionTimeToLive() != null) {
+            httpClient.connectionTimeToLive(settings.getConnectionTimeToLive());
+        }
+        SqsClientBuilder builder = SqsClient.builder()
+                .region(Region.of(region))
+                .httpClientBuilder(httpClient);
+        if (endpoint != null) {
+            builder.endpointOverride(endpoint);
+        }
+        return builder.build();
+    }
+
+    SqsAsyncClient createSqsAsyncClient(String region, URI endpoint) {
+        SqsHttpSettings settings = httpSettings;
+        logger.debug("Initiating async SQS client using region: {}, endpoint: {}, max concurrency: {}",
+                region, endpoint, settings.getMaxConcurrency());
+        NettyNioAsyncHttpClient.Builder httpClient = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(settings.getMaxConcurrency())
+                .connectionMaxIdleTime(settings.getConnectionMaxIdleTime())
+                .tcpKeepAlive(settings.isTcpKeepAlive());
+        if (settings.getConnectionTimeToLive() != null) {
+            httpClient.connectionTimeToLive(settings.getConnectionTimeToLive());
+        }
+        SqsAsyncClientBuilder builder = SqsAsyncClient.builder()
+                .region(Region.of(region))
+                .httpClientBuilder(httpClient);
+        if (endpoint != null) {
+            builder.endpointOverride(endpoint);
+        }
+        return builder.build();
+    }
+
+    private record Key(String region, URI endpoint) {
+    }
+
+    /**
+     * The clients of a region and endpoint. The asynchronous client is created on first use, as it starts its own
+     * event loop threads.
+     */
+    final class SharedClients {
+        private final Key key;
+        private final SqsClient sqsClient;
+        private volatile SqsAsyncClient sqsAsyncClient;
+        private int references; // guarded by the registry
+
+        private SharedClients(Key key, SqsClient sqsClient) {
+            this.key = key;
+            this.sqsClient = sqsClient;
+        }
+
+        SqsClient getSqsClient() {
+            return sqsClient;
+        }
+
+        SqsAsyncClient getSqsAsyncClient() {
+            SqsAsyncClient client = sqsAsyncClient;
+            if (client == null) {
+                synchronized (SqsClientRegistry.this) {
+                    client = sqsAsyncClient;
+                    if (client == null) {
+                        if (references == 0) {
+                            throw new IllegalStateException("SQS clients have been closed");
+                        }
+                        client = createSqsAsyncClient(key.region, key.endpoint);
+                        sqsAsyncClient = client;
+                    }
+                }
+            }
+            return client;
+        }
+
+        /**
+         * Drop a reference to the clients, closing them if it was the last one.
+         */
+        void release() {
+            SqsClientRegistry.this.release(this);
+        }
+    }
+}
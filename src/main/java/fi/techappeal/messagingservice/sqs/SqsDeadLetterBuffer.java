@@ -0,0 +1,312 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.DeadLetter;
+import fi.techappeal.messagingservice.RetryPolicy;
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Collects abandoned messages and moves them to a dead letter queue: the messages are sent to the dead letter queue
+ * with SendMessageBatch requests, and the sent messages are deleted from their queue through the
+ * {@link SqsAcknowledgementBuffer}. A batch is sent when it is full or when the flush interval of its oldest message
+ * has passed. The body and attributes of a message are sent as they were received, with the
+ * {@link DeadLetter} attributes added.
+ * <p>
+ * A failed request is retried with backoff, as long as its failure is retryable, and entries that failed for a
+ * reason other than a fault of the request are returned to the buffer until they run out of {@link #MAX_ATTEMPTS}
+ * attempts. A message that still could not be sent is not deleted, so it stays in its queue and is received again
+ * once its visibility timeout expires.
+ */
+class SqsDeadLetterBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(SqsDeadLetterBuffer.class);
+    static final int MAX_ATTEMPTS = 3;
+    private static final String FIFO_SUFFIX = ".fifo";
+    private static final String DEFAULT_GROUP_ID = "dead-letters";
+    private final BatchSender sender;
+    private final SqsRetrier retrier = new SqsRetrier(new RetryPolicy.Builder().build());
+    private final Supplier<MessagingMetrics> metrics;
+    private final SqsAcknowledgementBuffer acknowledgements;
+    private final long flushIntervalMillis;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, DeadLetterQueue> queues = new ConcurrentHashMap<>(); // url -> messages
+    private int outstanding; // messages not yet sent or given up, guarded by this
+
+    /**
+     * Sends a SendMessageBatch request to a dead letter queue.
+     */
+    interface BatchSender {
+        /**
+         * @param queueName name of the dead letter queue
+         * @param request   the request
+         * @return response of SQS
+         */
+        SendMessageBatchResponse send(String queueName, SendMessageBatchRequest request);
+    }
+
+    /**
+     * @param sender              sends the requests, rate limited and with their latency and failures recorded
+     * @param metrics             supplier of the metrics the sent messages are recorded to
+     * @param acknowledgements    buffer deleting the sent messages from their queues
+     * @param flushIntervalMillis maximum time a message waits for other messages to join its batch
+     */
+    SqsDeadLetterBuffer(BatchSender sender, Supplier<MessagingMetrics> metrics,
+                        SqsAcknowledgementBuffer acknowledgements, long flushIntervalMillis) {
+        this.sender = sender;
+        this.metrics = metrics;
+        this.acknowledgements = acknowledgements;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "sqs-dead-letters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+        this.executor.allowCoreThreadTimeOut(true);
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedule moving a message to a dead letter queue.
+     *
+     * @param queueName           name of the queue of the message
+     * @param queueUrl            url of the queue of the message
+     * @param deadLetterQueueName name of the dead letter queue
+     * @param deadLetterQueueUrl  url of the dead letter queue
+     * @param message             received message
+     * @param reason              value of the {@value DeadLetter#REASON_ATTRIBUTE} attribute
+     */
+    void deadLetter(String queueName, String queueUrl, String deadLetterQueueName, String deadLetterQueueUrl,
+                    Message message, String reason) {
+        synchronized (this) {
+            outstanding++;
+        }
+        queues.computeIfAbsent(deadLetterQueueUrl, url -> new DeadLetterQueue(deadLetterQueueName, url))
+                .add(new PendingDeadLetter(queueName, queueUrl, message, deadLetterAttributes(message, reason), 1));
+    }
+
+    /**
+     * Send all buffered messages and wait until they, and their retries, have been sent. The deletes from their
+     * queues are left to the acknowledgement buffer.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true if all messages were sent in time
+     */
+    boolean flush(long timeoutMillis) {
+        for (DeadLetterQueue queue : queues.values()) {
+            queue.flush();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            long remaining = timeoutMillis;
+            while (outstanding > 0 && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return outstanding == 0;
+        }
+    }
+
+    /**
+     * Stop the background threads once the sends already scheduled have been sent. Messages added afterwards are
+     * rejected, so the buffer should be flushed first.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private synchronized void completed(int count) {
+        outstanding -= count;
+        if (outstanding == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Attributes of the message with the dead letter attributes added, as far as the attribute limit allows.
+     */
+    static Map<String, MessageAttributeValue> deadLetterAttributes(Message message, String reason) {
+        Map<String, MessageAttributeValue> attributes = new HashMap<>(message.messageAttributes());
+        String receiveCount = message.attributesAsStrings()
+                .get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString());
+        addAttribute(attributes, DeadLetter.REASON_ATTRIBUTE, reason);
+        addAttribute(attributes, DeadLetter.RECEIVE_COUNT_ATTRIBUTE, receiveCount);
+        return attributes;
+    }
+
+    private static void addAttribute(Map<String, MessageAttributeValue> attributes, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        if (attributes.size() >= SqsMessageSender.MAX_MESSAGE_ATTRIBUTES && !attributes.containsKey(name)) {
+            logger.debug("No room for attribute {} in dead-lettered message", name);
+            return;
+        }
+        attributes.put(name, MessageAttributeValue.builder().dataType("String").stringValue(value).build());
+    }
+
+    /**
+     * Size of a message as counted by SQS: the body and the name, type and value of each attribute.
+     */
+    private static int messageSize(PendingDeadLetter deadLetter) {
+        int size = deadLetter.message.body().getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, MessageAttributeValue> attribute : deadLetter.attributes.entrySet()) {
+            MessageAttributeValue value = attribute.getValue();
+            size += attribute.getKey().length() + value.dataType().length()
+                    + (value.binaryValue() != null ? value.binaryValue().asByteArray().length
+                    : value.stringValue().getBytes(StandardCharsets.UTF_8).length);
+        }
+        return size;
+    }
+
+    /**
+     * Send a batch of messages to a dead letter queue and delete the sent messages from their queues. The request is
+     * retried on the calling thread, and entries that failed for a reason other than a fault of the request are
+     * returned to the buffer until they run out of attempts.
+     */
+    private void send(String deadLetterQueueName, String deadLetterQueueUrl, List<PendingDeadLetter> batch) {
+        boolean fifo = deadLetterQueueName.endsWith(FIFO_SUFFIX);
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i).message;
+            SendMessageBatchRequestEntry.Builder entry = SendMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .messageBody(message.body())
+                    .messageAttributes(batch.get(i).attributes);
+            if (fifo) {
+                String groupId = message.attributesAsStrings()
+                        .get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+                entry.messageGroupId(groupId != null ? groupId : DEFAULT_GROUP_ID)
+                        .messageDeduplicationId(message.messageId());
+            }
+            entries.add(entry.build());
+        }
+        SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                .queueUrl(deadLetterQueueUrl)
+                .entries(entries)
+                .build();
+        int retried = 0;
+        try {
+            SendMessageBatchResponse response = retrier.call(deadLetterQueueName,
+                    () -> sender.send(deadLetterQueueName, request));
+            metrics.get().recordSent(deadLetterQueueName, response.successful().size());
+            for (SendMessageBatchResultEntry entry : response.successful()) {
+                PendingDeadLetter sent = batch.get(Integer.parseInt(entry.id()));
+                logger.debug("Moved message {} from queue {} to dead letter queue {}", sent.message.messageId(),
+                        sent.queueName, deadLetterQueueName);
+                acknowledgements.acknowledge(sent.queueName, sent.queueUrl, sent.message.receiptHandle());
+            }
+            for (BatchResultErrorEntry entry : response.failed()) {
+                PendingDeadLetter failed = batch.get(Integer.parseInt(entry.id()));
+                if (!Boolean.TRUE.equals(entry.senderFault()) && retry(deadLetterQueueUrl, failed)) {
+                    retried++;
+                } else {
+                    logger.warn("Failed to move message {} to dead letter queue {}: {} {}",
+                            failed.message.messageId(), deadLetterQueueName, entry.code(), entry.message());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to move {} messages to dead letter queue {}: {}", batch.size(), deadLetterQueueName,
+                    e.getMessage());
+        }
+        completed(batch.size() - retried);
+    }
+
+    private boolean retry(String deadLetterQueueUrl, PendingDeadLetter failed) {
+        if (failed.attempt >= MAX_ATTEMPTS) {
+            return false;
+        }
+        queues.get(deadLetterQueueUrl).add(new PendingDeadLetter(failed.queueName, failed.queueUrl, failed.message,
+                failed.attributes, failed.attempt + 1));
+        return true;
+    }
+
+    private record PendingDeadLetter(String queueName, String queueUrl, Message message,
+                                     Map<String, MessageAttributeValue> attributes, int attempt) {
+    }
+
+    /**
+     * Messages waiting to be sent to a single dead letter queue.
+     */
+    private final class DeadLetterQueue {
+        private final String queueName;
+        private final String queueUrl;
+        private List<PendingDeadLetter> pending = new ArrayList<>(AbstractSqsClient.MAX_BATCH_ENTRIES);
+        private int pendingBytes;
+        private ScheduledFuture<?> flushTask;
+
+        DeadLetterQueue(String queueName, String queueUrl) {
+            this.queueName = queueName;
+            this.queueUrl = queueUrl;
+        }
+
+        void add(PendingDeadLetter deadLetter) {
+            int size = messageSize(deadLetter);
+            List<PendingDeadLetter> previous = null;
+            List<PendingDeadLetter> batch = null;
+            synchronized (this) {
+                if (!pending.isEmpty() && pendingBytes + size > SqsMessageSender.MAX_BATCH_PAYLOAD_BYTES) {
+                    previous = drain();
+                }
+                pending.add(deadLetter);
+                pendingBytes += size;
+                if (pending.size() >= AbstractSqsClient.MAX_BATCH_ENTRIES) {
+                    batch = drain();
+                } else if (pending.size() == 1) {
+                    flushTask = executor.schedule(this::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            execute(previous);
+            execute(batch);
+        }
+
+        void flush() {
+            List<PendingDeadLetter> batch;
+            synchronized (this) {
+                batch = drain();
+            }
+            execute(batch);
+        }
+
+        private void execute(List<PendingDeadLetter> batch) {
+            if (batch != null && !batch.isEmpty()) {
+                executor.execute(() -> send(queueName, queueUrl, batch));
+            }
+        }
+
+        private List<PendingDeadLetter> drain() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            List<PendingDeadLetter> batch = pending;
+            pending = new ArrayList<>(AbstractSqsClient.MAX_BATCH_ENTRIES);
+            pendingBytes = 0;
+            return batch;
+        }
+    }
+}
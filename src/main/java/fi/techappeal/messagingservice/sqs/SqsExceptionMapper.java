@@ -7,10 +7,13 @@ import fi.techappeal.messagingservice.exceptions.ApiTimeoutException;
 import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
 import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
 import software.amazon.awssdk.services.sqs.model.OverLimitException;
 import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
 import software.amazon.awssdk.services.sqs.model.SqsException;
 
+import java.util.concurrent.CompletionException;
+
 /**
  * Handles SQS exceptions.
  */
@@ -22,12 +25,21 @@ public class SqsExceptionMapper {
      * @throws NoSuchQueueException if the exception is a {@link QueueDoesNotExistException}
      */
     public static void mapToCloudAgnosticException(SqsException e) {
+        throw toCloudAgnosticException(e);
+    }
+
+    /**
+     * Converts SQS exceptions to cloud-agnostic exceptions without throwing them.
+     * @param e SQS exception
+     * @return {@link RateLimitException}, {@link NoSuchQueueException} or {@link MessagingException}
+     */
+    public static MessagingException toCloudAgnosticException(SqsException e) {
         if (e instanceof OverLimitException) {
-            throw new RateLimitException(e.getMessage(), e);
+            return new RateLimitException(e.getMessage(), e);
         } else if (e instanceof QueueDoesNotExistException) {
-            throw new NoSuchQueueException(e.getMessage(), e);
+            return new NoSuchQueueException(e.getMessage(), e);
         } else {
-            throw new MessagingException(e.getMessage(), e);
+            return new MessagingException(e.getMessage(), e);
         }
     }
 
@@ -37,10 +49,55 @@ public class SqsExceptionMapper {
      * @throws ApiTimeoutException if the exception is an {@link ApiCallAttemptTimeoutException} or an {@link ApiCallTimeoutException}
      */
     public static void mapToCloudAgnosticException(SdkException e) {
-        if(e instanceof ApiCallAttemptTimeoutException || e instanceof ApiCallTimeoutException) {
-            throw new ApiTimeoutException(e.getMessage(), e);
+        throw toCloudAgnosticException(e);
+    }
+
+    /**
+     * Converts SQS SDK exceptions to cloud-agnostic exceptions without throwing them.
+     * @param e SQS SDK exception
+     * @return {@link ApiTimeoutException} for timeouts, otherwise the result of the SQS specific mapping
+     */
+    public static MessagingException toCloudAgnosticException(SdkException e) {
+        if (e instanceof SqsException) {
+            return toCloudAgnosticException((SqsException) e);
+        } else if (e instanceof ApiCallAttemptTimeoutException || e instanceof ApiCallTimeoutException) {
+            return new ApiTimeoutException(e.getMessage(), e);
+        } else {
+            return new MessagingException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts a failed entry of an SQS batch request to a cloud-agnostic exception.
+     * @param entry failed batch entry
+     * @return {@link RateLimitException}, {@link NoSuchQueueException} or {@link MessagingException}
+     */
+    public static MessagingException toCloudAgnosticException(BatchResultErrorEntry entry) {
+        String message = entry.code() + ": " + entry.message();
+        if (entry.code() == null) {
+            return new MessagingException(message, null);
+        }
+        return switch (entry.code()) {
+            case "OverLimit", "RequestThrottled", "ThrottlingException" -> new RateLimitException(message, null);
+            case "AWS.SimpleQueueService.NonExistentQueue", "QueueDoesNotExist" ->
+                    new NoSuchQueueException(message, null);
+            default -> new MessagingException(message, null);
+        };
+    }
+
+    /**
+     * Converts the failure of an asynchronous SQS call to a cloud-agnostic exception.
+     * @param t failure, possibly wrapped in a {@link CompletionException}
+     * @return cloud-agnostic exception
+     */
+    public static MessagingException toCloudAgnosticException(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof MessagingException) {
+            return (MessagingException) cause;
+        } else if (cause instanceof SdkException) {
+            return toCloudAgnosticException((SdkException) cause);
         } else {
-            throw new MessagingException(e.getMessage(), e);
+            return new MessagingException(cause.getMessage(), cause);
         }
     }
 }
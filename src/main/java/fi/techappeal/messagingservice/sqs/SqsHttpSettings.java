@@ -0,0 +1,166 @@
+package fi.techappeal.messagingservice.sqs;
+
+import java.time.Duration;
+
+/**
+ * Settings of the HTTP connection pools of the SQS clients in a {@link SqsClientRegistry}. The synchronous client
+ * uses the Apache HTTP client and the asynchronous client the Netty client; both take the same connection settings.
+ */
+public class SqsHttpSettings {
+    private final int maxConnections;
+    private final int maxConcurrency;
+    private final Duration connectionTimeToLive;
+    private final Duration connectionMaxIdleTime;
+    private final boolean tcpKeepAlive;
+
+    private SqsHttpSettings(int maxConnections, int maxConcurrency, Duration connectionTimeToLive,
+                            Duration connectionMaxIdleTime, boolean tcpKeepAlive) {
+        this.maxConnections = maxConnections;
+        this.maxConcurrency = maxConcurrency;
+        this.connectionTimeToLive = connectionTimeToLive;
+        this.connectionMaxIdleTime = connectionMaxIdleTime;
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    /**
+     * Returns the maximum number of connections of the synchronous client.
+     * @return maximum number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns the maximum number of concurrent requests, i.e. connections, of the asynchronous client.
+     * @return maximum number of concurrent requests
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the time after which a connection is closed instead of being reused, or null if connections live
+     * until they are idle for too long.
+     * @return connection time to live
+     */
+    public Duration getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * Returns the time after which an idle connection is closed.
+     * @return maximum idle time
+     */
+    public Duration getConnectionMaxIdleTime() {
+        return connectionMaxIdleTime;
+    }
+
+    /**
+     * Returns whether TCP keep-alive probes are sent on idle connections.
+     * @return true if TCP keep-alive is enabled
+     */
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    /**
+     * Create settings from the environment variables SQS_MAX_CONNECTIONS, SQS_MAX_CONCURRENCY,
+     * SQS_CONNECTION_TTL_MS, SQS_CONNECTION_MAX_IDLE_MS and SQS_TCP_KEEP_ALIVE, with the defaults of the builder
+     * for the variables that are not set.
+     *
+     * @return settings
+     */
+    public static SqsHttpSettings fromEnvironment() {
+        Builder builder = new Builder();
+        if (System.getenv("SQS_MAX_CONNECTIONS") != null) {
+            builder.maxConnections(Integer.parseInt(System.getenv("SQS_MAX_CONNECTIONS")));
+        }
+        if (System.getenv("SQS_MAX_CONCURRENCY") != null) {
+            builder.maxConcurrency(Integer.parseInt(System.getenv("SQS_MAX_CONCURRENCY")));
+        }
+        if (System.getenv("SQS_CONNECTION_TTL_MS") != null) {
+            builder.connectionTimeToLive(Duration.ofMillis(Long.parseLong(System.getenv("SQS_CONNECTION_TTL_MS"))));
+        }
+        if (System.getenv("SQS_CONNECTION_MAX_IDLE_MS") != null) {
+            builder.connectionMaxIdleTime(
+                    Duration.ofMillis(Long.parseLong(System.getenv("SQS_CONNECTION_MAX_IDLE_MS"))));
+        }
+        if (System.getenv("SQS_TCP_KEEP_ALIVE") != null) {
+            builder.tcpKeepAlive(Boolean.parseBoolean(System.getenv("SQS_TCP_KEEP_ALIVE")));
+        }
+        return builder.build();
+    }
+
+    public static class Builder {
+        private int maxConnections = 50;
+        private int maxConcurrency = 50;
+        private Duration connectionTimeToLive;
+        private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+        private boolean tcpKeepAlive;
+
+        /**
+         * Set the maximum number of connections of the synchronous client. The default is 50.
+         * @param maxConnections maximum number of connections
+         * @return Builder
+         */
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of concurrent requests of the asynchronous client. The default is 50.
+         * @param maxConcurrency maximum number of concurrent requests
+         * @return Builder
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Close connections after they have been open for the given time, e.g. so that DNS changes are picked up.
+         * By default connections are not closed for their age.
+         * @param connectionTimeToLive connection time to live
+         * @return Builder
+         */
+        public Builder connectionTimeToLive(Duration connectionTimeToLive) {
+            this.connectionTimeToLive = connectionTimeToLive;
+            return this;
+        }
+
+        /**
+         * Set the time after which an idle connection is closed. The default is 60 s.
+         * @param connectionMaxIdleTime maximum idle time
+         * @return Builder
+         */
+        public Builder connectionMaxIdleTime(Duration connectionMaxIdleTime) {
+            this.connectionMaxIdleTime = connectionMaxIdleTime;
+            return this;
+        }
+
+        /**
+         * Send TCP keep-alive probes on idle connections, so that they are not dropped by firewalls and load
+         * balancers. Disabled by default.
+         * @param tcpKeepAlive true to enable TCP keep-alive
+         * @return Builder
+         */
+        public Builder tcpKeepAlive(boolean tcpKeepAlive) {
+            this.tcpKeepAlive = tcpKeepAlive;
+            return this;
+        }
+
+        public SqsHttpSettings build() {
+            if (maxConnections < 1 || maxConcurrency < 1) {
+                throw new IllegalArgumentException("maxConnections and maxConcurrency must be positive");
+            }
+            if ((connectionTimeToLive != null && connectionTimeToLive.isNegative())
+                    || connectionMaxIdleTime.isNegative()) {
+                throw new IllegalArgumentException("Invalid connection lifetimes: time to live "
+                        + connectionTimeToLive + ", max idle time " + connectionMaxIdleTime);
+            }
+            return new SqsHttpSettings(maxConnections, maxConcurrency, connectionTimeToLive, connectionMaxIdleTime,
+                    tcpKeepAlive);
+        }
+    }
+}
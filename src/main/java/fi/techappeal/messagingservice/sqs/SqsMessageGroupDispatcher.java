@@ -0,0 +1,155 @@
+package fi.techappeal.messagingservice.sqs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the tasks of a message group strictly one after another in the order they were dispatched, while tasks of
+ * different groups run in parallel on the executor. After each task the group goes to the back of the executor
+ * queue, so that a busy group does not hold a worker while other groups are waiting. When a task fails, the pending
+ * tasks of its group are discarded instead of run, so that no later message of the group is handled before the
+ * failed one is received again.
+ * <p>
+ * The number of groups with pending tasks and the number of pending tasks per group are bounded; dispatching
+ * blocks until the task fits.
+ */
+class SqsMessageGroupDispatcher {
+    private final Executor executor;
+    private final int maxActiveGroups;
+    private final int maxGroupQueueLength;
+    private final Map<String, ArrayDeque<GroupTask>> groups = new HashMap<>(); // group id -> tasks, guarded by this
+
+    /**
+     * A task of a message group.
+     */
+    interface GroupTask {
+        /**
+         * Run the task.
+         *
+         * @return true if the later tasks of the group may run, false if they must be discarded
+         */
+        boolean run();
+
+        /**
+         * Give up the task without running it, because an earlier task of its group failed.
+         */
+        void discard();
+    }
+
+    /**
+     * @param executor            executor running the tasks
+     * @param maxActiveGroups     maximum number of groups with pending tasks
+     * @param maxGroupQueueLength maximum number of pending tasks per group, including the running one
+     */
+    SqsMessageGroupDispatcher(Executor executor, int maxActiveGroups, int maxGroupQueueLength) {
+        this.executor = executor;
+        this.maxActiveGroups = maxActiveGroups;
+        this.maxGroupQueueLength = maxGroupQueueLength;
+    }
+
+    /**
+     * Queue a task after the earlier tasks of its group. Blocks while the group is full, or while a new group
+     * would exceed the maximum number of active groups.
+     *
+     * @param groupId id of the message group
+     * @param task    task to run
+     */
+    void dispatch(String groupId, GroupTask task) {
+        boolean interrupted = false;
+        boolean start = false;
+        synchronized (this) {
+            while (true) {
+                ArrayDeque<GroupTask> tasks = groups.get(groupId);
+                if (tasks == null && groups.size() < maxActiveGroups) {
+                    tasks = new ArrayDeque<>();
+                    groups.put(groupId, tasks);
+                    start = true;
+                }
+                if (tasks != null && tasks.size() < maxGroupQueueLength) {
+                    tasks.add(task);
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (start) {
+            try {
+                executor.execute(() -> runNext(groupId));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    groups.remove(groupId);
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Run the oldest task of a group and reschedule the group if it has more tasks. If the task fails, or the
+     * group cannot be rescheduled, the remaining tasks of the group are discarded.
+     */
+    private void runNext(String groupId) {
+        GroupTask task;
+        synchronized (this) {
+            task = groups.get(groupId).peek();
+        }
+        boolean succeeded = false;
+        try {
+            succeeded = task.run();
+        } finally {
+            boolean more;
+            List<GroupTask> discarded = List.of();
+            synchronized (this) {
+                ArrayDeque<GroupTask> tasks = groups.get(groupId);
+                tasks.poll();
+                if (!succeeded) {
+                    discarded = new ArrayList<>(tasks);
+                    tasks.clear();
+                }
+                more = !tasks.isEmpty();
+                if (!more) {
+                    groups.remove(groupId);
+                }
+                notifyAll();
+            }
+            if (more) {
+                try {
+                    executor.execute(() -> runNext(groupId));
+                } catch (RejectedExecutionException e) {
+                    discarded = removeGroup(groupId);
+                }
+            }
+            discardAll(discarded);
+        }
+    }
+
+    /**
+     * Remove a group with its pending tasks, so that dispatching to it does not wait for a run that never comes.
+     *
+     * @return pending tasks of the group
+     */
+    private synchronized List<GroupTask> removeGroup(String groupId) {
+        ArrayDeque<GroupTask> tasks = groups.remove(groupId);
+        notifyAll();
+        return tasks != null ? new ArrayList<>(tasks) : List.of();
+    }
+
+    private static void discardAll(List<GroupTask> tasks) {
+        for (GroupTask task : tasks) {
+            task.discard();
+        }
+    }
+}
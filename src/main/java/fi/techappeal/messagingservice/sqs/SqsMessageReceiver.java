@@ -1,30 +1,265 @@
 package fi.techappeal.messagingservice.sqs;
 
+import fi.techappeal.messagingservice.AcknowledgeableMessage;
+import fi.techappeal.messagingservice.BatchMessageHandler;
+import fi.techappeal.messagingservice.DeadLetter;
 import fi.techappeal.messagingservice.MessageHandler;
 import fi.techappeal.messagingservice.MessageReceiver;
+import fi.techappeal.messagingservice.PollingMessagePublisher;
 import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.QueueSubscription;
 import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.claimcheck.ClaimCheck;
+import fi.techappeal.messagingservice.claimcheck.FileSystemPayloadStore;
+import fi.techappeal.messagingservice.claimcheck.PayloadStore;
+import fi.techappeal.messagingservice.codec.DeflateCodec;
+import fi.techappeal.messagingservice.codec.PayloadCodec;
+import fi.techappeal.messagingservice.dedup.MessageDeduplicator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.sqs.model.*;
 
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 /**
  * SQS specific implementation of {@link MessageReceiver}.
  */
 public class SqsMessageReceiver extends AbstractSqsClient implements MessageReceiver {
     private static final Logger logger = LoggerFactory.getLogger(SqsMessageReceiver.class);
-    private boolean isRunning;
-    private final Integer visibilityTimeout = System.getenv("SQS_VISIBILITY_TIMEOUT") != null ?
+    private volatile boolean isRunning;
+    private final AtomicInteger stops = new AtomicInteger(); // a publisher runs until the first stop after it opens
+    private Integer visibilityTimeout = System.getenv("SQS_VISIBILITY_TIMEOUT") != null ?
             Integer.parseInt(System.getenv("SQS_VISIBILITY_TIMEOUT")) : 20;
+    private final Integer waitTimeSeconds = System.getenv("SQS_WAIT_TIME_SECONDS") != null ?
+            Integer.parseInt(System.getenv("SQS_WAIT_TIME_SECONDS")) : 20;
     private final Integer maxNumberOfMessages = System.getenv("SQS_MAX_NUMBER_OF_MESSAGES") != null ?
             Integer.parseInt(System.getenv("SQS_MAX_NUMBER_OF_MESSAGES")) : 10;
+    private final Integer ackFlushIntervalMillis = System.getenv("SQS_ACK_FLUSH_INTERVAL_MS") != null ?
+            Integer.parseInt(System.getenv("SQS_ACK_FLUSH_INTERVAL_MS")) : 100;
+    private static final long ACK_FLUSH_TIMEOUT_MILLIS = 30_000;
+    private static final long HANDLER_TIMEOUT_MILLIS = 60_000;
+    private static final long BACKLOG_SAMPLE_INTERVAL_MILLIS = 10_000;
+    private final SqsAcknowledgementBuffer acknowledgements;
+    private final SqsDeadLetterBuffer deadLetters;
+    private int concurrency = 1;
+    private ExecutorService executor;
+    private int minPollers = System.getenv("SQS_MIN_POLLERS") != null ?
+            Integer.parseInt(System.getenv("SQS_MIN_POLLERS")) : 1;
+    private int maxPollers = System.getenv("SQS_MAX_POLLERS") != null ?
+            Integer.parseInt(System.getenv("SQS_MAX_POLLERS")) : 1;
+    private int prefetch = System.getenv("SQS_PREFETCH") != null ?
+            Integer.parseInt(System.getenv("SQS_PREFETCH")) : 0;
+    private int maxProcessingSeconds = System.getenv("SQS_MAX_PROCESSING_SECONDS") != null ?
+            Integer.parseInt(System.getenv("SQS_MAX_PROCESSING_SECONDS")) : 900;
+    private boolean orderedByGroup;
+    private int maxActiveGroups = System.getenv("SQS_MAX_ACTIVE_GROUPS") != null ?
+            Integer.parseInt(System.getenv("SQS_MAX_ACTIVE_GROUPS")) : 100;
+    private int maxGroupQueueLength = System.getenv("SQS_MAX_GROUP_QUEUE_LENGTH") != null ?
+            Integer.parseInt(System.getenv("SQS_MAX_GROUP_QUEUE_LENGTH")) : 10;
+    private final Integer maxIdlePollSeconds = System.getenv("SQS_MAX_IDLE_POLL_SECONDS") != null ?
+            Integer.parseInt(System.getenv("SQS_MAX_IDLE_POLL_SECONDS")) : 60;
+    private final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>(Map.of(DeflateCodec.NAME,
+            new DeflateCodec(Deflater.DEFAULT_COMPRESSION, System.getenv("SQS_MAX_DECOMPRESSED_BYTES") != null ?
+                    Integer.parseInt(System.getenv("SQS_MAX_DECOMPRESSED_BYTES")) :
+                    DeflateCodec.DEFAULT_MAX_DECOMPRESSED_BYTES))); // codec name -> codec
+    private volatile PayloadStore payloadStore = System.getenv("SQS_PAYLOAD_STORE_DIR") != null ?
+            new FileSystemPayloadStore(Path.of(System.getenv("SQS_PAYLOAD_STORE_DIR"))) : null;
+    private volatile String deadLetterQueue = System.getenv("SQS_DEAD_LETTER_QUEUE");
+    private volatile MessageDeduplicator deduplicator;
+    private int maxBatchSize = System.getenv("SQS_MAX_BATCH_SIZE") != null ?
+            Integer.parseInt(System.getenv("SQS_MAX_BATCH_SIZE")) : 10;
+    private long maxBatchWaitMillis = System.getenv("SQS_MAX_BATCH_WAIT_MS") != null ?
+            Long.parseLong(System.getenv("SQS_MAX_BATCH_WAIT_MS")) : 0;
 
     public SqsMessageReceiver() {
        super();
+       acknowledgements = new SqsAcknowledgementBuffer(this::getSqsClient, this::getMetrics, ackFlushIntervalMillis);
+       deadLetters = new SqsDeadLetterBuffer((queueName, request) -> callSqs(queueName, "SendMessageBatch", true,
+               () -> getSqsClient().sendMessageBatch(request)), this::getMetrics, acknowledgements,
+               ackFlushIntervalMillis);
+    }
+
+    /**
+     * Set the maximum number of messages that are handled concurrently. With the default of 1 messages are
+     * handled one at a time on the polling thread. With a higher value messages are handed to worker threads and
+     * polling pauses while the maximum number of messages is in flight.
+     *
+     * @param concurrency maximum number of messages in flight
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Set the executor that runs the message handlers, e.g. a virtual-thread-per-task executor on Java 21.
+     * The executor is not shut down by the receiver. If no executor is set and concurrency is above 1,
+     * a fixed thread pool of concurrency threads is used for each subscription.
+     *
+     * @param executor executor for message handlers
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the number of messages that are received ahead of the handlers. Prefetched messages wait in a local
+     * buffer, so that receiving overlaps with handling. A prefetched message that has used half of its visibility
+     * timeout before a handler is free is released back to the queue instead of being handled. With prefetching
+     * enabled, messages are always handled on worker threads.
+     *
+     * @param prefetch maximum number of received messages waiting for a handler, 0 to disable prefetching
+     */
+    public void setPrefetch(int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch must not be negative");
+        }
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Set the maximum time a message may be handled. While a handler runs, the visibility timeout of its message
+     * is extended shortly before it expires, until the maximum time after receiving the message has passed.
+     *
+     * @param maxProcessingSeconds maximum processing time in seconds, 0 to disable extending the visibility
+     */
+    public void setMaxProcessingSeconds(int maxProcessingSeconds) {
+        if (maxProcessingSeconds < 0) {
+            throw new IllegalArgumentException("maxProcessingSeconds must not be negative");
+        }
+        this.maxProcessingSeconds = maxProcessingSeconds;
+    }
+
+    /**
+     * Set whether messages of FIFO queues are handled in order per message group. When enabled, messages with the
+     * same group id are handled strictly one after another in the order they were received, while messages of
+     * different groups are handled in parallel up to the concurrency. Messages without a group id are handled
+     * without ordering.
+     *
+     * @param orderedByGroup true to preserve the order within message groups
+     */
+    public void setOrderedByGroup(boolean orderedByGroup) {
+        this.orderedByGroup = orderedByGroup;
+    }
+
+    /**
+     * Set the limits of handling messages in order per message group. Polling pauses while a received message
+     * belongs to a new group and the maximum number of groups have messages waiting, or while its group already
+     * has the maximum number of messages waiting.
+     *
+     * @param maxActiveGroups     maximum number of message groups with messages waiting or being handled
+     * @param maxGroupQueueLength maximum number of messages of a single group waiting or being handled
+     */
+    public void setGroupLimits(int maxActiveGroups, int maxGroupQueueLength) {
+        if (maxActiveGroups < 1 || maxGroupQueueLength < 1) {
+            throw new IllegalArgumentException("maxActiveGroups and maxGroupQueueLength must be positive");
+        }
+        this.maxActiveGroups = maxActiveGroups;
+        this.maxGroupQueueLength = maxGroupQueueLength;
+    }
+
+    /**
+     * Add a codec for decompressing payloads that were compressed by the sender. Deflate is supported by default.
+     *
+     * @param codec compression algorithm, replaces a codec of the same name
+     */
+    public void addCodec(PayloadCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Set the store that payloads too large for a message were offloaded to by the sender. An offloaded payload is
+     * loaded when the handler first gets it, and deleted from the store after its message has been processed and
+     * deleted from the queue.
+     *
+     * @param payloadStore payload store, or null if payloads are not offloaded
+     */
+    public void setPayloadStore(PayloadStore payloadStore) {
+        this.payloadStore = payloadStore;
+    }
+
+    /**
+     * Set the queue that messages abandoned by the handlers are moved to. The messages are sent to the dead letter
+     * queue in batches with their payloads and attributes, and the {@link DeadLetter} attributes added, and then
+     * deleted from their queue. Without a dead letter queue an abandoned message is left in its queue, so that it
+     * is received again once its visibility timeout expires, or moved by the redrive policy of the queue.
+     *
+     * @param deadLetterQueue name of the dead letter queue, or null to leave abandoned messages in their queue
+     */
+    public void setDeadLetterQueue(String deadLetterQueue) {
+        this.deadLetterQueue = deadLetterQueue;
+    }
+
+    /**
+     * Set the limits of the batches handed to batch message handlers. With a wait time of 0 the messages of each
+     * receive are handed to the handler as they are. With a longer wait time the messages of several receives are
+     * accumulated, and a batch is handed to the handler when it has the maximum number of messages or when its
+     * oldest message has waited for the wait time. The wait time should be well below the visibility timeout.
+     * Accumulated messages count towards the messages in flight, on top of the concurrency and prefetch.
+     *
+     * @param maxBatchSize       maximum number of messages in a batch
+     * @param maxBatchWaitMillis maximum time a received message waits for a batch to fill, 0 to not accumulate
+     */
+    public void setBatchLimits(int maxBatchSize, long maxBatchWaitMillis) {
+        if (maxBatchSize < 1 || maxBatchWaitMillis < 0) {
+            throw new IllegalArgumentException("Invalid batch limits: " + maxBatchSize + " messages, "
+                    + maxBatchWaitMillis + " ms");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchWaitMillis = maxBatchWaitMillis;
+    }
+
+    /**
+     * Set the deduplicator that skips the handlers for messages already processed within its window, e.g. messages
+     * received again after their visibility timeout expired. The deduplicator is shared by the queues of the
+     * subscriptions started after it is set.
+     *
+     * @param deduplicator deduplicator, or null to handle every received message
+     */
+    public void setDeduplicator(MessageDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Set the visibility timeout requested for received messages. (Used for testing.)
+     *
+     * @param visibilityTimeout visibility timeout in seconds
+     */
+    protected void setVisibilityTimeout(int visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    /**
+     * Set the number of parallel long-pollers of a subscription. The subscription starts with the minimum number
+     * of pollers and adds pollers up to the maximum while receives come back full or the sampled queue backlog is
+     * high. Pollers are removed down to the minimum when their receives come back empty.
+     *
+     * @param minPollers number of pollers when the queue is idle
+     * @param maxPollers number of pollers when the queue has a large backlog
+     */
+    public void setPollers(int minPollers, int maxPollers) {
+        if (minPollers < 1 || maxPollers < minPollers) {
+            throw new IllegalArgumentException("Invalid number of pollers: " + minPollers + ".." + maxPollers);
+        }
+        this.minPollers = minPollers;
+        this.maxPollers = maxPollers;
     }
 
     /**
@@ -34,72 +269,909 @@ public class SqsMessageReceiver extends AbstractSqsClient implements MessageRece
      * @param messageHandler cloud-agnostic message handler
      */
     public void subscribe(String queueName, MessageHandler messageHandler) {
-        String queueUrl = getQueueUrlForQueue(queueName);
+        subscribe(List.of(new QueueSubscription(queueName, messageHandler)));
+    }
+
+    /**
+     * Subscribe to messages of an SQS queue that are handled in batches up to the batch limits. The messages the
+     * handler processed are deleted with batch requests; the other messages are completed according to their own
+     * processing states. The concurrency limits the number of batches handled at a time. When ordered by group, the
+     * batches of a queue are handled one after another.
+     *
+     * @param queueName name of the queue
+     * @param messageHandler batch message handler
+     */
+    @Override
+    public void subscribeBatch(String queueName, BatchMessageHandler messageHandler) {
+        subscribe(List.of(QueueSubscription.ofBatch(queueName, messageHandler, 1)));
+    }
+
+    /**
+     * Subscribe to several SQS queues with one set of pollers and workers. The pollers take turns between the
+     * queues in proportion to their weights while the queues have messages, and receive less often from queues that
+     * are idle, so that neither the number of threads nor the number of empty receives grows with the number of
+     * queues. The concurrency, prefetch and number of pollers are shared by all the queues.
+     *
+     * @param subscriptions queues and their handlers
+     */
+    @Override
+    public void subscribe(List<QueueSubscription> subscriptions) {
+        if (subscriptions.isEmpty()) {
+            throw new IllegalArgumentException("No queues to subscribe to");
+        }
+        if (deadLetterQueue != null) {
+            getQueueUrlForQueue(deadLetterQueue);
+        }
+        List<SubscribedQueue> queues = new ArrayList<>();
+        for (QueueSubscription subscription : subscriptions) {
+            queues.add(new SubscribedQueue(subscription, getQueueUrlForQueue(subscription.getQueueName())));
+        }
         isRunning = true;
 
-        logger.debug("Starting to receive messages from queue: {}", queueUrl);
-        while (isRunning) {
+        for (SubscribedQueue queue : queues) {
+            logger.debug("Starting to receive messages from queue: {}", queue.queueUrl);
+        }
+        new Subscription(queues).run();
+    }
+
+    /**
+     * Publish the messages of an SQS queue to a single subscriber. Each receive asks for at most the demand of the
+     * subscriber, up to the maximum number of messages per receive, and no receive is made while the subscriber has
+     * no demand. The visibility of a published message is extended until the subscriber completes it, up to the
+     * maximum processing time. Messages completed after the subscription ended are still deleted.
+     *
+     * @param queueName name of the queue
+     * @return publisher of the messages of the queue
+     */
+    @Override
+    public Flow.Publisher<AcknowledgeableMessage> publisher(String queueName) {
+        if (deadLetterQueue != null) {
+            getQueueUrlForQueue(deadLetterQueue);
+        }
+        return new MessagePublisher(queueName, getQueueUrlForQueue(queueName));
+    }
+
+    /**
+     * A queue of a subscription and its handler.
+     */
+    private final class SubscribedQueue {
+        private final String queueName;
+        private final String queueUrl;
+        private final MessageHandler messageHandler;
+        private final BatchMessageHandler batchHandler;
+        private final int weight;
+        private final List<ReceivedMessage> batch = new ArrayList<>(); // messages waiting for a batch, guarded by it
+        private SqsVisibilityHeartbeat heartbeat;
+        private SqsMessageGroupDispatcher groups;
+
+        SubscribedQueue(QueueSubscription subscription, String queueUrl) {
+            this.queueName = subscription.getQueueName();
+            this.queueUrl = queueUrl;
+            MessageDeduplicator deduplicator = SqsMessageReceiver.this.deduplicator;
+            MessageHandler handler = subscription.getMessageHandler();
+            BatchMessageHandler batchHandler = subscription.getBatchMessageHandler();
+            this.messageHandler = deduplicator != null && handler != null ? deduplicator.handler(handler) : handler;
+            this.batchHandler = deduplicator != null && batchHandler != null ?
+                    deduplicator.batchHandler(batchHandler) : batchHandler;
+            this.weight = subscription.getWeight();
+        }
+
+        /**
+         * Call the message handler and complete the message according to its processing state. The visibility
+         * of the message is extended while the handler runs.
+         *
+         * @return processing state returned by the handler
+         */
+        private ProcessingState handleMessage(Message message, long receivedAt) {
+            if (heartbeat != null) {
+                heartbeat.track(message.receiptHandle(), receivedAt);
+            }
+            ProcessingState state;
+            long start = System.nanoTime();
+            try {
+                state = messageHandler.onMessageReceived(createMessageWrapper(message));
+            } catch (RuntimeException e) {
+                getMetrics().recordError(queueName, e);
+                throw e;
+            } finally {
+                getMetrics().recordHandlerDuration(queueName, System.nanoTime() - start);
+                if (heartbeat != null) {
+                    heartbeat.untrack(message.receiptHandle());
+                }
+            }
+            complete(message, state);
+            return state;
+        }
+
+        /**
+         * Call the batch message handler and complete each message according to its processing state. The
+         * visibility of the messages is extended while the handler runs.
+         *
+         * @return processing states returned by the handler
+         */
+        private List<ProcessingState> handleBatch(List<ReceivedMessage> messages) {
+            List<ReceivedMessageWrapper> wrappers = new ArrayList<>(messages.size());
+            for (ReceivedMessage received : messages) {
+                if (heartbeat != null) {
+                    heartbeat.track(received.message().receiptHandle(), received.receivedAt());
+                }
+                wrappers.add(createMessageWrapper(received.message()));
+            }
+            List<ProcessingState> states;
+            long start = System.nanoTime();
+            try {
+                states = batchHandler.onMessagesReceived(wrappers);
+                if (states == null || states.size() != messages.size()) {
+                    throw new IllegalStateException("Batch handler of queue " + queueName + " returned "
+                            + (states != null ? states.size() : 0) + " states for " + messages.size() + " messages");
+                }
+            } catch (RuntimeException e) {
+                getMetrics().recordError(queueName, e);
+                throw e;
+            } finally {
+                getMetrics().recordHandlerDuration(queueName, System.nanoTime() - start);
+                if (heartbeat != null) {
+                    for (ReceivedMessage received : messages) {
+                        heartbeat.untrack(received.message().receiptHandle());
+                    }
+                }
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                complete(messages.get(i).message(), states.get(i));
+            }
+            return states;
+        }
+
+        private void complete(Message message, ProcessingState state) {
+            switch (state) {
+                case PROCESSED: completeMessage(queueName, message); break;
+                case SKIPPED: break;
+                case ABANDONED: abandonMessage(queueName, queueUrl, message); break;
+            }
+        }
+
+        /**
+         * Add received messages to the batch and take the batches that are ready: full batches, and with
+         * {@code flush} or when the oldest message has waited for the maximum time, the remaining messages.
+         *
+         * @return batches to handle
+         */
+        private List<List<ReceivedMessage>> takeBatches(List<ReceivedMessage> received, boolean flush) {
+            synchronized (batch) {
+                batch.addAll(received);
+                List<List<ReceivedMessage>> ready = new ArrayList<>();
+                while (batch.size() >= maxBatchSize) {
+                    List<ReceivedMessage> full = batch.subList(0, maxBatchSize);
+                    ready.add(new ArrayList<>(full));
+                    full.clear();
+                }
+                if (!batch.isEmpty() && (flush || batchWaitNanos() == 0)) {
+                    ready.add(new ArrayList<>(batch));
+                    batch.clear();
+                }
+                return ready;
+            }
+        }
+
+        /**
+         * @return time until the oldest message of the batch has waited for the maximum time, or -1 if the batch
+         * is empty
+         */
+        private long batchWaitNanos() {
+            synchronized (batch) {
+                if (batch.isEmpty()) {
+                    return -1;
+                }
+                long waited = System.nanoTime() - batch.get(0).receivedAt();
+                return Math.max(0, TimeUnit.MILLISECONDS.toNanos(maxBatchWaitMillis) - waited);
+            }
+        }
+
+        /**
+         * Make a message that was not handled visible to other consumers immediately.
+         */
+        private void release(Message message, long receivedAt) {
+            releaseMessage(queueName, queueUrl, message, receivedAt);
+        }
+    }
+
+    /**
+     * Publishes the messages of a queue, receiving only as many messages as the subscriber has requested.
+     */
+    private final class MessagePublisher extends PollingMessagePublisher<PublishedMessage> {
+        private final String queueName;
+        private final String queueUrl;
+        private final MessageDeduplicator deduplicator = SqsMessageReceiver.this.deduplicator;
+        private volatile SqsVisibilityHeartbeat heartbeat;
+        private int stopsAtOpen; // only used on the subscription thread
+
+        MessagePublisher(String queueName, String queueUrl) {
+            super(queueName, maxNumberOfMessages);
+            this.queueName = queueName;
+            this.queueUrl = queueUrl;
+        }
+
+        @Override
+        protected void open() {
+            stopsAtOpen = stops.get();
+            logger.debug("Starting to publish messages from queue: {}", queueUrl);
+            if (maxProcessingSeconds > visibilityTimeout) {
+                heartbeat = new SqsVisibilityHeartbeat(SqsMessageReceiver.this::getSqsClient,
+                        SqsMessageReceiver.this::getMetrics, queueName, queueUrl, visibilityTimeout,
+                        maxProcessingSeconds);
+            }
+        }
+
+        @Override
+        protected List<PublishedMessage> receive(int maxMessages) {
             ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
                     .queueUrl(queueUrl)
                     .messageAttributeNames("All")
-                    .maxNumberOfMessages(maxNumberOfMessages)
-                    .waitTimeSeconds(visibilityTimeout)
+                    .attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString(),
+                            MessageSystemAttributeName.SEQUENCE_NUMBER.toString(),
+                            MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString())
+                    .maxNumberOfMessages(maxMessages)
+                    .visibilityTimeout(visibilityTimeout)
+                    .waitTimeSeconds(waitTimeSeconds)
                     .build();
-            logger.debug("Calling SQS receive message API");
-            ReceiveMessageResponse receiveMessageResponse = getSqsClient().receiveMessage(receiveMessageRequest);
-            logger.debug("Received {} messages from queue {}", receiveMessageResponse.messages().size(), queueName);
-            List<Message> messages = receiveMessageResponse.messages();
-            ProcessingState state;
+            List<Message> messages = callSqs(queueName, "ReceiveMessage", true,
+                    () -> getSqsClient().receiveMessage(receiveMessageRequest)).messages();
+            getMetrics().recordReceive(queueName, messages.size(), maxMessages);
+            long receivedAt = System.nanoTime();
+            List<PublishedMessage> published = new ArrayList<>(messages.size());
             for (Message message : messages) {
-                logger.debug("Received message: {}", message.toString());
-                state = messageHandler.onMessageReceived(createMessageWrapper(message));
-                switch (state) {
-                    case PROCESSED: completeMessage(queueName, message.receiptHandle()); break;
-                    case SKIPPED: break;
-                    case ABANDONED:
-                        logger.warn("Abandoning message: {}", message.messageId());
-                        throw new IllegalStateException("Dead letter queue not implemented");
+                ReceivedMessageWrapper wrapper = createMessageWrapper(message);
+                if (deduplicator != null && deduplicator.isDuplicate(wrapper)) {
+                    logger.debug("Skipping duplicate message {} of queue {}", message.messageId(), queueName);
+                    completeMessage(queueName, message);
+                    continue;
+                }
+                SqsVisibilityHeartbeat heartbeat = this.heartbeat;
+                if (heartbeat != null) {
+                    heartbeat.track(message.receiptHandle(), receivedAt);
+                }
+                published.add(new PublishedMessage(wrapper, message, receivedAt,
+                        state -> complete(wrapper, message, state)));
+            }
+            return published;
+        }
+
+        private void complete(ReceivedMessageWrapper wrapper, Message message, ProcessingState state) {
+            SqsVisibilityHeartbeat heartbeat = this.heartbeat;
+            if (heartbeat != null) {
+                heartbeat.untrack(message.receiptHandle());
+            }
+            switch (state) {
+                case PROCESSED:
+                    if (deduplicator != null) {
+                        deduplicator.processed(wrapper);
+                    }
+                    completeMessage(queueName, message);
+                    break;
+                case SKIPPED: break;
+                case ABANDONED: abandonMessage(queueName, queueUrl, message); break;
+            }
+        }
+
+        @Override
+        protected void release(PublishedMessage message) {
+            SqsVisibilityHeartbeat heartbeat = this.heartbeat;
+            if (heartbeat != null) {
+                heartbeat.untrack(message.message.receiptHandle());
+            }
+            releaseMessage(queueName, queueUrl, message.message, message.receivedAt);
+        }
+
+        @Override
+        protected boolean isRunning() {
+            return stops.get() == stopsAtOpen; // not the flag of the subscriptions, so that they are not restarted
+        }
+
+        @Override
+        protected void close() {
+            SqsVisibilityHeartbeat heartbeat = this.heartbeat;
+            if (heartbeat != null) {
+                heartbeat.close();
+            }
+        }
+    }
+
+    /**
+     * A message published by a {@link MessagePublisher}.
+     */
+    private static final class PublishedMessage extends AcknowledgeableMessage {
+        private final Message message;
+        private final long receivedAt;
+
+        PublishedMessage(ReceivedMessageWrapper wrapper, Message message, long receivedAt,
+                         Consumer<ProcessingState> completion) {
+            super(wrapper, completion);
+            this.message = message;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /**
+     * State of a single subscription: its pollers, the workers handling the messages and the number of
+     * messages in flight. The pollers, workers and in-flight limit are shared by the queues of the subscription.
+     */
+    private final class Subscription {
+        private final List<SubscribedQueue> queues;
+        private final String name;
+        private final ExecutorService workers;
+        private final int permits;
+        private final Semaphore inFlight;
+        private final Semaphore handling;
+        private final ScheduledExecutorService heartbeatTimer;
+        private final SqsPollScheduler<SubscribedQueue> scheduler;
+        private final AtomicInteger activePollers = new AtomicInteger(1);
+        private final Set<Thread> pollerThreads = ConcurrentHashMap.newKeySet();
+        private volatile boolean active = true;
+        private long nextBacklogSample;
+
+        Subscription(List<SubscribedQueue> queues) {
+            this.queues = queues;
+            this.name = queues.size() == 1 ? queues.get(0).queueName : queues.size() + "-queues";
+            this.workers = executor != null ? executor : concurrency > 1 || prefetch > 0 ? createWorkerPool() : null;
+            // When handling on the polling threads, every poller may always do a full receive. Messages waiting for
+            // a batch to fill have room of their own.
+            this.permits = (workers == null ? maxNumberOfMessages * maxPollers : concurrency + prefetch)
+                    + (int) queues.stream().filter(queue -> queue.batchHandler != null).count() * maxBatchSize;
+            this.inFlight = new Semaphore(permits);
+            this.handling = new Semaphore(concurrency);
+            boolean extendVisibility = maxProcessingSeconds > visibilityTimeout;
+            // A single queue keeps the heartbeat thread of its own, several queues share one
+            this.heartbeatTimer = extendVisibility && queues.size() > 1 ? SqsVisibilityHeartbeat.createTimer() : null;
+            for (SubscribedQueue queue : queues) {
+                queue.heartbeat = extendVisibility ? new SqsVisibilityHeartbeat(SqsMessageReceiver.this::getSqsClient,
+                        SqsMessageReceiver.this::getMetrics, queue.queueName, queue.queueUrl, visibilityTimeout,
+                        maxProcessingSeconds, heartbeatTimer) : null;
+                queue.groups = orderedByGroup && workers != null ?
+                        new SqsMessageGroupDispatcher(workers, maxActiveGroups, maxGroupQueueLength) : null;
+            }
+            this.scheduler = new SqsPollScheduler<>(queues, queue -> queue.weight, waitTimeSeconds,
+                    maxIdlePollSeconds);
+        }
+
+        /**
+         * Run the primary poller on the calling thread until the receiver is stopped.
+         */
+        void run() {
+            try {
+                for (int i = 1; i < minPollers; i++) {
+                    activePollers.incrementAndGet();
+                    startPoller();
+                }
+                poll(true);
+            } finally {
+                active = false;
+                awaitPollers();
+                dispatchWaitingBatches(true);
+                awaitHandlers();
+                if (workers != null && workers != executor) {
+                    workers.shutdown();
+                }
+                for (SubscribedQueue queue : queues) {
+                    if (queue.heartbeat != null) {
+                        queue.heartbeat.close();
+                    }
+                }
+                if (heartbeatTimer != null) {
+                    heartbeatTimer.shutdownNow();
+                }
+                if (!deadLetters.flush(ACK_FLUSH_TIMEOUT_MILLIS)) {
+                    logger.warn("Timed out waiting for messages to be moved to dead letter queue {}",
+                            deadLetterQueue);
+                }
+                if (!acknowledgements.flush(ACK_FLUSH_TIMEOUT_MILLIS)) {
+                    logger.warn("Timed out waiting for messages to be deleted from queue {}", name);
+                }
+            }
+        }
+
+        /**
+         * Receive and dispatch messages. Secondary pollers return when they are no longer needed.
+         *
+         * @param primary true for the poller on the subscribing thread, which runs until the receiver is stopped
+         */
+        private void poll(boolean primary) {
+            while (isRunning && active) {
+                if (primary) {
+                    sampleBacklog();
+                }
+                dispatchWaitingBatches(false);
+                int capacity = acquireCapacity();
+                if (capacity == 0) {
+                    continue;
+                }
+                SqsPollScheduler.Poll<SubscribedQueue> next = nextQueue();
+                if (next == null) {
+                    inFlight.release(capacity);
+                    continue;
+                }
+                SubscribedQueue queue = next.queue();
+                ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
+                        .queueUrl(queue.queueUrl)
+                        .messageAttributeNames("All")
+                        .attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString(),
+                                MessageSystemAttributeName.SEQUENCE_NUMBER.toString(),
+                                MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString())
+                        .maxNumberOfMessages(capacity)
+                        .visibilityTimeout(visibilityTimeout)
+                        .waitTimeSeconds(batchWaitTimeSeconds(next.waitTimeSeconds()))
+                        .build();
+                logger.debug("Calling SQS receive message API");
+                List<Message> messages = List.of();
+                try {
+                    ReceiveMessageResponse receiveMessageResponse = callSqs(queue.queueName, "ReceiveMessage", true,
+                            () -> getSqsClient().receiveMessage(receiveMessageRequest));
+                    getMetrics().recordReceive(queue.queueName, receiveMessageResponse.messages().size(), capacity);
+                    messages = receiveMessageResponse.messages();
+                } finally {
+                    // The permits of the received messages are handed over to them and released as they complete
+                    inFlight.release(Math.max(0, capacity - messages.size()));
+                    scheduler.completed(queue, messages.size(), activePollers.get());
+                }
+                long receivedAt = System.nanoTime();
+                logger.debug("Received {} messages from queue {}", messages.size(), queue.queueName);
+                List<ReceivedMessage> batchMessages = queue.batchHandler != null ?
+                        new ArrayList<>(messages.size()) : null;
+                for (int i = 0; i < messages.size(); i++) {
+                    Message message = messages.get(i);
+                    logger.debug("Received message: {}", message.toString());
+                    if (i >= capacity) {
+                        inFlight.acquireUninterruptibly(); // more than requested, which SQS does not return
+                    }
+                    if (batchMessages != null) {
+                        batchMessages.add(new ReceivedMessage(message, receivedAt));
+                    } else {
+                        dispatch(queue, message, receivedAt);
+                    }
+                }
+                if (batchMessages != null) {
+                    for (List<ReceivedMessage> batch : queue.takeBatches(batchMessages, false)) {
+                        dispatchBatch(queue, batch);
+                    }
+                }
+                if (messages.size() >= maxNumberOfMessages) {
+                    scaleUp();
+                } else if (messages.isEmpty() && !primary && scaleDown()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Hand the batches whose oldest message has waited for the maximum time to the handlers. When the
+         * subscription stops, the waiting messages are released back to their queues instead.
+         *
+         * @param stopping true if the subscription is stopping
+         */
+        private void dispatchWaitingBatches(boolean stopping) {
+            for (SubscribedQueue queue : queues) {
+                if (queue.batchHandler == null || !stopping && queue.batchWaitNanos() != 0) {
+                    continue;
+                }
+                for (List<ReceivedMessage> batch : queue.takeBatches(List.of(), true)) {
+                    if (!stopping) {
+                        dispatchBatch(queue, batch);
+                        continue;
+                    }
+                    for (ReceivedMessage received : batch) {
+                        queue.release(received.message(), received.receivedAt());
+                    }
+                    inFlight.release(batch.size());
+                }
+            }
+        }
+
+        /**
+         * Shorten the wait time of a receive so that the poller is back when a batch has waited for the maximum
+         * time.
+         */
+        private int batchWaitTimeSeconds(int waitTimeSeconds) {
+            long wait = TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+            for (SubscribedQueue queue : queues) {
+                if (queue.batchHandler != null) {
+                    long batchWait = queue.batchWaitNanos();
+                    if (batchWait >= 0) {
+                        wait = Math.min(wait, batchWait);
+                    }
+                }
+            }
+            return (int) TimeUnit.NANOSECONDS.toSeconds(wait);
+        }
+
+        /**
+         * Wait for a queue to be due for a receive. Returns null if the wait was cut short so that the poller can
+         * check for stop().
+         */
+        private SqsPollScheduler.Poll<SubscribedQueue> nextQueue() {
+            try {
+                return scheduler.next(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                active = false;
+                return null;
+            }
+        }
+
+        /**
+         * Start another poller if the maximum has not been reached.
+         */
+        private void scaleUp() {
+            int pollers = activePollers.get();
+            if (pollers < maxPollers && activePollers.compareAndSet(pollers, pollers + 1)) {
+                logger.debug("Adding poller {} for queue {}", pollers + 1, name);
+                startPoller();
+            }
+        }
+
+        /**
+         * Retire the calling poller if more than the minimum number of pollers is running.
+         *
+         * @return true if the calling poller should stop
+         */
+        private boolean scaleDown() {
+            int pollers = activePollers.get();
+            if (pollers > minPollers && activePollers.compareAndSet(pollers, pollers - 1)) {
+                logger.debug("Removing poller {} of queue {}", pollers, name);
+                return true;
+            }
+            return false;
+        }
+
+        private void startPoller() {
+            Thread thread = new Thread(() -> {
+                try {
+                    poll(false);
+                } catch (RuntimeException e) {
+                    activePollers.decrementAndGet();
+                    logger.error("Poller of queue {} failed", name, e);
+                } finally {
+                    pollerThreads.remove(Thread.currentThread());
+                }
+            }, "sqs-poller-" + name);
+            thread.setDaemon(true);
+            pollerThreads.add(thread);
+            thread.start();
+        }
+
+        /**
+         * Sample the approximate number of visible messages and add a poller if the current pollers cannot
+         * drain the backlog with a single receive each. With several queues the pollers are added by full receives
+         * only. The request counts against the rate limit of the queue like the receives.
+         */
+        private void sampleBacklog() {
+            if (maxPollers == minPollers || queues.size() > 1 || System.currentTimeMillis() < nextBacklogSample) {
+                return;
+            }
+            nextBacklogSample = System.currentTimeMillis() + BACKLOG_SAMPLE_INTERVAL_MILLIS;
+            SubscribedQueue queue = queues.get(0);
+            try {
+                GetQueueAttributesResponse response = callSqs(queue.queueName, "GetQueueAttributes", true,
+                        () -> getSqsClient().getQueueAttributes(GetQueueAttributesRequest.builder()
+                                .queueUrl(queue.queueUrl)
+                                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
+                                .build()));
+                String backlog = response.attributes().get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES);
+                if (backlog != null && Long.parseLong(backlog) > (long) activePollers.get() * maxNumberOfMessages) {
+                    scaleUp();
+                }
+            } catch (RuntimeException e) {
+                logger.debug("Failed to sample the backlog of queue {}", queue.queueName, e);
+            }
+        }
+
+        /**
+         * Wait until at least one more message can be handled and reserve capacity for up to the maximum number
+         * of messages per receive. Returns 0 if the wait was cut short so that the poller can check for stop().
+         */
+        private int acquireCapacity() {
+            try {
+                if (!inFlight.tryAcquire(1, TimeUnit.SECONDS)) {
+                    return 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                active = false;
+                return 0;
+            }
+            int capacity = 1;
+            while (capacity < maxNumberOfMessages && inFlight.tryAcquire()) {
+                capacity++;
+            }
+            return capacity;
+        }
+
+        /**
+         * Handle a message on the polling thread or hand it to a worker. Messages handed to workers wait in the
+         * worker queue until one of the concurrency slots is free, and when ordered by group, also until the earlier
+         * messages of their group have been handled. A message of a group that is released, fails or is skipped
+         * stays in the queue, so the later messages of its group that are waiting are released instead of handled.
+         * The in-flight permit of the message is released when its handling completes.
+         */
+        private void dispatch(SubscribedQueue queue, Message message, long receivedAt) {
+            if (workers == null) {
+                try {
+                    queue.handleMessage(message, receivedAt);
+                } finally {
+                    inFlight.release();
+                }
+                return;
+            }
+            SqsMessageGroupDispatcher.GroupTask task = new SqsMessageGroupDispatcher.GroupTask() {
+                @Override
+                public boolean run() {
+                    handling.acquireUninterruptibly();
+                    try {
+                        if (!isRunning || !active || isNearExpiry(receivedAt)) {
+                            queue.release(message, receivedAt);
+                            return false;
+                        }
+                        return isCompleted(queue.handleMessage(message, receivedAt));
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to handle message {} from queue {}", message.messageId(),
+                                queue.queueName, e);
+                        return false;
+                    } finally {
+                        handling.release();
+                        inFlight.release();
+                    }
+                }
+
+                @Override
+                public void discard() {
+                    try {
+                        queue.release(message, receivedAt);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            };
+            String groupId = message.attributesAsStrings()
+                    .get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+            try {
+                if (queue.groups != null && groupId != null) {
+                    queue.groups.dispatch(groupId, task);
+                } else {
+                    workers.execute(task::run);
+                }
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Handle a batch on the polling thread or hand it to a worker, like {@link #dispatch}. Messages of the batch
+         * that are near expiry when a worker is free are released instead of being handled. When ordered by group,
+         * the batches waiting after a batch with a message that was released, failed or skipped are released as
+         * well. The in-flight permits of the messages are released when the batch completes.
+         */
+        private void dispatchBatch(SubscribedQueue queue, List<ReceivedMessage> batch) {
+            if (workers == null) {
+                try {
+                    queue.handleBatch(batch);
+                } finally {
+                    inFlight.release(batch.size());
+                }
+                return;
+            }
+            SqsMessageGroupDispatcher.GroupTask task = new SqsMessageGroupDispatcher.GroupTask() {
+                @Override
+                public boolean run() {
+                    handling.acquireUninterruptibly();
+                    try {
+                        List<ReceivedMessage> handled = new ArrayList<>(batch.size());
+                        for (ReceivedMessage received : batch) {
+                            if (!isRunning || !active || isNearExpiry(received.receivedAt())) {
+                                queue.release(received.message(), received.receivedAt());
+                            } else {
+                                handled.add(received);
+                            }
+                        }
+                        boolean completed = handled.size() == batch.size();
+                        if (!handled.isEmpty()) {
+                            for (ProcessingState state : queue.handleBatch(handled)) {
+                                completed &= isCompleted(state);
+                            }
+                        }
+                        return completed;
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to handle batch of {} messages from queue {}", batch.size(),
+                                queue.queueName, e);
+                        return false;
+                    } finally {
+                        handling.release();
+                        inFlight.release(batch.size());
+                    }
+                }
+
+                @Override
+                public void discard() {
+                    try {
+                        for (ReceivedMessage received : batch) {
+                            queue.release(received.message(), received.receivedAt());
+                        }
+                    } finally {
+                        inFlight.release(batch.size());
+                    }
+                }
+            };
+            try {
+                if (queue.groups != null) {
+                    queue.groups.dispatch(queue.queueName, task);
+                } else {
+                    workers.execute(task::run);
+                }
+            } catch (RejectedExecutionException e) {
+                inFlight.release(batch.size());
+                throw e;
+            }
+        }
+
+        /**
+         * @return true if a message in this state leaves its queue, so the later messages of its group may be
+         * handled. An abandoned message stays in its queue when there is no dead letter queue.
+         */
+        private boolean isCompleted(ProcessingState state) {
+            return state == ProcessingState.PROCESSED
+                    || state == ProcessingState.ABANDONED && deadLetterQueue != null;
+        }
+
+        /**
+         * A message waiting for a handler is near expiry when half of its visibility timeout has passed, as
+         * the handler might not complete before another consumer receives the message.
+         */
+        private boolean isNearExpiry(long receivedAt) {
+            return System.nanoTime() - receivedAt > TimeUnit.SECONDS.toNanos(visibilityTimeout) / 2;
+        }
+
+        private void awaitPollers() {
+            for (Thread thread : pollerThreads) {
+                try {
+                    thread.join(HANDLER_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
+
+        /**
+         * Wait for the messages in flight to be handled, so that their deletes are included in the final flush.
+         */
+        private void awaitHandlers() {
+            try {
+                if (inFlight.tryAcquire(permits, HANDLER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    inFlight.release(permits);
+                } else {
+                    logger.warn("Timed out waiting for message handlers of queue {}", name);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private ExecutorService createWorkerPool() {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "sqs-handler-" + name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     /**
-     * Stop receiving messages from SQS queue.
+     * A received message and the time it was received.
+     */
+    private record ReceivedMessage(Message message, long receivedAt) {
+    }
+
+    /**
+     * Stop receiving messages from SQS queue. The subscription flushes the messages that are waiting to be
+     * deleted before it returns.
      */
     public void stop() {
         isRunning = false;
+        stops.incrementAndGet();
+    }
+
+    /**
+     * Stop receiving, wait for the completed messages to be deleted or moved to the dead letter queue, and release
+     * the shared SQS clients. Subscriptions should have returned and published messages should have been completed
+     * before the receiver is closed, as messages completed afterwards are not deleted.
+     */
+    @Override
+    public void close() {
+        stop();
+        if (!deadLetters.flush(ACK_FLUSH_TIMEOUT_MILLIS)) {
+            logger.warn("Timed out waiting for messages to be moved to dead letter queue {}", deadLetterQueue);
+        }
+        if (!acknowledgements.flush(ACK_FLUSH_TIMEOUT_MILLIS)) {
+            logger.warn("Timed out waiting for messages to be deleted");
+        }
+        deadLetters.shutdown();
+        acknowledgements.shutdown();
+        closeClients();
+    }
+
+    /**
+     * Make a message that was not handled visible to other consumers immediately. A message whose visibility
+     * timeout has already expired is dropped, as another consumer may already have it.
+     *
+     * @param queueName  name of the queue
+     * @param queueUrl   url of the queue
+     * @param message    the received message
+     * @param receivedAt {@link System#nanoTime()} when the message was received
+     */
+    private void releaseMessage(String queueName, String queueUrl, Message message, long receivedAt) {
+        if (System.nanoTime() - receivedAt >= TimeUnit.SECONDS.toNanos(visibilityTimeout)) {
+            logger.debug("Dropping expired message {} from queue {}", message.messageId(), queueName);
+            return;
+        }
+        logger.debug("Releasing message {} back to queue {}", message.messageId(), queueName);
+        try {
+            callSqs(queueName, "ChangeMessageVisibility", true,
+                    () -> getSqsClient().changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                            .queueUrl(queueUrl)
+                            .receiptHandle(message.receiptHandle())
+                            .visibilityTimeout(0)
+                            .build()));
+        } catch (RuntimeException e) {
+            logger.debug("Failed to release message {} back to queue {}", message.messageId(), queueName, e);
+        }
     }
 
     /**
-     * Create a cloud-agnostic message wrapper from an SQS message.
+     * Create a cloud-agnostic message wrapper from an SQS message. The wrapper is a view of the message: nothing
+     * is copied until the handler asks for it, and binary values are read-only views of the bytes received by the
+     * SDK.
      *
      * @param message SQS message
      * @return cloud-agnostic message wrapper
      */
-    private ReceivedMessageWrapper createMessageWrapper(Message message) {
-        Map<String, String> attributes = new HashMap<>();
-        for (Map.Entry<String, MessageAttributeValue> entry : message.messageAttributes().entrySet()) {
-            attributes.put(entry.getKey(), entry.getValue().stringValue());
+    ReceivedMessageWrapper createMessageWrapper(Message message) {
+        return new SqsReceivedMessage(message, codecs, payloadStore);
+    }
+
+    /**
+     * Moves a message abandoned by its handler to the dead letter queue. The message is sent and then deleted from
+     * its queue in batches on a background thread. Without a dead letter queue the message is left in its queue.
+     *
+     * @param queueName name of the queue
+     * @param queueUrl url of the queue
+     * @param message the abandoned message
+     */
+    private void abandonMessage(String queueName, String queueUrl, Message message) {
+        String deadLetterQueue = this.deadLetterQueue;
+        if (deadLetterQueue == null) {
+            logger.warn("Abandoning message {} of queue {} without a dead letter queue", message.messageId(),
+                    queueName);
+            return;
         }
-        return new ReceivedMessageWrapper.Builder().payload(message.body())
-                .attributes(attributes)
-                .id(message.messageId())
-                .build();
+        logger.warn("Abandoning message {} of queue {} to dead letter queue {}", message.messageId(), queueName,
+                deadLetterQueue);
+        deadLetters.deadLetter(queueName, queueUrl, deadLetterQueue, getQueueUrlForQueue(deadLetterQueue), message,
+                DeadLetter.abandonedReason(queueName));
     }
 
     /**
      * Completes processing of a message. In the case of SQS, this means deleting the message from the queue.
+     * The delete is buffered and sent in a batch from a background thread. An offloaded payload is deleted from
+     * the payload store once the message has been deleted.
      *
      * @param queueName name of the queue
-     * @param handle of the message to be completed
-     */
-    private void completeMessage(String queueName, String handle) {
-        String queueUrl = getQueueUrlForQueue(queueName);
-        DeleteMessageRequest deleteMessageRequest = DeleteMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .receiptHandle(handle)
-                .build();
-        getSqsClient().deleteMessage(deleteMessageRequest);
+     * @param message the message to be completed
+     */
+    private void completeMessage(String queueName, Message message) {
+        Runnable onDeleted = null;
+        PayloadStore store = payloadStore;
+        if (store != null && message.messageAttributes().containsKey(ClaimCheck.STORE_ATTRIBUTE)) {
+            onDeleted = () -> store.delete(message.body());
+        }
+        acknowledgements.acknowledge(queueName, getQueueUrlForQueue(queueName), message.receiptHandle(), onDeleted);
     }
 }
@@ -1,42 +1,159 @@
 package fi.techappeal.messagingservice.sqs;
 
 import fi.techappeal.messagingservice.*;
+import fi.techappeal.messagingservice.claimcheck.ClaimCheck;
+import fi.techappeal.messagingservice.claimcheck.FileSystemPayloadStore;
+import fi.techappeal.messagingservice.claimcheck.PayloadStore;
+import fi.techappeal.messagingservice.codec.DeflateCodec;
+import fi.techappeal.messagingservice.codec.PayloadCodec;
+import fi.techappeal.messagingservice.codec.PayloadCompression;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A wrapper for SQS client that maps the cloud-agnostic MessagingService interface to SQS client.
  */
 public class SqsMessageSender extends AbstractSqsClient implements MessageSender {
     private static final Logger logger = LoggerFactory.getLogger(SqsMessageSender.class);
+    static final int MAX_BATCH_PAYLOAD_BYTES = 262_144; // SQS limit for the total size of a batch request
+    static final int MAX_MESSAGE_ATTRIBUTES = 10; // SQS limit for the number of attributes of a message
+    static final int MAX_MESSAGE_BYTES = 262_144; // SQS limit for the size of a message
+    static final String BINARY_PAYLOAD_ATTRIBUTE = SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "binary-payload";
+    static final String BINARY_BODY = "binary";
+    private volatile SqsRetrier retrier = System.getenv("SQS_RETRY_MAX_ATTEMPTS") != null ?
+            new SqsRetrier(new RetryPolicy.Builder()
+                    .maxAttempts(Integer.parseInt(System.getenv("SQS_RETRY_MAX_ATTEMPTS")))
+                    .deadline(Duration.ofMillis(System.getenv("SQS_RETRY_DEADLINE_MS") != null ?
+                            Long.parseLong(System.getenv("SQS_RETRY_DEADLINE_MS")) : 10_000))
+                    .hedgeAfterPercentile(System.getenv("SQS_HEDGE_PERCENTILE") != null ?
+                            Double.parseDouble(System.getenv("SQS_HEDGE_PERCENTILE")) : 0)
+                    .build()) : null;
+    private volatile PayloadCodec codec = System.getenv("SQS_COMPRESSION_THRESHOLD") != null ?
+            new DeflateCodec() : null;
+    private volatile int compressionThreshold = System.getenv("SQS_COMPRESSION_THRESHOLD") != null ?
+            Integer.parseInt(System.getenv("SQS_COMPRESSION_THRESHOLD")) : 0;
+    private volatile PayloadStore payloadStore = System.getenv("SQS_PAYLOAD_STORE_DIR") != null ?
+            new FileSystemPayloadStore(Path.of(System.getenv("SQS_PAYLOAD_STORE_DIR"))) : null;
+    private volatile int payloadStoreThreshold = System.getenv("SQS_PAYLOAD_STORE_THRESHOLD") != null ?
+            Integer.parseInt(System.getenv("SQS_PAYLOAD_STORE_THRESHOLD")) : MAX_MESSAGE_BYTES;
 
     public SqsMessageSender() {
         super();
     }
 
     /**
-     * Sends a message to an SQS queue.
+     * Set the policy for retrying failed sends of single messages. Sends to FIFO queues are given a deduplication id
+     * that is the same for every attempt, so that a message is not duplicated when an attempt that seemed to fail
+     * had reached SQS. For the same reason sends are only hedged to FIFO queues.
+     *
+     * @param retryPolicy retry policy, or null to not retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retrier = retryPolicy != null ? new SqsRetrier(retryPolicy) : null;
+    }
+
+    /**
+     * Compress payloads that are at least the threshold in size. Compressed payloads are sent Base64 encoded with
+     * the codec name in an attribute, and decompressed by {@link SqsMessageReceiver}. Messages that already have
+     * the maximum number of attributes are sent uncompressed.
+     *
+     * @param codec          compression algorithm, e.g. {@link DeflateCodec}, or null to not compress
+     * @param thresholdBytes smallest UTF-8 size of a payload that is compressed
+     */
+    public void setCompression(PayloadCodec codec, int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("thresholdBytes must not be negative");
+        }
+        this.compressionThreshold = thresholdBytes;
+        this.codec = codec;
+    }
+
+    /**
+     * Offload payloads of messages larger than the threshold to a payload store, and send only a reference to the
+     * payload (the claim-check pattern). {@link SqsMessageReceiver} loads the payload when the handler gets it and
+     * deletes it after the message has been processed. Payloads are compressed first, if compression is enabled,
+     * and offloaded only if the message is still larger than the threshold.
+     *
+     * @param payloadStore   store for the payloads, or null to not offload
+     * @param thresholdBytes largest size of a message, payload and attributes, that is sent as it is
+     */
+    public void setPayloadStore(PayloadStore payloadStore, int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("thresholdBytes must not be negative");
+        }
+        this.payloadStoreThreshold = thresholdBytes;
+        this.payloadStore = payloadStore;
+    }
+
+    /**
+     * Sends a message to an SQS queue. Failed sends are retried according to the retry policy; a send to a FIFO
+     * queue that may be hedged is made with the asynchronous client.
      *
      * @param queueName name of the queue
      * @param message   cloud-agnostic message
      */
     @Override
     public void sendMessage(String queueName, SendMessageWrapper message) {
+        checkAttributes(message);
+        SendMessageWrapper prepared = prepare(message);
+        try {
+            send(queueName, prepared);
+        } catch (RuntimeException e) {
+            discard(prepared);
+            throw e;
+        }
+    }
+
+    private void send(String queueName, SendMessageWrapper prepared) {
+        SqsRetrier retrier = this.retrier;
+        if (retrier == null) {
+            sendOnce(queueName, prepared, null);
+            return;
+        }
+        String deduplicationId = isFifo(queueName) ? UUID.randomUUID().toString() : null;
+        if (deduplicationId == null || !retrier.isHedging()) {
+            retrier.call(queueName, () -> {
+                sendOnce(queueName, prepared, deduplicationId);
+                return null;
+            });
+            return;
+        }
+        try {
+            retrier.callAsync(queueName, true, () -> sendOnceAsync(queueName, prepared, deduplicationId)).join();
+        } catch (CompletionException e) {
+            throw SqsExceptionMapper.toCloudAgnosticException(e);
+        }
+    }
+
+    private void sendOnce(String queueName, SendMessageWrapper message, String deduplicationId) {
         try {
             String queueUrl = getQueueUrlForQueue(queueName);
-            SendMessageRequest sendMessageRequest = SendMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .messageBody(message.getPayload())
-                .messageGroupId(message.getPartitionKey())
-                .messageAttributes(createMessageAttributes(message.getAttributes()))
-                .build();
+            SendMessageRequest sendMessageRequest = createSendMessageRequest(queueUrl, message, deduplicationId);
             logger.debug("Sending message [{}] to queue {}", sendMessageRequest.toString(), queueName);
-            SendMessageResponse response = getSqsClient().sendMessage(sendMessageRequest);
+            SendMessageResponse response = callSqs(queueName, "SendMessage", false,
+                    () -> getSqsClient().sendMessage(sendMessageRequest));
+            getMetrics().recordSent(queueName, 1);
         } catch (SqsException e) {
             SqsExceptionMapper.mapToCloudAgnosticException(e);
         } catch (SdkClientException e) {
@@ -44,20 +161,350 @@ public class SqsMessageSender extends AbstractSqsClient implements MessageSender
         }
     }
 
+    /**
+     * Sends a message to an SQS queue using the asynchronous SQS client. The calling thread is not blocked;
+     * SQS exceptions are mapped to cloud-agnostic exceptions when the returned future completes. Failed sends are
+     * retried, and sends to FIFO queues hedged, according to the retry policy.
+     *
+     * @param queueName name of the queue
+     * @param message   cloud-agnostic message
+     * @return future completed with the SQS message id
+     */
+    @Override
+    public CompletableFuture<String> sendMessageAsync(String queueName, SendMessageWrapper message) {
+        SendMessageWrapper prepared;
+        try {
+            checkAttributes(message);
+            prepared = prepare(message); // an offloaded payload is stored on the calling thread
+        } catch (MessagingException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        SqsRetrier retrier = this.retrier;
+        CompletableFuture<String> sent;
+        if (retrier == null) {
+            sent = sendOnceAsync(queueName, prepared, null);
+        } else {
+            String deduplicationId = isFifo(queueName) ? UUID.randomUUID().toString() : null;
+            SendMessageWrapper retried = prepared;
+            sent = retrier.callAsync(queueName, deduplicationId != null,
+                    () -> sendOnceAsync(queueName, retried, deduplicationId));
+        }
+        SendMessageWrapper offloaded = prepared;
+        return sent.whenComplete((messageId, throwable) -> {
+            if (throwable != null) {
+                discard(offloaded); // after the last attempt, as every attempt sends the same reference
+            }
+        });
+    }
+
+    private CompletableFuture<String> sendOnceAsync(String queueName, SendMessageWrapper message,
+                                                    String deduplicationId) {
+        MessagingMetrics metrics = getMetrics();
+        SqsRateLimiter limiter = getRateLimiter();
+        CompletableFuture<String> resolvedQueueUrl;
+        try {
+            long waitNanos = limiter != null ? limiter.reserve(queueName) : 0;
+            resolvedQueueUrl = getQueueUrlForQueueAsync(queueName);
+            if (waitNanos > 0) {
+                // Send when the reserved token is due, without blocking the calling thread
+                resolvedQueueUrl = resolvedQueueUrl.thenApplyAsync(url -> url,
+                        CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+            }
+        } catch (RateLimitException e) {
+            metrics.recordError(queueName, e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return resolvedQueueUrl
+                .exceptionally(throwable -> {
+                    // Already recorded as a failure of GetQueueUrl
+                    throw SqsExceptionMapper.toCloudAgnosticException(throwable);
+                })
+                .thenCompose(queueUrl -> {
+                    SendMessageRequest sendMessageRequest = createSendMessageRequest(queueUrl, message,
+                            deduplicationId);
+                    logger.debug("Sending message asynchronously [{}] to queue {}", sendMessageRequest, queueName);
+                    long start = System.nanoTime();
+                    return getSqsAsyncClient().sendMessage(sendMessageRequest).handle((response, throwable) -> {
+                        metrics.recordApiLatency(queueName, "SendMessage", System.nanoTime() - start);
+                        if (throwable != null) {
+                            MessagingException exception = SqsExceptionMapper.toCloudAgnosticException(throwable);
+                            metrics.recordError(queueName, exception);
+                            if (exception instanceof RateLimitException && limiter != null) {
+                                limiter.throttled(queueName);
+                            }
+                            throw exception;
+                        }
+                        if (limiter != null) {
+                            limiter.succeeded(queueName);
+                        }
+                        metrics.recordSent(queueName, 1);
+                        return response.messageId();
+                    });
+                });
+    }
+
+    /**
+     * Sends messages to an SQS queue using SendMessageBatch requests. The messages are split into chunks that
+     * respect the SQS limits of 10 entries and 256 KB per request. Failed entries and failed requests are mapped
+     * to cloud-agnostic exceptions and reported in the corresponding results. Payloads are compressed or offloaded
+     * before the messages are split, so that more of them fit in a request. A message with a reserved attribute, or
+     * whose payload cannot be compressed or offloaded, is not sent and fails in its own result.
+     *
+     * @param queueName name of the queue
+     * @param messages  cloud-agnostic messages
+     * @return result for each message, in the same order as the messages
+     */
+    @Override
+    public List<SendMessageResult> sendMessages(String queueName, List<SendMessageWrapper> messages) {
+        String queueUrl = null;
+        try {
+            queueUrl = getQueueUrlForQueue(queueName);
+        } catch (SqsException e) {
+            SqsExceptionMapper.mapToCloudAgnosticException(e);
+        } catch (SdkClientException e) {
+            SqsExceptionMapper.mapToCloudAgnosticException(e);
+        }
+        SendMessageResult[] results = new SendMessageResult[messages.size()];
+        List<SendMessageWrapper> prepared = new ArrayList<>(messages.size());
+        int[] positions = new int[messages.size()]; // index of a prepared message -> index of the message
+        for (int i = 0; i < messages.size(); i++) {
+            SendMessageWrapper message = messages.get(i);
+            try {
+                checkAttributes(message);
+                positions[prepared.size()] = i;
+                prepared.add(prepare(message));
+            } catch (MessagingException | IllegalArgumentException e) {
+                logger.debug("Failed to prepare message {} for queue {}", i, queueName, e);
+                MessagingException exception = e instanceof MessagingException messagingException ?
+                        messagingException : new MessagingException(e.getMessage(), e);
+                getMetrics().recordError(queueName, exception);
+                results[i] = SendMessageResult.failure(message, exception);
+            }
+        }
+        int start = 0;
+        try {
+            while (start < prepared.size()) {
+                int end = endOfBatch(prepared, start);
+                sendBatch(queueName, queueUrl, messages, prepared, positions, start, end, results);
+                start = end;
+            }
+        } catch (RuntimeException e) {
+            for (SendMessageWrapper unsent : prepared.subList(start, prepared.size())) {
+                discard(unsent);
+            }
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Sends prepared messages [start, end) with a single SendMessageBatch request and stores their results. The
+     * results refer to the messages as given, at the positions of the prepared messages.
+     */
+    private void sendBatch(String queueName, String queueUrl, List<SendMessageWrapper> messages,
+                           List<SendMessageWrapper> prepared, int[] positions, int start, int end,
+                           SendMessageResult[] results) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            SendMessageWrapper message = prepared.get(i);
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i - start))
+                    .messageBody(messageBody(message))
+                    .messageGroupId(message.getPartitionKey())
+                    .messageAttributes(createMessageAttributes(message))
+                    .build());
+        }
+        SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build();
+        logger.debug("Sending batch of {} messages to queue {}", entries.size(), queueName);
+        try {
+            SendMessageBatchResponse response = callSqs(queueName, "SendMessageBatch", false,
+                    () -> getSqsClient().sendMessageBatch(request));
+            getMetrics().recordSent(queueName, response.successful().size());
+            for (SendMessageBatchResultEntry entry : response.successful()) {
+                int position = positions[start + Integer.parseInt(entry.id())];
+                results[position] = SendMessageResult.success(messages.get(position), entry.messageId());
+            }
+            for (BatchResultErrorEntry entry : response.failed()) {
+                int index = start + Integer.parseInt(entry.id());
+                int position = positions[index];
+                logger.debug("Failed to send message {} to queue {}: {}", position, queueName, entry.code());
+                MessagingException exception = SqsExceptionMapper.toCloudAgnosticException(entry);
+                if (exception instanceof RateLimitException && getRateLimiter() != null) {
+                    getRateLimiter().throttled(queueName);
+                }
+                getMetrics().recordError(queueName, exception);
+                results[position] = SendMessageResult.failure(messages.get(position), exception);
+                discard(prepared.get(index));
+            }
+        } catch (SdkException | RateLimitException e) {
+            MessagingException exception = SqsExceptionMapper.toCloudAgnosticException(e);
+            for (int i = start; i < end; i++) {
+                results[positions[i]] = SendMessageResult.failure(messages.get(positions[i]), exception);
+                discard(prepared.get(i));
+            }
+        }
+    }
+
+    /**
+     * Find the end (exclusive) of the batch starting at the given index. A message that alone exceeds the
+     * size limit is sent in a batch of its own so that SQS can report the failure for it.
+     */
+    static int endOfBatch(List<SendMessageWrapper> messages, int start) {
+        int end = start;
+        int batchSize = 0;
+        while (end < messages.size() && end - start < MAX_BATCH_ENTRIES) {
+            int messageSize = messageSize(messages.get(end));
+            if (end > start && batchSize + messageSize > MAX_BATCH_PAYLOAD_BYTES) {
+                break;
+            }
+            batchSize += messageSize;
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Size of a message as counted by SQS: the body and the name, type and value of each attribute.
+     */
+    static int messageSize(SendMessageWrapper message) {
+        int size = utf8Length(messageBody(message));
+        for (Map.Entry<String, String> attribute : message.getAttributes().entrySet()) {
+            size += utf8Length(attribute.getKey()) + utf8Length(attribute.getValue()) + "String".length();
+        }
+        for (Map.Entry<String, ByteBuffer> attribute : message.getBinaryAttributes().entrySet()) {
+            size += utf8Length(attribute.getKey()) + attribute.getValue().remaining() + "Binary".length();
+        }
+        ByteBuffer binaryPayload = message.getBinaryPayload();
+        if (binaryPayload != null) {
+            size += BINARY_PAYLOAD_ATTRIBUTE.length() + binaryPayload.remaining() + "Binary".length();
+        }
+        return size;
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return value.length();
+    }
+
+    @Override
+    protected boolean usesAsyncClient() {
+        return true;
+    }
+
     @Override
     public void close() {
-        getSqsClient().close();
+        closeClients();
+    }
+
+    /**
+     * Compress the text or binary payload of a message if it is large, and offload the payload if the message is
+     * still larger than the payload store threshold. A compressed payload is offloaded compressed when the message
+     * has room for both attributes, and uncompressed otherwise. Messages that already have the maximum number of
+     * attributes are sent as they are.
+     */
+    private SendMessageWrapper prepare(SendMessageWrapper message) {
+        if ((message.getPayload() == null && message.getBinaryPayload() == null)
+                || attributeCount(message) >= MAX_MESSAGE_ATTRIBUTES) {
+            return message;
+        }
+        PayloadCodec codec = this.codec;
+        SendMessageWrapper prepared = codec != null ?
+                PayloadCompression.compress(message, codec, compressionThreshold) : message;
+        PayloadStore store = this.payloadStore;
+        if (store == null || messageSize(prepared) <= payloadStoreThreshold) {
+            return prepared;
+        }
+        return ClaimCheck.offload(attributeCount(prepared) < MAX_MESSAGE_ATTRIBUTES ? prepared : message, store);
+    }
+
+    /**
+     * Check that a message does not have attributes in the namespace of the attributes the library adds, which the
+     * receiver would interpret or hide.
+     *
+     * @throws IllegalArgumentException if an attribute name has the reserved prefix
+     */
+    static void checkAttributes(SendMessageWrapper message) {
+        for (String key : message.getAttributes().keySet()) {
+            checkAttribute(key);
+        }
+        for (String key : message.getBinaryAttributes().keySet()) {
+            checkAttribute(key);
+        }
+    }
+
+    private static void checkAttribute(String key) {
+        if (key.startsWith(SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX)) {
+            throw new IllegalArgumentException("Attribute name " + key + " uses the reserved prefix "
+                    + SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX);
+        }
+    }
+
+    /**
+     * Number of SQS message attributes of a message, including the attribute of a binary payload.
+     */
+    private static int attributeCount(SendMessageWrapper message) {
+        return message.getAttributes().size() + message.getBinaryAttributes().size()
+                + (message.getBinaryPayload() != null ? 1 : 0);
+    }
+
+    /**
+     * Delete the offloaded payload of a message that could not be sent, as no receiver will delete it.
+     */
+    private void discard(SendMessageWrapper prepared) {
+        PayloadStore store = this.payloadStore;
+        if (store == null || !prepared.getAttributes().containsKey(ClaimCheck.STORE_ATTRIBUTE)) {
+            return;
+        }
+        try {
+            store.delete(ClaimCheck.getReference(prepared));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to delete the payload of an unsent message from store {}", store.getName(), e);
+        }
+    }
+
+    private static boolean isFifo(String queueName) {
+        return queueName.endsWith(".fifo");
+    }
+
+    private SendMessageRequest createSendMessageRequest(String queueUrl, SendMessageWrapper message,
+                                                       String deduplicationId) {
+        return SendMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageBody(messageBody(message))
+                .messageGroupId(message.getPartitionKey())
+                .messageDeduplicationId(deduplicationId)
+                .messageAttributes(createMessageAttributes(message))
+                .build();
     }
 
     /**
-     * Create SQS message attributes from a map of cloud-agnostic attributes.
-     * String is the only supported data type as it is the least common denominator between SQS
-     * and other messaging services.
+     * SQS requires a text body, so the body of a message with a binary payload is a placeholder and the payload is
+     * sent in a binary attribute.
+     */
+    private static String messageBody(SendMessageWrapper message) {
+        return message.getBinaryPayload() != null ? BINARY_BODY : message.getPayload();
+    }
+
+    /**
+     * Create SQS message attributes from the cloud-agnostic attributes of a message. Text attributes have the
+     * String data type as it is the least common denominator between SQS and other messaging services. Binary
+     * attributes, and a binary payload, have the Binary data type.
      *
-     * @param attributes as a map of key-value pairs
+     * @param message message with the attributes
      * @return SQS message attributes
      */
-    private Map<String, MessageAttributeValue> createMessageAttributes(Map<String, String> attributes) {
+    Map<String, MessageAttributeValue> createMessageAttributes(SendMessageWrapper message) {
+        Map<String, String> attributes = message.getAttributes();
         Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
         for (String key : attributes.keySet()) {
             MessageAttributeValue messageAttributeValue = MessageAttributeValue.builder()
@@ -66,6 +513,32 @@ public class SqsMessageSender extends AbstractSqsClient implements MessageSender
                 .build();
             messageAttributes.put(key, messageAttributeValue);
         }
+        for (Map.Entry<String, ByteBuffer> attribute : message.getBinaryAttributes().entrySet()) {
+            messageAttributes.put(attribute.getKey(), createBinaryAttribute(attribute.getValue()));
+        }
+        ByteBuffer binaryPayload = message.getBinaryPayload();
+        if (binaryPayload != null) {
+            messageAttributes.put(BINARY_PAYLOAD_ATTRIBUTE, createBinaryAttribute(binaryPayload));
+        }
         return messageAttributes;
     }
+
+    private static MessageAttributeValue createBinaryAttribute(ByteBuffer value) {
+        return MessageAttributeValue.builder()
+                .dataType("Binary")
+                .binaryValue(toSdkBytes(value))
+                .build();
+    }
+
+    /**
+     * Wrap bytes for the SDK. The bytes are only copied if they are not a whole array, as the SDK cannot wrap a
+     * part of an array without copying it.
+     */
+    static SdkBytes toSdkBytes(ByteBuffer value) {
+        if (value.hasArray() && value.arrayOffset() + value.position() == 0
+                && value.remaining() == value.array().length) {
+            return SdkBytes.fromByteArrayUnsafe(value.array());
+        }
+        return SdkBytes.fromByteBuffer(value);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package fi.techappeal.messagingservice.sqs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Chooses the queue of the next receive when the pollers of a subscription are shared by several queues.
+ * <p>
+ * Queues with messages are received from in smooth weighted round-robin order, and several pollers may receive from
+ * such a queue at the same time. A receive that comes back empty makes its queue idle: an idle queue is received from
+ * by one poller at a time, and only after a delay that doubles with each empty receive. The longest delay keeps the
+ * number of empty receives per second at about the number of pollers per wait time however many queues there are.
+ * The wait time of a receive is shortened so that the poller is back when the next other queue is due.
+ * <p>
+ * A single queue is never idle and is always received from with the full wait time.
+ *
+ * @param <Q> type of the queues
+ */
+final class SqsPollScheduler<Q> {
+    private static final long MIN_IDLE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final List<Entry<Q>> entries = new ArrayList<>();
+    private final int waitTimeSeconds;
+    private final long maxIdleDelayNanos;
+    private final LongSupplier clock;
+
+    /**
+     * @param queues              queues to schedule
+     * @param weights             weight of each queue
+     * @param waitTimeSeconds     longest wait time of a receive
+     * @param maxIdleDelaySeconds longest delay between the receives of an idle queue
+     */
+    SqsPollScheduler(List<Q> queues, ToIntFunction<Q> weights, int waitTimeSeconds, int maxIdleDelaySeconds) {
+        this(queues, weights, waitTimeSeconds, maxIdleDelaySeconds, System::nanoTime);
+    }
+
+    /**
+     * (Used for testing.)
+     *
+     * @param clock source of the current time in nanoseconds
+     */
+    SqsPollScheduler(List<Q> queues, ToIntFunction<Q> weights, int waitTimeSeconds, int maxIdleDelaySeconds,
+                     LongSupplier clock) {
+        this.waitTimeSeconds = waitTimeSeconds;
+        this.maxIdleDelayNanos = TimeUnit.SECONDS.toNanos(maxIdleDelaySeconds);
+        this.clock = clock;
+        long now = clock.getAsLong();
+        for (Q queue : queues) {
+            entries.add(new Entry<>(queue, weights.applyAsInt(queue), now));
+        }
+    }
+
+    /**
+     * Wait until a queue is due and take it for a receive, which must be followed by
+     * {@link #completed(Object, int, int)}.
+     *
+     * @param timeoutMillis longest time to wait
+     * @return queue and wait time of the receive, or null if no queue was due within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized Poll<Q> next(long timeoutMillis) throws InterruptedException {
+        long deadline = clock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            long now = clock.getAsLong();
+            Entry<Q> chosen = null;
+            int totalWeight = 0;
+            long untilDue = deadline - now;
+            for (Entry<Q> entry : entries) {
+                if (entry.polling > 0 && !entry.busy) {
+                    continue;
+                }
+                if (entry.dueAt - now > 0) {
+                    untilDue = Math.min(untilDue, entry.dueAt - now);
+                    continue;
+                }
+                entry.current += entry.weight;
+                totalWeight += entry.weight;
+                if (chosen == null || entry.current > chosen.current) {
+                    chosen = entry;
+                }
+            }
+            if (chosen != null) {
+                chosen.current -= totalWeight;
+                chosen.polling++;
+                return new Poll<>(chosen.queue, waitTimeSeconds(chosen, now));
+            }
+            if (deadline - now <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, untilDue);
+        }
+    }
+
+    /**
+     * Wait time that brings the poller back when the next other queue is due.
+     */
+    private int waitTimeSeconds(Entry<Q> chosen, long now) {
+        long wait = TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+        for (Entry<Q> entry : entries) {
+            if (entry != chosen && (entry.polling == 0 || entry.busy)) {
+                wait = Math.min(wait, Math.max(0, entry.dueAt - now));
+            }
+        }
+        return (int) TimeUnit.NANOSECONDS.toSeconds(wait);
+    }
+
+    /**
+     * Record the result of a receive taken with {@link #next(long)}.
+     *
+     * @param queue    queue that was received from
+     * @param received number of messages received, 0 also if the receive failed
+     * @param pollers  current number of pollers
+     */
+    synchronized void completed(Q queue, int received, int pollers) {
+        Entry<Q> entry = entries.stream().filter(e -> e.queue == queue).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown queue " + queue));
+        entry.polling--;
+        long now = clock.getAsLong();
+        if (received > 0 || entries.size() == 1) {
+            entry.busy = true;
+            entry.idleDelay = 0;
+            entry.dueAt = now;
+        } else {
+            long maxDelay = Math.min(maxIdleDelayNanos,
+                    TimeUnit.SECONDS.toNanos(waitTimeSeconds) * (entries.size() - 1) / Math.max(1, pollers));
+            entry.busy = false;
+            entry.idleDelay = Math.min(maxDelay, entry.idleDelay == 0 ? MIN_IDLE_DELAY_NANOS : entry.idleDelay * 2);
+            entry.dueAt = now + entry.idleDelay;
+        }
+        notifyAll();
+    }
+
+    /**
+     * A receive chosen by {@link #next(long)}.
+     *
+     * @param queue           queue to receive from
+     * @param waitTimeSeconds wait time of the receive
+     */
+    record Poll<Q>(Q queue, int waitTimeSeconds) {
+    }
+
+    private static final class Entry<Q> {
+        private final Q queue;
+        private final int weight;
+        private int current; // smooth weighted round-robin counter
+        private long dueAt;
+        private long idleDelay; // nanoseconds, 0 while the queue has messages
+        private int polling;
+        private boolean busy = true; // queues start busy, so that every poller may receive from them
+
+        private Entry(Q queue, int weight, long dueAt) {
+            this.queue = queue;
+            this.weight = weight;
+            this.dueAt = dueAt;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Client-side rate limiter for SQS requests with a token bucket per queue. The rate of a queue adapts with AIMD:
+ * it grows additively with each successful request, up to the maximum rate, and is halved when SQS throttles a
+ * request, so that the request rate settles near the highest rate SQS sustains.
+ * <p>
+ * A request that would have to wait longer than the maximum wait for its token is rejected with a
+ * {@link RateLimitException}, the same exception SQS throttling is reported with but without an SQS cause, so that
+ * it is not retried. With a maximum wait of 0 requests are never delayed, only rejected.
+ */
+class SqsRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(SqsRateLimiter.class);
+    static final double MIN_RATE = 1;
+    static final double DEFAULT_MAX_RATE_FACTOR = 10; // default maximum rate as a multiple of the initial rate
+    static final double DECREASE_FACTOR = 0.5;
+    static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final double initialRate;
+    private final double maxRate;
+    private final long maxWaitNanos;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>(); // queue name -> bucket
+
+    /**
+     * @param initialRate  requests per second each queue starts with
+     * @param maxRate      requests per second the rate of a queue grows to at most
+     * @param maxWaitNanos longest time a request may wait for its token, 0 to reject instead of waiting
+     */
+    SqsRateLimiter(double initialRate, double maxRate, long maxWaitNanos) {
+        this.initialRate = initialRate;
+        this.maxRate = maxRate;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * Take a token for a request, waiting for it if necessary.
+     *
+     * @param queueName name of the queue
+     * @throws RateLimitException if the token is not available within the maximum wait
+     * @throws MessagingException if the thread is interrupted while waiting
+     */
+    void acquire(String queueName) {
+        park(reserve(queueName));
+    }
+
+    /**
+     * Take a token for a request, waiting for it as long as needed.
+     *
+     * @param queueName name of the queue
+     * @throws MessagingException if the thread is interrupted while waiting
+     */
+    void await(String queueName) {
+        park(bucket(queueName).reserve(Long.MAX_VALUE));
+    }
+
+    private static void park(long waitNanos) {
+        while (waitNanos > 0) {
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt(); // parkNanos returns at once while the flag is set
+                throw new MessagingException("Interrupted while waiting for the rate limit",
+                        new InterruptedException());
+            }
+            long start = System.nanoTime();
+            LockSupport.parkNanos(waitNanos);
+            waitNanos -= System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Take a token for a request that is sent later, without waiting.
+     *
+     * @param queueName name of the queue
+     * @return time in nanoseconds after which the request may be sent
+     * @throws RateLimitException if the token is not available within the maximum wait
+     */
+    long reserve(String queueName) {
+        long waitNanos = bucket(queueName).reserve(maxWaitNanos);
+        if (waitNanos < 0) {
+            throw new RateLimitException("Client-side rate limit of queue " + queueName + " exceeded", null);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * A request succeeded without throttling.
+     */
+    void succeeded(String queueName) {
+        bucket(queueName).increase();
+    }
+
+    /**
+     * SQS throttled a request.
+     */
+    void throttled(String queueName) {
+        bucket(queueName).decrease(queueName);
+    }
+
+    /**
+     * Current rate of a queue. (Used for testing.)
+     */
+    double getRate(String queueName) {
+        return bucket(queueName).getRate();
+    }
+
+    private TokenBucket bucket(String queueName) {
+        TokenBucket bucket = buckets.get(queueName);
+        return bucket != null ? bucket : buckets.computeIfAbsent(queueName,
+                q -> new TokenBucket(initialRate, maxRate));
+    }
+
+    /**
+     * Token bucket holding up to a tenth of a second of requests. Tokens may go negative: a request that has to
+     * wait reserves its token in advance, and later requests queue behind it.
+     */
+    private static final class TokenBucket {
+        private final double additiveIncrease;
+        private final double maxRate;
+        private double rate;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long decreasedAt = refilledAt - DECREASE_INTERVAL_NANOS;
+
+        TokenBucket(double initialRate, double maxRate) {
+            this.rate = initialRate;
+            this.maxRate = maxRate;
+            this.tokens = capacity();
+            // Recovers the initial rate from half of it in about five seconds at full load
+            this.additiveIncrease = Math.max(MIN_RATE, initialRate / 10);
+        }
+
+        synchronized long reserve(long maxWaitNanos) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity(), tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+            long waitNanos = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate * 1e9);
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            tokens -= 1;
+            return waitNanos;
+        }
+
+        /**
+         * Grow the rate so that a queue at full load gains the additive increase each second, up to the maximum.
+         */
+        synchronized void increase() {
+            rate = Math.min(maxRate, rate + additiveIncrease / rate);
+        }
+
+        /**
+         * Halve the rate. Requests already in flight when SQS started throttling fail together, so the rate is
+         * decreased at most once per {@link #DECREASE_INTERVAL_NANOS}.
+         */
+        synchronized void decrease(String queueName) {
+            long now = System.nanoTime();
+            if (now - decreasedAt < DECREASE_INTERVAL_NANOS) {
+                return;
+            }
+            decreasedAt = now;
+            rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+            tokens = Math.min(tokens, capacity());
+            logger.debug("Throttled by SQS, decreasing request rate of queue {} to {}/s", queueName, rate);
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        private double capacity() {
+            return Math.max(1, rate / 10);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.DeadLetter;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.claimcheck.ClaimCheck;
+import fi.techappeal.messagingservice.claimcheck.PayloadStore;
+import fi.techappeal.messagingservice.codec.PayloadCodec;
+import fi.techappeal.messagingservice.codec.PayloadCompression;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flyweight {@link ReceivedMessageWrapper} backed directly by an SQS {@link Message}. Nothing is copied when the
+ * wrapper is created: attributes are looked up from the message when they are requested, the attribute maps are
+ * built on first access, and a compressed or offloaded payload is decompressed or loaded on first access.
+ * <p>
+ * The attributes the library uses internally, i.e. the payload encoding, the payload store and the binary payload,
+ * are not visible to the handler. The {@link DeadLetter} attributes and the attributes of the sender are visible as
+ * they are.
+ */
+final class SqsReceivedMessage extends ReceivedMessageWrapper {
+    private static final String MESSAGE_GROUP_ID = MessageSystemAttributeName.MESSAGE_GROUP_ID.toString();
+    private static final String SEQUENCE_NUMBER = MessageSystemAttributeName.SEQUENCE_NUMBER.toString();
+    private final Message message;
+    private final SdkBytes binaryPayload; // null if the payload is text
+    private final PayloadCodec codec; // null if the payload is not compressed
+    private final PayloadStore store; // null if the payload is not offloaded
+    private volatile String payload; // decompressed or loaded payload
+    private volatile ByteBuffer loadedBinaryPayload; // decompressed or loaded binary payload, read-only
+    private volatile Map<String, String> attributes;
+    private volatile Map<String, ByteBuffer> binaryAttributes;
+
+    /**
+     * @param message received message
+     * @param codecs  codecs of the receiver by name
+     * @param store   payload store of the receiver, or null if it has none
+     * @throws MessagingException if the payload was compressed with an unknown codec or offloaded to an unknown store
+     */
+    SqsReceivedMessage(Message message, Map<String, PayloadCodec> codecs, PayloadStore store) {
+        this.message = message;
+        Map<String, MessageAttributeValue> messageAttributes = message.messageAttributes();
+        MessageAttributeValue binary = messageAttributes.isEmpty() ? null :
+                messageAttributes.get(SqsMessageSender.BINARY_PAYLOAD_ATTRIBUTE);
+        this.binaryPayload = binary != null ? binary.binaryValue() : null;
+        if (messageAttributes.isEmpty()) {
+            this.codec = null;
+            this.store = null;
+            return;
+        }
+        String storeName = stringValue(messageAttributes.get(ClaimCheck.STORE_ATTRIBUTE));
+        this.store = ClaimCheck.isOffloaded(storeName, store) ? store : null;
+        String encoding = stringValue(messageAttributes.get(PayloadCompression.ENCODING_ATTRIBUTE));
+        this.codec = encoding != null ? PayloadCompression.getCodec(encoding, codecs) : null;
+    }
+
+    @Override
+    public String getId() {
+        return message.messageId();
+    }
+
+    /**
+     * Returns the payload of the message. A compressed payload is decompressed and an offloaded payload is loaded
+     * on the first call.
+     * @return payload of the message, or null if the payload is binary
+     */
+    @Override
+    public String getPayload() {
+        if (binaryPayload != null) {
+            return null;
+        } else if (codec == null && store == null) {
+            return message.body();
+        }
+        String resolved = payload;
+        if (resolved == null) {
+            synchronized (this) {
+                if (payload == null) {
+                    String body = store != null ? store.load(message.body()) : message.body();
+                    payload = codec != null ? PayloadCompression.decompress(body, codec) : body;
+                }
+                resolved = payload;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the binary payload of the message. A compressed payload is decompressed and an offloaded payload is
+     * loaded on the first call.
+     * @return read-only view of the binary payload, or null if the payload is text
+     */
+    @Override
+    public ByteBuffer getBinaryPayload() {
+        if (binaryPayload == null) {
+            return null;
+        } else if (codec == null && store == null) {
+            return binaryPayload.asByteBuffer(); // read-only view, not a copy
+        }
+        ByteBuffer resolved = loadedBinaryPayload;
+        if (resolved == null) {
+            synchronized (this) {
+                if (loadedBinaryPayload == null) {
+                    byte[] body = store != null ?
+                            ClaimCheck.loadBinary(binaryPayload.asByteBuffer(), store) : binaryPayload.asByteArray();
+                    byte[] data = codec != null ? PayloadCompression.decompress(body, codec) : body;
+                    loadedBinaryPayload = ByteBuffer.wrap(data).asReadOnlyBuffer();
+                }
+                resolved = loadedBinaryPayload;
+            }
+        }
+        return resolved.duplicate(); // a view per caller, as views have their own position
+    }
+
+    @Override
+    public String getAttribute(String key) {
+        if (isInternal(key)) {
+            return null;
+        }
+        return stringValue(message.messageAttributes().get(key));
+    }
+
+    @Override
+    public Map<String, String> getAttributes() {
+        Map<String, String> result = attributes;
+        if (result == null) {
+            result = Map.of();
+            for (Map.Entry<String, MessageAttributeValue> entry : message.messageAttributes().entrySet()) {
+                String value = entry.getValue().stringValue();
+                if (value != null && !isInternal(entry.getKey())) {
+                    if (result.isEmpty()) {
+                        result = new HashMap<>();
+                    }
+                    result.put(entry.getKey(), value);
+                }
+            }
+            attributes = result = result.isEmpty() ? result : Collections.unmodifiableMap(result);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getBinaryAttributes() {
+        Map<String, ByteBuffer> result = binaryAttributes;
+        if (result == null) {
+            result = Map.of();
+            for (Map.Entry<String, MessageAttributeValue> entry : message.messageAttributes().entrySet()) {
+                SdkBytes value = entry.getValue().binaryValue();
+                if (value != null && !isInternal(entry.getKey())) {
+                    if (result.isEmpty()) {
+                        result = new HashMap<>();
+                    }
+                    result.put(entry.getKey(), value.asByteBuffer());
+                }
+            }
+            binaryAttributes = result = result.isEmpty() ? result : Collections.unmodifiableMap(result);
+        }
+        return result;
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return message.attributesAsStrings().get(MESSAGE_GROUP_ID);
+    }
+
+    @Override
+    public String getSequenceNumber() {
+        return message.attributesAsStrings().get(SEQUENCE_NUMBER);
+    }
+
+    private static boolean isInternal(String key) {
+        return key.startsWith(SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX) && !DeadLetter.isDeadLetterAttribute(key);
+    }
+
+    private static String stringValue(MessageAttributeValue value) {
+        return value != null ? value.stringValue() : null;
+    }
+}
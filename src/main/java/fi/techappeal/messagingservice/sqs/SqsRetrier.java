@@ -0,0 +1,213 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.RetryPolicy;
+import fi.techappeal.messagingservice.exceptions.ApiTimeoutException;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import fi.techappeal.messagingservice.exceptions.NoSuchQueueException;
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import fi.techappeal.messagingservice.metrics.Histogram;
+import fi.techappeal.messagingservice.metrics.HistogramSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Retries failed SQS requests according to a {@link RetryPolicy}, and hedges asynchronous requests that take longer
+ * than the configured percentile of the latencies of earlier successful attempts.
+ * <p>
+ * Failures are classified by their cloud-agnostic exception: throttling and timeouts are retried, a missing queue is
+ * not, and other failures are retried if they were caused by a network error or a server error of SQS.
+ */
+class SqsRetrier {
+    private static final Logger logger = LoggerFactory.getLogger(SqsRetrier.class);
+    static final int MIN_HEDGE_SAMPLES = 100; // latencies needed before the percentile is trusted
+    private static final long HEDGE_DELAY_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final long deadlineNanos;
+    private final double hedgePercentile;
+    private final Histogram latencies = new Histogram();
+    private volatile long hedgeDelayNanos = -1;
+    private volatile long hedgeDelayRefreshedAt = System.nanoTime() - HEDGE_DELAY_REFRESH_NANOS;
+
+    SqsRetrier(RetryPolicy policy) {
+        this.maxAttempts = policy.getMaxAttempts();
+        this.baseDelayNanos = policy.getBaseDelay().toNanos();
+        this.maxDelayNanos = policy.getMaxDelay().toNanos();
+        this.deadlineNanos = policy.getDeadline().toNanos();
+        this.hedgePercentile = policy.getHedgePercentile();
+    }
+
+    /**
+     * @return true if asynchronous requests are hedged
+     */
+    boolean isHedging() {
+        return hedgePercentile > 0;
+    }
+
+    /**
+     * Make a request, retrying it on the calling thread.
+     *
+     * @param queueName name of the queue the request is for
+     * @param request   the request
+     * @return result of the request
+     * @throws MessagingException the cloud-agnostic failure of the last attempt
+     */
+    <T> T call(String queueName, Supplier<T> request) {
+        long deadline = System.nanoTime() + deadlineNanos;
+        long delay = baseDelayNanos;
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                T result = request.get();
+                latencies.record(System.nanoTime() - start);
+                return result;
+            } catch (RuntimeException e) {
+                MessagingException exception = SqsExceptionMapper.toCloudAgnosticException(e);
+                delay = nextDelay(delay);
+                if (!shouldRetry(queueName, exception, attempt, delay, deadline)) {
+                    throw exception;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw exception;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make an asynchronous request, retrying it without blocking.
+     *
+     * @param queueName name of the queue the request is for
+     * @param hedge     true if the request may be sent twice, i.e. SQS deduplicates it
+     * @param request   starts an attempt of the request
+     * @return future completed with the result, or exceptionally with the cloud-agnostic failure of the last attempt
+     */
+    <T> CompletableFuture<T> callAsync(String queueName, boolean hedge, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(queueName, hedge && isHedging(), request, result, 1, baseDelayNanos,
+                System.nanoTime() + deadlineNanos);
+        return result;
+    }
+
+    private <T> void attemptAsync(String queueName, boolean hedge, Supplier<CompletableFuture<T>> request,
+                                  CompletableFuture<T> result, int attempt, long previousDelay, long deadline) {
+        hedgedAttempt(hedge, request).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                result.complete(value);
+                return;
+            }
+            MessagingException exception = SqsExceptionMapper.toCloudAgnosticException(throwable);
+            long delay = nextDelay(previousDelay);
+            if (!shouldRetry(queueName, exception, attempt, delay, deadline)) {
+                result.completeExceptionally(exception);
+                return;
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() ->
+                    attemptAsync(queueName, hedge, request, result, attempt + 1, delay, deadline));
+        });
+    }
+
+    /**
+     * Start an attempt, and a second one if the first has not returned within the hedge delay. The returned future
+     * completes with the first success, or with the last failure once every attempt that was started has failed.
+     */
+    private <T> CompletableFuture<T> hedgedAttempt(boolean hedge, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> round = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        startAttempt(request, round, pending);
+        long delay = hedge ? getHedgeDelayNanos() : -1;
+        if (delay >= 0 && !round.isDone()) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                // Hedge only while the first attempt is still running
+                if (!round.isDone() && pending.getAndUpdate(n -> n > 0 ? n + 1 : n) > 0) {
+                    logger.debug("Hedging request after {} ms", TimeUnit.NANOSECONDS.toMillis(delay));
+                    startAttempt(request, round, pending);
+                }
+            });
+        }
+        return round;
+    }
+
+    private <T> void startAttempt(Supplier<CompletableFuture<T>> request, CompletableFuture<T> round,
+                                  AtomicInteger pending) {
+        long start = System.nanoTime();
+        CompletableFuture<T> attempt;
+        try {
+            attempt = request.get();
+        } catch (RuntimeException e) {
+            attempt = CompletableFuture.failedFuture(e);
+        }
+        attempt.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                latencies.record(System.nanoTime() - start);
+                round.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                round.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private boolean shouldRetry(String queueName, MessagingException exception, int attempt, long delay,
+                                long deadline) {
+        if (!isRetryable(exception) || attempt >= maxAttempts || System.nanoTime() + delay - deadline > 0) {
+            return false;
+        }
+        logger.debug("Retrying request to queue {} in {} ms after attempt {} failed: {}", queueName,
+                TimeUnit.NANOSECONDS.toMillis(delay), attempt, exception.getMessage());
+        return true;
+    }
+
+    /**
+     * Decorrelated jitter: random between the base delay and three times the previous delay, at most the maximum.
+     */
+    long nextDelay(long previousDelay) {
+        long upper = Math.max(baseDelayNanos + 1, Math.min(maxDelayNanos, previousDelay) * 3);
+        return Math.min(maxDelayNanos, ThreadLocalRandom.current().nextLong(baseDelayNanos, upper));
+    }
+
+    /**
+     * Time after which an attempt is hedged, refreshed from the latencies at most every 100 ms.
+     *
+     * @return delay in nanoseconds, or -1 if there are too few latencies yet
+     */
+    long getHedgeDelayNanos() {
+        long now = System.nanoTime();
+        if (now - hedgeDelayRefreshedAt >= HEDGE_DELAY_REFRESH_NANOS) {
+            hedgeDelayRefreshedAt = now;
+            HistogramSnapshot snapshot = latencies.snapshot();
+            hedgeDelayNanos = snapshot.count() < MIN_HEDGE_SAMPLES ? -1 : snapshot.percentile(hedgePercentile);
+        }
+        return hedgeDelayNanos;
+    }
+
+    /**
+     * Whether a failed request may succeed when it is sent again.
+     *
+     * @param exception cloud-agnostic failure
+     * @return true for throttling by SQS, timeouts, network errors and server errors of SQS; false for a rejection by
+     * the client-side rate limiter, which has no SQS cause and would only be repeated
+     */
+    static boolean isRetryable(MessagingException exception) {
+        if (exception instanceof ApiTimeoutException) {
+            return true;
+        } else if (exception instanceof NoSuchQueueException) {
+            return false;
+        } else if (exception.getCause() instanceof SqsException e) {
+            return exception instanceof RateLimitException || e.isThrottlingException() || e.statusCode() >= 500;
+        } else {
+            return exception.getCause() instanceof SdkClientException;
+        }
+    }
+}
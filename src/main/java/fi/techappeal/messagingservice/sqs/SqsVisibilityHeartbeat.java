@@ -0,0 +1,181 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.metrics.MessagingMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Extends the visibility timeout of messages that are still being handled, so that long-running handlers do not
+ * get their messages redelivered to other consumers. Messages are extended with ChangeMessageVisibilityBatch
+ * requests when less than half of their visibility timeout remains, until they are completed or reach the
+ * maximum processing time.
+ */
+class SqsVisibilityHeartbeat {
+    private static final Logger logger = LoggerFactory.getLogger(SqsVisibilityHeartbeat.class);
+    private final Supplier<SqsClient> sqsClient;
+    private final Supplier<MessagingMetrics> metrics;
+    private final String queueName;
+    private final String queueUrl;
+    private final int visibilityTimeout;
+    private final long maxProcessingNanos;
+    private final ConcurrentHashMap<String, InFlightMessage> messages = new ConcurrentHashMap<>(); // receipt handle -> message
+    private final ScheduledExecutorService executor; // null if the executor is shared
+    private final ScheduledFuture<?> task;
+
+    /**
+     * @param sqsClient            supplier of the client used for extending the visibility
+     * @param metrics              supplier of the metrics the requests are recorded to
+     * @param queueName            name of the queue of the messages
+     * @param queueUrl             url of the queue of the messages
+     * @param visibilityTimeout    visibility timeout in seconds, used for the received messages and each extension
+     * @param maxProcessingSeconds time after receiving a message after which its visibility is no longer extended
+     */
+    SqsVisibilityHeartbeat(Supplier<SqsClient> sqsClient, Supplier<MessagingMetrics> metrics, String queueName,
+                           String queueUrl, int visibilityTimeout, int maxProcessingSeconds) {
+        this(sqsClient, metrics, queueName, queueUrl, visibilityTimeout, maxProcessingSeconds, null);
+    }
+
+    /**
+     * @param timer executor the extensions are scheduled on, shared by the heartbeats of several queues and not
+     *              shut down by the heartbeat, or null for a thread of its own
+     */
+    SqsVisibilityHeartbeat(Supplier<SqsClient> sqsClient, Supplier<MessagingMetrics> metrics, String queueName,
+                           String queueUrl, int visibilityTimeout, int maxProcessingSeconds,
+                           ScheduledExecutorService timer) {
+        this.sqsClient = sqsClient;
+        this.metrics = metrics;
+        this.queueName = queueName;
+        this.queueUrl = queueUrl;
+        this.visibilityTimeout = visibilityTimeout;
+        this.maxProcessingNanos = TimeUnit.SECONDS.toNanos(maxProcessingSeconds);
+        this.executor = timer == null ? createTimer() : null;
+        long intervalMillis = Math.max(100, TimeUnit.SECONDS.toMillis(visibilityTimeout) / 5);
+        this.task = (timer != null ? timer : executor).scheduleWithFixedDelay(this::extend, intervalMillis,
+                intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return single-thread executor for scheduling heartbeats
+     */
+    static ScheduledExecutorService createTimer() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sqs-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start extending the visibility of a message whose handling has started.
+     *
+     * @param receiptHandle receipt handle of the message
+     * @param receivedAt    {@link System#nanoTime()} when the message was received
+     */
+    void track(String receiptHandle, long receivedAt) {
+        messages.put(receiptHandle, new InFlightMessage(receivedAt + TimeUnit.SECONDS.toNanos(visibilityTimeout),
+                receivedAt + maxProcessingNanos));
+    }
+
+    /**
+     * Stop extending the visibility of a message whose handling has completed.
+     *
+     * @param receiptHandle receipt handle of the message
+     */
+    void untrack(String receiptHandle) {
+        messages.remove(receiptHandle);
+    }
+
+    /**
+     * Stop the heartbeat. Messages that are still tracked become visible when their current timeout expires.
+     */
+    void close() {
+        task.cancel(false);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        messages.clear();
+    }
+
+    /**
+     * Extend the visibility of the messages that have less than half of their visibility timeout left.
+     */
+    private void extend() {
+        long now = System.nanoTime();
+        long threshold = TimeUnit.SECONDS.toNanos(visibilityTimeout) / 2;
+        List<String> due = new ArrayList<>();
+        messages.forEach((receiptHandle, message) -> {
+            if (message.visibleAt - now > threshold) {
+                return;
+            }
+            if (now >= message.deadline) {
+                logger.debug("Message reached the maximum processing time, no longer extending its visibility");
+                messages.remove(receiptHandle);
+                return;
+            }
+            due.add(receiptHandle);
+        });
+        for (int start = 0; start < due.size(); start += AbstractSqsClient.MAX_BATCH_ENTRIES) {
+            extendBatch(due.subList(start, Math.min(start + AbstractSqsClient.MAX_BATCH_ENTRIES, due.size())), now);
+        }
+    }
+
+    private void extendBatch(List<String> receiptHandles, long now) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(receiptHandles.size());
+        int[] timeouts = new int[receiptHandles.size()];
+        for (int i = 0; i < receiptHandles.size(); i++) {
+            InFlightMessage message = messages.get(receiptHandles.get(i));
+            long secondsUntilDeadline = message == null ? 1 :
+                    (message.deadline - now + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+            // Never extend beyond the maximum processing time
+            timeouts[i] = (int) Math.min(visibilityTimeout, secondsUntilDeadline);
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .receiptHandle(receiptHandles.get(i))
+                    .visibilityTimeout(timeouts[i])
+                    .build());
+        }
+        try {
+            ChangeMessageVisibilityBatchResponse response = AbstractSqsClient.timed(metrics.get(), queueName,
+                    "ChangeMessageVisibilityBatch", () -> sqsClient.get().changeMessageVisibilityBatch(
+                            ChangeMessageVisibilityBatchRequest.builder()
+                                    .queueUrl(queueUrl)
+                                    .entries(entries)
+                                    .build()));
+            for (int i = 0; i < receiptHandles.size(); i++) {
+                long visibleAt = now + TimeUnit.SECONDS.toNanos(timeouts[i]);
+                messages.computeIfPresent(receiptHandles.get(i),
+                        (handle, message) -> new InFlightMessage(visibleAt, message.deadline));
+            }
+            for (BatchResultErrorEntry entry : response.failed()) {
+                // The message was deleted or its handle expired; nothing left to extend
+                logger.debug("Failed to extend visibility of a message in queue {}: {}", queueUrl, entry.code());
+                messages.remove(receiptHandles.get(Integer.parseInt(entry.id())));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to extend visibility of {} messages in queue {}", entries.size(), queueUrl, e);
+        }
+    }
+
+    /**
+     * Visibility state of a message that is being handled.
+     *
+     * @param visibleAt {@link System#nanoTime()} when the message becomes visible unless extended
+     * @param deadline  {@link System#nanoTime()} after which the visibility is no longer extended
+     */
+    private record InFlightMessage(long visibleAt, long deadline) {
+    }
+}
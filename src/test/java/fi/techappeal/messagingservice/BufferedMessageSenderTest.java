@@ -0,0 +1,217 @@
+package fi.techappeal.messagingservice;
+
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link BufferedMessageSender}. The underlying sender is mocked.
+ */
+class BufferedMessageSenderTest {
+    private MessageSender mockSender;
+
+    @BeforeEach
+    void setUp() {
+        mockSender = mock(MessageSender.class);
+        when(mockSender.sendMessages(any(), anyList())).thenAnswer(invocation -> {
+            List<SendMessageWrapper> messages = invocation.getArgument(1);
+            List<SendMessageResult> results = new ArrayList<>();
+            for (SendMessageWrapper message : messages) {
+                results.add(SendMessageResult.success(message, "id-" + message.getPayload()));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Test that messages sent from many threads are sent as one batch when the buffer becomes full.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void sendMessageAsync_fullBatchIsSentImmediately() throws Exception {
+        // Arrange
+        BufferedMessageSender sender = new BufferedMessageSender.Builder(mockSender)
+                .lingerTime(Duration.ofHours(1))
+                .build();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            SendMessageWrapper message = new SendMessageWrapper.Builder().payload("message" + i).build();
+            CompletableFuture<String> future = new CompletableFuture<>();
+            futures.add(future);
+            threads.add(new Thread(() -> sender.sendMessageAsync("MyQ", message).whenComplete((id, e) -> future.complete(id))));
+        }
+
+        // Act
+        threads.forEach(Thread::start);
+
+        // Assert
+        for (int i = 0; i < 10; i++) {
+            assertTrue(futures.get(i).get(5, TimeUnit.SECONDS).startsWith("id-message"));
+        }
+        ArgumentCaptor<List<SendMessageWrapper>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mockSender, times(1)).sendMessages(eq("MyQ"), captor.capture());
+        assertEquals(10, captor.getValue().size());
+    }
+
+    /**
+     * Test that a partial batch is sent once the linger time has passed.
+     */
+    @Test
+    void sendMessageAsync_partialBatchIsSentAfterLingerTime() throws Exception {
+        // Arrange
+        BufferedMessageSender sender = new BufferedMessageSender.Builder(mockSender)
+                .lingerTime(Duration.ofMillis(5))
+                .build();
+
+        // Act
+        CompletableFuture<String> first = sender.sendMessageAsync("MyQ", new SendMessageWrapper.Builder().payload("1").build());
+        CompletableFuture<String> second = sender.sendMessageAsync("MyQ", new SendMessageWrapper.Builder().payload("2").build());
+
+        // Assert
+        assertEquals("id-1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("id-2", second.get(5, TimeUnit.SECONDS));
+        verify(mockSender, times(1)).sendMessages(eq("MyQ"), anyList());
+    }
+
+    /**
+     * Test that the batches of a queue are sent one at a time in the order they were formed, although several flush
+     * threads are available.
+     */
+    @Test
+    void sendMessageAsync_batchesOfQueueAreSentInOrder() throws Exception {
+        // Arrange
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        when(mockSender.sendMessages(any(), anyList())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(10);
+            List<SendMessageWrapper> messages = invocation.getArgument(1);
+            List<SendMessageResult> results = new ArrayList<>();
+            for (SendMessageWrapper message : messages) {
+                sent.add(message.getPayload());
+                results.add(SendMessageResult.success(message, "id-" + message.getPayload()));
+            }
+            inFlight.decrementAndGet();
+            return results;
+        });
+        BufferedMessageSender sender = new BufferedMessageSender.Builder(mockSender)
+                .maxBatchSize(2)
+                .lingerTime(Duration.ofHours(1))
+                .flushThreads(4)
+                .build();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        List<String> payloads = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            payloads.add(Integer.toString(i));
+            SendMessageWrapper message = new SendMessageWrapper.Builder().payload(Integer.toString(i))
+                    .partitionKey("group").build();
+            futures.add(sender.sendMessageAsync("MyQ.fifo", message));
+        }
+        for (CompletableFuture<String> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        // Assert
+        assertEquals(1, maxInFlight.get());
+        assertEquals(payloads, sent);
+        verify(mockSender, times(5)).sendMessages(eq("MyQ.fifo"), anyList());
+    }
+
+    /**
+     * Test that settings out of range are rejected when building.
+     */
+    @Test
+    void build_rejectsInvalidSettings() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> new BufferedMessageSender.Builder(mockSender).maxBatchSize(0).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> new BufferedMessageSender.Builder(mockSender).flushThreads(0).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> new BufferedMessageSender.Builder(mockSender).lingerTime(null).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> new BufferedMessageSender.Builder(mockSender).lingerTime(Duration.ofMillis(-1)).build());
+    }
+
+    /**
+     * Test that close sends the buffered messages and closes the underlying sender, and that messages sent after
+     * close fail through their futures.
+     */
+    @Test
+    void close_flushesBufferedMessages() throws Exception {
+        // Arrange
+        BufferedMessageSender sender = new BufferedMessageSender.Builder(mockSender)
+                .lingerTime(Duration.ofHours(1))
+                .build();
+        CompletableFuture<String> future = sender.sendMessageAsync("MyQ", new SendMessageWrapper.Builder().payload("1").build());
+
+        // Act
+        sender.close();
+
+        // Assert
+        assertEquals("id-1", future.get(0, TimeUnit.SECONDS));
+        verify(mockSender).close();
+        CompletableFuture<String> rejected = sender.sendMessageAsync("MyQ",
+                new SendMessageWrapper.Builder().payload("2").build());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.get(0, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertThrows(IllegalStateException.class,
+                () -> sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("3").build()));
+    }
+
+    /**
+     * Test that a failed batch request is reported to the caller of sendMessage with the exception of the
+     * underlying sender.
+     */
+    @Test
+    void sendMessage_failedRequestIsThrown() {
+        // Arrange
+        when(mockSender.sendMessages(any(), anyList())).thenThrow(new IllegalArgumentException("Invalid message"));
+        BufferedMessageSender sender = new BufferedMessageSender.Builder(mockSender)
+                .lingerTime(Duration.ofMillis(1))
+                .build();
+
+        // Act and Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("1").build()));
+    }
+
+    /**
+     * Test that a failed message is reported to the caller of sendMessage as the mapped exception.
+     */
+    @Test
+    void sendMessage_failureIsThrown() {
+        // Arrange
+        when(mockSender.sendMessages(any(), anyList())).thenAnswer(invocation -> {
+            List<SendMessageWrapper> messages = invocation.getArgument(1);
+            return List.of(SendMessageResult.failure(messages.get(0), new RateLimitException("Over limit", null)));
+        });
+        BufferedMessageSender sender = new BufferedMessageSender.Builder(mockSender)
+                .lingerTime(Duration.ofMillis(1))
+                .build();
+
+        // Act and Assert
+        assertThrows(RateLimitException.class,
+                () -> sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("1").build()));
+    }
+}
@@ -1,8 +1,14 @@
 package fi.techappeal.messagingservice;
 
+import fi.techappeal.messagingservice.inmemory.InMemoryMessageReceiver;
 import fi.techappeal.messagingservice.sqs.SqsMessageReceiver;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -18,6 +24,79 @@ class MessageReceiverTest {
         assertTrue(messagingService instanceof SqsMessageReceiver);
     }
 
+    /**
+     * Test that MessagingServiceBuilder returns an InMemoryMessageReceiver when the service is inmemory.
+     */
+    @Test
+    void testInMemoryProvider() {
+        MessageReceiver messagingService = new MessageReceiver.Builder().service("inmemory").build();
+        assertTrue(messagingService instanceof InMemoryMessageReceiver);
+    }
+
+    /**
+     * Test that the in-memory receiver gets the settings it supports, and that settings it does not support are
+     * rejected instead of ignored.
+     */
+    @Test
+    void testInMemoryProviderSettings() {
+        // Arrange
+        MessageReceiver.Builder supported = new MessageReceiver.Builder().service("inmemory")
+                .deadLetterQueue("MyDLQ")
+                .orderedByGroup(true);
+        MessageReceiver.Builder unsupported = new MessageReceiver.Builder().service("inmemory")
+                .concurrency(10)
+                .batchLimits(100, Duration.ofSeconds(1));
+
+        // Act & Assert
+        assertTrue(supported.build() instanceof InMemoryMessageReceiver);
+        IllegalStateException e = assertThrows(IllegalStateException.class, unsupported::build);
+        assertTrue(e.getMessage().contains("concurrency") && e.getMessage().contains("batchLimits"));
+    }
+
+    /**
+     * Test that the pollers of the builder are applied to the SQS receiver, and rejected by the in-memory receiver.
+     */
+    @Test
+    void testPollersSetting() {
+        // Act & Assert
+        assertTrue(new MessageReceiver.Builder().service("sqs").pollers(1, 4).build() instanceof SqsMessageReceiver);
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageReceiver.Builder().service("sqs").pollers(4, 1).build());
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new MessageReceiver.Builder().service("inmemory").pollers(1, 4).build());
+        assertTrue(e.getMessage().contains("pollers"));
+    }
+
+    /**
+     * Test that the prefetch of the builder is applied to the SQS receiver, and rejected by the in-memory receiver.
+     */
+    @Test
+    void testPrefetchSetting() {
+        // Act & Assert
+        assertTrue(new MessageReceiver.Builder().service("sqs").prefetch(20).build() instanceof SqsMessageReceiver);
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageReceiver.Builder().service("sqs").prefetch(-1).build());
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new MessageReceiver.Builder().service("inmemory").prefetch(20).build());
+        assertTrue(e.getMessage().contains("prefetch"));
+    }
+
+    /**
+     * Test that the maximum processing time of the builder is applied to the SQS receiver, and rejected by the
+     * in-memory receiver.
+     */
+    @Test
+    void testMaxProcessingTimeSetting() {
+        // Act & Assert
+        assertTrue(new MessageReceiver.Builder().service("sqs").maxProcessingTime(Duration.ofHours(1)).build()
+                instanceof SqsMessageReceiver);
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageReceiver.Builder().service("sqs").maxProcessingTime(Duration.ofSeconds(-1)).build());
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new MessageReceiver.Builder().service("inmemory").maxProcessingTime(Duration.ofHours(1)).build());
+        assertTrue(e.getMessage().contains("maxProcessingTime"));
+    }
+
     /**
      * Test that the MessagingServiceBuilder throws an exception when the service is the unimplemented pubsub.
      */
@@ -45,4 +124,44 @@ class MessageReceiverTest {
         assertThrows(IllegalStateException.class, builder::build);
     }
 
-}
\ No newline at end of file
+    /**
+     * Test that the default multi-queue subscribe stops the receiver when subscribing to a queue fails, and throws
+     * the failure with the failures of the other queues suppressed.
+     */
+    @Test
+    void subscribeList_stopsAndThrowsWhenSubscribingFails() {
+        // Arrange
+        CountDownLatch failing = new CountDownLatch(2);
+        MessageReceiver receiver = new InMemoryMessageReceiver() {
+            @Override
+            public void subscribe(String queueName, MessageHandler messageHandler) {
+                if (queueName.startsWith("failing")) {
+                    failing.countDown();
+                    await(failing); // both fail, so that one failure is suppressed
+                    throw new IllegalStateException("Cannot subscribe to " + queueName);
+                }
+                super.subscribe(queueName, messageHandler);
+            }
+        };
+        MessageHandler handler = message -> ProcessingState.PROCESSED;
+
+        // Act
+        List<QueueSubscription> subscriptions = List.of(new QueueSubscription("failing1", handler),
+                new QueueSubscription("MyQ", handler), new QueueSubscription("failing2", handler));
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertThrows(IllegalStateException.class, () -> receiver.subscribe(subscriptions)));
+
+        // Assert
+        assertEquals(1, e.getSuppressed().length);
+        assertEquals(Set.of("Cannot subscribe to failing1", "Cannot subscribe to failing2"),
+                Set.of(e.getMessage(), e.getSuppressed()[0].getMessage()));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package fi.techappeal.messagingservice;
 
+import fi.techappeal.messagingservice.inmemory.InMemoryMessageSender;
 import fi.techappeal.messagingservice.sqs.SqsMessageSender;
 import org.junit.jupiter.api.Test;
 
@@ -20,6 +21,31 @@ class MessageSenderTest {
         assertTrue(messagingService instanceof SqsMessageSender);
     }
 
+    /**
+     * Test that MessagingServiceBuilder returns an InMemoryMessageSender when the service is inmemory.
+     */
+    @Test
+    void testInMemoryProvider() {
+        // Act
+        MessageSender messagingService = new MessageSender.Builder().service("inmemory").build();
+        // Assert
+        assertTrue(messagingService instanceof InMemoryMessageSender);
+    }
+
+    /**
+     * Test that settings the in-memory sender does not support are rejected instead of ignored.
+     */
+    @Test
+    void testInMemoryProviderRejectsUnsupportedSettings() {
+        // Arrange
+        MessageSender.Builder builder = new MessageSender.Builder().service("inmemory")
+                .retryPolicy(new RetryPolicy.Builder().build());
+
+        // Act & Assert
+        IllegalStateException e = assertThrows(IllegalStateException.class, builder::build);
+        assertTrue(e.getMessage().contains("retryPolicy"));
+    }
+
     /**
      * Test that the MessagingServiceBuilder throws an exception when the service is pubsub.
      */
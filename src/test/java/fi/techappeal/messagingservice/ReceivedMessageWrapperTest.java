@@ -3,6 +3,7 @@ package fi.techappeal.messagingservice;
 import org.junit.jupiter.api.Test;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -48,4 +49,47 @@ class ReceivedMessageWrapperTest {
         assertEquals("value", wrapper.getAttributes().get("key"));
         assertEquals("value2", wrapper.getAttributes().get("key2"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void payload_keepsFieldsSetBefore() {
+        // Arrange
+        ReceivedMessageWrapper.Builder builder = new ReceivedMessageWrapper.Builder()
+                .id("id")
+                .attribute("key", "value")
+                .payload("payload");
+        // Act
+        ReceivedMessageWrapper wrapper = builder.build();
+        // Assert
+        assertEquals("id", wrapper.getId());
+        assertEquals("value", wrapper.getAttribute("key"));
+        assertNull(wrapper.getAttribute("missing"));
+    }
+
+    @Test
+    void partitionKeyAndSequenceNumber() {
+        // Arrange
+        ReceivedMessageWrapper.Builder builder = new ReceivedMessageWrapper.Builder()
+                .payload("payload")
+                .partitionKey("group")
+                .sequenceNumber("1");
+        // Act
+        ReceivedMessageWrapper wrapper = builder.build();
+        // Assert
+        assertEquals("group", wrapper.getPartitionKey());
+        assertEquals("1", wrapper.getSequenceNumber());
+    }
+
+    @Test
+    void lazyPayload() {
+        // Arrange
+        AtomicInteger loads = new AtomicInteger();
+        ReceivedMessageWrapper wrapper = new ReceivedMessageWrapper.Builder()
+                .lazyPayload(() -> "payload" + loads.incrementAndGet())
+                .build();
+        // Act & Assert
+        assertEquals(0, loads.get());
+        assertEquals("payload1", wrapper.getPayload());
+        assertEquals("payload1", wrapper.getPayload());
+        assertEquals(1, loads.get());
+    }
+}
@@ -2,6 +2,7 @@ package fi.techappeal.messagingservice;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,6 +28,20 @@ class SendMessageWrapperTest {
         assertEquals("value2", wrapper.getAttributes().get("key2"));
     }
 
+    @Test
+    void payload_keepsFieldsSetBefore() {
+        // Act
+        SendMessageWrapper wrapper = new SendMessageWrapper.Builder()
+                .attribute("key", "value")
+                .partitionKey("group")
+                .payload("payload")
+                .build();
+        // Assert
+        assertEquals("payload", wrapper.getPayload());
+        assertEquals("value", wrapper.getAttributes().get("key"));
+        assertEquals("group", wrapper.getPartitionKey());
+    }
+
     @Test
     void attribute() {
         // Act
@@ -39,4 +54,20 @@ class SendMessageWrapperTest {
         assertEquals("value", wrapper.getAttributes().get("key"));
         assertEquals("value2", wrapper.getAttributes().get("key2"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void binaryPayload() {
+        // Act
+        byte[] bytes = {1, 2, 3};
+        SendMessageWrapper wrapper = new SendMessageWrapper.Builder()
+                .binaryPayload(bytes)
+                .binaryAttribute("key", ByteBuffer.wrap(new byte[]{4}))
+                .build();
+        // Assert
+        assertNull(wrapper.getPayload());
+        assertEquals(ByteBuffer.wrap(bytes), wrapper.getBinaryPayload());
+        assertEquals(ByteBuffer.wrap(new byte[]{4}), wrapper.getBinaryAttributes().get("key"));
+        assertThrows(IllegalStateException.class, () -> new SendMessageWrapper.Builder().payload("payload")
+                .binaryPayload(bytes).build());
+    }
+}
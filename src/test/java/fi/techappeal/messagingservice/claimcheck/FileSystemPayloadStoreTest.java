@@ -0,0 +1,65 @@
+package fi.techappeal.messagingservice.claimcheck;
+
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemPayloadStoreTest {
+    private Path directory;
+    private FileSystemPayloadStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("payloads");
+        store = new FileSystemPayloadStore(directory);
+    }
+
+    /**
+     * Test that a payload larger than the write buffer, with multi-byte characters, is stored and loaded intact.
+     */
+    @Test
+    void store_roundTrip() {
+        // Arrange
+        String payload = "{\"name\":\"äö€😀\"}".repeat(20_000);
+
+        // Act
+        String reference = store.store(payload);
+
+        // Assert
+        assertEquals(payload, store.load(reference));
+        assertTrue(Files.exists(directory.resolve(reference)));
+    }
+
+    /**
+     * Test that a deleted payload is gone and that deleting it again is not an error.
+     */
+    @Test
+    void delete_removesPayload() {
+        // Arrange
+        String reference = store.store("payload");
+
+        // Act
+        store.delete(reference);
+        store.delete(reference);
+
+        // Assert
+        assertFalse(Files.exists(directory.resolve(reference)));
+        assertThrows(MessagingException.class, () -> store.load(reference));
+    }
+
+    /**
+     * Test that a reference that is not one of the store's cannot reach files outside the directory.
+     */
+    @Test
+    void load_rejectsInvalidReference() {
+        // Act & Assert
+        assertThrows(MessagingException.class, () -> store.load("../secret"));
+        assertThrows(MessagingException.class, () -> store.delete("/etc/passwd"));
+    }
+}
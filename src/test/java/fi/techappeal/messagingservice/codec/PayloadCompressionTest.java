@@ -0,0 +1,126 @@
+package fi.techappeal.messagingservice.codec;
+
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadCompressionTest {
+    private final DeflateCodec codec = new DeflateCodec();
+
+    /**
+     * Test that a payload above the threshold is compressed with an encoding attribute and restored on receive.
+     */
+    @Test
+    void compress_roundTrip() {
+        // Arrange
+        String payload = "{\"event\":\"order-created\",\"amount\":\"\u20ac100\"}".repeat(5000); // larger than one buffer
+        SendMessageWrapper message = new SendMessageWrapper.Builder()
+                .payload(payload)
+                .attribute("type", "order")
+                .partitionKey("key")
+                .build();
+
+        // Act
+        SendMessageWrapper compressed = PayloadCompression.compress(message, codec, 1024);
+        Map<String, String> attributes = new HashMap<>(compressed.getAttributes());
+        String decompressed = PayloadCompression.decompress(compressed.getPayload(), attributes,
+                Map.of(DeflateCodec.NAME, codec));
+
+        // Assert
+        assertTrue(compressed.getPayload().length() < payload.length() / 10);
+        assertEquals(DeflateCodec.NAME, compressed.getAttributes().get(PayloadCompression.ENCODING_ATTRIBUTE));
+        assertEquals("key", compressed.getPartitionKey());
+        assertEquals(payload, decompressed);
+        assertEquals(Map.of("type", "order"), attributes);
+    }
+
+    /**
+     * Test that payloads below the threshold and payloads that do not get smaller are sent as they are.
+     */
+    @Test
+    void compress_skipsSmallAndIncompressiblePayloads() {
+        // Arrange
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        SendMessageWrapper small = new SendMessageWrapper.Builder().payload("small").build();
+        SendMessageWrapper incompressible = new SendMessageWrapper.Builder()
+                .payload(java.util.Base64.getEncoder().encodeToString(random))
+                .build();
+
+        // Act & Assert
+        assertSame(small, PayloadCompression.compress(small, codec, 1024));
+        assertSame(incompressible, PayloadCompression.compress(incompressible, codec, 1024));
+    }
+
+    /**
+     * Test that a payload of an unknown codec or corrupted data fails with a messaging exception.
+     */
+    @Test
+    void decompress_failsForUnknownOrInvalidPayload() {
+        // Arrange
+        Map<String, PayloadCodec> codecs = Map.of(DeflateCodec.NAME, codec);
+
+        // Act & Assert
+        assertThrows(MessagingException.class, () -> PayloadCompression.decompress("eJw=",
+                new HashMap<>(Map.of(PayloadCompression.ENCODING_ATTRIBUTE, "zstd")), codecs));
+        assertThrows(MessagingException.class, () -> PayloadCompression.decompress("bm90IGRlZmxhdGU=",
+                new HashMap<>(Map.of(PayloadCompression.ENCODING_ATTRIBUTE, DeflateCodec.NAME)), codecs));
+        assertEquals("plain", PayloadCompression.decompress("plain", new HashMap<>(), codecs));
+    }
+
+    /**
+     * Test that a payload that would decompress to more than the maximum size is rejected, and that the codec keeps
+     * working after a failure.
+     */
+    @Test
+    void decompress_failsAboveMaximumSize() {
+        // Arrange
+        DeflateCodec limited = new DeflateCodec(Deflater.DEFAULT_COMPRESSION, 1000);
+        byte[] bomb = limited.compress(new byte[1001]);
+        byte[] fits = limited.compress(new byte[1000]);
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> limited.decompress(bomb));
+        assertThrows(MessagingException.class, () -> PayloadCompression.decompress(bomb, limited));
+        assertArrayEquals(new byte[1000], limited.decompress(fits));
+    }
+
+    /**
+     * Test that the codec can be used from more threads than its pools hold.
+     */
+    @Test
+    void compress_concurrentThreads() throws Exception {
+        // Arrange
+        byte[] data = "payload ".repeat(10000).getBytes(StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+        List<Future<byte[]>> results = new ArrayList<>();
+
+        // Act
+        try {
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> codec.decompress(codec.compress(data))));
+            }
+
+            // Assert
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(data, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package fi.techappeal.messagingservice.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FingerprintWindowTest {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(80);
+
+    /**
+     * Test that ids are remembered for the window and forgotten once the window has moved past them.
+     */
+    @Test
+    void add_idsExpireAfterWindow() {
+        // Arrange
+        AtomicLong now = new AtomicLong();
+        FingerprintWindow window = new FingerprintWindow(WINDOW_NANOS, 1000, now::get);
+
+        // Act
+        boolean added = window.add("id1");
+        boolean addedAgain = window.add("id1");
+        now.addAndGet(WINDOW_NANOS);
+        boolean containedAtWindow = window.contains("id1");
+        now.addAndGet(WINDOW_NANOS / FingerprintWindow.BUCKETS);
+        boolean containedAfterWindow = window.contains("id1");
+
+        // Assert
+        assertTrue(added);
+        assertFalse(addedAgain);
+        assertTrue(containedAtWindow);
+        assertFalse(containedAfterWindow);
+        assertEquals(0, window.size());
+    }
+
+    /**
+     * Test that the tables grow beyond their initial capacity without losing ids.
+     */
+    @Test
+    void add_manyIds() {
+        // Arrange
+        FingerprintWindow window = new FingerprintWindow(WINDOW_NANOS, 1_000_000);
+
+        // Act
+        for (int i = 0; i < 100_000; i++) {
+            window.add("id" + i);
+        }
+
+        // Assert
+        assertEquals(100_000, window.size());
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(window.contains("id" + i));
+        }
+        assertFalse(window.contains("id100000"));
+    }
+
+    /**
+     * Test that the oldest ids are dropped early when the maximum number of ids is reached.
+     */
+    @Test
+    void add_maxIdsDropsOldestBucket() {
+        // Arrange
+        AtomicLong now = new AtomicLong();
+        FingerprintWindow window = new FingerprintWindow(WINDOW_NANOS, 100, now::get);
+        for (int i = 0; i < 100; i++) {
+            window.add("old" + i);
+        }
+        now.addAndGet(WINDOW_NANOS / FingerprintWindow.BUCKETS);
+
+        // Act
+        window.add("new");
+
+        // Assert
+        assertTrue(window.size() <= 100);
+        assertTrue(window.contains("new"));
+        assertFalse(window.contains("old0"));
+    }
+}
@@ -0,0 +1,87 @@
+package fi.techappeal.messagingservice.dedup;
+
+import fi.techappeal.messagingservice.BatchMessageHandler;
+import fi.techappeal.messagingservice.MessageHandler;
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageDeduplicatorTest {
+
+    /**
+     * Test that a processed message is not handled again, and that a skipped message is.
+     */
+    @Test
+    void handler_skipsProcessedDuplicates() {
+        // Arrange
+        MessageDeduplicator deduplicator = new MessageDeduplicator(Duration.ofMinutes(5), 1000, null);
+        List<String> handled = new ArrayList<>();
+        MessageHandler handler = deduplicator.handler(message -> {
+            handled.add(message.getId());
+            return "skip".equals(message.getPayload()) ? ProcessingState.SKIPPED : ProcessingState.PROCESSED;
+        });
+        ReceivedMessageWrapper processed = new ReceivedMessageWrapper.Builder().id("1").payload("process").build();
+        ReceivedMessageWrapper skipped = new ReceivedMessageWrapper.Builder().id("2").payload("skip").build();
+
+        // Act
+        handler.onMessageReceived(processed);
+        handler.onMessageReceived(skipped);
+        ProcessingState duplicateState = handler.onMessageReceived(processed);
+        handler.onMessageReceived(skipped);
+
+        // Assert
+        assertEquals(List.of("1", "2", "2"), handled);
+        assertEquals(ProcessingState.PROCESSED, duplicateState);
+        assertEquals(1, deduplicator.size());
+    }
+
+    /**
+     * Test that the deduplication attribute is used as the id of the messages that have it.
+     */
+    @Test
+    void isDuplicate_usesAttribute() {
+        // Arrange
+        MessageDeduplicator deduplicator = new MessageDeduplicator(Duration.ofMinutes(5), 1000, "dedup-id");
+        deduplicator.processed(new ReceivedMessageWrapper.Builder().id("1").attribute("dedup-id", "order-1").build());
+
+        // Act
+        boolean sameAttribute = deduplicator.isDuplicate(
+                new ReceivedMessageWrapper.Builder().id("2").attribute("dedup-id", "order-1").build());
+        boolean sameIdWithoutAttribute = deduplicator.isDuplicate(new ReceivedMessageWrapper.Builder().id("1").build());
+
+        // Assert
+        assertTrue(sameAttribute);
+        assertFalse(sameIdWithoutAttribute);
+    }
+
+    /**
+     * Test that a batch handler gets only the messages that are not duplicates, and that the states of the batch
+     * are in the order of the messages.
+     */
+    @Test
+    void batchHandler_skipsProcessedDuplicates() {
+        // Arrange
+        MessageDeduplicator deduplicator = new MessageDeduplicator(Duration.ofMinutes(5), 1000, null);
+        ReceivedMessageWrapper message1 = new ReceivedMessageWrapper.Builder().id("1").build();
+        ReceivedMessageWrapper message2 = new ReceivedMessageWrapper.Builder().id("2").build();
+        deduplicator.processed(message1);
+        List<List<ReceivedMessageWrapper>> batches = new ArrayList<>();
+        BatchMessageHandler handler = deduplicator.batchHandler(batch -> {
+            batches.add(batch);
+            return List.of(ProcessingState.SKIPPED);
+        });
+
+        // Act
+        List<ProcessingState> states = handler.onMessagesReceived(List.of(message1, message2));
+
+        // Assert
+        assertEquals(List.of(List.of(message2)), batches);
+        assertEquals(List.of(ProcessingState.PROCESSED, ProcessingState.SKIPPED), states);
+    }
+}
@@ -0,0 +1,310 @@
+package fi.techappeal.messagingservice.inmemory;
+
+import fi.techappeal.messagingservice.AcknowledgeableMessage;
+import fi.techappeal.messagingservice.DeadLetter;
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.SendMessageResult;
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests sending and receiving messages with the in-memory provider.
+ */
+class InMemoryMessagingTest {
+    private InMemoryBroker broker;
+    private InMemoryMessageSender sender;
+    private InMemoryMessageReceiver receiver;
+
+    @BeforeEach
+    void setUp() {
+        broker = new InMemoryBroker();
+        sender = new InMemoryMessageSender(broker);
+        receiver = new InMemoryMessageReceiver(broker);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.close();
+    }
+
+    /**
+     * Test that a typed payload is serialized on send and deserialized for a typed handler.
+     */
+    @Test
+    void sendAndReceive_typedPayload() {
+        // Arrange
+        sender.send("MyQ", "typed message");
+        List<String> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", String.class, (payload, message) -> {
+            received.add(payload);
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(List.of("typed message"), received);
+    }
+
+    /**
+     * Test that a sent message is received with its payload and attributes.
+     */
+    @Test
+    void sendAndReceive() {
+        // Arrange
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("message1").attribute("attr1", "value1").build());
+        List<ReceivedMessageWrapper> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            received.add(message);
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(1, received.size());
+        assertEquals("message1", received.get(0).getPayload());
+        assertEquals("value1", received.get(0).getAttributes().get("attr1"));
+        assertNotNull(received.get(0).getId());
+    }
+
+    /**
+     * Test that a skipped message is delivered again after its visibility timeout.
+     */
+    @Test
+    void skippedMessageIsRedelivered() {
+        // Arrange
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("message1").build());
+        receiver.setVisibilityTimeout(0);
+        List<String> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            received.add(message.getId());
+            if (received.size() == 1) {
+                return ProcessingState.SKIPPED;
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(2, received.size());
+        assertEquals(received.get(0), received.get(1));
+    }
+
+    /**
+     * Test that messages sent to a FIFO queue carry their partition key and sequence number, and that a message
+     * without a partition key is rejected.
+     */
+    @Test
+    void fifoQueue() {
+        // Arrange
+        List<SendMessageResult> results = sender.sendMessages("MyQ.fifo", List.of(
+                new SendMessageWrapper.Builder().payload("message1").partitionKey("A").build(),
+                new SendMessageWrapper.Builder().payload("message2").build()));
+        List<ReceivedMessageWrapper> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ.fifo", message -> {
+            received.add(message);
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertTrue(results.get(0).isSuccessful());
+        assertInstanceOf(MessagingException.class, results.get(1).getException());
+        assertEquals("A", received.get(0).getPartitionKey());
+        assertNotNull(received.get(0).getSequenceNumber());
+    }
+
+    /**
+     * Test that a binary payload is received as sent, even if the sender reuses its buffer.
+     */
+    @Test
+    void binaryPayload() {
+        // Arrange
+        byte[] buffer = {1, 2, 3};
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().binaryPayload(buffer).build());
+        buffer[0] = 9;
+        List<ReceivedMessageWrapper> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            received.add(message);
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertNull(received.get(0).getPayload());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), received.get(0).getBinaryPayload());
+    }
+
+    /**
+     * Test that an abandoned message is moved to the dead letter queue with its attributes and the dead letter
+     * attributes, and that receiving continues.
+     */
+    @Test
+    void receive_abandonedMessageIsDeadLettered() {
+        // Arrange
+        receiver.setDeadLetterQueue("MyDLQ");
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("bad").attribute("attr1", "value1").build());
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("good").build());
+        List<String> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            received.add(message.getPayload());
+            if ("bad".equals(message.getPayload())) {
+                return ProcessingState.ABANDONED;
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+        List<ReceivedMessageWrapper> deadLetters = new ArrayList<>();
+        receiver.subscribe("MyDLQ", message -> {
+            deadLetters.add(message);
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(List.of("bad", "good"), received);
+        assertEquals("bad", deadLetters.get(0).getPayload());
+        assertEquals("value1", deadLetters.get(0).getAttribute("attr1"));
+        assertEquals(DeadLetter.abandonedReason("MyQ"), deadLetters.get(0).getAttribute(DeadLetter.REASON_ATTRIBUTE));
+        assertEquals("1", deadLetters.get(0).getAttribute(DeadLetter.RECEIVE_COUNT_ATTRIBUTE));
+    }
+
+    /**
+     * Test that a batch handler gets the received messages in one call and that only the processed messages are
+     * deleted.
+     */
+    @Test
+    void subscribeBatch_completesEachMessage() {
+        // Arrange
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("message1").build());
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("message2").build());
+        receiver.setVisibilityTimeout(1);
+        List<List<String>> batches = new ArrayList<>();
+
+        // Act
+        receiver.subscribeBatch("MyQ", batch -> {
+            batches.add(batch.stream().map(ReceivedMessageWrapper::getPayload).toList());
+            if (batches.size() == 2) {
+                receiver.stop();
+            }
+            return List.of(ProcessingState.SKIPPED, ProcessingState.PROCESSED).subList(2 - batch.size(), 2);
+        });
+
+        // Assert
+        assertEquals(List.of(List.of("message1", "message2"), List.of("message1")), batches);
+    }
+
+    /**
+     * Test that a subscriber requesting one message at a time gets every message of the queue, and that the
+     * subscription completes when the receiver is stopped.
+     */
+    @Test
+    void publisher_publishesRequestedMessages() throws InterruptedException {
+        // Arrange
+        for (int i = 1; i <= 5; i++) {
+            sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("message" + i).build());
+        }
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(1);
+
+        // Act
+        receiver.publisher("MyQ").subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(AcknowledgeableMessage message) {
+                received.add(message.getPayload());
+                message.complete(ProcessingState.PROCESSED);
+                if (received.size() == 5) {
+                    receiver.stop();
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        // Assert
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("message1", "message2", "message3", "message4", "message5"), received);
+    }
+
+    /**
+     * Test that subscribing to a publisher after the receiver was stopped does not restart a subscription that the
+     * stop ended.
+     */
+    @Test
+    void publisher_doesNotRestartStoppedSubscriptions() throws InterruptedException {
+        // Arrange
+        Thread subscription = new Thread(() -> receiver.subscribe("MyQ", message -> ProcessingState.PROCESSED));
+        subscription.start();
+        Thread.sleep(200); // let the subscription start receiving
+        CountDownLatch subscribed = new CountDownLatch(1);
+
+        // Act
+        receiver.stop();
+        receiver.publisher("OtherQ").subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+                subscribed.countDown();
+            }
+
+            @Override
+            public void onNext(AcknowledgeableMessage message) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        subscription.join(2000);
+
+        // Assert
+        assertTrue(subscribed.await(1, TimeUnit.SECONDS));
+        assertFalse(subscription.isAlive());
+        receiver.stop(); // ends the publisher
+    }
+}
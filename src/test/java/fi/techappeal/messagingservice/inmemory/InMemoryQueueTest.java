@@ -0,0 +1,154 @@
+package fi.techappeal.messagingservice.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the SQS semantics of {@link InMemoryQueue}.
+ */
+class InMemoryQueueTest {
+
+    /**
+     * Test that a received message is invisible until its visibility timeout expires and then delivered again.
+     */
+    @Test
+    void receive_redeliversAfterVisibilityTimeout() throws Exception {
+        // Arrange
+        InMemoryQueue queue = new InMemoryQueue("MyQ");
+        queue.send("message1", null, Map.of());
+        InMemoryQueue.Delivery first = queue.receive(10, 50, 0).get(0);
+
+        // Act
+        List<InMemoryQueue.Delivery> whileInvisible = queue.receive(10, 50, 0);
+        Thread.sleep(60);
+        queue.expireDeliveries(System.nanoTime());
+        List<InMemoryQueue.Delivery> afterTimeout = queue.receive(10, 50, 0);
+
+        // Assert
+        assertTrue(whileInvisible.isEmpty());
+        assertEquals(1, afterTimeout.size());
+        assertEquals(first.message.id, afterTimeout.get(0).message.id);
+        assertNotEquals(first.receiptHandle, afterTimeout.get(0).receiptHandle);
+        assertEquals(2, afterTimeout.get(0).message.receiveCount);
+        assertFalse(queue.delete(first.receiptHandle));
+        assertTrue(queue.delete(afterTimeout.get(0).receiptHandle));
+    }
+
+    /**
+     * Test that a deleted message is not delivered again.
+     */
+    @Test
+    void delete_removesMessage() throws Exception {
+        // Arrange
+        InMemoryQueue queue = new InMemoryQueue("MyQ");
+        queue.send("message1", null, Map.of());
+        InMemoryQueue.Delivery delivery = queue.receive(10, 0, 0).get(0);
+
+        // Act
+        assertTrue(queue.delete(delivery.receiptHandle));
+        queue.expireDeliveries(System.nanoTime());
+
+        // Assert
+        assertTrue(queue.receive(10, 0, 0).isEmpty());
+    }
+
+    /**
+     * Test that changing the visibility timeout to 0 makes the message available immediately.
+     */
+    @Test
+    void changeVisibility_zeroReleasesMessage() throws Exception {
+        // Arrange
+        InMemoryQueue queue = new InMemoryQueue("MyQ");
+        queue.send("message1", null, Map.of());
+        InMemoryQueue.Delivery delivery = queue.receive(10, 60_000, 0).get(0);
+
+        // Act
+        assertTrue(queue.changeVisibility(delivery.receiptHandle, 0));
+
+        // Assert
+        assertEquals("message1", queue.receive(10, 60_000, 0).get(0).message.payload);
+    }
+
+    /**
+     * Test that a long-polling receive returns as soon as a message is sent.
+     */
+    @Test
+    void receive_longPollWakesUpOnSend() throws Exception {
+        // Arrange
+        InMemoryQueue queue = new InMemoryQueue("MyQ");
+        AtomicReference<List<InMemoryQueue.Delivery>> received = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread receiver = new Thread(() -> {
+            try {
+                received.set(queue.receive(10, 1000, 5000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        receiver.start();
+
+        // Act
+        Thread.sleep(50);
+        queue.send("message1", null, Map.of());
+
+        // Assert
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, received.get().size());
+    }
+
+    /**
+     * Test that a FIFO group delivers its messages in order and is blocked while one of them is in flight,
+     * while other groups are still delivered.
+     */
+    @Test
+    void receive_fifoGroupIsBlockedWhileInFlight() throws Exception {
+        // Arrange
+        InMemoryQueue queue = new InMemoryQueue("MyQ.fifo");
+        queue.send("A1", "A", Map.of());
+        queue.send("A2", "A", Map.of());
+        queue.send("B1", "B", Map.of());
+
+        // Act
+        List<InMemoryQueue.Delivery> first = queue.receive(1, 60_000, 0);
+        List<InMemoryQueue.Delivery> second = queue.receive(10, 60_000, 0);
+        List<InMemoryQueue.Delivery> whileBlocked = queue.receive(10, 60_000, 0);
+        queue.delete(first.get(0).receiptHandle);
+        List<InMemoryQueue.Delivery> afterDelete = queue.receive(10, 60_000, 0);
+
+        // Assert
+        assertEquals("A1", first.get(0).message.payload);
+        assertEquals("B1", second.get(0).message.payload);
+        assertEquals(1, second.size());
+        assertTrue(whileBlocked.isEmpty());
+        assertEquals("A2", afterDelete.get(0).message.payload);
+    }
+
+    /**
+     * Test that an expired FIFO message is delivered again before the later messages of its group.
+     */
+    @Test
+    void receive_fifoExpiredMessageKeepsItsPlace() throws Exception {
+        // Arrange
+        InMemoryQueue queue = new InMemoryQueue("MyQ.fifo");
+        queue.send("A1", "A", Map.of());
+        queue.send("A2", "A", Map.of());
+        queue.send("A3", "A", Map.of());
+        List<InMemoryQueue.Delivery> first = queue.receive(2, 60_000, 0);
+
+        // Act
+        queue.changeVisibility(first.get(1).receiptHandle, 0);
+        queue.changeVisibility(first.get(0).receiptHandle, 0);
+        List<InMemoryQueue.Delivery> redelivered = queue.receive(10, 60_000, 0);
+
+        // Assert
+        assertEquals(List.of("A1", "A2", "A3"), redelivered.stream().map(d -> d.message.payload).toList());
+    }
+}
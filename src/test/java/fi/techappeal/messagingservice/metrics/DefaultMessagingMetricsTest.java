@@ -0,0 +1,59 @@
+package fi.techappeal.messagingservice.metrics;
+
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DefaultMessagingMetricsTest {
+
+    /**
+     * Test that the measurements of a queue are included in its snapshot.
+     */
+    @Test
+    void snapshot_containsRecordedMetrics() {
+        // Arrange
+        DefaultMessagingMetrics metrics = new DefaultMessagingMetrics();
+
+        // Act
+        metrics.recordSent("MyQ", 3);
+        metrics.recordReceive("MyQ", 5, 10);
+        metrics.recordReceive("MyQ", 0, 10);
+        metrics.recordHandlerDuration("MyQ", TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.recordAcknowledgementLatency("MyQ", TimeUnit.MILLISECONDS.toNanos(100));
+        metrics.recordApiLatency("MyQ", "ReceiveMessage", TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.recordError("MyQ", new RateLimitException("Over limit", null));
+        metrics.recordError("MyQ", new RateLimitException("Over limit", null));
+        QueueMetricsSnapshot snapshot = metrics.snapshot().get("MyQ");
+
+        // Assert
+        assertEquals(3, snapshot.sent());
+        assertEquals(5, snapshot.received());
+        assertEquals(2, snapshot.receives());
+        assertEquals(1, snapshot.emptyReceives());
+        assertEquals(50, snapshot.batchFill().max());
+        assertEquals(1, snapshot.handlerDuration().count());
+        assertEquals(1, snapshot.acknowledgementLatency().count());
+        assertEquals(1, snapshot.apiLatency().get("ReceiveMessage").count());
+        assertEquals(2, snapshot.errors().get(RateLimitException.class.getName()));
+    }
+
+    /**
+     * Test that queues are kept apart.
+     */
+    @Test
+    void snapshot_separatesQueues() {
+        // Arrange
+        DefaultMessagingMetrics metrics = new DefaultMessagingMetrics();
+
+        // Act
+        metrics.recordSent("Q1", 1);
+        metrics.recordSent("Q2", 2);
+
+        // Assert
+        assertEquals(1, metrics.snapshot().get("Q1").sent());
+        assertEquals(2, metrics.snapshot().get("Q2").sent());
+    }
+}
@@ -0,0 +1,53 @@
+package fi.techappeal.messagingservice.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    /**
+     * Test that every value falls into a bucket whose upper bound is within the precision of the histogram.
+     */
+    @Test
+    void bucketOf_boundsValueWithinPrecision() {
+        for (long value : new long[]{0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE}) {
+            long upperBound = Histogram.upperBoundOf(Histogram.bucketOf(value));
+            assertTrue(upperBound >= value, "upper bound of " + value);
+            assertTrue(upperBound - value <= value / Histogram.SUB_BUCKETS, "precision of " + value);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void snapshot_percentiles() {
+        // Arrange
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        // Act
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        // Assert
+        assertEquals(100, snapshot.count());
+        assertEquals(5050, snapshot.sum());
+        assertEquals(100, snapshot.max());
+        assertEquals(50.5, snapshot.mean());
+        long median = snapshot.percentile(50);
+        assertTrue(median >= 50 && median <= 55, "median " + median);
+        assertEquals(100, snapshot.percentile(100));
+    }
+
+    @Test
+    void snapshot_empty() {
+        // Act
+        HistogramSnapshot snapshot = new Histogram().snapshot();
+
+        // Assert
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.percentile(99));
+        assertEquals(0, snapshot.mean());
+    }
+}
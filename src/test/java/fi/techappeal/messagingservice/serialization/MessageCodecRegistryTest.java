@@ -0,0 +1,154 @@
+package fi.techappeal.messagingservice.serialization;
+
+import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecRegistryTest {
+    interface Shape {
+    }
+
+    record Point(int x, int y) implements Shape {
+    }
+
+    /**
+     * Codec writing the coordinates of a point as two ints.
+     */
+    static class PointCodec extends StreamMessageCodec<Point> {
+        PointCodec() {
+            super(Point.class, "application/x-point");
+        }
+
+        @Override
+        protected void write(Point value, OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(value.x());
+            data.writeInt(value.y());
+        }
+
+        @Override
+        protected Point read(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            return new Point(data.readInt(), data.readInt());
+        }
+    }
+
+    private final MessageCodecRegistry registry = new MessageCodecRegistry().register(new PointCodec());
+
+    private static ReceivedMessageWrapper received(SendMessageWrapper sent) {
+        return new ReceivedMessageWrapper.Builder()
+                .binaryPayload(sent.getBinaryPayload())
+                .attributes(sent.getAttributes())
+                .id("id")
+                .build();
+    }
+
+    /**
+     * Test that a payload is sent as a binary payload with its content type and restored on receive.
+     */
+    @Test
+    void toMessage_roundTrip() {
+        // Act
+        SendMessageWrapper sent = registry.toMessage(new Point(1, 2)).partitionKey("group").build();
+        Point point = registry.fromMessage(received(sent), Point.class);
+
+        // Assert
+        assertEquals("application/x-point", sent.getAttributes().get(MessageCodecRegistry.CONTENT_TYPE_ATTRIBUTE));
+        assertEquals(8, sent.getBinaryPayload().remaining());
+        assertEquals("group", sent.getPartitionKey());
+        assertEquals(new Point(1, 2), point);
+    }
+
+    /**
+     * Test that a type without a codec of its own uses the codec of its nearest supertype, and that the resolved
+     * codec is cached until a codec is registered.
+     */
+    @Test
+    void getCodec_resolvesSupertype() {
+        // Arrange
+        MessageCodec<Shape> shapeCodec = new StreamMessageCodec<>(Shape.class, "application/x-shape") {
+            @Override
+            protected void write(Shape value, OutputStream out) {
+            }
+
+            @Override
+            protected Shape read(InputStream in) {
+                return null;
+            }
+        };
+        MessageCodecRegistry shapes = new MessageCodecRegistry().register(shapeCodec);
+
+        // Act & Assert
+        assertSame(shapeCodec, shapes.getCodec(Point.class));
+        assertSame(shapeCodec, shapes.getCodec(Point.class));
+        shapes.register(new PointCodec());
+        assertEquals(PointCodec.class, shapes.getCodec(Point.class).getClass());
+        assertThrows(MessagingException.class, () -> shapes.getCodec(Integer.class));
+    }
+
+    /**
+     * Test that a text payload without a content type is decoded with the codec of the expected type.
+     */
+    @Test
+    void fromMessage_textPayloadWithoutContentType() {
+        // Arrange
+        ReceivedMessageWrapper message = new ReceivedMessageWrapper.Builder().payload("hello").id("id").build();
+
+        // Act & Assert
+        assertEquals("hello", registry.fromMessage(message, String.class));
+    }
+
+    /**
+     * Test that a payload of another type or with a corrupted payload is rejected, and that the typed handler
+     * skips such a message without calling the handler.
+     */
+    @Test
+    void fromMessage_rejectsWrongTypeAndCorruptedPayload() {
+        // Arrange
+        ReceivedMessageWrapper point = received(registry.toMessage(new Point(1, 2)).build());
+        ReceivedMessageWrapper truncated = new ReceivedMessageWrapper.Builder()
+                .binaryPayload(ByteBuffer.wrap(new byte[]{1}))
+                .attribute(MessageCodecRegistry.CONTENT_TYPE_ATTRIBUTE, "application/x-point")
+                .id("id")
+                .build();
+        AtomicReference<Point> handled = new AtomicReference<>();
+
+        // Act & Assert
+        assertThrows(MessagingException.class, () -> registry.fromMessage(point, String.class));
+        assertThrows(MessagingException.class, () -> registry.fromMessage(truncated, Point.class));
+        assertEquals(ProcessingState.ABANDONED, registry.handler(Point.class, (payload, message) -> {
+            handled.set(payload);
+            return ProcessingState.PROCESSED;
+        }).onMessageReceived(truncated));
+        assertNull(handled.get());
+    }
+
+    /**
+     * Test that the output buffer of a thread is reused, so consecutive payloads do not share bytes.
+     */
+    @Test
+    void encode_reusesBufferWithoutSharingBytes() {
+        // Arrange
+        PointCodec codec = new PointCodec();
+
+        // Act
+        byte[] first = codec.encode(new Point(1, 2));
+        byte[] second = codec.encode(new Point(3, 4));
+
+        // Assert
+        assertEquals(new Point(1, 2), codec.decode(ByteBuffer.wrap(first)));
+        assertEquals(new Point(3, 4), codec.decode(ByteBuffer.wrap(second).asReadOnlyBuffer()));
+    }
+}
@@ -0,0 +1,76 @@
+package fi.techappeal.messagingservice.sqs;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.net.URI;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SqsClientRegistryTest {
+    private final SqsClient sqsClient = mock(SqsClient.class);
+    private final SqsAsyncClient sqsAsyncClient = mock(SqsAsyncClient.class);
+    private final SqsClientRegistry registry = new SqsClientRegistry(new SqsHttpSettings.Builder().build()) {
+        @Override
+        SqsClient createSqsClient(String region, URI endpoint) {
+            return sqsClient;
+        }
+
+        @Override
+        SqsAsyncClient createSqsAsyncClient(String region, URI endpoint) {
+            return sqsAsyncClient;
+        }
+    };
+
+    /**
+     * Test that the clients of a region are shared and closed when the last reference is released.
+     */
+    @Test
+    void acquire_sharesClientsUntilLastRelease() {
+        // Act
+        SqsClientRegistry.SharedClients first = registry.acquire("eu-central-1", null);
+        SqsClientRegistry.SharedClients second = registry.acquire("eu-central-1", null);
+        SqsAsyncClient asyncClient = first.getSqsAsyncClient();
+        first.release();
+
+        // Assert
+        assertSame(first, second);
+        assertSame(sqsAsyncClient, asyncClient);
+        assertEquals(1, registry.getReferences("eu-central-1", null));
+        verify(sqsClient, never()).close();
+        second.release();
+        assertEquals(0, registry.getReferences("eu-central-1", null));
+        verify(sqsClient).close();
+        verify(sqsAsyncClient).close();
+        assertThrows(IllegalStateException.class, second::getSqsAsyncClient);
+    }
+
+    /**
+     * Test that regions and endpoints get clients of their own.
+     */
+    @Test
+    void acquire_keysByRegionAndEndpoint() {
+        // Act
+        SqsClientRegistry.SharedClients region = registry.acquire("eu-central-1", null);
+        SqsClientRegistry.SharedClients otherRegion = registry.acquire("eu-west-1", null);
+        SqsClientRegistry.SharedClients endpoint = registry.acquire("eu-central-1", URI.create("http://localhost:4566"));
+
+        // Assert
+        assertNotSame(region, otherRegion);
+        assertNotSame(region, endpoint);
+        assertEquals(1, registry.getReferences("eu-central-1", URI.create("http://localhost:4566")));
+    }
+
+    /**
+     * Test that invalid HTTP settings are rejected.
+     */
+    @Test
+    void httpSettings_rejectsInvalidValues() {
+        assertThrows(IllegalArgumentException.class, () -> new SqsHttpSettings.Builder().maxConnections(0).build());
+        assertThrows(IllegalArgumentException.class, () -> new SqsHttpSettings.Builder()
+                .connectionTimeToLive(Duration.ofSeconds(-1)).build());
+    }
+}
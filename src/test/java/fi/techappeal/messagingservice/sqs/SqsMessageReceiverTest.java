@@ -1,23 +1,37 @@
 package fi.techappeal.messagingservice.sqs;
 
+import fi.techappeal.messagingservice.AcknowledgeableMessage;
+import fi.techappeal.messagingservice.DeadLetter;
 import fi.techappeal.messagingservice.ProcessingState;
+import fi.techappeal.messagingservice.QueueSubscription;
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.claimcheck.ClaimCheck;
+import fi.techappeal.messagingservice.claimcheck.FileSystemPayloadStore;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import fi.techappeal.messagingservice.metrics.DefaultMessagingMetrics;
+import fi.techappeal.messagingservice.metrics.QueueMetricsSnapshot;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.Message;
-import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.sqs.model.*;
 
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 class SqsMessageReceiverTest {
     private SqsMessageReceiver receiver;
@@ -28,6 +42,8 @@ class SqsMessageReceiverTest {
         mockSqsClient = mock(SqsClient.class);
         receiver = new SqsMessageReceiver();
         receiver.setSqsClient(mockSqsClient);
+        when(mockSqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder().build());
     }
 
     /**
@@ -45,7 +61,7 @@ class SqsMessageReceiverTest {
         );
 
         List<Message> mockReceivedMessages = Collections.singletonList(
-                Message.builder().body("message1").messageId("123").messageAttributes(attributes1).build()
+                Message.builder().body("message1").messageId("123").receiptHandle("handle1").messageAttributes(attributes1).build()
         );
 
         ReceiveMessageResponse mockReceiveMessageResponse = ReceiveMessageResponse.builder()
@@ -82,9 +98,9 @@ class SqsMessageReceiverTest {
                 "attr1", MessageAttributeValue.builder().stringValue("value3").build()
         );
         List<Message> messages = List.of(
-                Message.builder().body("message1").messageId("123").messageAttributes(attributes1).build(),
-                Message.builder().body("message2").messageId("456").messageAttributes(attributes2).build(),
-                Message.builder().body("message3").messageId("789").messageAttributes(attributes3).build()
+                Message.builder().body("message1").messageId("123").receiptHandle("handle1").messageAttributes(attributes1).build(),
+                Message.builder().body("message2").messageId("456").receiptHandle("handle2").messageAttributes(attributes2).build(),
+                Message.builder().body("message3").messageId("789").receiptHandle("handle3").messageAttributes(attributes3).build()
         );
         ReceiveMessageResponse mockReceiveMessageResponse = ReceiveMessageResponse.builder()
                 .messages(messages)
@@ -103,4 +119,836 @@ class SqsMessageReceiverTest {
             return ProcessingState.PROCESSED;
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that processed messages are deleted with a single batch request instead of one request per message.
+     */
+    @Test
+    void receiveMessages_processedMessagesAreDeletedInBatch() {
+        // Arrange
+        List<Message> messages = List.of(
+                Message.builder().body("message1").messageId("123").receiptHandle("handle1").build(),
+                Message.builder().body("message2").messageId("456").receiptHandle("handle2").build(),
+                Message.builder().body("message3").messageId("789").receiptHandle("handle3").build()
+        );
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        AtomicInteger count = new AtomicInteger();
+        ArgumentCaptor<DeleteMessageBatchRequest> captor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            if (count.incrementAndGet() == 3) {
+                receiver.stop();
+            }
+            return message.getId().equals("456") ? ProcessingState.SKIPPED : ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        verify(mockSqsClient, times(1)).deleteMessageBatch(captor.capture());
+        verify(mockSqsClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+        assertEquals("mocked", captor.getValue().queueUrl());
+        assertEquals(List.of("handle1", "handle3"),
+                captor.getValue().entries().stream().map(DeleteMessageBatchRequestEntry::receiptHandle).toList());
+    }
+
+    /**
+     * Test that a delete that failed on the service side is retried.
+     */
+    @Test
+    void receiveMessages_failedDeleteIsRetried() {
+        // Arrange
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(ReceiveMessageResponse.builder()
+                .messages(Message.builder().body("message1").messageId("123").receiptHandle("handle1").build())
+                .build());
+        when(mockSqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .failed(BatchResultErrorEntry.builder().id("0").code("InternalError").senderFault(false).build())
+                        .build())
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .successful(DeleteMessageBatchResultEntry.builder().id("0").build())
+                        .build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        verify(mockSqsClient, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    }
+
+    /**
+     * Test that with concurrency above 1 messages are handled in parallel by worker threads.
+     */
+    @Test
+    void receiveMessages_concurrentHandling() {
+        // Arrange
+        List<Message> messages = List.of(
+                Message.builder().body("message1").messageId("1").receiptHandle("handle1").build(),
+                Message.builder().body("message2").messageId("2").receiptHandle("handle2").build(),
+                Message.builder().body("message3").messageId("3").receiptHandle("handle3").build(),
+                Message.builder().body("message4").messageId("4").receiptHandle("handle4").build()
+        );
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build())
+                .thenReturn(ReceiveMessageResponse.builder().build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setConcurrency(4);
+        CountDownLatch allStarted = new CountDownLatch(4);
+        ArgumentCaptor<DeleteMessageBatchRequest> captor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            allStarted.countDown();
+            try {
+                // Only completes if all four handlers run at the same time
+                assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        verify(mockSqsClient, atLeastOnce()).deleteMessageBatch(captor.capture());
+        assertEquals(4, captor.getAllValues().stream().mapToInt(request -> request.entries().size()).sum());
+    }
+
+    /**
+     * Test that polling pauses while the maximum number of messages is in flight.
+     */
+    @Test
+    void receiveMessages_pollingPausesWhenSaturated() throws Exception {
+        // Arrange
+        List<Message> messages = List.of(
+                Message.builder().body("message1").messageId("1").receiptHandle("handle1").build(),
+                Message.builder().body("message2").messageId("2").receiptHandle("handle2").build()
+        );
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setConcurrency(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ArgumentCaptor<ReceiveMessageRequest> captor = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        Thread subscriber = new Thread(() -> receiver.subscribe("MyQ", message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return ProcessingState.PROCESSED;
+        }));
+
+        // Act
+        subscriber.start();
+        Thread.sleep(500);
+
+        // Assert
+        verify(mockSqsClient, times(1)).receiveMessage(captor.capture());
+        assertEquals(2, captor.getValue().maxNumberOfMessages());
+        receiver.stop();
+        release.countDown();
+        subscriber.join(5000);
+        assertFalse(subscriber.isAlive());
+    }
+
+    /**
+     * Test that a full receive adds a poller and that the added poller retires after an empty receive.
+     */
+    @Test
+    void receiveMessages_pollersScaleWithFullAndEmptyReceives() throws Exception {
+        // Arrange
+        List<Message> fullBatch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            fullBatch.add(Message.builder().body("message" + i).messageId(Integer.toString(i)).receiptHandle("handle" + i).build());
+        }
+        List<String> pollingThreads = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger receives = new AtomicInteger();
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+            pollingThreads.add(Thread.currentThread().getName());
+            if (receives.getAndIncrement() == 0) {
+                return ReceiveMessageResponse.builder().messages(fullBatch).build();
+            }
+            Thread.sleep(10); // Empty long poll
+            return ReceiveMessageResponse.builder().build();
+        });
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setPollers(1, 2);
+        Thread subscriber = new Thread(() -> receiver.subscribe("MyQ", message -> ProcessingState.PROCESSED));
+
+        // Act
+        subscriber.start();
+        Thread.sleep(500);
+        receiver.stop();
+        subscriber.join(5000);
+
+        // Assert
+        assertEquals(1, pollingThreads.stream().filter("sqs-poller-MyQ"::equals).count());
+        assertTrue(pollingThreads.size() > 2);
+    }
+
+    /**
+     * Test that a large sampled backlog adds a poller.
+     */
+    @Test
+    void receiveMessages_pollersScaleWithBacklog() throws Exception {
+        // Arrange
+        List<String> pollingThreads = Collections.synchronizedList(new ArrayList<>());
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+            pollingThreads.add(Thread.currentThread().getName());
+            Thread.sleep(10); // Empty long poll
+            return ReceiveMessageResponse.builder().build();
+        });
+        when(mockSqsClient.getQueueAttributes(any(GetQueueAttributesRequest.class))).thenReturn(
+                GetQueueAttributesResponse.builder()
+                        .attributes(Map.of(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "1000"))
+                        .build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setPollers(1, 2);
+        Thread subscriber = new Thread(() -> receiver.subscribe("MyQ", message -> ProcessingState.PROCESSED));
+
+        // Act
+        subscriber.start();
+        Thread.sleep(300);
+        receiver.stop();
+        subscriber.join(5000);
+
+        // Assert
+        verify(mockSqsClient, times(1)).getQueueAttributes(any(GetQueueAttributesRequest.class));
+        assertTrue(pollingThreads.contains("sqs-poller-MyQ"));
+    }
+
+    /**
+     * Test that with prefetching the poller receives ahead of a busy handler and messages are handled in order.
+     */
+    @Test
+    void receiveMessages_prefetchReceivesAheadOfHandler() throws Exception {
+        // Arrange
+        AtomicInteger receives = new AtomicInteger();
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+            int receive = receives.incrementAndGet();
+            if (receive <= 2) {
+                return ReceiveMessageResponse.builder().messages(
+                        Message.builder().body("message" + receive).messageId(Integer.toString(receive)).receiptHandle("handle" + receive).build()
+                ).build();
+            }
+            Thread.sleep(10); // Empty long poll
+            return ReceiveMessageResponse.builder().build();
+        });
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setPrefetch(4);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        ArgumentCaptor<ReceiveMessageRequest> captor = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        Thread subscriber = new Thread(() -> receiver.subscribe("MyQ", message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            handled.add(message.getId());
+            return ProcessingState.PROCESSED;
+        }));
+
+        // Act
+        subscriber.start();
+        Thread.sleep(200);
+        int receivesWhileBlocked = receives.get();
+        release.countDown();
+        Thread.sleep(200);
+        receiver.stop();
+        subscriber.join(5000);
+
+        // Assert
+        assertTrue(receivesWhileBlocked > 2);
+        assertEquals(List.of("1", "2"), handled);
+        verify(mockSqsClient, atLeastOnce()).receiveMessage(captor.capture());
+        assertEquals(5, captor.getAllValues().get(0).maxNumberOfMessages());
+        assertEquals(20, captor.getAllValues().get(0).visibilityTimeout());
+    }
+
+    /**
+     * Test that a prefetched message is released back to the queue when it waited for half of its visibility timeout.
+     */
+    @Test
+    void receiveMessages_prefetchReleasesMessagesNearExpiry() throws Exception {
+        // Arrange
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(
+                        Message.builder().body("message1").messageId("1").receiptHandle("handle1").build(),
+                        Message.builder().body("message2").messageId("2").receiptHandle("handle2").build()
+                ).build())
+                .thenReturn(ReceiveMessageResponse.builder().build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setPrefetch(1);
+        receiver.setVisibilityTimeout(1);
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        ArgumentCaptor<ChangeMessageVisibilityRequest> captor = ArgumentCaptor.forClass(ChangeMessageVisibilityRequest.class);
+        Thread subscriber = new Thread(() -> receiver.subscribe("MyQ", message -> {
+            handled.add(message.getId());
+            try {
+                Thread.sleep(700);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return ProcessingState.PROCESSED;
+        }));
+
+        // Act
+        subscriber.start();
+        Thread.sleep(1000);
+        receiver.stop();
+        subscriber.join(5000);
+
+        // Assert
+        assertEquals(List.of("1"), handled);
+        verify(mockSqsClient).changeMessageVisibility(captor.capture());
+        assertEquals("handle2", captor.getValue().receiptHandle());
+        assertEquals(0, captor.getValue().visibilityTimeout());
+    }
+
+    /**
+     * Test that the visibility of a message is extended while its handler is still running.
+     */
+    @Test
+    void receiveMessages_visibilityIsExtendedWhileHandling() throws Exception {
+        // Arrange
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(
+                        Message.builder().body("message1").messageId("1").receiptHandle("handle1").build()
+                ).build())
+                .thenReturn(ReceiveMessageResponse.builder().build());
+        when(mockSqsClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenReturn(ChangeMessageVisibilityBatchResponse.builder().build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setVisibilityTimeout(1);
+        receiver.setMaxProcessingSeconds(10);
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            try {
+                Thread.sleep(1500);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        verify(mockSqsClient, atLeastOnce()).changeMessageVisibilityBatch(captor.capture());
+        ChangeMessageVisibilityBatchRequestEntry entry = captor.getValue().entries().get(0);
+        assertEquals("mocked", captor.getValue().queueUrl());
+        assertEquals("handle1", entry.receiptHandle());
+        assertEquals(1, entry.visibilityTimeout());
+    }
+
+    /**
+     * Test that the visibility is not extended when the maximum processing time fits in the visibility timeout.
+     */
+    @Test
+    void receiveMessages_visibilityIsNotExtendedWithinMaxProcessingTime() throws Exception {
+        // Arrange
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(
+                        Message.builder().body("message1").messageId("1").receiptHandle("handle1").build()
+                ).build())
+                .thenReturn(ReceiveMessageResponse.builder().build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setVisibilityTimeout(1);
+        receiver.setMaxProcessingSeconds(1);
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            try {
+                Thread.sleep(800);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        verify(mockSqsClient, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+    }
+
+    /**
+     * Test that messages of the same group are handled in order and different groups are handled in parallel.
+     */
+    @Test
+    void receiveMessages_orderedByGroup() throws Exception {
+        // Arrange
+        List<Message> messages = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            for (String group : List.of("A", "B")) {
+                messages.add(Message.builder().body(group + i).messageId(group + i).receiptHandle("handle-" + group + i)
+                        .attributes(Map.of(MessageSystemAttributeName.MESSAGE_GROUP_ID, group,
+                                MessageSystemAttributeName.SEQUENCE_NUMBER, Integer.toString(i)))
+                        .build());
+            }
+        }
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build())
+                .thenReturn(ReceiveMessageResponse.builder().build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setConcurrency(4);
+        receiver.setOrderedByGroup(true);
+        receiver.setGroupLimits(2, 2);
+        Map<String, List<String>> handled = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch bothGroupsRunning = new CountDownLatch(2);
+        AtomicInteger done = new AtomicInteger();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            String group = message.getPartitionKey();
+            if (running.computeIfAbsent(group, g -> new AtomicInteger()).incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            bothGroupsRunning.countDown();
+            try {
+                // The first messages of both groups must be handled at the same time
+                assertTrue(bothGroupsRunning.await(5, TimeUnit.SECONDS));
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            handled.computeIfAbsent(group, g -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(message.getSequenceNumber());
+            running.get(group).decrementAndGet();
+            if (done.incrementAndGet() == 6) {
+                receiver.stop();
+            }
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(0, overlaps.get());
+        assertEquals(List.of("1", "2", "3"), handled.get("A"));
+        assertEquals(List.of("1", "2", "3"), handled.get("B"));
+    }
+
+    /**
+     * Test that when the handler of a message of a group fails, the later messages of the group are released instead
+     * of being handled and deleted, while other groups are handled.
+     */
+    @Test
+    void receiveMessages_failedMessageReleasesLaterMessagesOfItsGroup() {
+        // Arrange
+        List<Message> messages = new ArrayList<>();
+        for (String id : List.of("A1", "A2", "B1")) {
+            messages.add(Message.builder().body(id).messageId(id).receiptHandle("handle-" + id)
+                    .attributes(Map.of(MessageSystemAttributeName.MESSAGE_GROUP_ID, id.substring(0, 1),
+                            MessageSystemAttributeName.SEQUENCE_NUMBER, id.substring(1)))
+                    .build());
+        }
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build())
+                .thenReturn(ReceiveMessageResponse.builder().build());
+        AtomicInteger done = new AtomicInteger();
+        when(mockSqsClient.changeMessageVisibility(any(ChangeMessageVisibilityRequest.class))).thenAnswer(i -> {
+            if (done.incrementAndGet() == 2) {
+                receiver.stop();
+            }
+            return ChangeMessageVisibilityResponse.builder().build();
+        });
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setConcurrency(2);
+        receiver.setOrderedByGroup(true);
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            handled.add(message.getPayload());
+            if (message.getPayload().equals("A1")) {
+                throw new IllegalStateException("Handler failed");
+            }
+            if (done.incrementAndGet() == 2) {
+                receiver.stop();
+            }
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(Set.of("A1", "B1"), Set.copyOf(handled));
+        ArgumentCaptor<ChangeMessageVisibilityRequest> released =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityRequest.class);
+        verify(mockSqsClient).changeMessageVisibility(released.capture());
+        assertEquals("handle-A2", released.getValue().receiptHandle());
+        ArgumentCaptor<DeleteMessageBatchRequest> deleted = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(mockSqsClient, atLeastOnce()).deleteMessageBatch(deleted.capture());
+        assertEquals(Set.of("handle-B1"), deleted.getAllValues().stream()
+                .flatMap(request -> request.entries().stream())
+                .map(DeleteMessageBatchRequestEntry::receiptHandle)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Test that receives, handler durations and deletes are recorded to the metrics.
+     */
+    @Test
+    void receiveMessages_recordsMetrics() {
+        // Arrange
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(
+                        Message.builder().body("message1").messageId("1").receiptHandle("handle1").build()
+                ).build());
+        when(mockSqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .successful(DeleteMessageBatchResultEntry.builder().id("0").build())
+                        .build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        DefaultMessagingMetrics metrics = new DefaultMessagingMetrics();
+        receiver.setMetrics(metrics);
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        QueueMetricsSnapshot snapshot = metrics.snapshot().get("MyQ");
+        assertEquals(1, snapshot.receives());
+        assertEquals(1, snapshot.received());
+        assertEquals(10, snapshot.batchFill().max());
+        assertEquals(1, snapshot.handlerDuration().count());
+        assertEquals(1, snapshot.acknowledgementLatency().count());
+        assertEquals(1, snapshot.apiLatency().get("ReceiveMessage").count());
+        assertEquals(1, snapshot.apiLatency().get("DeleteMessageBatch").count());
+    }
+
+    /**
+     * Test that an offloaded payload is loaded from the payload store and deleted from it once the message has
+     * been processed and deleted from the queue.
+     */
+    @Test
+    void receiveMessages_offloadedPayloadIsLoadedAndDeleted() throws Exception {
+        // Arrange
+        FileSystemPayloadStore store = new FileSystemPayloadStore(Files.createTempDirectory("payloads"));
+        String reference = store.store("large payload");
+        Map<String, MessageAttributeValue> attributes = Map.of(
+                ClaimCheck.STORE_ATTRIBUTE, MessageAttributeValue.builder().stringValue(FileSystemPayloadStore.NAME).build(),
+                "attr1", MessageAttributeValue.builder().stringValue("value1").build()
+        );
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(ReceiveMessageResponse.builder()
+                .messages(Message.builder().body(reference).messageId("123").receiptHandle("handle1")
+                        .messageAttributes(attributes).build())
+                .build());
+        when(mockSqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .successful(DeleteMessageBatchResultEntry.builder().id("0").build())
+                        .build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setPayloadStore(store);
+        List<ReceivedMessageWrapper> received = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            assertEquals("large payload", message.getPayload());
+            received.add(message);
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(Map.of("attr1", "value1"), received.get(0).getAttributes());
+        assertThrows(MessagingException.class, () -> store.load(reference));
+    }
+
+    /**
+     * Test that one subscription receives from several queues with the handler of each queue on a shared poller.
+     */
+    @Test
+    void subscribe_severalQueues() throws Exception {
+        // Arrange
+        receiver.setQueueUrlCache("Q1", "url1");
+        receiver.setQueueUrlCache("Q2", "url2");
+        Map<String, AtomicInteger> receives = new ConcurrentHashMap<>();
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+            String queueUrl = invocation.getArgument(0, ReceiveMessageRequest.class).queueUrl();
+            int receive = receives.computeIfAbsent(queueUrl, url -> new AtomicInteger()).incrementAndGet();
+            if (receive > 1) {
+                return ReceiveMessageResponse.builder().build();
+            }
+            return ReceiveMessageResponse.builder().messages(Message.builder().body("from " + queueUrl)
+                    .messageId(queueUrl).receiptHandle("handle-" + queueUrl).build()).build();
+        });
+        List<String> received1 = Collections.synchronizedList(new ArrayList<>());
+        List<String> received2 = Collections.synchronizedList(new ArrayList<>());
+        List<String> pollingThreads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2);
+        Thread subscriber = new Thread(() -> receiver.subscribe(List.of(
+                new QueueSubscription("Q1", message -> {
+                    received1.add(message.getPayload());
+                    pollingThreads.add(Thread.currentThread().getName());
+                    latch.countDown();
+                    return ProcessingState.PROCESSED;
+                }),
+                new QueueSubscription("Q2", message -> {
+                    received2.add(message.getPayload());
+                    pollingThreads.add(Thread.currentThread().getName());
+                    latch.countDown();
+                    return ProcessingState.PROCESSED;
+                }, 2))), "subscriber");
+
+        // Act
+        subscriber.start();
+        boolean handled = latch.await(5, TimeUnit.SECONDS);
+        receiver.stop();
+        subscriber.join(5000);
+
+        // Assert
+        assertTrue(handled);
+        assertEquals(List.of("from url1"), received1);
+        assertEquals(List.of("from url2"), received2);
+        assertEquals(List.of("subscriber", "subscriber"), pollingThreads);
+        verify(mockSqsClient, atLeastOnce()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    }
+
+    /**
+     * Test that abandoned messages are sent to the dead letter queue in a batch with their attributes and the dead
+     * letter attributes, deleted from their queue, and that receiving continues.
+     */
+    @Test
+    void receiveMessages_abandonedMessagesAreDeadLettered() {
+        // Arrange
+        Map<String, MessageAttributeValue> attributes = Map.of(
+                "attr1", MessageAttributeValue.builder().dataType("String").stringValue("value1").build());
+        List<Message> messages = List.of(
+                Message.builder().body("bad1").messageId("1").receiptHandle("handle1").messageAttributes(attributes)
+                        .attributesWithStrings(Map.of("ApproximateReceiveCount", "3")).build(),
+                Message.builder().body("bad2").messageId("2").receiptHandle("handle2").build(),
+                Message.builder().body("good").messageId("3").receiptHandle("handle3").build());
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build());
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenReturn(
+                SendMessageBatchResponse.builder().successful(
+                        SendMessageBatchResultEntry.builder().id("0").build(),
+                        SendMessageBatchResultEntry.builder().id("1").build()).build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setQueueUrlCache("MyDLQ", "dlq");
+        receiver.setDeadLetterQueue("MyDLQ");
+        List<String> handled = new ArrayList<>();
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            handled.add(message.getPayload());
+            if (message.getPayload().startsWith("bad")) {
+                return ProcessingState.ABANDONED;
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        assertEquals(List.of("bad1", "bad2", "good"), handled);
+        ArgumentCaptor<SendMessageBatchRequest> sent = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(mockSqsClient).sendMessageBatch(sent.capture());
+        assertEquals("dlq", sent.getValue().queueUrl());
+        assertEquals(2, sent.getValue().entries().size());
+        Map<String, MessageAttributeValue> sentAttributes = sent.getValue().entries().get(0).messageAttributes();
+        assertEquals("bad1", sent.getValue().entries().get(0).messageBody());
+        assertEquals("value1", sentAttributes.get("attr1").stringValue());
+        assertEquals(DeadLetter.abandonedReason("MyQ"), sentAttributes.get(DeadLetter.REASON_ATTRIBUTE).stringValue());
+        assertEquals("3", sentAttributes.get(DeadLetter.RECEIVE_COUNT_ATTRIBUTE).stringValue());
+        ArgumentCaptor<DeleteMessageBatchRequest> deleted = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(mockSqsClient, atLeastOnce()).deleteMessageBatch(deleted.capture());
+        assertEquals(Set.of("handle1", "handle2", "handle3"), deleted.getAllValues().stream()
+                .flatMap(request -> request.entries().stream())
+                .map(DeleteMessageBatchRequestEntry::receiptHandle)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Test that a failed dead letter request is retried, and that a message whose entry failed by a fault of the
+     * request is not deleted from its queue.
+     */
+    @Test
+    void receiveMessages_failedDeadLetterSendIsRetried() {
+        // Arrange
+        List<Message> messages = List.of(
+                Message.builder().body("bad1").messageId("1").receiptHandle("handle1").build(),
+                Message.builder().body("bad2").messageId("2").receiptHandle("handle2").build(),
+                Message.builder().body("good").messageId("3").receiptHandle("handle3").build());
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build());
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenThrow(SqsException.builder().message("Internal error").statusCode(500).build())
+                .thenReturn(SendMessageBatchResponse.builder()
+                        .successful(SendMessageBatchResultEntry.builder().id("0").build())
+                        .failed(BatchResultErrorEntry.builder().id("1").code("InvalidParameterValue")
+                                .senderFault(true).build())
+                        .build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setQueueUrlCache("MyDLQ", "dlq");
+        receiver.setDeadLetterQueue("MyDLQ");
+
+        // Act
+        receiver.subscribe("MyQ", message -> {
+            if (message.getPayload().startsWith("bad")) {
+                return ProcessingState.ABANDONED;
+            }
+            receiver.stop();
+            return ProcessingState.PROCESSED;
+        });
+
+        // Assert
+        verify(mockSqsClient, times(2)).sendMessageBatch(any(SendMessageBatchRequest.class));
+        ArgumentCaptor<DeleteMessageBatchRequest> deleted = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(mockSqsClient, atLeastOnce()).deleteMessageBatch(deleted.capture());
+        assertEquals(Set.of("handle1", "handle3"), deleted.getAllValues().stream()
+                .flatMap(request -> request.entries().stream())
+                .map(DeleteMessageBatchRequestEntry::receiptHandle)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Test that a batch handler gets the messages of a receive in one call, and that only the processed messages
+     * are deleted, in a single batch request.
+     */
+    @Test
+    void subscribeBatch_deletesOnlyProcessedMessages() {
+        // Arrange
+        List<Message> messages = List.of(
+                Message.builder().body("message1").messageId("1").receiptHandle("handle1").build(),
+                Message.builder().body("message2").messageId("2").receiptHandle("handle2").build(),
+                Message.builder().body("message3").messageId("3").receiptHandle("handle3").build());
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().messages(messages).build());
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        List<List<String>> batches = new ArrayList<>();
+
+        // Act
+        receiver.subscribeBatch("MyQ", batch -> {
+            batches.add(batch.stream().map(ReceivedMessageWrapper::getPayload).toList());
+            receiver.stop();
+            return List.of(ProcessingState.PROCESSED, ProcessingState.SKIPPED, ProcessingState.PROCESSED);
+        });
+
+        // Assert
+        assertEquals(List.of(List.of("message1", "message2", "message3")), batches);
+        ArgumentCaptor<DeleteMessageBatchRequest> deleted = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(mockSqsClient).deleteMessageBatch(deleted.capture());
+        assertEquals(List.of("handle1", "handle3"), deleted.getValue().entries().stream()
+                .map(DeleteMessageBatchRequestEntry::receiptHandle)
+                .toList());
+    }
+
+    /**
+     * Test that the messages of several receives are accumulated into a batch up to the maximum batch size.
+     */
+    @Test
+    void subscribeBatch_accumulatesReceives() {
+        // Arrange
+        AtomicInteger receives = new AtomicInteger();
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+            int receive = receives.incrementAndGet();
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                String id = receive + "-" + i;
+                messages.add(Message.builder().body(id).messageId(id).receiptHandle("handle" + id).build());
+            }
+            return ReceiveMessageResponse.builder().messages(messages).build();
+        });
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        receiver.setBatchLimits(6, 10_000);
+        List<Integer> batchSizes = new ArrayList<>();
+
+        // Act
+        receiver.subscribeBatch("MyQ", batch -> {
+            batchSizes.add(batch.size());
+            receiver.stop();
+            return Collections.nCopies(batch.size(), ProcessingState.PROCESSED);
+        });
+
+        // Assert
+        assertEquals(List.of(6), batchSizes);
+        assertEquals(2, receives.get());
+    }
+
+    /**
+     * Test that a publisher receives only as many messages as its subscriber has requested, and that the messages
+     * completed by the subscriber after the receiver was stopped are deleted.
+     */
+    @Test
+    void publisher_receivesOnlyRequestedMessages() throws InterruptedException {
+        // Arrange
+        AtomicInteger ids = new AtomicInteger();
+        List<Integer> requested = Collections.synchronizedList(new ArrayList<>());
+        when(mockSqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+            ReceiveMessageRequest request = invocation.getArgument(0);
+            requested.add(request.maxNumberOfMessages());
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < request.maxNumberOfMessages(); i++) {
+                String id = Integer.toString(ids.incrementAndGet());
+                messages.add(Message.builder().body("message" + id).messageId(id).receiptHandle("handle" + id).build());
+            }
+            return ReceiveMessageResponse.builder().messages(messages).build();
+        });
+        receiver.setQueueUrlCache("MyQ", "mocked");
+        List<AcknowledgeableMessage> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(1);
+
+        // Act
+        receiver.publisher("MyQ").subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(3);
+            }
+
+            @Override
+            public void onNext(AcknowledgeableMessage message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        Thread.sleep(300);
+        receiver.stop();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        received.forEach(message -> message.complete(ProcessingState.PROCESSED));
+
+        // Assert
+        assertEquals(List.of("message1", "message2", "message3"), received.stream()
+                .map(ReceivedMessageWrapper::getPayload)
+                .toList());
+        assertEquals(List.of(3), requested);
+        ArgumentCaptor<DeleteMessageBatchRequest> deleted = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(mockSqsClient, timeout(1000)).deleteMessageBatch(deleted.capture());
+        assertEquals(3, deleted.getValue().entries().size());
+    }
+
+    /**
+     * Test that closing a receiver releases its reference to the shared SQS clients, once.
+     */
+    @Test
+    void close_releasesSharedClients() {
+        // Arrange
+        SqsClientRegistry registry = SqsClientRegistry.getDefault();
+        int references = registry.getReferences("eu-central-1", null);
+
+        // Act
+        receiver.close();
+        receiver.close();
+
+        // Assert
+        assertEquals(references - 1, registry.getReferences("eu-central-1", null));
+    }
+}
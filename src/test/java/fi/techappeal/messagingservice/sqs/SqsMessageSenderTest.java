@@ -1,17 +1,40 @@
 package fi.techappeal.messagingservice.sqs;
 
+import fi.techappeal.messagingservice.ReceivedMessageWrapper;
+import fi.techappeal.messagingservice.RetryPolicy;
+import fi.techappeal.messagingservice.SendMessageResult;
 import fi.techappeal.messagingservice.SendMessageWrapper;
 import fi.techappeal.messagingservice.SqsMessagingIT;
+import fi.techappeal.messagingservice.claimcheck.ClaimCheck;
+import fi.techappeal.messagingservice.claimcheck.PayloadStore;
+import fi.techappeal.messagingservice.codec.DeflateCodec;
+import fi.techappeal.messagingservice.codec.PayloadCompression;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
 import fi.techappeal.messagingservice.exceptions.NoSuchQueueException;
 import fi.techappeal.messagingservice.exceptions.RateLimitException;
 import fi.techappeal.messagingservice.exceptions.ApiTimeoutException;
+import fi.techappeal.messagingservice.metrics.DefaultMessagingMetrics;
+import fi.techappeal.messagingservice.metrics.QueueMetricsSnapshot;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -26,12 +49,15 @@ import static org.mockito.Mockito.when;
 class SqsMessageSenderTest {
     private SqsMessageSender sender;
     private SqsClient mockSqsClient;
+    private SqsAsyncClient mockSqsAsyncClient;
 
     @BeforeEach
     void setUp() {
         mockSqsClient = mock(SqsClient.class);
+        mockSqsAsyncClient = mock(SqsAsyncClient.class);
         sender = new SqsMessageSender();
         sender.setSqsClient(mockSqsClient);
+        sender.setSqsAsyncClient(mockSqsAsyncClient);
     }
 
     /**
@@ -97,6 +123,35 @@ class SqsMessageSenderTest {
         assertThrows(NoSuchQueueException.class, () -> sender.sendMessage(queueName, message));
     }
 
+    /**
+     * Test that warming up resolves and caches the url of each queue with both clients, and reports a missing
+     * queue.
+     */
+    @Test
+    void warmUp_resolvesQueueUrls() {
+        // Arrange
+        when(mockSqsClient.getQueueUrl(any(GetQueueUrlRequest.class))).thenAnswer(invocation -> {
+            String queueName = invocation.<GetQueueUrlRequest>getArgument(0).queueName();
+            if (queueName.equals("Missing")) {
+                throw QueueDoesNotExistException.builder().message("Queue does not exist").build();
+            }
+            return GetQueueUrlResponse.builder().queueUrl("https://sqs/" + queueName).build();
+        });
+        when(mockSqsAsyncClient.getQueueUrl(any(GetQueueUrlRequest.class))).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(GetQueueUrlResponse.builder()
+                        .queueUrl("https://sqs/" + invocation.<GetQueueUrlRequest>getArgument(0).queueName()).build()));
+
+        // Act
+        sender.warmUp(List.of("Q1", "Q2"));
+
+        // Assert
+        assertEquals("https://sqs/Q1", sender.getQueueUrlForQueue("Q1"));
+        assertEquals("https://sqs/Q2", sender.getQueueUrlForQueue("Q2"));
+        verify(mockSqsClient, times(2)).getQueueUrl(any(GetQueueUrlRequest.class));
+        verify(mockSqsAsyncClient, times(2)).getQueueUrl(any(GetQueueUrlRequest.class));
+        assertThrows(NoSuchQueueException.class, () -> sender.warmUp(List.of("Q1", "Missing")));
+    }
+
     /**
      * Test that SQS specific SdkClientException is mapped to a generic ApimTimeoutException.
      */
@@ -112,4 +167,584 @@ class SqsMessageSenderTest {
         // Act and Assert
         assertThrows(ApiTimeoutException.class, () -> sender.sendMessage(queueName, message));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that a list of messages is split into batches of at most 10 entries.
+     */
+    @Test
+    void sendMessages_splitsIntoBatchesOfTen() {
+        // Arrange
+        List<SendMessageWrapper> messages = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            messages.add(new SendMessageWrapper.Builder().payload("message" + i).attribute("attr1", "value1").build());
+        }
+        ArgumentCaptor<SendMessageBatchRequest> captor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            SendMessageBatchRequest request = invocation.getArgument(0);
+            return SendMessageBatchResponse.builder()
+                    .successful(request.entries().stream()
+                            .map(entry -> SendMessageBatchResultEntry.builder()
+                                    .id(entry.id())
+                                    .messageId("id-" + entry.messageBody())
+                                    .build())
+                            .toList())
+                    .build();
+        });
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+
+        // Act
+        List<SendMessageResult> results = sender.sendMessages("MyQ", messages);
+
+        // Assert
+        verify(mockSqsClient, times(3)).sendMessageBatch(captor.capture());
+        assertEquals(10, captor.getAllValues().get(0).entries().size());
+        assertEquals(10, captor.getAllValues().get(1).entries().size());
+        assertEquals(5, captor.getAllValues().get(2).entries().size());
+        assertEquals("value1", captor.getAllValues().get(0).entries().get(0).messageAttributes().get("attr1").stringValue());
+        assertEquals(25, results.size());
+        for (int i = 0; i < 25; i++) {
+            assertTrue(results.get(i).isSuccessful());
+            assertEquals("id-message" + i, results.get(i).getMessageId());
+            assertSame(messages.get(i), results.get(i).getMessage());
+        }
+    }
+
+    /**
+     * Test that batches are split before they exceed the 256 KB request size limit.
+     */
+    @Test
+    void sendMessages_splitsBySize() {
+        // Arrange
+        String payload = "x".repeat(100 * 1024);
+        List<SendMessageWrapper> messages = List.of(
+                new SendMessageWrapper.Builder().payload(payload).build(),
+                new SendMessageWrapper.Builder().payload(payload).build(),
+                new SendMessageWrapper.Builder().payload(payload).build()
+        );
+        ArgumentCaptor<SendMessageBatchRequest> captor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenReturn(SendMessageBatchResponse.builder().build());
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+
+        // Act
+        sender.sendMessages("MyQ", messages);
+
+        // Assert
+        verify(mockSqsClient, times(2)).sendMessageBatch(captor.capture());
+        assertEquals(2, captor.getAllValues().get(0).entries().size());
+        assertEquals(1, captor.getAllValues().get(1).entries().size());
+    }
+
+    /**
+     * Test that failed batch entries are mapped to cloud-agnostic exceptions.
+     */
+    @Test
+    void sendMessages_failedEntriesAreMapped() {
+        // Arrange
+        List<SendMessageWrapper> messages = List.of(
+                new SendMessageWrapper.Builder().payload("message1").build(),
+                new SendMessageWrapper.Builder().payload("message2").build()
+        );
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenReturn(
+                SendMessageBatchResponse.builder()
+                        .successful(SendMessageBatchResultEntry.builder().id("0").messageId("123").build())
+                        .failed(BatchResultErrorEntry.builder().id("1").code("RequestThrottled").senderFault(false).build())
+                        .build());
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+
+        // Act
+        List<SendMessageResult> results = sender.sendMessages("MyQ", messages);
+
+        // Assert
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals("123", results.get(0).getMessageId());
+        assertFalse(results.get(1).isSuccessful());
+        assertInstanceOf(RateLimitException.class, results.get(1).getException());
+    }
+
+    /**
+     * Test that a failed batch request fails every entry of the batch with the mapped exception.
+     */
+    @Test
+    void sendMessages_failedRequestIsMapped() {
+        // Arrange
+        List<SendMessageWrapper> messages = List.of(
+                new SendMessageWrapper.Builder().payload("message1").build(),
+                new SendMessageWrapper.Builder().payload("message2").build()
+        );
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenThrow(QueueDoesNotExistException.builder().message("Queue does not exist").build());
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+
+        // Act
+        List<SendMessageResult> results = sender.sendMessages("MyQ", messages);
+
+        // Assert
+        assertInstanceOf(NoSuchQueueException.class, results.get(0).getException());
+        assertInstanceOf(NoSuchQueueException.class, results.get(1).getException());
+    }
+
+    /**
+     * Test that an asynchronously sent message is mapped to a SQS specific request and completes with the message id.
+     */
+    @Test
+    void sendMessageAsync_completesWithMessageId() throws Exception {
+        // Arrange
+        SendMessageWrapper message = new SendMessageWrapper.Builder()
+                .payload("Hello, world!")
+                .attribute("attr1", "value1")
+                .build();
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(SendMessageResponse.builder().messageId("123").build()));
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsAsyncClient.getQueueUrl
+
+        // Act
+        String messageId = sender.sendMessageAsync("MyQ", message).get(1, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals("123", messageId);
+        verify(mockSqsAsyncClient).sendMessage(captor.capture());
+        assertEquals("mocked", captor.getValue().queueUrl());
+        assertEquals("Hello, world!", captor.getValue().messageBody());
+        assertEquals("value1", captor.getValue().messageAttributes().get("attr1").stringValue());
+    }
+
+    /**
+     * Test that the queue url is resolved asynchronously when it is not cached, and that the request is recorded in
+     * the metrics.
+     */
+    @Test
+    void sendMessageAsync_resolvesQueueUrl() throws Exception {
+        // Arrange
+        when(mockSqsAsyncClient.getQueueUrl(any(GetQueueUrlRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(GetQueueUrlResponse.builder().queueUrl("resolved").build()));
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(SendMessageResponse.builder().messageId("123").build()));
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        DefaultMessagingMetrics metrics = new DefaultMessagingMetrics();
+        sender.setMetrics(metrics);
+
+        // Act
+        sender.sendMessageAsync("MyQ", new SendMessageWrapper.Builder().payload("Hello, world!").build())
+                .get(1, TimeUnit.SECONDS);
+
+        // Assert
+        verify(mockSqsAsyncClient).sendMessage(captor.capture());
+        assertEquals("resolved", captor.getValue().queueUrl());
+        assertEquals(1, metrics.snapshot().get("MyQ").apiLatency().get("GetQueueUrl").count());
+    }
+
+    /**
+     * Test that a failure to resolve the queue url asynchronously is recorded in the metrics.
+     */
+    @Test
+    void sendMessageAsync_failedQueueUrlIsRecorded() {
+        // Arrange
+        when(mockSqsAsyncClient.getQueueUrl(any(GetQueueUrlRequest.class))).thenReturn(CompletableFuture.failedFuture(
+                QueueDoesNotExistException.builder().message("Queue does not exist").build()));
+        DefaultMessagingMetrics metrics = new DefaultMessagingMetrics();
+        sender.setMetrics(metrics);
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("Hello, world!").build();
+
+        // Act
+        CompletableFuture<String> result = sender.sendMessageAsync("Missing", message);
+
+        // Assert
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(NoSuchQueueException.class, e.getCause());
+        QueueMetricsSnapshot snapshot = metrics.snapshot().get("Missing");
+        assertEquals(1, snapshot.apiLatency().get("GetQueueUrl").count());
+        assertEquals(Map.of(NoSuchQueueException.class.getName(), 1L), snapshot.errors());
+        assertNull(snapshot.apiLatency().get("SendMessage"));
+    }
+
+    /**
+     * Test that SQS specific exceptions of an asynchronous send are mapped to generic exceptions.
+     */
+    @Test
+    void sendMessageAsync_RateExceeded() {
+        // Arrange
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(OverLimitException.builder().message("Over limit").build()));
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("Hello, world!").build();
+        sender.setQueueUrlCache("MyQ", "ignore"); // Set queue URL to avoid mocking SqsAsyncClient.getQueueUrl
+
+        // Act
+        CompletableFuture<String> future = sender.sendMessageAsync("MyQ", message);
+
+        // Assert
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RateLimitException.class, e.getCause());
+    }
+
+    /**
+     * Test that throttling by SQS lowers the client-side rate limit and that a send over the limit fails
+     * without a request.
+     */
+    @Test
+    void sendMessage_throttlingLowersRateLimit() {
+        // Arrange
+        when(mockSqsClient.sendMessage(any(SendMessageRequest.class)))
+                .thenThrow(OverLimitException.builder().message("Over limit").build());
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        sender.setRateLimit(10, Duration.ZERO);
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("message").build();
+
+        // Act
+        assertThrows(RateLimitException.class, () -> sender.sendMessage("MyQ", message));
+        assertThrows(RateLimitException.class, () -> sender.sendMessage("MyQ", message));
+
+        // Assert
+        assertEquals(5, sender.getRateLimiter().getRate("MyQ"));
+        verify(mockSqsClient, times(1)).sendMessage(any(SendMessageRequest.class));
+    }
+
+    /**
+     * Test that a send failed by a network error is retried with the same deduplication id, and that a send to a
+     * missing queue is not retried.
+     */
+    @Test
+    void sendMessage_retriesTransientFailures() {
+        // Arrange
+        when(mockSqsClient.sendMessage(any(SendMessageRequest.class)))
+                .thenThrow(SdkClientException.create("Connection reset"))
+                .thenReturn(SendMessageResponse.builder().messageId("123").build())
+                .thenThrow(QueueDoesNotExistException.builder().message("No queue").build());
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        sender.setQueueUrlCache("MyQ.fifo", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        sender.setRetryPolicy(new RetryPolicy.Builder().backoff(Duration.ZERO, Duration.ofMillis(1)).build());
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("message").partitionKey("key").build();
+
+        // Act
+        sender.sendMessage("MyQ.fifo", message);
+        assertThrows(NoSuchQueueException.class, () -> sender.sendMessage("MyQ.fifo", message));
+
+        // Assert
+        verify(mockSqsClient, times(3)).sendMessage(captor.capture());
+        List<SendMessageRequest> requests = captor.getAllValues();
+        assertNotNull(requests.get(0).messageDeduplicationId());
+        assertEquals(requests.get(0).messageDeduplicationId(), requests.get(1).messageDeduplicationId());
+        assertNotEquals(requests.get(1).messageDeduplicationId(), requests.get(2).messageDeduplicationId());
+    }
+
+    /**
+     * Test that a send to a FIFO queue that takes longer than the hedge percentile is sent again, and that the
+     * result of the hedged attempt is used.
+     */
+    @Test
+    void sendMessageAsync_hedgesSlowSend() throws Exception {
+        // Arrange
+        sender.setQueueUrlCache("MyQ.fifo", "mocked"); // Set queue URL to avoid mocking SqsAsyncClient.getQueueUrl
+        sender.setRetryPolicy(new RetryPolicy.Builder().hedgeAfterPercentile(99).build());
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("message").partitionKey("key").build();
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(SendMessageResponse.builder().messageId("fast").build()));
+        for (int i = 0; i < SqsRetrier.MIN_HEDGE_SAMPLES; i++) {
+            sender.sendMessageAsync("MyQ.fifo", message).get(1, TimeUnit.SECONDS);
+        }
+        Thread.sleep(150); // Let the hedge delay be computed from the latencies
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        reset(mockSqsAsyncClient);
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
+                .thenReturn(new CompletableFuture<>()) // never returns
+                .thenReturn(CompletableFuture.completedFuture(SendMessageResponse.builder().messageId("hedged").build()));
+
+        // Act
+        String messageId = sender.sendMessageAsync("MyQ.fifo", message).get(1, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals("hedged", messageId);
+        verify(mockSqsAsyncClient, times(2)).sendMessage(captor.capture());
+        assertEquals(captor.getAllValues().get(0).messageDeduplicationId(),
+                captor.getAllValues().get(1).messageDeduplicationId());
+    }
+
+    /**
+     * Test that sends to standard queues are not hedged, as SQS would not deduplicate the attempts.
+     */
+    @Test
+    void sendMessageAsync_standardQueueIsNotHedged() throws Exception {
+        // Arrange
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsAsyncClient.getQueueUrl
+        sender.setRetryPolicy(new RetryPolicy.Builder().hedgeAfterPercentile(99).build());
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("message").build();
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(SendMessageResponse.builder().messageId("fast").build()));
+        for (int i = 0; i < SqsRetrier.MIN_HEDGE_SAMPLES; i++) {
+            sender.sendMessageAsync("MyQ", message).get(1, TimeUnit.SECONDS);
+        }
+        Thread.sleep(150); // Let the hedge delay be computed from the latencies
+        reset(mockSqsAsyncClient);
+        when(mockSqsAsyncClient.sendMessage(any(SendMessageRequest.class))).thenReturn(new CompletableFuture<>());
+
+        // Act
+        CompletableFuture<String> future = sender.sendMessageAsync("MyQ", message);
+        Thread.sleep(100);
+
+        // Assert
+        assertFalse(future.isDone());
+        verify(mockSqsAsyncClient, times(1)).sendMessage(any(SendMessageRequest.class));
+        assertNull(captureRequest().messageDeduplicationId());
+    }
+
+    private SendMessageRequest captureRequest() {
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(mockSqsAsyncClient).sendMessage(captor.capture());
+        return captor.getValue();
+    }
+
+    /**
+     * Test that a payload above the compression threshold is sent compressed and that the receiver restores it.
+     */
+    @Test
+    void sendMessage_compressesLargePayload() {
+        // Arrange
+        String payload = "{\"event\":\"order-created\"}".repeat(1000);
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload(payload).attribute("attr1", "value1")
+                .build();
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        sender.setCompression(new DeflateCodec(), 1024);
+
+        // Act
+        sender.sendMessage("MyQ", message);
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload("small").build());
+
+        // Assert
+        verify(mockSqsClient, times(2)).sendMessage(captor.capture());
+        SendMessageRequest request = captor.getAllValues().get(0);
+        assertTrue(request.messageBody().length() < payload.length() / 10);
+        Message received = Message.builder()
+                .body(request.messageBody())
+                .messageAttributes(request.messageAttributes())
+                .build();
+        ReceivedMessageWrapper wrapper = new SqsMessageReceiver().createMessageWrapper(received);
+        assertEquals(payload, wrapper.getPayload());
+        assertEquals(Map.of("attr1", "value1"), wrapper.getAttributes());
+        assertEquals("small", captor.getAllValues().get(1).messageBody());
+        assertTrue(captor.getAllValues().get(1).messageAttributes().isEmpty());
+    }
+
+    /**
+     * Test that a binary payload and binary attributes are sent as Binary attributes without copying the bytes,
+     * and that the receiver exposes them as read-only views.
+     */
+    @Test
+    void sendMessage_binaryPayload() {
+        // Arrange
+        byte[] payload = {0, 1, 2, (byte) 0xff};
+        SendMessageWrapper message = new SendMessageWrapper.Builder()
+                .binaryPayload(payload)
+                .binaryAttribute("schema", ByteBuffer.wrap(new byte[]{42}))
+                .attribute("attr1", "value1")
+                .build();
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+
+        // Act
+        sender.sendMessage("MyQ", message);
+
+        // Assert
+        verify(mockSqsClient).sendMessage(captor.capture());
+        SendMessageRequest request = captor.getValue();
+        MessageAttributeValue binaryPayload = request.messageAttributes().get(SqsMessageSender.BINARY_PAYLOAD_ATTRIBUTE);
+        assertEquals("Binary", binaryPayload.dataType());
+        assertSame(payload, binaryPayload.binaryValue().asByteArrayUnsafe());
+        ReceivedMessageWrapper wrapper = new SqsMessageReceiver().createMessageWrapper(Message.builder()
+                .body(request.messageBody())
+                .messageAttributes(request.messageAttributes())
+                .build());
+        assertNull(wrapper.getPayload());
+        assertTrue(wrapper.getBinaryPayload().isReadOnly());
+        assertEquals(ByteBuffer.wrap(payload), wrapper.getBinaryPayload());
+        assertEquals(ByteBuffer.wrap(new byte[]{42}), wrapper.getBinaryAttributes().get("schema"));
+        assertEquals(Map.of("attr1", "value1"), wrapper.getAttributes());
+    }
+
+    /**
+     * Test that a compressible payload over the payload store threshold is compressed instead of offloaded, and
+     * that a payload still over the threshold after compression is offloaded compressed.
+     */
+    @Test
+    void sendMessage_compressesBeforeOffloading() {
+        // Arrange
+        PayloadStore store = mock(PayloadStore.class);
+        when(store.getName()).thenReturn("mock");
+        when(store.store(any())).thenReturn("reference");
+        String compressible = "{\"event\":\"order-created\"}".repeat(12_000);
+        StringBuilder random = new StringBuilder();
+        Random generator = new Random(42);
+        while (random.length() < 300_000) {
+            random.append(Long.toString(generator.nextLong(), 36));
+        }
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        sender.setCompression(new DeflateCodec(), 1024);
+        sender.setPayloadStore(store, SqsMessageSender.MAX_MESSAGE_BYTES);
+
+        // Act
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload(compressible).build());
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().payload(random.toString()).build());
+
+        // Assert
+        verify(mockSqsClient, times(2)).sendMessage(captor.capture());
+        assertFalse(captor.getAllValues().get(0).messageAttributes().containsKey(ClaimCheck.STORE_ATTRIBUTE));
+        assertTrue(captor.getAllValues().get(0).messageAttributes()
+                .containsKey(PayloadCompression.ENCODING_ATTRIBUTE));
+        assertEquals("reference", captor.getAllValues().get(1).messageBody());
+        verify(store, times(1)).store(any());
+    }
+
+    /**
+     * Test that the offloaded payload of a message that could not be sent is deleted from the payload store, for
+     * single sends and for failed batch entries.
+     */
+    @Test
+    void sendMessage_failedSendDeletesOffloadedPayload() {
+        // Arrange
+        PayloadStore store = mock(PayloadStore.class);
+        when(store.getName()).thenReturn("mock");
+        when(store.store(any())).thenReturn("reference1", "reference2");
+        when(mockSqsClient.sendMessage(any(SendMessageRequest.class)))
+                .thenThrow(SqsException.builder().message("Internal error").statusCode(500).build());
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenReturn(SendMessageBatchResponse.builder()
+                        .failed(BatchResultErrorEntry.builder().id("0").code("InternalError").senderFault(false)
+                                .build())
+                        .build());
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        sender.setPayloadStore(store, 10);
+        SendMessageWrapper message = new SendMessageWrapper.Builder().payload("payload over the threshold").build();
+
+        // Act
+        assertThrows(MessagingException.class, () -> sender.sendMessage("MyQ", message));
+        List<SendMessageResult> results = sender.sendMessages("MyQ", List.of(message));
+
+        // Assert
+        assertFalse(results.get(0).isSuccessful());
+        verify(store).delete("reference1");
+        verify(store).delete("reference2");
+    }
+
+    /**
+     * Test that messages with attributes in the reserved namespace are rejected before anything is sent.
+     */
+    @Test
+    void sendMessage_rejectsReservedAttributes() {
+        // Arrange
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        SendMessageWrapper text = new SendMessageWrapper.Builder().payload("payload")
+                .attribute(PayloadCompression.ENCODING_ATTRIBUTE, "deflate").build();
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> sender.sendMessage("MyQ", text));
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> sender.sendMessageAsync("MyQ", text).get());
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        verifyNoInteractions(mockSqsClient);
+    }
+
+    /**
+     * Test that a batch message with a reserved attribute, or whose payload cannot be offloaded, fails in its own
+     * result while the other messages are sent, and that no offloaded payload is left behind.
+     */
+    @Test
+    void sendMessages_failsOnlyInvalidEntries() {
+        // Arrange
+        PayloadStore store = mock(PayloadStore.class);
+        when(store.getName()).thenReturn("mock");
+        when(store.store(any())).thenReturn("reference1")
+                .thenThrow(new MessagingException("Store is full", null));
+        when(mockSqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenReturn(
+                SendMessageBatchResponse.builder()
+                        .successful(SendMessageBatchResultEntry.builder().id("0").messageId("1").build(),
+                                SendMessageBatchResultEntry.builder().id("1").messageId("2").build())
+                        .build());
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        sender.setPayloadStore(store, 20);
+        List<SendMessageWrapper> messages = List.of(
+                new SendMessageWrapper.Builder().payload("large payload over the threshold").build(),
+                new SendMessageWrapper.Builder().payload("payload")
+                        .binaryAttribute(SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "key",
+                                ByteBuffer.wrap(new byte[]{1}))
+                        .build(),
+                new SendMessageWrapper.Builder().payload("another payload over the threshold").build(),
+                new SendMessageWrapper.Builder().payload("small").build());
+
+        // Act
+        List<SendMessageResult> results = sender.sendMessages("MyQ", messages);
+
+        // Assert
+        assertEquals("1", results.get(0).getMessageId());
+        assertInstanceOf(IllegalArgumentException.class, results.get(1).getException().getCause());
+        assertEquals("Store is full", results.get(2).getException().getMessage());
+        assertEquals("2", results.get(3).getMessageId());
+        ArgumentCaptor<SendMessageBatchRequest> captor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(mockSqsClient).sendMessageBatch(captor.capture());
+        assertEquals(List.of("reference1", "small"), captor.getValue().entries().stream()
+                .map(SendMessageBatchRequestEntry::messageBody).toList());
+        verify(store, never()).delete(any());
+    }
+
+    /**
+     * Test that binary payloads, e.g. typed payloads, are compressed and offloaded like text payloads, and that the
+     * receiver restores the original bytes.
+     */
+    @Test
+    void sendMessage_compressesAndOffloadsBinaryPayloads() {
+        // Arrange
+        Map<String, String> stored = new HashMap<>();
+        PayloadStore store = new PayloadStore() {
+            @Override
+            public String getName() {
+                return "map";
+            }
+
+            @Override
+            public String store(String payload) {
+                String reference = "ref-" + stored.size();
+                stored.put(reference, payload);
+                return reference;
+            }
+
+            @Override
+            public String load(String reference) {
+                return stored.get(reference);
+            }
+
+            @Override
+            public void delete(String reference) {
+                stored.remove(reference);
+            }
+        };
+        byte[] compressible = new byte[300_000];
+        byte[] random = new byte[300_000];
+        new Random(42).nextBytes(random);
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        sender.setQueueUrlCache("MyQ", "mocked"); // Set queue URL to avoid mocking SqsClient.getQueueUrl
+        DeflateCodec codec = new DeflateCodec();
+        sender.setCompression(codec, 1024);
+        sender.setPayloadStore(store, SqsMessageSender.MAX_MESSAGE_BYTES);
+
+        // Act
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().binaryPayload(compressible).build());
+        sender.sendMessage("MyQ", new SendMessageWrapper.Builder().binaryPayload(random).build());
+
+        // Assert
+        verify(mockSqsClient, times(2)).sendMessage(captor.capture());
+        List<ByteBuffer> received = new ArrayList<>();
+        for (SendMessageRequest request : captor.getAllValues()) {
+            Message message = Message.builder().messageId("id").body(request.messageBody())
+                    .messageAttributes(request.messageAttributes()).build();
+            received.add(new SqsReceivedMessage(message, Map.of(codec.getName(), codec), store).getBinaryPayload());
+        }
+        assertTrue(captor.getAllValues().get(0).messageAttributes()
+                .containsKey(PayloadCompression.ENCODING_ATTRIBUTE));
+        assertFalse(captor.getAllValues().get(0).messageAttributes().containsKey(ClaimCheck.STORE_ATTRIBUTE));
+        assertTrue(captor.getAllValues().get(1).messageAttributes().containsKey(ClaimCheck.STORE_ATTRIBUTE));
+        assertEquals(1, stored.size());
+        assertEquals(ByteBuffer.wrap(compressible), received.get(0));
+        assertEquals(ByteBuffer.wrap(random), received.get(1));
+    }
+}
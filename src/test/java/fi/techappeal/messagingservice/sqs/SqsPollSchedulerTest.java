@@ -0,0 +1,92 @@
+package fi.techappeal.messagingservice.sqs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqsPollSchedulerTest {
+
+    /**
+     * Test that queues with messages are received from in proportion to their weights.
+     */
+    @Test
+    void next_followsWeights() throws Exception {
+        // Arrange
+        Map<String, Integer> weights = Map.of("A", 3, "B", 1);
+        SqsPollScheduler<String> scheduler = new SqsPollScheduler<>(List.of("A", "B"), weights::get, 20, 60);
+        List<String> order = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 8; i++) {
+            SqsPollScheduler.Poll<String> poll = scheduler.next(0);
+            order.add(poll.queue());
+            scheduler.completed(poll.queue(), 10, 1);
+        }
+
+        // Assert
+        assertEquals(6, order.stream().filter("A"::equals).count());
+        assertEquals(2, order.stream().filter("B"::equals).count());
+    }
+
+    /**
+     * Test that an empty receive delays the next receive from the queue with a doubling delay, and that the other
+     * queue is polled until the idle queue is due.
+     */
+    @Test
+    void completed_idleQueueIsDelayed() throws Exception {
+        // Arrange
+        AtomicLong now = new AtomicLong();
+        SqsPollScheduler<String> scheduler = new SqsPollScheduler<>(List.of("A", "B"), queue -> 1, 20, 60,
+                now::get);
+
+        // Act
+        SqsPollScheduler.Poll<String> first = scheduler.next(0);
+        scheduler.completed(first.queue(), 0, 1);
+        SqsPollScheduler.Poll<String> second = scheduler.next(0);
+        scheduler.completed(second.queue(), 0, 1);
+        SqsPollScheduler.Poll<String> none = scheduler.next(0);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        SqsPollScheduler.Poll<String> third = scheduler.next(0);
+        scheduler.completed(third.queue(), 0, 1);
+        SqsPollScheduler.Poll<String> fourth = scheduler.next(0);
+        scheduler.completed(fourth.queue(), 0, 1);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        SqsPollScheduler.Poll<String> tooEarly = scheduler.next(0);
+
+        // Assert
+        assertEquals(0, first.waitTimeSeconds()); // the other queue is due
+        assertNotEquals(first.queue(), second.queue());
+        assertEquals(1, second.waitTimeSeconds()); // back when the idle queue is due
+        assertNull(none); // both queues are idle
+        assertNotNull(third);
+        assertNotEquals(third.queue(), fourth.queue());
+        assertNull(tooEarly); // the delays doubled to 2 s
+    }
+
+    /**
+     * Test that a single queue is always received from with the full wait time.
+     */
+    @Test
+    void next_singleQueueIsNeverIdle() throws Exception {
+        // Arrange
+        SqsPollScheduler<String> scheduler = new SqsPollScheduler<>(List.of("A"), queue -> 1, 20, 60);
+
+        // Act
+        SqsPollScheduler.Poll<String> first = scheduler.next(0);
+        SqsPollScheduler.Poll<String> concurrent = scheduler.next(0);
+        scheduler.completed("A", 0, 2);
+        SqsPollScheduler.Poll<String> afterEmpty = scheduler.next(0);
+
+        // Assert
+        assertEquals(20, first.waitTimeSeconds());
+        assertEquals("A", concurrent.queue());
+        assertEquals("A", afterEmpty.queue());
+        assertEquals(20, afterEmpty.waitTimeSeconds());
+    }
+}
@@ -0,0 +1,100 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqsRateLimiterTest {
+
+    /**
+     * Test that requests beyond the burst are rejected when the limiter does not wait.
+     */
+    @Test
+    void reserve_rejectsWithoutWaiting() {
+        // Arrange
+        SqsRateLimiter limiter = new SqsRateLimiter(10, 100, 0);
+
+        // Act
+        limiter.reserve("MyQ");
+
+        // Assert
+        assertThrows(RateLimitException.class, () -> limiter.reserve("MyQ"));
+        assertEquals(0, new SqsRateLimiter(10, 100, 0).reserve("OtherQ"));
+    }
+
+    /**
+     * Test that a request waits for its token up to the maximum wait.
+     */
+    @Test
+    void reserve_waitsForToken() {
+        // Arrange
+        SqsRateLimiter limiter = new SqsRateLimiter(10, 100, TimeUnit.SECONDS.toNanos(1));
+        limiter.reserve("MyQ");
+
+        // Act
+        long waitNanos = limiter.reserve("MyQ");
+
+        // Assert
+        assertTrue(waitNanos > TimeUnit.MILLISECONDS.toNanos(50) && waitNanos <= TimeUnit.MILLISECONDS.toNanos(100),
+                "wait " + waitNanos);
+    }
+
+    /**
+     * Test that the rate is halved on throttling, at most once per interval, and grows back with successes.
+     */
+    @Test
+    void rate_increasesAdditivelyAndDecreasesMultiplicatively() {
+        // Arrange
+        SqsRateLimiter limiter = new SqsRateLimiter(100, 1000, 0);
+
+        // Act and Assert
+        limiter.throttled("MyQ");
+        limiter.throttled("MyQ");
+        assertEquals(50, limiter.getRate("MyQ"));
+        for (int i = 0; i < 50; i++) {
+            limiter.succeeded("MyQ");
+        }
+        assertEquals(60, limiter.getRate("MyQ"), 1);
+    }
+
+    /**
+     * Test that the rate does not grow beyond the maximum rate.
+     */
+    @Test
+    void rate_isCappedAtMaximum() {
+        // Arrange
+        SqsRateLimiter limiter = new SqsRateLimiter(10, 12, 0);
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            limiter.succeeded("MyQ");
+        }
+
+        // Assert
+        assertEquals(12, limiter.getRate("MyQ"));
+    }
+
+    /**
+     * Test that waiting for a token ends with a MessagingException when the thread is interrupted, with the
+     * interrupt flag kept.
+     */
+    @Test
+    void acquire_throwsWhenInterrupted() {
+        // Arrange
+        SqsRateLimiter limiter = new SqsRateLimiter(1, 1, TimeUnit.SECONDS.toNanos(10));
+        limiter.acquire("MyQ"); // takes the only token, so the next acquire waits a second
+
+        // Act
+        Thread.currentThread().interrupt();
+        long start = System.nanoTime();
+        assertThrows(MessagingException.class, () -> limiter.acquire("MyQ"));
+
+        // Assert
+        assertTrue(Thread.interrupted());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}
@@ -0,0 +1,166 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.DeadLetter;
+import fi.techappeal.messagingservice.SendMessageWrapper;
+import fi.techappeal.messagingservice.codec.DeflateCodec;
+import fi.techappeal.messagingservice.codec.PayloadCodec;
+import fi.techappeal.messagingservice.codec.PayloadCompression;
+import fi.techappeal.messagingservice.exceptions.MessagingException;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqsReceivedMessageTest {
+
+    /**
+     * Test that the wrapper reads the id, payload, attributes and FIFO attributes from the SQS message.
+     */
+    @Test
+    void wrapper_readsSqsMessage() {
+        // Arrange
+        Message message = Message.builder()
+                .messageId("123")
+                .body("payload")
+                .messageAttributes(Map.of(
+                        "attr1", MessageAttributeValue.builder().dataType("String").stringValue("value1").build(),
+                        "bin1", MessageAttributeValue.builder().dataType("Binary")
+                                .binaryValue(SdkBytes.fromByteArray(new byte[]{1, 2})).build()))
+                .attributes(Map.of(MessageSystemAttributeName.MESSAGE_GROUP_ID, "group",
+                        MessageSystemAttributeName.SEQUENCE_NUMBER, "42"))
+                .build();
+
+        // Act
+        SqsReceivedMessage wrapper = new SqsReceivedMessage(message, Map.of(), null);
+
+        // Assert
+        assertEquals("123", wrapper.getId());
+        assertEquals("payload", wrapper.getPayload());
+        assertNull(wrapper.getBinaryPayload());
+        assertEquals("value1", wrapper.getAttribute("attr1"));
+        assertNull(wrapper.getAttribute("bin1"));
+        assertEquals(Map.of("attr1", "value1"), wrapper.getAttributes());
+        assertSame(wrapper.getAttributes(), wrapper.getAttributes());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2}), wrapper.getBinaryAttributes().get("bin1"));
+        assertEquals("group", wrapper.getPartitionKey());
+        assertEquals("42", wrapper.getSequenceNumber());
+    }
+
+    /**
+     * Test that a compressed payload is decompressed once, on first access, and that the encoding attribute is
+     * hidden from the handler.
+     */
+    @Test
+    void compressedPayload_isDecompressedOnFirstAccess() {
+        // Arrange
+        AtomicInteger decompressions = new AtomicInteger();
+        DeflateCodec deflate = new DeflateCodec();
+        PayloadCodec codec = new PayloadCodec() {
+            @Override
+            public String getName() {
+                return deflate.getName();
+            }
+
+            @Override
+            public byte[] compress(byte[] data) {
+                return deflate.compress(data);
+            }
+
+            @Override
+            public byte[] decompress(byte[] data) {
+                decompressions.incrementAndGet();
+                return deflate.decompress(data);
+            }
+        };
+        String payload = "compressible ".repeat(200);
+        SendMessageWrapper compressed = PayloadCompression.compress(new SendMessageWrapper.Builder()
+                .payload(payload).build(), codec, 1024);
+        Message message = Message.builder()
+                .messageId("123")
+                .body(compressed.getPayload())
+                .messageAttributes(Map.of(PayloadCompression.ENCODING_ATTRIBUTE,
+                        MessageAttributeValue.builder().dataType("String").stringValue(codec.getName()).build()))
+                .build();
+
+        // Act
+        SqsReceivedMessage wrapper = new SqsReceivedMessage(message, Map.of(codec.getName(), codec), null);
+
+        // Assert
+        assertEquals(0, decompressions.get());
+        assertEquals(payload, wrapper.getPayload());
+        assertEquals(payload, wrapper.getPayload());
+        assertEquals(1, decompressions.get());
+        assertNull(wrapper.getAttribute(PayloadCompression.ENCODING_ATTRIBUTE));
+        assertTrue(wrapper.getAttributes().isEmpty());
+    }
+
+    /**
+     * Test that a message compressed with an unknown codec is rejected when the wrapper is created, before it
+     * reaches the handler.
+     */
+    @Test
+    void unknownEncoding_throws() {
+        // Arrange
+        Message message = Message.builder()
+                .messageId("123")
+                .body("payload")
+                .messageAttributes(Map.of(PayloadCompression.ENCODING_ATTRIBUTE,
+                        MessageAttributeValue.builder().dataType("String").stringValue("zstd").build()))
+                .build();
+
+        // Act & Assert
+        assertThrows(MessagingException.class, () -> new SqsReceivedMessage(message, Map.of(), null));
+    }
+
+    /**
+     * Test that a sender's own attribute named like a control attribute outside the reserved namespace is passed to
+     * the handler as it is.
+     */
+    @Test
+    void userAttribute_outsideReservedNamespaceIsVisible() {
+        // Arrange
+        Message message = Message.builder()
+                .messageId("123")
+                .body("payload")
+                .messageAttributes(Map.of("content-encoding",
+                        MessageAttributeValue.builder().dataType("String").stringValue("gzip").build()))
+                .build();
+
+        // Act
+        SqsReceivedMessage wrapper = new SqsReceivedMessage(message, Map.of(), null);
+
+        // Assert
+        assertEquals("payload", wrapper.getPayload());
+        assertEquals("gzip", wrapper.getAttribute("content-encoding"));
+    }
+
+    /**
+     * Test that the dead letter attributes are visible to the handler although they are in the reserved namespace.
+     */
+    @Test
+    void deadLetterAttributes_areVisible() {
+        // Arrange
+        Message message = Message.builder()
+                .messageId("123")
+                .body("payload")
+                .messageAttributes(Map.of(
+                        DeadLetter.REASON_ATTRIBUTE,
+                        MessageAttributeValue.builder().dataType("String").stringValue("reason").build(),
+                        SendMessageWrapper.RESERVED_ATTRIBUTE_PREFIX + "other",
+                        MessageAttributeValue.builder().dataType("String").stringValue("hidden").build()))
+                .build();
+
+        // Act
+        SqsReceivedMessage wrapper = new SqsReceivedMessage(message, Map.of(), null);
+
+        // Assert
+        assertEquals(Map.of(DeadLetter.REASON_ATTRIBUTE, "reason"), wrapper.getAttributes());
+    }
+}
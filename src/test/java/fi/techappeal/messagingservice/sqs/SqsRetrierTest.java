@@ -0,0 +1,83 @@
+package fi.techappeal.messagingservice.sqs;
+
+import fi.techappeal.messagingservice.RetryPolicy;
+import fi.techappeal.messagingservice.exceptions.NoSuchQueueException;
+import fi.techappeal.messagingservice.exceptions.RateLimitException;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.model.InvalidMessageContentsException;
+import software.amazon.awssdk.services.sqs.model.OverLimitException;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqsRetrierTest {
+
+    /**
+     * Test that failures are classified as retryable by their cloud-agnostic exception and its cause.
+     */
+    @Test
+    void isRetryable_classifiesFailures() {
+        // Arrange
+        SqsException serverError = SqsException.builder().message("Internal error").statusCode(500).build();
+        InvalidMessageContentsException invalid = InvalidMessageContentsException.builder().message("Invalid")
+                .statusCode(400).build();
+        OverLimitException overLimit = OverLimitException.builder().message("Over limit").statusCode(403).build();
+        SqsException throttled = SqsException.builder().message("Rate exceeded").statusCode(429).build();
+
+        // Act & Assert
+        assertTrue(SqsRetrier.isRetryable(SqsExceptionMapper.toCloudAgnosticException(overLimit)));
+        assertTrue(SqsRetrier.isRetryable(SqsExceptionMapper.toCloudAgnosticException(throttled)));
+        assertFalse(SqsRetrier.isRetryable(new RateLimitException("Client-side rate limit exceeded", null)));
+        assertTrue(SqsRetrier.isRetryable(SqsExceptionMapper.toCloudAgnosticException(serverError)));
+        assertTrue(SqsRetrier.isRetryable(SqsExceptionMapper.toCloudAgnosticException(
+                SdkClientException.create("Connection reset"))));
+        assertFalse(SqsRetrier.isRetryable(new NoSuchQueueException("No queue", null)));
+        assertFalse(SqsRetrier.isRetryable(SqsExceptionMapper.toCloudAgnosticException(invalid)));
+    }
+
+    /**
+     * Test that the backoff stays between the base and maximum delay.
+     */
+    @Test
+    void nextDelay_staysWithinBounds() {
+        // Arrange
+        SqsRetrier retrier = new SqsRetrier(new RetryPolicy.Builder()
+                .backoff(Duration.ofMillis(10), Duration.ofMillis(100))
+                .build());
+        long delay = Duration.ofMillis(10).toNanos();
+
+        // Act & Assert
+        for (int i = 0; i < 1000; i++) {
+            delay = retrier.nextDelay(delay);
+            assertTrue(delay >= Duration.ofMillis(10).toNanos() && delay <= Duration.ofMillis(100).toNanos());
+        }
+    }
+
+    /**
+     * Test that no attempt is started after the deadline even if attempts remain.
+     */
+    @Test
+    void call_stopsAtDeadline() {
+        // Arrange
+        SqsRetrier retrier = new SqsRetrier(new RetryPolicy.Builder()
+                .maxAttempts(100)
+                .backoff(Duration.ofMillis(20), Duration.ofMillis(20))
+                .deadline(Duration.ofMillis(50))
+                .build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        // Act
+        assertThrows(RateLimitException.class, () -> retrier.call("MyQ", () -> {
+            attempts.incrementAndGet();
+            throw SqsExceptionMapper.toCloudAgnosticException(OverLimitException.builder().message("Over limit")
+                    .statusCode(403).build());
+        }));
+
+        // Assert
+        assertTrue(attempts.get() >= 2 && attempts.get() <= 3); // 0, 20 and 40 ms, less if a sleep overshoots
+    }
+}